@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fixtures shared by the benchmarks: a SerialReader connected to an
+ * emulated module, and synthetic read populations.
+ */
+class BenchmarkSupport
+{
+  /**
+   * @return a SerialReader connected to a SerialTransportEmulator with
+   * real-time pacing off, region set, so that parsing code which
+   * consults the connection state (model, region, port maps) can run
+   */
+  static SerialReader connectedSerialReader()
+    throws ReaderException
+  {
+    SerialTransportEmulator emu = new SerialTransportEmulator();
+    emu.setRealTime(false);
+    emu.addTags(16);
+    SerialReader reader = new SerialReader(emu);
+    reader.connect();
+    reader.paramSet(TMConstants.TMR_PARAM_REGION_ID, Reader.Region.NA);
+    return reader;
+  }
+
+  /**
+   * A 96-bit EPC whose last four bytes carry the tag number.
+   */
+  static byte[] epc(int tag)
+  {
+    byte[] epc = {0x30, 0x08, 0x33, (byte)0xb2, (byte)0xdd, (byte)0xd9,
+                  0x01, 0x40, 0, 0, 0, 0};
+    epc[8] = (byte)(tag >> 24);
+    epc[9] = (byte)(tag >> 16);
+    epc[10] = (byte)(tag >> 8);
+    epc[11] = (byte)tag;
+    return epc;
+  }
+
+  /**
+   * Reads of a population of tags, each tag seen several times on
+   * one of four antennas, in a shuffled order.
+   *
+   * @param reads the number of reads
+   * @param tags the number of distinct tags
+   * @param reader the reader the reads claim to come from
+   */
+  static List<TagReadData> reads(int reads, int tags, Reader reader)
+  {
+    Random random = new Random(42);
+    List<TagReadData> list = new ArrayList<TagReadData>(reads);
+    for (int i = 0; i < reads; i++)
+    {
+      int tag = random.nextInt(tags);
+      TagReadData t = new TagReadData();
+      t.tag = new Gen2.TagData(epc(tag), new byte[] {0x12, 0x34},
+                               new byte[] {0x30, 0x00});
+      t.readProtocol = TagProtocol.GEN2;
+      t.antenna = 1 + (tag & 3);
+      t.readCount = 1;
+      t.rssi = -40 - random.nextInt(30);
+      t.data = new byte[] {(byte)tag, 0x55};
+      t.reader = reader;
+      list.add(t);
+    }
+    return list;
+  }
+}
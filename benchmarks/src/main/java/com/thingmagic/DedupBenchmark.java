@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * De-duplication of the reads collected by one read() call:
+ * ReaderUtil.removeDuplicates, which builds a new TagReadDeduplicator
+ * for each call, the SerialReader step that runs at the end of
+ * readInternal when filtering is enabled, and a reused
+ * TagReadDeduplicator as the RQL and LLRP readers hold one.
+ * <tt>reads</tt> reads are spread over <tt>tags</tt> distinct tags,
+ * and each uniqueBy combination is measured since it changes what is
+ * hashed and compared.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DedupBenchmark
+{
+  @Param({"1000", "20000"})
+  public int reads;
+
+  @Param({"10", "500", "20000"})
+  public int tags;
+
+  /** uniqueByAntenna, uniqueByData */
+  @Param({"false,false", "true,false", "true,true"})
+  public String uniqueBy;
+
+  SerialReader reader;
+  List<TagReadData> population;
+  List<TagReadData> work;
+  TagReadDeduplicator deduplicator = new TagReadDeduplicator();
+  boolean byAntenna, byData;
+
+  @Setup
+  public void setup()
+    throws ReaderException
+  {
+    reader = BenchmarkSupport.connectedSerialReader();
+    String[] flags = uniqueBy.split(",");
+    byAntenna = Boolean.parseBoolean(flags[0]);
+    byData = Boolean.parseBoolean(flags[1]);
+    reader.paramSet(TMConstants.TMR_PARAM_TAGREADDATA_UNIQUEBYANTENNA, byAntenna);
+    reader.paramSet(TMConstants.TMR_PARAM_TAGREADDATA_UNIQUEBYDATA, byData);
+    population = BenchmarkSupport.reads(reads, tags, reader);
+    work = new ArrayList<TagReadData>(reads);
+  }
+
+  @Setup(Level.Invocation)
+  public void refill()
+  {
+    // Every method replaces the list contents; start each call from
+    // the full set of reads again.
+    work.clear();
+    work.addAll(population);
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    reader.destroy();
+  }
+
+  @Benchmark
+  public List<TagReadData> readerUtilRemoveDuplicates()
+    throws ReaderException
+  {
+    ReaderUtil.removeDuplicates(work, byAntenna, byData, true);
+    return work;
+  }
+
+  @Benchmark
+  public List<TagReadData> serialReaderDeduplication()
+    throws ReaderException
+  {
+    reader.removeDuplicateReads(work);
+    return work;
+  }
+
+  @Benchmark
+  public List<TagReadData> reusedDeduplicator()
+  {
+    deduplicator.removeDuplicates(work, byAntenna, byData, true, true);
+    return work;
+  }
+}
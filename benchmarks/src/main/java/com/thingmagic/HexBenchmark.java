@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hex conversions that run once or more per read: TagData.epcString,
+ * which de-duplication keys are built from, and the ReaderUtil
+ * byte/hex helpers used by the RQL and LLRP parsers. Sizes are a
+ * 96-bit EPC and a 496-bit one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexBenchmark
+{
+  @Param({"12", "62"})
+  public int length;
+
+  byte[] bytes;
+  String hex;
+  TagData tag;
+
+  @Setup
+  public void setup()
+  {
+    bytes = new byte[length];
+    new Random(42).nextBytes(bytes);
+    hex = ReaderUtil.byteArrayToHexString(bytes);
+    tag = new Gen2.TagData(bytes, new byte[] {0x12, 0x34},
+                           new byte[] {0x30, 0x00});
+  }
+
+  @Benchmark
+  public String epcString()
+  {
+    return tag.epcString();
+  }
+
+  @Benchmark
+  public String byteArrayToHexString()
+  {
+    return ReaderUtil.byteArrayToHexString(bytes);
+  }
+
+  @Benchmark
+  public byte[] hexStringToByteArray()
+  {
+    return ReaderUtil.hexStringToByteArray(hex);
+  }
+}
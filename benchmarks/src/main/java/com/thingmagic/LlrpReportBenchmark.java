@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.llrp.ltk.exceptions.InvalidLLRPMessageException;
+import org.llrp.ltk.generated.messages.RO_ACCESS_REPORT;
+import org.llrp.ltk.generated.parameters.AntennaID;
+import org.llrp.ltk.generated.parameters.C1G2_CRC;
+import org.llrp.ltk.generated.parameters.C1G2_PC;
+import org.llrp.ltk.generated.parameters.ChannelIndex;
+import org.llrp.ltk.generated.parameters.EPC_96;
+import org.llrp.ltk.generated.parameters.FrequencyHopTable;
+import org.llrp.ltk.generated.parameters.LastSeenTimestampUTC;
+import org.llrp.ltk.generated.parameters.PeakRSSI;
+import org.llrp.ltk.generated.parameters.ROSpecID;
+import org.llrp.ltk.generated.parameters.TagReportData;
+import org.llrp.ltk.generated.parameters.TagSeenCount;
+import org.llrp.ltk.types.Integer96_HEX;
+import org.llrp.ltk.types.SignedByte;
+import org.llrp.ltk.types.UnsignedByte;
+import org.llrp.ltk.types.UnsignedInteger;
+import org.llrp.ltk.types.UnsignedIntegerArray;
+import org.llrp.ltk.types.UnsignedLong_DATETIME;
+import org.llrp.ltk.types.UnsignedShort;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The LLRP tag report path: decoding an RO_ACCESS_REPORT carrying
+ * <tt>tags</tt> TagReportData parameters from its binary encoding, as
+ * the LTK connection does on arrival, and converting the report to a
+ * batch of TagReadData with TagProcessor.processReport, against doing both
+ * at once with LLRPReportDecoder. No connection is made;
+ * the reader gets the ROSpec and frequency hop table state that
+ * connect() and startReading() would give it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LlrpReportBenchmark
+{
+  @Param({"1", "50"})
+  public int tags;
+
+  LLRPReader reader;
+  LLRPReader.TagProcessor processor;
+  LLRPReportDecoder decoder;
+  List<TagReportData> reports;
+  byte[] encoded;
+
+  @Setup
+  public void setup()
+    throws InvalidLLRPMessageException
+  {
+    reader = new LLRPReader("localhost");
+    reader.continuousReading = true;
+    reader.mapRoSpecIdToProtocol = new HashMap<Integer,TagProtocol>();
+    reader.mapRoSpecIdToProtocol.put(1, TagProtocol.GEN2);
+
+    FrequencyHopTable hopTable = new FrequencyHopTable();
+    hopTable.setHopTableID(new UnsignedByte(1));
+    UnsignedIntegerArray frequencies = new UnsignedIntegerArray();
+    for (int i = 0; i < 50; i++)
+    {
+      frequencies.add(new UnsignedInteger(902750 + 500 * i));
+    }
+    hopTable.setFrequency(frequencies);
+    reader.frequencyHopTableList = new ArrayList<FrequencyHopTable>();
+    reader.frequencyHopTableList.add(hopTable);
+    processor = reader.new TagProcessor(reader);
+    decoder = new LLRPReportDecoder(reader);
+
+    RO_ACCESS_REPORT report = new RO_ACCESS_REPORT();
+    for (int i = 0; i < tags; i++)
+    {
+      report.addToTagReportDataList(tagReport(i));
+    }
+    encoded = report.encodeBinary();
+    reports = new RO_ACCESS_REPORT(encoded).getTagReportDataList();
+  }
+
+  private static TagReportData tagReport(int tag)
+  {
+    TagReportData t = new TagReportData();
+
+    EPC_96 epc = new EPC_96();
+    epc.setEPC(new Integer96_HEX(
+      ReaderUtil.byteArrayToHexString(BenchmarkSupport.epc(tag))));
+    t.setEPCParameter(epc);
+
+    ROSpecID roSpecId = new ROSpecID();
+    roSpecId.setROSpecID(new UnsignedInteger(1));
+    t.setROSpecID(roSpecId);
+
+    AntennaID antenna = new AntennaID();
+    antenna.setAntennaID(new UnsignedShort(1 + (tag & 3)));
+    t.setAntennaID(antenna);
+
+    PeakRSSI rssi = new PeakRSSI();
+    rssi.setPeakRSSI(new SignedByte(-58));
+    t.setPeakRSSI(rssi);
+
+    ChannelIndex channel = new ChannelIndex();
+    channel.setChannelIndex(new UnsignedShort(1 + tag % 50));
+    t.setChannelIndex(channel);
+
+    LastSeenTimestampUTC lastSeen = new LastSeenTimestampUTC();
+    lastSeen.setMicroseconds(new UnsignedLong_DATETIME(1350000000000000L + tag));
+    t.setLastSeenTimestampUTC(lastSeen);
+
+    TagSeenCount count = new TagSeenCount();
+    count.setTagCount(new UnsignedShort(3));
+    t.setTagSeenCount(count);
+
+    C1G2_PC pc = new C1G2_PC();
+    pc.setPC_Bits(new UnsignedShort(0x3000));
+    t.addToAirProtocolTagDataList(pc);
+    C1G2_CRC crc = new C1G2_CRC();
+    crc.setCRC(new UnsignedShort(0x1234));
+    t.addToAirProtocolTagDataList(crc);
+    return t;
+  }
+
+  @Benchmark
+  public RO_ACCESS_REPORT decodeReport()
+    throws InvalidLLRPMessageException
+  {
+    return new RO_ACCESS_REPORT(encoded);
+  }
+
+  @Benchmark
+  public void processReport()
+  {
+    processor.processReport(reports);
+  }
+
+  @Benchmark
+  public TagReadData[] decodeReads()
+  {
+    return decoder.decode(encoded, 0, encoded.length);
+  }
+}
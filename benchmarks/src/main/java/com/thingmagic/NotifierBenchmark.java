@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Handing reads from the reading thread to ReadListeners through the
+ * Reader's tag read queue and BackgroundNotifier thread, the way
+ * startReading() delivers them. Each invocation queues BATCH reads and
+ * waits, with drainQueue() as stopReading() does, until the notifier
+ * has taken every read; the score is per read. handoff queues them as
+ * one search cycle, handoffSingles as one queue entry per read.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NotifierBenchmark
+{
+  static final int BATCH = 1000;
+
+  SerialReader reader;
+  Reader.BackgroundNotifier notifier;
+  Thread notifierThread;
+  TagReadData[] batch;
+  volatile int delivered;
+
+  @Setup
+  public void setup()
+    throws ReaderException
+  {
+    reader = new SerialReader(new SerialTransportEmulator());
+    reader.addReadListener(new ReadListener()
+    {
+      public void tagRead(Reader r, TagReadData t)
+      {
+        delivered++;
+      }
+    });
+    List<TagReadData> reads = BenchmarkSupport.reads(BATCH, 100, reader);
+    batch = reads.toArray(new TagReadData[BATCH]);
+    notifier = reader.new BackgroundNotifier();
+    notifierThread = new Thread(notifier, "background notifier");
+    notifierThread.setDaemon(true);
+    notifierThread.start();
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    notifierThread.interrupt();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public int handoff()
+    throws InterruptedException
+  {
+    reader.tagReadQueue.put(batch);
+    notifier.drainQueue();
+    return delivered;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public int handoffSingles()
+    throws InterruptedException
+  {
+    for (TagReadData t : batch)
+    {
+      reader.tagReadQueue.put(new TagReadData[] {t});
+    }
+    notifier.drainQueue();
+    return delivered;
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading the parameters the read loops consult every cycle, by name
+ * through paramGet and through a ParamKey handle.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParamBenchmark
+{
+  SerialReader reader;
+  ParamKey<Integer> asyncOnTime;
+  ParamKey<ReadPlan> readPlan;
+
+  @Setup
+  public void setup()
+    throws ReaderException
+  {
+    reader = BenchmarkSupport.connectedSerialReader();
+    asyncOnTime = reader.paramKey(TMConstants.TMR_PARAM_READ_ASYNCONTIME, Integer.class);
+    readPlan = reader.paramKey(TMConstants.TMR_PARAM_READ_PLAN, ReadPlan.class);
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    reader.destroy();
+  }
+
+  @Benchmark
+  public int paramGetByName()
+    throws ReaderException
+  {
+    ReadPlan rp = (ReadPlan) reader.paramGet(TMConstants.TMR_PARAM_READ_PLAN);
+    return (Integer) reader.paramGet(TMConstants.TMR_PARAM_READ_ASYNCONTIME) + rp.weight;
+  }
+
+  @Benchmark
+  public int paramKeyGet()
+    throws ReaderException
+  {
+    return asyncOnTime.get() + readPlan.get().weight;
+  }
+}
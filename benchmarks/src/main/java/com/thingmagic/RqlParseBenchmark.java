@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * RqlReader.parseRqlResponse on one row of a tag_id query, in both the
+ * plain layout (frequency, dspmicros, lqi) and the metadata layout
+ * (PC bits, read data, phase) used when reading with an embedded
+ * operation. No connection is made; the reader is set up as connect()
+ * would for a Mercury6.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RqlParseBenchmark
+{
+  @Param({"plain", "metadata"})
+  public String layout;
+
+  RqlReader reader;
+  String row;
+  Date baseTime;
+
+  @Setup
+  public void setup()
+    throws ReaderException
+  {
+    reader = new RqlReader("localhost");
+    reader.model = "Mercury6";
+    RqlReader._readFieldNames = RqlReader._astraReadFieldNames;
+    if (layout.equals("plain"))
+    {
+      row = "1|3|0x300833B2DDD90140000000071234|915250|123456|GEN2|-58";
+    }
+    else
+    {
+      row = "1|3|0x300833B2DDD90140000000071234|3000|0x11223344|GEN2|90";
+    }
+    baseTime = new Date();
+  }
+
+  @Benchmark
+  public TagReadData parseRqlResponse()
+    throws ReaderException
+  {
+    return reader.parseRqlResponse(row, baseTime);
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CRC and Message buffer costs of the serial codec. The nibble CRC is
+ * the algorithm calcCrc used before it went table-per-byte, kept here
+ * as the baseline; newMessage/pooledMessage compare a fresh 256-byte
+ * Message per command against one recycled through MessagePool, and
+ * decodeMessage reads back the fixed fields of a tag buffer response.
+ * Run with <tt>-prof gc</tt> to see the allocation difference.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerialCodecBenchmark
+{
+  private static final int nibbleTable[] =
+  {
+    0x0000, 0x1021, 0x2042, 0x3063,
+    0x4084, 0x50a5, 0x60c6, 0x70e7,
+    0x8108, 0x9129, 0xa14a, 0xb16b,
+    0xc18c, 0xd1ad, 0xe1ce, 0xf1ef,
+  };
+
+  /** Bytes covered by the CRC: a short command, a tag-buffer response, a full frame */
+  @Param({"8", "64", "254"})
+  public int length;
+
+  byte[] frame;
+  SerialReader.MessagePool pool;
+  SerialReader.Message response;
+  byte[] epc = new byte[12];
+
+  @Setup
+  public void setup()
+  {
+    frame = new byte[length + 1];
+    new Random(42).nextBytes(frame);
+    pool = new SerialReader.MessagePool(4);
+
+    // Get tag buffer response: metadata bits, option, count, then one
+    // entry with read count, RSSI, antenna, frequency, timestamp and EPC
+    response = new SerialReader.Message();
+    response.writeIndex = 5;
+    response.setu16(0x001f);
+    response.setu8(0);
+    response.setu8(1);
+    response.setu8(3);
+    response.setu8(-58);
+    response.setu8(0x11);
+    response.setu8(915250 >> 16);
+    response.setu16(915250 & 0xffff);
+    response.setu32(123456);
+    response.setu16(128);
+    response.setu16(0x3000);
+    response.setbytes(epc);
+    response.setu16(0x1234);
+  }
+
+  static short nibbleCrc(byte[] message, int offset, int length)
+  {
+    int crc = 0xffff;
+
+    for (int i = offset; i < offset + length; i++)
+    {
+      crc = ((crc << 4) | ((message[i] >> 4) & 0xf)) ^ nibbleTable[crc >> 12];
+      crc &= 0xffff;
+      crc = ((crc << 4) | ((message[i] >> 0) & 0xf)) ^ nibbleTable[crc >> 12];
+      crc &= 0xffff;
+    }
+    return (short)crc;
+  }
+
+  @Benchmark
+  public short crcNibble()
+  {
+    return nibbleCrc(frame, 1, length);
+  }
+
+  @Benchmark
+  public short crcByteTable()
+  {
+    return SerialReader.calcCrc(frame, 1, length);
+  }
+
+  @Benchmark
+  public int crcIncremental()
+  {
+    int crc = 0xffff;
+    for (int i = 1; i <= length; i++)
+    {
+      crc = SerialReader.crcUpdate(crc, frame[i]);
+    }
+    return crc;
+  }
+
+  @Benchmark
+  public int newMessage()
+  {
+    SerialReader.Message m = new SerialReader.Message();
+    encodeGetTagBuffer(m);
+    return m.writeIndex;
+  }
+
+  @Benchmark
+  public int pooledMessage()
+  {
+    SerialReader.Message m = pool.acquire();
+    encodeGetTagBuffer(m);
+    int len = m.writeIndex;
+    pool.release(m);
+    return len;
+  }
+
+  @Benchmark
+  public int decodeMessage()
+  {
+    SerialReader.Message m = response;
+    m.readIndex = 5;
+    int sum = m.getu16() + m.getu8() + m.getu8();
+    sum += m.getu8() + (byte)m.getu8() + m.getu8() + m.getu24() + m.getu32();
+    sum += m.getu16() + m.getu16();
+    m.getbytes(epc, epc.length);
+    return sum + m.getu16();
+  }
+
+  private void encodeGetTagBuffer(SerialReader.Message m)
+  {
+    m.setu8(0x29);
+    m.setu16(0x01ff);
+    m.setu8(0);
+    m.data[0] = (byte)0xff;
+    m.data[1] = (byte)(m.writeIndex - 3);
+    m.setu16(SerialReader.calcCrc(m.data, 1, m.writeIndex - 1));
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding one tag buffer record, as cmdGetTagBufferInternal and the
+ * streaming path do for every read: the MetadataDecoder for the
+ * response's metadata word, and parseTag of a 96-bit Gen2 EPC.
+ * frameRecord is the same record read into a FrameTagReadData, copying
+ * the frame as the streaming path does, by a listener that only looks
+ * at the EPC hash and the antenna.
+ * metadataFromMessage is the Set-based entry point kept for the
+ * single-tag commands. Each single metadata bit is measured on its
+ * own, along with none and all of them, since the cost of a read
+ * depends on which fields the module reports.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TagParseBenchmark
+{
+  @Param({"0x0000", "0x0001", "0x0002", "0x0004", "0x0008", "0x0010",
+          "0x0020", "0x0040", "0x0080", "0x0100", "0x01FF"})
+  public String metadata;
+
+  SerialReader reader;
+  SerialReader.Message m;
+  int bits;
+  Set<TagReadData.TagMetadataFlag> flags;
+
+  @Setup
+  public void setup()
+    throws ReaderException
+  {
+    reader = BenchmarkSupport.connectedSerialReader();
+    bits = Integer.decode(metadata);
+    flags = reader.tagMetadataSet(bits);
+
+    // One record in the layout of a get tag buffer response entry
+    m = new SerialReader.Message();
+    m.writeIndex = 0;
+    if ((bits & 0x0001) != 0)  // read count
+    {
+      m.setu8(3);
+    }
+    if ((bits & 0x0002) != 0)  // RSSI
+    {
+      m.setu8(-58);
+    }
+    if ((bits & 0x0004) != 0)  // antenna tx/rx
+    {
+      m.setu8(0x11);
+    }
+    if ((bits & 0x0008) != 0)  // frequency
+    {
+      m.setu8(915250 >> 16);
+      m.setu16(915250 & 0xffff);
+    }
+    if ((bits & 0x0010) != 0)  // timestamp
+    {
+      m.setu32(123456);
+    }
+    if ((bits & 0x0020) != 0)  // phase
+    {
+      m.setu16(90);
+    }
+    if ((bits & 0x0040) != 0)  // protocol: Gen2
+    {
+      m.setu8(0x05);
+    }
+    if ((bits & 0x0080) != 0)  // data
+    {
+      m.setu16(32);
+      m.setu32(0x11223344);
+    }
+    if ((bits & 0x0100) != 0)  // GPIO
+    {
+      m.setu8(0x05);
+    }
+    m.setu16((2 + 12 + 2) * 8);
+    m.setu16(0x3000);
+    m.setbytes(BenchmarkSupport.epc(7));
+    m.setu16(0x1234);
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    reader.destroy();
+  }
+
+  @Benchmark
+  public TagReadData metadataFromMessage()
+  {
+    TagReadData t = new TagReadData();
+    m.readIndex = 0;
+    reader.metadataFromMessage(t, m, flags);
+    return t;
+  }
+
+  @Benchmark
+  public TagReadData decodeMetadata()
+  {
+    TagReadData t = new TagReadData();
+    m.readIndex = 0;
+    MetadataDecoder.forBits(bits).decode(t, m, 4);
+    return t;
+  }
+
+  @Benchmark
+  public TagReadData tagBufferRecord()
+  {
+    TagReadData t = new TagReadData();
+    m.readIndex = 0;
+    MetadataDecoder.forBits(bits).decode(t, m, 4);
+    t.tag = reader.parseTag(m, m.getu16() / 8, TagProtocol.GEN2);
+    return t;
+  }
+
+  @Benchmark
+  public int frameRecord()
+  {
+    FrameTagReadData t = new FrameTagReadData(
+      Arrays.copyOf(m.data, m.writeIndex));
+    m.readIndex = 0;
+    MetadataDecoder.forBits(bits).decode(t, m, 4);
+    int epcLen = m.getu16() / 8;
+    t.setTag(m.readIndex, epcLen, TagProtocol.GEN2);
+    return t.epcHashCode() + t.getAntenna();
+  }
+}
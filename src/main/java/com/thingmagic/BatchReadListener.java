@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2008 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+/**
+ * The listener interface for receiving tag reads a batch at a time.
+ * The class that is interested in processing tag reads implements
+ * this interface, and the object created with that class is
+ * registered with Reader.addBatchReadListener(). The object's tagsRead
+ * method is invoked once per batch: the reads of one search cycle, of
+ * one chunk of a streaming read, or of one LLRP report. Listener
+ * dispatch then costs one call per batch rather than one per tag.
+ * <p>
+ *
+ * A chunk of a streaming read from a serial reader only holds more
+ * than one read when the following responses have already been
+ * received. The frame decoder reads no further than the frame it is
+ * cutting, so that is only known for a transport that buffers ahead,
+ * such as SerialTransportLinux. Over the default SerialTransportNative
+ * a streaming read is almost always delivered one read per batch, and
+ * a BatchReadListener saves nothing over a ReadListener there.
+ */
+public interface BatchReadListener
+{
+  /**
+   * Invoked when a batch of tag reads occurs
+   *
+   * @param r the Reader where the tags were read
+   * @param reads the tag data and metadata of each read, never empty.
+   * The reader does not reuse the array, but every BatchReadListener
+   * is passed the same one, so it must not be modified.
+   */
+  void tagsRead(Reader r, TagReadData[] reads);
+}
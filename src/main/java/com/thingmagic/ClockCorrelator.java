@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+/**
+ * Maps the module's millisecond TIMESTAMP metadata onto the host's
+ * monotonic System.nanoTime() clock.
+ * <p>
+ *
+ * The module clock restarts at zero with every search (an epoch): each
+ * cycle of a timed read, or a whole continuous read. Its start is no
+ * earlier than when the search command was sent. Every read reported
+ * afterwards bounds it from above, since the read cannot arrive before
+ * it was made. The earliest of those bounds, the one that suffered the
+ * least transport delay, becomes the estimate. A search of fixed
+ * duration bounds it the same way when its response arrives, which for
+ * reads fetched from the tag buffer afterwards is much the tighter
+ * bound.
+ * <p>
+ *
+ * The module's crystal and the host's clock also run at slightly
+ * different rates. Over a long continuous read the least-delay bounds
+ * of successive windows of module time drift apart by that difference;
+ * its smoothed slope is the drift estimate. The drift carries over
+ * from one epoch to the next.
+ * <p>
+ *
+ * A better estimate would move host times backwards, so the mapping is
+ * only ever slewed, never stepped back: within an epoch, reads made in
+ * order get host times in the same order. Called from one thread at a
+ * time.
+ */
+final class ClockCorrelator
+{
+  static final long WINDOW_MS = 5000;
+  static final double MAX_DRIFT = 1e-3;
+  private static final double SMOOTHING = 0.25;
+
+  private double rate = 1.0;        // host ns per module ns
+  private double drift;             // rate - 1, smoothed
+  private long lowerBound;          // when the search was started
+  private long origin;              // estimated host time of module time 0,
+                                    // Long.MAX_VALUE until the first read
+  private long unwrap;              // added to the module's 32-bit time
+  private long lastModuleMs = -1;
+  private long lastHost;
+
+  // Least-delay bound in the current and the previous window
+  private long windowStart = -1;
+  private long windowMin;
+  private long windowMinAt;
+  private long prevMin;
+  private long prevMinAt = -1;
+
+  /**
+   * Begin a new module clock epoch.
+   *
+   * @param hostNanos System.nanoTime() when the search command was sent
+   */
+  synchronized void startEpoch(long hostNanos)
+  {
+    lowerBound = hostNanos;
+    origin = Long.MAX_VALUE;
+    unwrap = 0;
+    lastModuleMs = -1;
+    lastHost = Long.MIN_VALUE;
+    windowStart = -1;
+    prevMinAt = -1;
+  }
+
+  /**
+   * Note that the search of the epoch has ended.
+   *
+   * @param durationMs how long the module was told to search for
+   * @param hostNanos System.nanoTime() when the search's response arrived
+   */
+  synchronized void searchEnded(int durationMs, long hostNanos)
+  {
+    // The module clock had reached at least durationMs by then
+    long bound = hostNanos - (long)(durationMs * 1000000L * rate);
+    origin = Math.max(lowerBound, Math.min(origin, bound));
+  }
+
+  /**
+   * Estimate when a read was made.
+   *
+   * @param moduleMs the read's module timestamp, an unsigned 32-bit
+   * millisecond count
+   * @param arrivalNanos System.nanoTime() when the read reached the host
+   * @return the estimated System.nanoTime() of the read
+   */
+  synchronized long toHost(int moduleMs, long arrivalNanos)
+  {
+    long ms = (moduleMs & 0xffffffffL) + unwrap;
+    if (lastModuleMs >= 0 && ms < lastModuleMs - (1L << 31))
+    {
+      unwrap += 1L << 32;
+      ms += 1L << 32;
+    }
+    lastModuleMs = Math.max(lastModuleMs, ms);
+    long moduleNs = ms * 1000000L;
+
+    // The read was made no later than it arrived
+    long bound = arrivalNanos - (long)(moduleNs * rate);
+    origin = Math.max(lowerBound, Math.min(origin, bound));
+    trackDrift(ms, arrivalNanos - moduleNs);
+
+    long host = origin + (long)(moduleNs * rate);
+    if (host < lastHost && ms >= lastModuleMs)
+    {
+      // Slew rather than step back
+      host = lastHost;
+    }
+    lastHost = Math.max(lastHost, host);
+    return host;
+  }
+
+  /**
+   * Fold the undrifted bound of one read into the window estimates.
+   */
+  private void trackDrift(long ms, long rawBound)
+  {
+    if (windowStart < 0 || ms - windowStart >= WINDOW_MS)
+    {
+      if (windowStart >= 0)
+      {
+        if (prevMinAt >= 0 && windowMinAt > prevMinAt)
+        {
+          double sample = (double)(windowMin - prevMin)
+            / ((windowMinAt - prevMinAt) * 1000000.0);
+          sample = Math.max(-MAX_DRIFT, Math.min(MAX_DRIFT, sample));
+          drift = drift + SMOOTHING * (sample - drift);
+          rate = 1.0 + drift;
+        }
+        prevMin = windowMin;
+        prevMinAt = windowMinAt;
+      }
+      windowStart = ms;
+      windowMin = rawBound;
+      windowMinAt = ms;
+    }
+    else if (rawBound < windowMin)
+    {
+      windowMin = rawBound;
+      windowMinAt = ms;
+    }
+  }
+
+  /**
+   * @return the estimated drift of the module clock relative to the
+   * host clock, in parts per million; positive when the module runs
+   * slow
+   */
+  synchronized double driftPpm()
+  {
+    return drift * 1e6;
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.Arrays;
+
+/**
+ * A tag read that still refers to the module response it came from.
+ * <p>
+ *
+ * Instead of copying the PC, EPC, CRC and DATA fields out of the
+ * response, each read keeps offsets into one immutable copy of the
+ * frame, shared by every read in that frame; a streamed read, alone in
+ * its frame, copies only the bytes it refers to, from its DATA field
+ * (if any) to its CRC. The TagData and the data
+ * array are only built when getTag(), getData() or another accessor
+ * needs them, and epcString(), epcHashCode() and sameTag() work on the
+ * frame bytes directly, so a listener that only looks at the EPC and
+ * the metadata never causes the tag to be built.
+ */
+final class FrameTagReadData extends TagReadData
+{
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  private byte[] frame;  // never modified once shared
+  private TagProtocol tagProtocol;
+  private int pcOffset;
+  private int pcLength;
+  private int epcOffset;
+  private int epcLength;
+  private int dataOffset = -1;
+  private int dataLength;
+  private int epcHash;
+
+  /**
+   * @param frame the copy of the response the read refers to; it must
+   * not be modified afterwards
+   */
+  FrameTagReadData(byte[] frame)
+  {
+    this.frame = frame;
+  }
+
+  /**
+   * A read that copies its own bytes out of the response in
+   * setTag(byte[], int, int, TagProtocol).
+   */
+  FrameTagReadData()
+  {
+  }
+
+  @Override
+  void setData(byte[] b, int offset, int length)
+  {
+    // Offsets into the response, which frame is a copy of, or which
+    // setTag(byte[], ...) is about to copy from
+    dataOffset = offset;
+    dataLength = length;
+  }
+
+  /**
+   * Locate the tag at frame[offset..offset+epcLen), laid out as parseTag
+   * expects it for the given protocol.
+   *
+   * @param offset start of the tag in the frame
+   * @param epcLen length in bytes of the tag, including PC and CRC
+   * @param protocol protocol of the tag
+   */
+  void setTag(int offset, int epcLen, TagProtocol protocol)
+  {
+    tagProtocol = tagDataProtocol(protocol);
+    pcOffset = offset;
+    pcLength = 0;
+    if (tagProtocol == TagProtocol.GEN2)
+    {
+      pcLength = Gen2.TagData.pcLength(frame, offset);
+    }
+    epcOffset = offset + pcLength;
+    epcLength = epcLen - pcLength - 2;  // CRC follows the EPC
+    epcHash = 1;
+    for (int i = 0; i < epcLength; i++)
+    {
+      epcHash = 31 * epcHash + frame[epcOffset + i];  // as Arrays.hashCode
+    }
+  }
+
+  /**
+   * Copy the bytes of this read out of the response b, from its DATA
+   * field, if setData() was called, to the end of the tag, and locate
+   * the tag in the copy as setTag(int, int, TagProtocol) does.
+   */
+  void setTag(byte[] b, int offset, int epcLen, TagProtocol protocol)
+  {
+    int start = (dataOffset >= 0) ? Math.min(dataOffset, offset) : offset;
+    frame = Arrays.copyOfRange(b, start, offset + epcLen);
+    if (dataOffset >= 0)
+    {
+      dataOffset -= start;
+    }
+    setTag(offset - start, epcLen, protocol);
+  }
+
+  /**
+   * @return the protocol parseTag gives a tag of the given protocol
+   */
+  private static TagProtocol tagDataProtocol(TagProtocol protocol)
+  {
+    if (protocol == TagProtocol.GEN2 || protocol == TagProtocol.IPX256
+        || protocol == TagProtocol.ISO180006B
+        || protocol == TagProtocol.IPX64)
+    {
+      return protocol;
+    }
+    return TagProtocol.NONE;
+  }
+
+  @Override
+  public TagData getTag()
+  {
+    // TagData is immutable, so a racing thread at worst builds an equal copy
+    TagData t = tag;
+    if (t == null)
+    {
+      t = buildTag();
+      tag = t;
+    }
+    return t;
+  }
+
+  private TagData buildTag()
+  {
+    int crcOffset = epcOffset + epcLength;
+
+    switch (tagProtocol)
+    {
+    case GEN2:
+      return new Gen2.TagData(frame, pcOffset, pcLength, epcLength);
+    case IPX256:
+      return new Ipx256.TagData(copy(epcOffset, epcLength), copy(crcOffset, 2));
+    case ISO180006B:
+      return new Iso180006b.TagData(copy(epcOffset, epcLength), copy(crcOffset, 2));
+    case IPX64:
+      return new Ipx64.TagData(copy(epcOffset, epcLength), copy(crcOffset, 2));
+    default:
+      return new TagData(frame, epcOffset, epcLength);
+    }
+  }
+
+  private byte[] copy(int offset, int length)
+  {
+    return Arrays.copyOfRange(frame, offset, offset + length);
+  }
+
+  @Override
+  byte[] dataBytes()
+  {
+    byte[] d = data;
+    if (d == noData && dataOffset >= 0)
+    {
+      d = copy(dataOffset, dataLength);
+      data = d;
+    }
+    return d;
+  }
+
+  @Override
+  public String epcString()
+  {
+    char[] hex = new char[epcLength * 2];
+    for (int i = 0; i < epcLength; i++)
+    {
+      int b = frame[epcOffset + i];
+      hex[2 * i] = HEX[(b >> 4) & 0x0f];
+      hex[2 * i + 1] = HEX[b & 0x0f];
+    }
+    return new String(hex);
+  }
+
+  @Override
+  public int epcHashCode()
+  {
+    return epcHash;
+  }
+
+  @Override
+  TagProtocol tagProtocol()
+  {
+    return tagProtocol;
+  }
+
+  @Override
+  boolean sameEpc(TagReadData other)
+  {
+    if (!(other instanceof FrameTagReadData))
+    {
+      return super.sameEpc(other);
+    }
+
+    FrameTagReadData o = (FrameTagReadData)other;
+    if (epcHash != o.epcHash || epcLength != o.epcLength)
+    {
+      return false;
+    }
+    for (int i = 0; i < epcLength; i++)
+    {
+      if (frame[epcOffset + i] != o.frame[o.epcOffset + i])
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -20,6 +20,7 @@
  * THE SOFTWARE.
  */
 package com.thingmagic;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -72,6 +73,31 @@ public class Gen2
       pc = newPC.clone();
     }
 
+    /**
+     * Construct a tag from the PC, EPC and CRC laid out one after the
+     * other in b, copying each of them once.
+     */
+    TagData(byte[] b, int pcOffset, int pcLength, int epcLength)
+    {
+      super(b, pcOffset + pcLength, epcLength);
+
+      pc = Arrays.copyOfRange(b, pcOffset, pcOffset + pcLength);
+    }
+
+    /**
+     * @return the length in bytes of the PC word at b[offset] together
+     * with the XPC_W1 and XPC_W2 words that may follow it
+     */
+    static int pcLength(byte[] b, int offset)
+    {
+      if ((b[offset] & 0x02) == 0)
+      {
+        return 2;
+      }
+      // XPC_W1 is present; its MSB says whether XPC_W2 follows
+      return ((b[offset + 2] & 0x80) == 0) ? 4 : 6;
+    }
+
     public TagData(String sEPC)
     {
       super(sEPC);
@@ -23,17 +23,21 @@ package com.thingmagic;
 
 import com.thingmagic.Gen2.NXP.G2I.ConfigWord;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.concurrent.TimeoutException;
 import org.llrp.ltk.exceptions.InvalidLLRPMessageException;
+import org.llrp.ltk.generated.LLRPMessageFactory;
 import org.llrp.ltk.generated.messages.*;
 import org.llrp.ltk.generated.enumerations.*;
 import org.llrp.ltk.types.*;
 import org.llrp.ltk.generated.parameters.*;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import org.llrp.ltk.generated.interfaces.*;
@@ -46,6 +50,8 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
@@ -53,7 +59,11 @@ import java.util.Timer;
 import java.util.TimerTask;
 import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import org.apache.log4j.PropertyConfigurator;
 import org.llrp.ltk.generated.custom.parameters.*;
 import org.llrp.ltk.generated.custom.enumerations.*;
@@ -73,7 +83,10 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
     int _port;
     LLRPConnection readerConn;
     List<TagReadData> readData;
-    final BlockingQueue<TagReportData> tagReportQueue;
+    private final TagReadDeduplicator deduplicator = new TagReadDeduplicator();
+    // One element per RO_ACCESS_REPORT: the LTK List<TagReportData>,
+    // or the TagReadData[] LLRPReportDecoder made of it
+    final BlockingQueue<Object> tagReportQueue;
     protected List<TransportListener> _llrpListeners;
     protected boolean hasLLRPListeners;
     protected long readDuration;
@@ -103,8 +116,27 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
     private int[] gpoList;
     private Map<Integer,RFMode> capabilitiesCache = null;
     boolean endOfAISpec = false;
-    boolean endOfROSpec = false;
-    boolean reportReceived = false;
+    volatile boolean endOfROSpec = false;
+    volatile boolean reportReceived = false;
+    // Released when endOfROSpec and reportReceived are set, so that
+    // read() and executeTagOp() return as soon as the reader says so
+    private volatile CountDownLatch roSpecsEnded = new CountDownLatch(0);
+    private volatile CountDownLatch reportArrived = new CountDownLatch(0);
+    private final Object roSpecEndLock = new Object();
+    // Encoding of the ROSpecs and AccessSpecs a read() left on the
+    // reader, which the next read() with the same specs starts again
+    // as they are; null when not known
+    private byte[] loadedSpecs;
+    // For a paramGetAll or paramSetAll, the encoded answers to the
+    // configuration and capability requests made so far, by request
+    private Map<ByteBuffer,byte[]> batchResponses;
+    // For a paramSetAll, the SET_READER_CONFIGs not yet sent and the
+    // parameters whose settings the reader refused
+    private List<PendingConfig> pendingConfigs;
+    private Map<String,ReaderException> batchFailures;
+    // N of the ROReportSpec of continuous reads, and the report timeout
+    final ReportBatchController reportBatches = new ReportBatchController();
+    private ScheduledThreadPoolExecutor reportTimer;
     boolean standalone = false;
     private int TM_MANUFACTURER_ID = 26554;
     SortedMap<Integer, Integer> powerLevelMap ;
@@ -115,13 +147,16 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
     TagProtocol[] protocols;
     private ReaderException readerException;
     List<FrequencyHopTable> frequencyHopTableList;
+    private int[] hopFrequencies;
     Map<Integer,TagProtocol> mapRoSpecIdToProtocol ;
+    // What the tag reports of the ROSpecs being built carry; null for all
+    private Set<TagReadData.TagMetadataFlag> reportMetadata;
     LLRPReader(String hostname, int port)
     {
         _hostname = hostname;
         _port = port;
          _llrpListeners = new ArrayList<TransportListener>();
-         tagReportQueue = new LinkedBlockingQueue<TagReportData>();
+         tagReportQueue = new LinkedBlockingQueue<Object>();
          configureLogging();
     }
 
@@ -151,7 +186,23 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
 
     protected void llrpConnect() throws ReaderException
     {
-        readerConn = new LLRPConnector(null, _hostname, _port);
+        // Tag reports are decoded ahead of the LTK codec where possible
+        loadedSpecs = null;
+        final LLRPReportDecoder.Filter reportFilter
+          = new LLRPReportDecoder.Filter(new LLRPReportDecoder(this));
+        LLRPIoHandlerAdapterImpl handler = new LLRPIoHandlerAdapterImpl()
+        {
+            @Override
+            public void sessionCreated(org.apache.mina.common.IoSession session)
+              throws Exception
+            {
+                super.sessionCreated(session);
+                session.getFilterChain().addBefore("codec",
+                  LLRPReportDecoder.Filter.NAME, reportFilter);
+            }
+        };
+        readerConn = new LLRPConnector(null, _hostname, _port, handler);
+        handler.setConnection(readerConn);
         readerConn.setEndpoint(new TagReadEndPoint(this));    
         try
         {
@@ -713,6 +764,50 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
                         return value;
                       }
         });
+        addParam(TMR_PARAM_READ_REPORT_TAGCOUNT,
+                Integer.class, ReportBatchController.DEFAULT_TAG_COUNT, true,
+                new SettingAction()
+                {
+                    public Object set(Object value)
+                    {
+                        reportBatches.setTagCount((Integer) value);
+                        return value;
+                    }
+                    public Object get(Object value)
+                    {
+                        return reportBatches.tagCount();
+                    }
+                });
+
+        addParam(TMR_PARAM_READ_REPORT_TIMEOUT,
+                Integer.class, 0, true,
+                new SettingAction()
+                {
+                    public Object set(Object value)
+                    {
+                        reportBatches.setTimeout((Integer) value);
+                        return value;
+                    }
+                    public Object get(Object value)
+                    {
+                        return reportBatches.timeout();
+                    }
+                });
+
+        addParam(TMR_PARAM_READ_REPORT_ADAPTIVE,
+                Boolean.class, false, true,
+                new SettingAction()
+                {
+                    public Object set(Object value)
+                    {
+                        reportBatches.setAdaptive((Boolean) value);
+                        return value;
+                    }
+                    public Object get(Object value)
+                    {
+                        return reportBatches.adaptive();
+                    }
+                });
         monitorKeepAlives = new MonitorKeepAlives();
         monitorKeepAlives.start();
    }
@@ -789,6 +884,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
     @Override
     public void connect() throws ReaderException
     {
+        invalidateParamCache(true);
         if(!_isConnected)
         {
             llrpConnect();            
@@ -1179,7 +1275,6 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
     {   
         // Create Set reader configuration message
         SET_READER_CONFIG setReaderConfig = new SET_READER_CONFIG();
-        SET_READER_CONFIG_RESPONSE setReaderConfigResp;
         // ResetToFactoryDefault should be zero to disable resetting the members
         setReaderConfig.setResetToFactoryDefault(new Bit(0));
         switch (configParam)
@@ -1274,7 +1369,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
                 break;
         }//end of switch case
         //Now the message is fully framed, Send the message
-        setReaderConfigResp = (SET_READER_CONFIG_RESPONSE) LLRP_SendReceive(setReaderConfig);
+        setReaderConfig(setReaderConfig, false);
     }
 
     private List makeSetSession(Object configValue) throws ReaderException
@@ -1305,7 +1400,6 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
     {
         // Create Set reader configuration message
         SET_READER_CONFIG setReaderConfig = new SET_READER_CONFIG();
-        SET_READER_CONFIG_RESPONSE setReaderConfigResp;
         // ResetToFactoryDefault should be zero to disable resetting the members
         setReaderConfig.setResetToFactoryDefault(new Bit(0));
         switch (configParam)
@@ -1360,12 +1454,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
                 break;
         }
         //now the message is fully framed,send the message
-        setReaderConfigResp = (SET_READER_CONFIG_RESPONSE) LLRP_SendReceive(setReaderConfig);
-        LLRPStatus status = setReaderConfigResp.getLLRPStatus();
-        String statusCode = status.getStatusCode().toString();
-        if(!(statusCode.equals("M_Success"))){
-            throw  new ReaderException(status.getErrorDescription().toString());
-        }
+        setReaderConfig(setReaderConfig, true);
     }
 
      private ThingMagicProtocolConfiguration makeSetTarget(Object configValue) throws ReaderException
@@ -1387,7 +1476,6 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
      {
          // Create Set reader configuration message
          SET_READER_CONFIG setReaderConfig = new SET_READER_CONFIG();
-         SET_READER_CONFIG_RESPONSE setReaderConfigResp;
          // ResetToFactoryDefault should be zero to disable resetting the members
          setReaderConfig.setResetToFactoryDefault(new Bit(0));
 
@@ -1425,13 +1513,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
          protocolConfiguration.setISO18K6BCustomParameters(i186bCustomParameters);
          setReaderConfig.addToCustomList(protocolConfiguration);
          //now the message is fully framed,send the message
-         setReaderConfigResp = (SET_READER_CONFIG_RESPONSE) LLRP_SendReceive(setReaderConfig);
-         LLRPStatus status = setReaderConfigResp.getLLRPStatus();
-         String statusCode = status.getStatusCode().toString();
-         if (!(statusCode.equals("M_Success")))
-         {
-             throw new ReaderException(status.getErrorDescription().toString());
-         }
+         setReaderConfig(setReaderConfig, true);
      }
 
 
@@ -1732,6 +1814,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
          // Fetch the transmitPowerLevel  List from the capabilities
          List<TransmitPowerLevelTableEntry> transmitPowerTable = capabilities.getTransmitPowerLevelTableEntryList();
          frequencyHopTableList = capabilities.getFrequencyInformation().getFrequencyHopTableList();
+         hopFrequencies = null;
          int transmitPowerSize = transmitPowerTable.size();
          for (TransmitPowerLevelTableEntry powerLevel : transmitPowerTable)
          {
@@ -1823,6 +1906,22 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
     
     private GET_READER_CONFIG_RESPONSE getReaderConfigResponse(int requestData) throws ReaderException
     {
+        // paramGetAll asks for all of the standard configuration once
+        // and gets its parameters from that
+        if (batchResponses != null && inParamBatch() && paramBatchKey == null
+            && requestData != GetReaderConfigRequestedData.All)
+        {
+            TM_GET_READER_CONFIG allConfig = new TM_GET_READER_CONFIG();
+            GetReaderConfigRequestedData allData = new GetReaderConfigRequestedData();
+            allData.set(GetReaderConfigRequestedData.All);
+            allConfig.setRequestedData(allData);
+            LLRPMessage all = LLRP_SendReceive(allConfig);
+            if (all instanceof GET_READER_CONFIG_RESPONSE
+                && ((GET_READER_CONFIG_RESPONSE) all).getLLRPStatus().getStatusCode().toString().equals("M_Success"))
+            {
+                return (GET_READER_CONFIG_RESPONSE) all;
+            }
+        }
         TM_GET_READER_CONFIG readerConfig = new TM_GET_READER_CONFIG();
         GetReaderConfigRequestedData reqData = new GetReaderConfigRequestedData();
         reqData.set(requestData);
@@ -2042,56 +2141,155 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
     public TagReadData[] read(long duration) throws ReaderException
     {
         readData = new ArrayList<TagReadData>();
-        enableEventsAndReports();
-        enableReaderNotification();
-        ReadPlan rp = (ReadPlan)paramGet(TMR_PARAM_READ_PLAN);
+        ReadPlan rp = readPlanParam.get();
         readInternal(rp, duration);
+        removeDuplicateReads(readData);
         return readData.toArray(new TagReadData[0]);        
     }
 
+    /**
+     * The reader merges repeated reads within each RO report, but a tag
+     * seen again in a later report of the same read arrives twice. Merge
+     * those the way the reader would; its uniqueBy settings are only
+     * fetched when some EPC actually repeats. Each protocol has its own
+     * ROSpec, so reads of different protocols are never merged.
+     */
+    private void removeDuplicateReads(List<TagReadData> reads) throws ReaderException
+    {
+        if (!deduplicator.hasRepeatedEpc(reads))
+        {
+            return;
+        }
+        deduplicator.removeDuplicates(reads,
+          (Boolean) paramGet(TMR_PARAM_TAGREADDATA_UNIQUEBYANTENNA),
+          (Boolean) paramGet(TMR_PARAM_TAGREADDATA_UNIQUEBYDATA), true,
+          (Boolean) paramGet(TMR_PARAM_TAGREADDATA_RECORDHIGHESTRSSI));
+    }
+
+    /**
+     * Run the ROSpecs of a read plan for a duration. The specs are built
+     * every time, which costs no round trips; when their encoding is
+     * that of the specs the previous read left on the reader, those are
+     * just started again instead of being deleted and added anew.
+     */
     private void readInternal(ReadPlan rp, long duration) throws ReaderException
     {
-        deleteROSpecs();
-        deleteAccessSpecs();
         roSpecId = 0;
         accessSpecId = 0;
         opSpecId = 0;
         endOfROSpec = false;
+        roSpecsEnded = new CountDownLatch(1);
         endOfAISpec = false;
         mapRoSpecIdToProtocol = new HashMap<Integer,TagProtocol>();
 
         startBackgroundParser();
         
         List<ROSpec> roSpecList = new ArrayList<ROSpec>();
-        buildROSpec(rp, duration, roSpecList);        
+        List<AccessSpec> accessSpecList = new ArrayList<AccessSpec>();
+        reportMetadata = metadataUsed(rp);
+        buildROSpec(rp, duration, roSpecList, accessSpecList);        
         enableROSpecFlags(roSpecList.size());
-        for(ROSpec roSpec : roSpecList)
-        {            
-            if (addROSpec(roSpec) && enableROSpec(roSpec.getROSpecID().intValue()))
+        byte[] specs = encodeSpecs(roSpecList, accessSpecList);
+        if (!roSpecList.isEmpty() && Arrays.equals(specs, loadedSpecs)
+            && restartROSpec(roSpecList.get(0).getROSpecID().intValue()))
+        {
+            // Events, reports and the specs are still set up from the
+            // previous read on this connection
+            for (ROSpec roSpec : roSpecList.subList(1, roSpecList.size()))
             {
                 if (!startROSpec(roSpec.getROSpecID().intValue()))
                 {
                     endOfROSpecFlags[roSpec.getROSpecID().intValue() - 1] = true;
                 }
             }
-            else
+        }
+        else
+        {
+            enableEventsAndReports();
+            enableReaderNotification();
+            deleteROSpecs();
+            deleteAccessSpecs();
+            boolean loaded = addAccessSpecs(accessSpecList);
+            for(ROSpec roSpec : roSpecList)
+            {            
+                if (addROSpec(roSpec) && enableROSpec(roSpec.getROSpecID().intValue()))
+                {
+                    if (!startROSpec(roSpec.getROSpecID().intValue()))
+                    {
+                        endOfROSpecFlags[roSpec.getROSpecID().intValue() - 1] = true;
+                    }
+                }
+                else
+                {
+                    endOfROSpecFlags[roSpec.getROSpecID().intValue()-1] = true;
+                    loaded = false;
+                }
+            }
+            if (loaded)
             {
-                endOfROSpecFlags[roSpec.getROSpecID().intValue()-1] = true;
+                loadedSpecs = specs;
             }
         }
         // verify for any failures during ROSPEC enable, add or start
         verifyROSpecEndStatus();
-        while (!endOfROSpec)
+        //wait for end of ROSpec/AISpec event
+        awaitEvent(roSpecsEnded);
+        stopBackgroundParser();
+    }
+
+    /**
+     * @return the binary encoding of the specs of a read, which tells
+     * whether the reader already holds them
+     */
+    private static byte[] encodeSpecs(List<ROSpec> roSpecList, List<AccessSpec> accessSpecList)
+    {
+        ByteArrayOutputStream encoding = new ByteArrayOutputStream();
+        for (ROSpec roSpec : roSpecList)
         {
-            try {
-                //wait for end of ROSpec/AISpec event
-                // This sleep causes other threads waiting for CPU active.
-                Thread.sleep(10);
-            } catch (InterruptedException ex) {
+            byte[] b = roSpec.encodeBinary().toByteArray();
+            encoding.write(b, 0, b.length);
+        }
+        for (AccessSpec accessSpec : accessSpecList)
+        {
+            byte[] b = accessSpec.encodeBinary().toByteArray();
+            encoding.write(b, 0, b.length);
+        }
+        return encoding.toByteArray();
+    }
+
+    /**
+     * Add and enable the AccessSpecs buildROSpec made.
+     *
+     * @return whether all of them were added and enabled
+     */
+    private boolean addAccessSpecs(List<AccessSpec> accessSpecList) throws ReaderException
+    {
+        boolean added = true;
+        for (AccessSpec accessSpec : accessSpecList)
+        {
+            added &= addAccessSpec(accessSpec)
+              && enableAccessSpec(accessSpec.getAccessSpecID().intValue());
+        }
+        return added;
+    }
+
+    /**
+     * Wait for an event from the reader connection thread. Interrupts
+     * are logged and the wait goes on, as the reader is still busy.
+     */
+    private static void awaitEvent(CountDownLatch event)
+    {
+        while (event.getCount() > 0)
+        {
+            try
+            {
+                event.await();
+            }
+            catch (InterruptedException ex)
+            {
                 Logger.getLogger(LLRPReader.class.getName()).log(Level.SEVERE, null, ex);
             }
         }
-        stopBackgroundParser();
     }
 
     protected synchronized void startBackgroundParser()
@@ -2100,8 +2298,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
         if (null == tagProcessor)
         {
             tagProcessor = new TagProcessor(this);
-            bkgThread = new Thread(tagProcessor);
-            bkgThread.setDaemon(true);
+            bkgThread = newThread(threadFactory, tagProcessor, "llrp tag processor");
             bkgThread.start();
         }
     }
@@ -2162,6 +2359,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
         DELETE_ROSPEC_RESPONSE response;
 
         log("Deleting all ROSpecs.");
+        loadedSpecs = null;
         DELETE_ROSPEC del = new DELETE_ROSPEC();
         // Use zero as the ROSpec ID. This means delete all ROSpecs.
         del.setROSpecID(new UnsignedInteger(0));
@@ -2183,6 +2381,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
         DELETE_ACCESSSPEC_RESPONSE response;
 
         log("Deleting all AccessSpecs.");
+        loadedSpecs = null;
         DELETE_ACCESSSPEC delAcessSpec = new DELETE_ACCESSSPEC();
         // Use zero as the ROSpec ID, This means delete all AccessSpecs.
         delAcessSpec.setAccessSpecID(new UnsignedInteger(0));
@@ -2227,7 +2426,8 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
     /**
      * Building an ROSpec with proper AISpec, BoundarySpec, Inventory Specs
      */
-    private void buildROSpec(ReadPlan readPlan, long readDuration, List<ROSpec> roSpecList) throws ReaderException
+    private void buildROSpec(ReadPlan readPlan, long readDuration, List<ROSpec> roSpecList,
+                             List<AccessSpec> accessSpecList) throws ReaderException
     {
         // Build RO Spec based on the read plan        
         log("Building the ROSpec based on Read Plan");        
@@ -2241,7 +2441,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
                 long subtimeout = (0 != mrp.totalWeight) ? ((int) readDuration * rp.weight / mrp.totalWeight)
                         : (readDuration / mrp.plans.length);
                 subtimeout = Math.min(subtimeout, Integer.MAX_VALUE);                
-                buildROSpec(rp, subtimeout, roSpecList);                
+                buildROSpec(rp, subtimeout, roSpecList, accessSpecList);                
             }
         }
         else if(readPlan instanceof SimpleReadPlan)
@@ -2264,7 +2464,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
             {
                 startTrig.setROSpecStartTriggerType(new ROSpecStartTriggerType(ROSpecStartTriggerType.Periodic));
                 PeriodicTriggerValue triggerValue = new PeriodicTriggerValue();
-                int asyncOnTime = (Integer)paramGet(TMR_PARAM_READ_ASYNCONTIME);
+                int asyncOnTime = asyncOnTimeParam.get();
                 triggerValue.setPeriod(new UnsignedInteger(asyncOnTime));
                 triggerValue.setOffset(new UnsignedInteger(0));
                 startTrig.setPeriodicTriggerValue(triggerValue);
@@ -2294,7 +2494,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
                 {
                     // ASYNC Mode - Set the AI stop trigger to Duration - AsyncOnTime. AI spec will run until the Disable ROSpec is sent.
                     aiStopTrigger.setAISpecStopTriggerType(new AISpecStopTriggerType(AISpecStopTriggerType.Duration));
-                    int asyncOnTime = (Integer)paramGet(TMR_PARAM_READ_ASYNCONTIME);
+                    int asyncOnTime = asyncOnTimeParam.get();
                     aiStopTrigger.setDurationTrigger(new UnsignedInteger(readDuration));
                 }
                 else
@@ -2479,9 +2679,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
             TagOp tagOperation = srp.Op;
             if (null != tagOperation)
             {
-                AccessSpec accessSpec = createAccessSpec(srp);
-                addAccessSpec(accessSpec);
-                enableAccessSpec(accessSpec.getAccessSpecID().intValue());
+                accessSpecList.add(createAccessSpec(srp));
             }                        
             if(srp.protocol == TagProtocol.GEN2)
             {                
@@ -2503,11 +2701,13 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
             // Specify what type of tag reports we want to receive and when we want to receive them.
             ROReportSpec roReportSpec = new ROReportSpec();
 
-            // Receive a report every time a tag is read.
+            // Receive a report every N tags while reading continuously
+            // (see /reader/read/report/tagCount), at the end otherwise.
+            // N is 0 when subscribers pull reports with GET_REPORT.
             if(continuousReading)
             {
                 roReportSpec.setROReportTrigger(new ROReportTriggerType(ROReportTriggerType.Upon_N_Tags_Or_End_Of_ROSpec));
-                roReportSpec.setN(new UnsignedShort(10));
+                roReportSpec.setN(new UnsignedShort(reportBatches.reportTagCount()));
             }
             else
             {
@@ -2516,16 +2716,21 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
             }
 
             TagReportContentSelector reportContent = new TagReportContentSelector();
-            // Selecting which fields we want in the report.
+            // Selecting which fields we want in the report. When the
+            // application has said which metadata it uses, the fields
+            // nobody looks at are left out; the ROSpec ID (for the
+            // protocol), the antenna and the seen count are always kept.
+            Set<TagReadData.TagMetadataFlag> meta = reportMetadata;
+            boolean all = (meta == null);
             reportContent.setEnableAccessSpecID(new Bit(1));
             reportContent.setEnableAntennaID(new Bit(1));
-            reportContent.setEnableChannelIndex(new Bit(1));
-            reportContent.setEnableFirstSeenTimestamp(new Bit(1));
-            reportContent.setEnableInventoryParameterSpecID(new Bit(1));
-            reportContent.setEnableLastSeenTimestamp(new Bit(1));
-            reportContent.setEnablePeakRSSI(new Bit(1));
+            reportContent.setEnableChannelIndex(reportBit(meta, TagReadData.TagMetadataFlag.FREQUENCY));
+            reportContent.setEnableFirstSeenTimestamp(new Bit(all ? 1 : 0));
+            reportContent.setEnableInventoryParameterSpecID(new Bit(all ? 1 : 0));
+            reportContent.setEnableLastSeenTimestamp(reportBit(meta, TagReadData.TagMetadataFlag.TIMESTAMP));
+            reportContent.setEnablePeakRSSI(reportBit(meta, TagReadData.TagMetadataFlag.RSSI));
             reportContent.setEnableROSpecID(new Bit(1));
-            reportContent.setEnableSpecIndex(new Bit(1));
+            reportContent.setEnableSpecIndex(new Bit(all ? 1 : 0));
             reportContent.setEnableTagSeenCount(new Bit(1));
 
             // By default both PC and CRC bits are set, so sent from tmmpd
@@ -2540,6 +2745,54 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
         }
     }
 
+    private static Bit reportBit(Set<TagReadData.TagMetadataFlag> meta,
+                                 TagReadData.TagMetadataFlag flag)
+    {
+        return new Bit((meta == null || meta.contains(flag)) ? 1 : 0);
+    }
+
+    /**
+     * @return the frequency, in kHz, of a channel of the hop table, or 0
+     * if the channel is not in it
+     */
+    int hopFrequency(int channelIndex)
+    {
+        int[] frequencies = hopFrequencies;
+        if (frequencies == null)
+        {
+            if (frequencyHopTableList == null || frequencyHopTableList.isEmpty())
+            {
+                return 0;
+            }
+            UnsignedIntegerArray hops = frequencyHopTableList.get(0).getFrequency();
+            frequencies = new int[hops.size()];
+            for (int i = 0; i < frequencies.length; i++)
+            {
+                frequencies[i] = hops.get(i).toInteger();
+            }
+            hopFrequencies = frequencies;
+        }
+        if (channelIndex < 1 || channelIndex > frequencies.length)
+        {
+            return 0;
+        }
+        return frequencies[channelIndex - 1];
+    }
+
+    /**
+     * Queue the reads of a tag report that LLRPReportDecoder decoded,
+     * as TagReadEndPoint queues those the LTK decoded.
+     */
+    void reportDecoded(TagReadData[] reads)
+    {
+        getReportFlag = false;
+        reportBatches.reportReceived(reads.length, System.currentTimeMillis());
+        if (reads.length > 0)
+        {
+            tagReportQueue.add(reads);
+        }
+    }
+
     private void validateProtocol(TagProtocol protocol)
     {
         if(!(protocolSet.contains(protocol))){
@@ -2640,6 +2893,27 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
     }
 
 
+    /**
+     * Start an ROSpec the reader should still hold from an earlier read.
+     * Failure is not reported: it only means the spec has to be added
+     * again.
+     */
+    private boolean restartROSpec(int ROSPEC_ID) throws ReaderException
+    {
+        log("Restarting the ROSpec : " + ROSPEC_ID);
+        START_ROSPEC start = new START_ROSPEC();
+        start.setROSpecID(new UnsignedInteger(ROSPEC_ID));
+        try
+        {
+            START_ROSPEC_RESPONSE response = (START_ROSPEC_RESPONSE) LLRP_SendReceive(start);
+            return response.getLLRPStatus().getStatusCode().intValue() == StatusCode.M_Success;
+        }
+        catch (ReaderCommException rce)
+        {
+            throw new ReaderException(rce.getMessage());
+        }
+    }
+
     /**
      * Starting an RO Specification
      * @param ROSPEC_ID
@@ -2789,7 +3063,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
 
     private ThingMagicISO180006BRead buildIso180006bReadOpSpec(TagOp tagOp) throws ReaderException
     {
-        paramSet(TMConstants.TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.ISO180006B);
+        tagOpProtocolParam.set(TagProtocol.ISO180006B);
 
         ThingMagicISO180006BRead read = new ThingMagicISO180006BRead();
 
@@ -2807,7 +3081,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
 
     private ThingMagicISO180006BWrite buildIso180006bWriteOpSpec(TagOp tagOp) throws ReaderException
     {
-        paramSet(TMConstants.TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.ISO180006B);
+        tagOpProtocolParam.set(TagProtocol.ISO180006B);
 
         ThingMagicISO180006BWrite write = new  ThingMagicISO180006BWrite();
         
@@ -2825,7 +3099,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
     
     private ThingMagicISO180006BLock buildIso180006bLockOpSpec(TagOp tagOp) throws ReaderException
     {
-        paramSet(TMConstants.TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.ISO180006B);
+        tagOpProtocolParam.set(TagProtocol.ISO180006B);
 
         ThingMagicISO180006BLock lock = new ThingMagicISO180006BLock();
 
@@ -3472,16 +3746,21 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
 
     private boolean verifyROSpecEndStatus()
     {        
-        for(int i=0; i< endOfROSpecFlags.length ; i++)
+        // Called from both the reading and the connection thread
+        synchronized (roSpecEndLock)
         {
-            //return false if yet to receive any event
-            if(!endOfROSpecFlags[i])
+            for(int i=0; i< endOfROSpecFlags.length ; i++)
             {
-                return false;
+                //return false if yet to receive any event
+                if(!endOfROSpecFlags[i])
+                {
+                    return false;
+                }
             }
         }
         // Received END OF ROSPEC event for all ROSPECS initiated
         endOfROSpec = true;
+        roSpecsEnded.countDown();
         return true;
     }
 
@@ -3550,6 +3829,15 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
      * @throws ReaderCommException
      */
     private LLRPMessage LLRP_SendReceive(LLRPMessage message, int timeout) throws ReaderCommException, ReaderException
+    {
+        if (batchResponses != null && inParamBatch())
+        {
+            return batchSendReceive(message, timeout);
+        }
+        return transact(message, timeout);
+    }
+
+    private LLRPMessage transact(LLRPMessage message, int timeout) throws ReaderCommException, ReaderException
     {
         if(readerConn!=null)
         {            
@@ -3612,6 +3900,356 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
         return LLRP_SendReceive(message, commandTimeout + transportTimeout);
     }
 
+    // A SET_READER_CONFIG deferred by paramSetAll
+    private static class PendingConfig
+    {
+        final String key;
+        final SET_READER_CONFIG message;
+        final Set<String> parts;
+        // Whether the setter reports the reader refusing it
+        final boolean checked;
+
+        PendingConfig(String key, SET_READER_CONFIG message, Set<String> parts, boolean checked)
+        {
+            this.key = key;
+            this.message = message;
+            this.parts = parts;
+            this.checked = checked;
+        }
+    }
+
+    @Override
+    void beginParamBatch()
+    {
+        batchResponses = new HashMap<ByteBuffer,byte[]>();
+        pendingConfigs = new ArrayList<PendingConfig>();
+        batchFailures = new LinkedHashMap<String,ReaderException>();
+    }
+
+    @Override
+    void endParamBatch(Map<String,ParamResult> results)
+    {
+        try
+        {
+            flushConfigs();
+            for (Map.Entry<String,ReaderException> failure : batchFailures.entrySet())
+            {
+                String key = failure.getKey();
+                results.put(key, new ParamResult(key, null, failure.getValue()));
+            }
+        }
+        finally
+        {
+            batchResponses = null;
+            pendingConfigs = null;
+            batchFailures = null;
+        }
+    }
+
+    /**
+     * Send a SET_READER_CONFIG made by a parameter setter. In a
+     * paramSetAll it waits to go out in one message with those of the
+     * parameters after it, until one of them sets the same part of the
+     * configuration or reads a part that it sets.
+     *
+     * @param checked whether to throw if the reader refuses it
+     */
+    private void setReaderConfig(SET_READER_CONFIG message, boolean checked) throws ReaderException
+    {
+        if (pendingConfigs != null && inParamBatch())
+        {
+            Set<String> parts = configParts(message);
+            if (pendingOverlaps(parts))
+            {
+                flushConfigs();
+            }
+            pendingConfigs.add(new PendingConfig(paramBatchKey, message, parts, checked));
+            return;
+        }
+        LLRPMessage response = LLRP_SendReceive(message);
+        if (checked && !configSucceeded(response))
+        {
+            throw configFailure(response);
+        }
+    }
+
+    /**
+     * Transact a message for paramGetAll or paramSetAll: answer a
+     * repeated configuration or capability request with the reader's
+     * first answer, unless settings still to be sent would change it.
+     */
+    private LLRPMessage batchSendReceive(LLRPMessage message, int timeout) throws ReaderException
+    {
+        if (!(message instanceof GET_READER_CONFIG) && !(message instanceof GET_READER_CAPABILITIES))
+        {
+            // Anything else may change what the reader reports
+            flushConfigs();
+            batchResponses.clear();
+            return transact(message, timeout);
+        }
+        ByteBuffer request;
+        try
+        {
+            // Requests differ only by message ID
+            byte[] encoded = message.encodeBinary();
+            Arrays.fill(encoded, 6, 10, (byte) 0);
+            request = ByteBuffer.wrap(encoded);
+        }
+        catch (InvalidLLRPMessageException ex)
+        {
+            throw new ReaderException(ex.getMessage());
+        }
+        LLRPMessage response = batchResponse(request);
+        if (null == response)
+        {
+            response = keepResponse(request, transact(message, timeout));
+        }
+        if (response instanceof GET_READER_CONFIG_RESPONSE
+            && pendingOverlaps(configParts((GET_READER_CONFIG_RESPONSE) response)))
+        {
+            flushConfigs();
+            response = keepResponse(request, transact(message, timeout));
+        }
+        return response;
+    }
+
+    // A fresh copy of a kept answer, as callers may change what they get
+    private LLRPMessage batchResponse(ByteBuffer request) throws ReaderException
+    {
+        byte[] response = batchResponses.get(request);
+        if (null == response)
+        {
+            return null;
+        }
+        try
+        {
+            return LLRPMessageFactory.createLLRPMessage(response);
+        }
+        catch (InvalidLLRPMessageException ex)
+        {
+            throw new ReaderException(ex.getMessage());
+        }
+    }
+
+    private LLRPMessage keepResponse(ByteBuffer request, LLRPMessage response) throws ReaderException
+    {
+        if (null != response)
+        {
+            try
+            {
+                batchResponses.put(request, response.encodeBinary());
+            }
+            catch (InvalidLLRPMessageException ex)
+            {
+                throw new ReaderException(ex.getMessage());
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Send the SET_READER_CONFIGs deferred by paramSetAll as one, and
+     * if the reader refuses that, one at a time to find out which of
+     * them it refuses.
+     */
+    private void flushConfigs()
+    {
+        if (pendingConfigs.isEmpty())
+        {
+            return;
+        }
+        List<PendingConfig> configs = new ArrayList<PendingConfig>(pendingConfigs);
+        pendingConfigs.clear();
+        batchResponses.clear();
+        int timeout = commandTimeout + transportTimeout;
+        SET_READER_CONFIG merged = new SET_READER_CONFIG();
+        merged.setResetToFactoryDefault(new Bit(0));
+        for (PendingConfig config : configs)
+        {
+            mergeConfig(merged, config.message);
+        }
+        try
+        {
+            LLRPMessage response = transact(merged, timeout);
+            if (configSucceeded(response))
+            {
+                return;
+            }
+            if (configs.size() == 1)
+            {
+                if (configs.get(0).checked)
+                {
+                    configFailed(configs.get(0).key, configFailure(response));
+                }
+                return;
+            }
+        }
+        catch (ReaderException ex)
+        {
+            for (PendingConfig config : configs)
+            {
+                configFailed(config.key, ex);
+            }
+            return;
+        }
+        for (PendingConfig config : configs)
+        {
+            try
+            {
+                LLRPMessage response = transact(config.message, timeout);
+                if (config.checked && !configSucceeded(response))
+                {
+                    configFailed(config.key, configFailure(response));
+                }
+            }
+            catch (ReaderException ex)
+            {
+                configFailed(config.key, ex);
+            }
+        }
+    }
+
+    private void configFailed(String key, ReaderException ex)
+    {
+        if (null != key && !batchFailures.containsKey(key))
+        {
+            batchFailures.put(key, ex);
+        }
+    }
+
+    private static boolean configSucceeded(LLRPMessage response)
+    {
+        return response instanceof SET_READER_CONFIG_RESPONSE
+          && ((SET_READER_CONFIG_RESPONSE) response).getLLRPStatus().getStatusCode().toString().equals("M_Success");
+    }
+
+    private static ReaderException configFailure(LLRPMessage response)
+    {
+        if (response instanceof SET_READER_CONFIG_RESPONSE)
+        {
+            return new ReaderException(((SET_READER_CONFIG_RESPONSE) response).getLLRPStatus().getErrorDescription().toString());
+        }
+        return new ReaderCommException("No response to SET_READER_CONFIG");
+    }
+
+    private static void mergeConfig(SET_READER_CONFIG merged, SET_READER_CONFIG config)
+    {
+        if (null != config.getReaderEventNotificationSpec())
+        {
+            merged.setReaderEventNotificationSpec(config.getReaderEventNotificationSpec());
+        }
+        if (null != config.getROReportSpec())
+        {
+            merged.setROReportSpec(config.getROReportSpec());
+        }
+        if (null != config.getAccessReportSpec())
+        {
+            merged.setAccessReportSpec(config.getAccessReportSpec());
+        }
+        if (null != config.getKeepaliveSpec())
+        {
+            merged.setKeepaliveSpec(config.getKeepaliveSpec());
+        }
+        if (null != config.getEventsAndReports())
+        {
+            merged.setEventsAndReports(config.getEventsAndReports());
+        }
+        if (null != config.getAntennaPropertiesList())
+        {
+            merged.getAntennaPropertiesList().addAll(config.getAntennaPropertiesList());
+        }
+        if (null != config.getAntennaConfigurationList())
+        {
+            merged.getAntennaConfigurationList().addAll(config.getAntennaConfigurationList());
+        }
+        if (null != config.getGPOWriteDataList())
+        {
+            merged.getGPOWriteDataList().addAll(config.getGPOWriteDataList());
+        }
+        if (null != config.getGPIPortCurrentStateList())
+        {
+            merged.getGPIPortCurrentStateList().addAll(config.getGPIPortCurrentStateList());
+        }
+        if (null != config.getCustomList())
+        {
+            merged.getCustomList().addAll(config.getCustomList());
+        }
+    }
+
+    private boolean pendingOverlaps(Set<String> parts)
+    {
+        for (PendingConfig config : pendingConfigs)
+        {
+            for (String part : parts)
+            {
+                if (config.parts.contains(part))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the names of the parts of the reader configuration a
+     * message sets, a custom parameter by vendor and subtype
+     */
+    private static Set<String> configParts(SET_READER_CONFIG message)
+    {
+        Set<String> parts = new HashSet<String>();
+        addPart(parts, "ReaderEventNotificationSpec", message.getReaderEventNotificationSpec());
+        addPart(parts, "AntennaProperties", message.getAntennaPropertiesList());
+        addPart(parts, "AntennaConfiguration", message.getAntennaConfigurationList());
+        addPart(parts, "ROReportSpec", message.getROReportSpec());
+        addPart(parts, "AccessReportSpec", message.getAccessReportSpec());
+        addPart(parts, "KeepaliveSpec", message.getKeepaliveSpec());
+        addPart(parts, "GPOWriteData", message.getGPOWriteDataList());
+        addPart(parts, "GPIPortCurrentState", message.getGPIPortCurrentStateList());
+        addPart(parts, "EventsAndReports", message.getEventsAndReports());
+        addCustomParts(parts, message.getCustomList());
+        return parts;
+    }
+
+    /**
+     * @return the names of the parts of the reader configuration a
+     * response reports
+     */
+    private static Set<String> configParts(GET_READER_CONFIG_RESPONSE response)
+    {
+        Set<String> parts = new HashSet<String>();
+        addPart(parts, "ReaderEventNotificationSpec", response.getReaderEventNotificationSpec());
+        addPart(parts, "AntennaProperties", response.getAntennaPropertiesList());
+        addPart(parts, "AntennaConfiguration", response.getAntennaConfigurationList());
+        addPart(parts, "ROReportSpec", response.getROReportSpec());
+        addPart(parts, "AccessReportSpec", response.getAccessReportSpec());
+        addPart(parts, "KeepaliveSpec", response.getKeepaliveSpec());
+        addPart(parts, "GPOWriteData", response.getGPOWriteDataList());
+        addPart(parts, "GPIPortCurrentState", response.getGPIPortCurrentStateList());
+        addPart(parts, "EventsAndReports", response.getEventsAndReports());
+        addCustomParts(parts, response.getCustomList());
+        return parts;
+    }
+
+    private static void addPart(Set<String> parts, String name, Object part)
+    {
+        if (null != part && !(part instanceof List && ((List) part).isEmpty()))
+        {
+            parts.add(name);
+        }
+    }
+
+    private static void addCustomParts(Set<String> parts, List<Custom> customs)
+    {
+        if (null != customs)
+        {
+            for (Custom custom : customs)
+            {
+                parts.add("Custom " + custom.getVendorIdentifier() + "/" + custom.getParameterSubtype());
+            }
+        }
+    }
+
     private static class RFMode
     {
         private String ePCHAGTCConformance;
@@ -3760,6 +4398,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
     @Override
     public void startReading()
     {
+        stopping = false;
         continuousReading = true;
         // reverting the shared variables
         roSpecId = 0;
@@ -3769,18 +4408,27 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
         {
             enableEventsAndReports();
             startBackgroundParser();
-            ReadPlan rp = (ReadPlan) paramGet(TMR_PARAM_READ_PLAN);
+            // With subscribers, a report is fetched only when they want
+            // more reads, so that reads wait on the reader, not in
+            // tagReportQueue
+            reportBatches.setPulling(!subscriptions.isEmpty());
+            reportBatches.started(System.currentTimeMillis());
+            startReportTimer();
+            ReadPlan rp = readPlanParam.get();
             deleteROSpecs();
             deleteAccessSpecs();
+            reportMetadata = metadataUsed(rp);
+            List<AccessSpec> accessSpecList = new ArrayList<AccessSpec>();
             if(rp instanceof MultiReadPlan)
             {
-                int asyncOnTime = (Integer)paramGet(TMR_PARAM_READ_ASYNCONTIME);
-                buildROSpec(rp, asyncOnTime, _roSpecList);
+                int asyncOnTime = asyncOnTimeParam.get();
+                buildROSpec(rp, asyncOnTime, _roSpecList, accessSpecList);
             }
             else
             {
-                buildROSpec(rp, 0, _roSpecList);
+                buildROSpec(rp, 0, _roSpecList, accessSpecList);
             }
+            addAccessSpecs(accessSpecList);
             for(ROSpec roSpec : _roSpecList)
             {
                 if(addROSpec(roSpec))
@@ -3807,6 +4455,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
     @Override
     public void stopReading()
     {
+        stopping = true;
         try
         {
             if(null != _roSpecList && !_roSpecList.isEmpty())
@@ -3831,11 +4480,95 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
         }
         finally
         {
+            stopReportTimer();
             stopBackgroundParser();
             continuousReading = false;
+            readingStopped();
         }
     }    
 
+    /**
+     * While reading continuously with a report timeout, ask the reader
+     * for the tags it holds whenever no report has come for that long.
+     * While pulling reports, ask whenever the subscribers want more.
+     */
+    private synchronized void startReportTimer()
+    {
+        stopReportTimer();
+        if (reportBatches.timeout() <= 0 && !reportBatches.pulling())
+        {
+            return;
+        }
+        int period = reportBatches.checkPeriod();
+        int delay = reportBatches.pulling() ? period : reportBatches.timeout();
+        reportTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                return Reader.newThread(threadFactory, r, "llrp report timer");
+            }
+        });
+        reportTimer.scheduleAtFixedRate(new Runnable()
+        {
+            public void run()
+            {
+                if (reportBatches.pulling())
+                {
+                    pullReport();
+                }
+                else if (reportBatches.flushDue(System.currentTimeMillis()))
+                {
+                    try
+                    {
+                        sendMessage(new GET_REPORT());
+                    }
+                    catch (ReaderException ex)
+                    {
+                        Logger.getLogger(LLRPReader.class.getName()).log(Level.SEVERE, null, ex);
+                    }
+                }
+            }
+        }, delay, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * When pulling reports, send a GET_REPORT if every subscriber wants
+     * more reads and the last report has been delivered.
+     */
+    void pullReport()
+    {
+        if (!continuousReading || stopping || demandSaturated()
+            || !tagReportQueue.isEmpty()
+            || !reportBatches.pullDue(System.currentTimeMillis()))
+        {
+            return;
+        }
+        try
+        {
+            sendMessage(new GET_REPORT());
+        }
+        catch (ReaderException ex)
+        {
+            Logger.getLogger(LLRPReader.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    @Override
+    void demandChanged()
+    {
+        super.demandChanged();
+        pullReport();
+    }
+
+    private synchronized void stopReportTimer()
+    {
+        if (null != reportTimer)
+        {
+            reportTimer.shutdownNow();
+            reportTimer = null;
+        }
+    }
+
     @Override
     public GpioPin[] gpiGet() throws ReaderException {
         GET_READER_CONFIG_RESPONSE response = getReaderConfigResponse(GetReaderConfigRequestedData.GPIPortCurrentState);
@@ -3939,6 +4672,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
             endOfROSpec = false;
             endOfAISpec = false;
             reportReceived = false;
+            reportArrived = new CountDownLatch(1);
             tagOpResponse = null;
 
             TagProtocol protocol;
@@ -3949,7 +4683,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
             }
             else
             {
-                protocol = (TagProtocol) paramGet(TMR_PARAM_TAGOP_PROTOCOL);
+                protocol = tagOpProtocolParam.get();
             }
             //Get the tagop antenna
             Integer antenna = (Integer) paramGet(TMR_PARAM_TAGOP_ANTENNA);
@@ -3957,7 +4691,10 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
             //Prepare ROSpec
             SimpleReadPlan srp = new SimpleReadPlan(new int[]{antenna}, protocol, target, tagOp, 0);
             List<ROSpec> roSpecList = new ArrayList<ROSpec>();
-            buildROSpec(srp, 0, roSpecList);
+            List<AccessSpec> accessSpecList = new ArrayList<AccessSpec>();
+            reportMetadata = null;
+            buildROSpec(srp, 0, roSpecList, accessSpecList);
+            addAccessSpecs(accessSpecList);
             enableROSpecFlags(roSpecList.size());
 
             ROSpec roSpec = roSpecList.get(0);
@@ -3974,21 +4711,11 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
             }
             // verify for any failures during ROSPEC enable, add or start
             verifyROSpecEndStatus();
-            while (!reportReceived)
+            //wait for the report of the operation
+            awaitEvent(reportArrived);
+            if(readerException != null)
             {
-                try
-                {
-                    Thread.sleep(10);
-                }
-                catch (InterruptedException ex)
-                {
-                    Logger.getLogger(LLRPReader.class.getName()).log(Level.SEVERE, null, ex);
-                }
-                //wait for end of ROSpec/AISpec event
-                if(readerException != null)
-                {
-                    throw readerException;
-                }
+                throw readerException;
             }
         }
         catch(ReaderException re)
@@ -4018,6 +4745,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
     public void webRequest(InputStream fwStr,FirmwareLoadOptions loadOptions)
             throws ReaderException, IOException
     {        
+        invalidateParamCache(true);
         // These are about to stop working                
         //readerConn = null;
         
@@ -4094,7 +4822,6 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
 
     protected class TagProcessor implements Runnable
     {
-        TagReportData ltkTagData;
         Reader reader;        
 
         public TagProcessor(LLRPReader readerName)
@@ -4108,15 +4835,10 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
             {                
                 try
                 {
-                    synchronized (tagReportQueue)
-                    {                                            
-                        if (tagReportQueue.isEmpty())
-                        {
-                            tagReportQueue.wait();
-                        }                                   
-                    } //end of sync block                    
-                    ltkTagData = tagReportQueue.take();
-                    processData(ltkTagData);                    
+                    // take() parks rather than waiting on a monitor, so
+                    // a virtual thread does not pin its carrier here
+                    processReport(tagReportQueue.take());
+                    pullReport();
                 } //end of infinite while loop
                 catch (InterruptedException ex)
                 {
@@ -4131,29 +4853,56 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
 
         public void parseOff()
         {
-            synchronized(tagReportQueue)
+            try
             {
-                try
-                {
-                    while(tagReportQueue.isEmpty() == false)
-                    {                        
-                        ltkTagData = tagReportQueue.take();
-                        processData(ltkTagData);                        
-                    }
+                // poll() rather than take(): the processor thread may
+                // empty the queue between a check and a take
+                Object report;
+                while((report = tagReportQueue.poll()) != null)
+                {                        
+                    processReport(report);
                 }
-                catch (InterruptedException ex)
+            }
+            catch (Exception ex)
+            {
+                Logger.getLogger(LLRPReader.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+
+        /**
+         * Convert the tags of one RO_ACCESS_REPORT and deliver them to
+         * the read listeners as one batch.
+         *
+         * @param report the LTK's List of TagReportData, or the
+         * TagReadData[] LLRPReportDecoder already made of them
+         */
+        @SuppressWarnings("unchecked")
+        public void processReport(Object report)
+        {
+            TagReadData[] reads;
+            if (report instanceof TagReadData[])
+            {
+                reads = (TagReadData[]) report;
+                if (!continuousReading)
                 {
-                    // do nothing
+                    Collections.addAll(readData, reads);
                 }
-                catch (Exception ex)
+            }
+            else
+            {
+                List<TagReportData> tags = (List<TagReportData>) report;
+                reads = new TagReadData[tags.size()];
+                for (int i = 0; i < reads.length; i++)
                 {
-                    Logger.getLogger(LLRPReader.class.getName()).log(Level.SEVERE, null, ex);
+                    reads[i] = processData(tags.get(i));
                 }
-            }//end of sync block            
+            }
+            reportReceived = true;
+            reportArrived.countDown();
+            notifyReadListeners(reads);
         }
 
-        BigInteger usPerMs = BigInteger.valueOf(1000);
-        public void processData(TagReportData tag)
+        public TagReadData processData(TagReportData tag)
         {
             String epc = null;
             if (tag.getEPCParameter() instanceof EPCData)
@@ -4219,26 +4968,29 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
                     }
                 }
             }
-            reportReceived = true;
-            notifyReadListeners(trData);
+            return trData;
         }
 
         private TagReadData parseTagData(TagReportData tag,TagReadData trData)
         {
-            trData.antenna = tag.getAntennaID().getAntennaID().intValue();
-            trData.readCount = tag.getTagSeenCount().getTagCount().intValue();
-            BigInteger usSinceEpoch = tag.getLastSeenTimestampUTC().getMicroseconds().toBigInteger();
-            trData.readBase = usSinceEpoch.divide(usPerMs).longValue();
+            // Fields left out of the report contents keep their defaults
+            trData.antenna = (tag.getAntennaID() == null) ? 0
+              : tag.getAntennaID().getAntennaID().intValue();
+            trData.readCount = (tag.getTagSeenCount() == null) ? 1
+              : tag.getTagSeenCount().getTagCount().intValue();
+            trData.readBase = (tag.getLastSeenTimestampUTC() == null)
+              ? System.currentTimeMillis()
+              : tag.getLastSeenTimestampUTC().getMicroseconds().toLong() / 1000;
             trData.readOffset = 0;
-            trData.rssi = tag.getPeakRSSI().getPeakRSSI().intValue();
+            trData.rssi = (tag.getPeakRSSI() == null) ? 0
+              : tag.getPeakRSSI().getPeakRSSI().intValue();
             trData.reader = reader;
-            int channelIndex = tag.getChannelIndex().getChannelIndex().intValue();
-            FrequencyHopTable fHopTable = frequencyHopTableList.get(0);
-            trData.frequency = fHopTable.getFrequency().get(channelIndex - 1).toInteger();
+            if (tag.getChannelIndex() != null)
+            {
+                trData.frequency = hopFrequency(tag.getChannelIndex().getChannelIndex().intValue());
+            }
             if (!continuousReading)
             {
-                //System.out.println("readata " + readData + " trData " + trData);
-                ((ArrayList) readData).ensureCapacity(50);
                 readData.add(trData);
             }
             return trData;
@@ -4633,13 +5385,13 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
                     getReportFlag = false;
                     // Get a list of the tags read.
                     List<TagReportData> tags = report.getTagReportDataList();
+                    reportBatches.reportReceived(tags.size(), System.currentTimeMillis());
                     //System.out.println("tags received from tmmpd : " + tags.size());
                     //System.out.println("outstanding tags in queue : " + tagReportQueue.size());
-                    synchronized(tagReportQueue)
+                    if (!tags.isEmpty())
                     {
-                        tagReportQueue.addAll(tags);                        
-                        tagReportQueue.notifyAll();
-                    }                    
+                        tagReportQueue.add(tags);
+                    }
                 }                     
                 else if(msgTypeNum == ERROR_MESSAGE.TYPENUM)
                 {
@@ -4724,7 +5476,7 @@ public class LLRPReader extends Reader implements com.thingmagic.Logger
                     //stopBackgroundParser();
                     //destroy();
                 }
-                if(getReportFlag && continuousReading)
+                if(getReportFlag && continuousReading && !reportBatches.pulling())
                 {
                     try {
                         getRoReports();
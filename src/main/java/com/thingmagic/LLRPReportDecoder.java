@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.mina.common.ByteBuffer;
+import org.apache.mina.common.IoFilterAdapter;
+import org.apache.mina.common.IoSession;
+
+/**
+ * Decodes the tags of an RO_ACCESS_REPORT straight from its binary
+ * encoding into TagReadData, without building the LTK parameter
+ * objects and without going through hex strings.
+ * <p>
+ *
+ * Only plain inventory reports are handled: every parameter of the
+ * report must be a TagReportData holding TV parameters and EPCData.
+ * Anything else, such as access operation results or custom
+ * parameters, makes decode() return null so that the report takes the
+ * LTK path instead. Fields the TagReportContentSelector left out keep
+ * their defaults: a read count of one and the host's time of decoding.
+ */
+final class LLRPReportDecoder
+{
+  static final int HEADER_LENGTH = 10;
+  static final int RO_ACCESS_REPORT = 61;
+  static final int TAG_REPORT_DATA = 240;
+  static final int EPC_DATA = 241;
+
+  // TV parameter types used below
+  static final int
+    ANTENNA_ID = 1,
+    LAST_SEEN_TIMESTAMP_UTC = 4,
+    PEAK_RSSI = 6,
+    CHANNEL_INDEX = 7,
+    TAG_SEEN_COUNT = 8,
+    ROSPEC_ID = 9,
+    C1G2_CRC = 11,
+    C1G2_PC = 12,
+    EPC_96 = 13;
+
+  // Value length of each TV parameter type (LLRP 1.0.1), -1 if unknown
+  private static final int[] TV_LENGTH = new int[128];
+  static
+  {
+    Arrays.fill(TV_LENGTH, -1);
+    int[][] lengths = {
+      {1, 2}, {2, 8}, {3, 8}, {4, 8}, {5, 8}, {6, 1}, {7, 2}, {8, 2},
+      {9, 4}, {10, 2}, {11, 2}, {12, 2}, {13, 12}, {14, 2}, {15, 2},
+      {16, 4}, {17, 2}, {18, 4}};
+    for (int[] l : lengths)
+    {
+      TV_LENGTH[l[0]] = l[1];
+    }
+  }
+
+  private final LLRPReader reader;
+
+  LLRPReportDecoder(LLRPReader reader)
+  {
+    this.reader = reader;
+  }
+
+  /**
+   * @return whether reports may skip the LTK path: not while raw
+   * messages go to transport listeners, nor for a standalone tag
+   * operation, whose results only the LTK path parses
+   */
+  boolean enabled()
+  {
+    return !reader.hasLLRPListeners && !reader.standalone;
+  }
+
+  /**
+   * Decode the tags of one RO_ACCESS_REPORT.
+   *
+   * @param b the buffer holding the message
+   * @param offset where the message header starts
+   * @param length the length of the message, from its header
+   * @return the reads, or null if the report needs the LTK path
+   */
+  TagReadData[] decode(byte[] b, int offset, int length)
+  {
+    List<TagReadData> reads = new ArrayList<TagReadData>();
+    int end = offset + length;
+    int p = offset + HEADER_LENGTH;
+    while (p < end)
+    {
+      if (end - p < 4 || (b[p] & 0x80) != 0)
+      {
+        return null;
+      }
+      int type = u16(b, p) & 0x3ff;
+      int plen = u16(b, p + 2);
+      if (type != TAG_REPORT_DATA || plen < 4 || p + plen > end)
+      {
+        return null;
+      }
+      TagReadData t = decodeTag(b, p + 4, p + plen);
+      if (t == null)
+      {
+        return null;
+      }
+      reads.add(t);
+      p += plen;
+    }
+    return reads.toArray(new TagReadData[reads.size()]);
+  }
+
+  private TagReadData decodeTag(byte[] b, int p, int end)
+  {
+    byte[] epc = null;
+    byte[] pc = null;
+    byte[] crc = null;
+    int roSpecId = 0;
+    TagReadData t = new TagReadData();
+    t.readCount = 1;
+    t.readBase = -1;
+
+    while (p < end)
+    {
+      int head = b[p] & 0xff;
+      if ((head & 0x80) != 0)
+      {
+        int type = head & 0x7f;
+        int n = TV_LENGTH[type];
+        if (n < 0 || p + 1 + n > end)
+        {
+          return null;
+        }
+        int v = p + 1;
+        switch (type)
+        {
+        case ANTENNA_ID:
+          t.antenna = u16(b, v);
+          break;
+        case LAST_SEEN_TIMESTAMP_UTC:
+          t.readBase = u64(b, v) / 1000;
+          break;
+        case PEAK_RSSI:
+          t.rssi = b[v];
+          break;
+        case CHANNEL_INDEX:
+          t.frequency = reader.hopFrequency(u16(b, v));
+          break;
+        case TAG_SEEN_COUNT:
+          t.readCount = u16(b, v);
+          break;
+        case ROSPEC_ID:
+          roSpecId = (int)u32(b, v);
+          break;
+        case C1G2_CRC:
+          crc = Arrays.copyOfRange(b, v, v + 2);
+          break;
+        case C1G2_PC:
+          pc = Arrays.copyOfRange(b, v, v + 2);
+          break;
+        case EPC_96:
+          epc = Arrays.copyOfRange(b, v, v + 12);
+          break;
+        default:
+          break;  // not reported by TagReadData
+        }
+        p = v + n;
+      }
+      else
+      {
+        if (end - p < 4)
+        {
+          return null;
+        }
+        int type = u16(b, p) & 0x3ff;
+        int plen = u16(b, p + 2);
+        if (type != EPC_DATA || plen < 6 || p + plen > end)
+        {
+          return null;
+        }
+        int bytes = (u16(b, p + 4) + 7) / 8;
+        if (6 + bytes > plen)
+        {
+          return null;
+        }
+        epc = Arrays.copyOfRange(b, p + 6, p + 6 + bytes);
+        p += plen;
+      }
+    }
+    if (epc == null)
+    {
+      return null;
+    }
+
+    TagProtocol protocol = reader.mapRoSpecIdToProtocol.get(roSpecId);
+    if (protocol == TagProtocol.GEN2 && pc != null)
+    {
+      t.tag = new Gen2.TagData(epc, crc, pc);
+      t.readProtocol = TagProtocol.GEN2;
+    }
+    else if (protocol == TagProtocol.ISO180006B)
+    {
+      t.tag = new Iso180006b.TagData(epc);
+      t.readProtocol = TagProtocol.ISO180006B;
+    }
+    else
+    {
+      t.tag = new TagData(epc);
+    }
+    if (t.readBase < 0)
+    {
+      t.readBase = System.currentTimeMillis();
+    }
+    t.reader = reader;
+    return t;
+  }
+
+  static int u16(byte[] b, int p)
+  {
+    return ((b[p] & 0xff) << 8) | (b[p + 1] & 0xff);
+  }
+
+  static long u32(byte[] b, int p)
+  {
+    return ((long)u16(b, p) << 16) | u16(b, p + 2);
+  }
+
+  static long u64(byte[] b, int p)
+  {
+    return (u32(b, p) << 32) | u32(b, p + 4);
+  }
+
+  /**
+   * Sits in front of the LTK codec of a reader connection. It frames
+   * the incoming byte stream into LLRP messages, decodes the
+   * RO_ACCESS_REPORTs it can and passes every other message on to the
+   * codec untouched and in order.
+   */
+  static final class Filter extends IoFilterAdapter
+  {
+    static final String NAME = "tagReports";
+
+    private final LLRPReportDecoder decoder;
+    private byte[] pending = new byte[4096];
+    private int pendingLength;
+
+    Filter(LLRPReportDecoder decoder)
+    {
+      this.decoder = decoder;
+    }
+
+    @Override
+    public void messageReceived(NextFilter next, IoSession session, Object message)
+      throws Exception
+    {
+      if (!(message instanceof ByteBuffer))
+      {
+        next.messageReceived(session, message);
+        return;
+      }
+      append((ByteBuffer)message);
+
+      int p = 0;
+      int passFrom = 0;
+      while (pendingLength - p >= HEADER_LENGTH)
+      {
+        long length = u32(pending, p + 2);
+        if (length < HEADER_LENGTH || length > Integer.MAX_VALUE)
+        {
+          // Not a message boundary after all; leave it to the codec
+          p = pendingLength;
+          break;
+        }
+        if (pendingLength - p < length)
+        {
+          break;
+        }
+        int type = u16(pending, p) & 0x3ff;
+        if (type == RO_ACCESS_REPORT && decoder.enabled())
+        {
+          TagReadData[] reads = decoder.decode(pending, p, (int)length);
+          if (reads != null)
+          {
+            pass(next, session, passFrom, p);
+            decoder.reader.reportDecoded(reads);
+            passFrom = p + (int)length;
+          }
+        }
+        p += (int)length;
+      }
+      pass(next, session, passFrom, p);
+      System.arraycopy(pending, p, pending, 0, pendingLength - p);
+      pendingLength -= p;
+    }
+
+    private void append(ByteBuffer in)
+    {
+      int n = in.remaining();
+      if (pendingLength + n > pending.length)
+      {
+        pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + n));
+      }
+      in.get(pending, pendingLength, n);
+      pendingLength += n;
+    }
+
+    private void pass(NextFilter next, IoSession session, int from, int to)
+    {
+      if (from < to)
+      {
+        next.messageReceived(session,
+          ByteBuffer.wrap(Arrays.copyOfRange(pending, from, to)));
+      }
+    }
+  }
+}
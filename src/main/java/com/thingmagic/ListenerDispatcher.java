@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers events to one listener on a thread of its own, through a
+ * bounded queue, so a slow listener only delays itself.
+ * <p>
+ *
+ * dispatch() never blocks: when the queue is full the oldest queued
+ * event is dropped to make room, so the thread producing the events
+ * (the notifier, or the serial receive path) keeps its pace. A
+ * listener that throws keeps receiving events; the first exception is
+ * logged as a warning.
+ */
+abstract class ListenerDispatcher<E> implements Runnable
+{
+  static final int DEFAULT_CAPACITY = 1024;
+  private static final long PARK_NANOS = 1000000L;
+
+  private static class Queued<E>
+  {
+    final E event;
+    final long queuedAt;
+
+    Queued(E event, long queuedAt)
+    {
+      this.event = event;
+      this.queuedAt = queuedAt;
+    }
+  }
+
+  final Object listener;
+  private final BlockingQueue<Queued<E>> queue;
+  private final Thread thread;
+
+  private final AtomicLong accepted = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private volatile long delivered;
+  private volatile long lagNanos;
+  private volatile long maxLagNanos;
+  private boolean failed;
+
+  ListenerDispatcher(Object listener, int capacity, ThreadFactory threads)
+  {
+    this.listener = listener;
+    queue = new ArrayBlockingQueue<Queued<E>>(capacity);
+    thread = Reader.newThread(threads, this, "listener dispatcher");
+    thread.start();
+  }
+
+  /**
+   * Hand an event to the listener
+   */
+  abstract void deliver(E event);
+
+  /**
+   * Queue an event, dropping the oldest queued event if the queue is full.
+   */
+  void dispatch(E event)
+  {
+    Queued<E> q = new Queued<E>(event, System.nanoTime());
+    accepted.incrementAndGet();
+    while (!queue.offer(q))
+    {
+      if (queue.poll() != null)
+      {
+        dropped.incrementAndGet();
+      }
+    }
+  }
+
+  public void run()
+  {
+    try
+    {
+      while (true)
+      {
+        Queued<E> q = queue.take();
+        long lag = System.nanoTime() - q.queuedAt;
+        lagNanos = lag;
+        if (lag > maxLagNanos)
+        {
+          maxLagNanos = lag;
+        }
+        try
+        {
+          deliver(q.event);
+        }
+        catch (RuntimeException re)
+        {
+          // Warn once; a listener that always throws would flood the log
+          Logger.getLogger(ListenerDispatcher.class.getName())
+            .log(failed ? Level.FINE : Level.WARNING,
+                 "Listener " + listener + " threw", re);
+          failed = true;
+        }
+        delivered++;
+      }
+    }
+    catch (InterruptedException ie)
+    {
+      // shutdown() uses interrupt() to end this thread
+    }
+  }
+
+  /**
+   * Wait until every queued event has been delivered or dropped.
+   */
+  void drain()
+    throws InterruptedException
+  {
+    while (delivered + dropped.get() < accepted.get() && thread.isAlive())
+    {
+      LockSupport.parkNanos(this, PARK_NANOS);
+      if (Thread.interrupted())
+      {
+        throw new InterruptedException();
+      }
+    }
+  }
+
+  /**
+   * Stop the dispatch thread; events still queued are discarded.
+   */
+  void shutdown()
+  {
+    thread.interrupt();
+  }
+
+  Reader.ListenerStats stats()
+  {
+    return new Reader.ListenerStats(listener, queue.size(), delivered,
+                                    dropped.get(), lagNanos / 1000000,
+                                    maxLagNanos / 1000000);
+  }
+}
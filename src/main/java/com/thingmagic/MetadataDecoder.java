@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import com.thingmagic.TagReadData.TagMetadataFlag;
+
+import static com.thingmagic.EmbeddedReaderMessage.*;
+
+/**
+ * Decoder for the metadata that precedes each tag in a get tag buffer
+ * or streamed read tag multiple response, specialized for one
+ * metadata flag word.
+ * <p>
+ *
+ * The module sends the metadata fields in a fixed order and only the
+ * DATA field has a variable length, so the offset of every other field
+ * within a record follows from the flag word alone. A decoder works
+ * those offsets out once and then fills a TagReadData straight from
+ * the message bytes, without building a flag set per read. Decoders
+ * are immutable and cached for every combination of the known flag
+ * bits, as are the flag sets handed to TagReadData and the GPIO pin
+ * arrays, so decoding allocates nothing beyond the read data bytes.
+ */
+final class MetadataDecoder
+{
+  /** Flag bits with a field in the response; others are ignored */
+  static final int KNOWN_BITS = TAG_METADATA_ALL | TAG_METADATA_DATA;
+
+  private static final MetadataDecoder[] decoders
+    = new MetadataDecoder[KNOWN_BITS + 1];
+  private static final TagProtocol[] protocols = new TagProtocol[256];
+  private static final Reader.GpioPin[][] gpio2 = gpioStates(2);
+  private static final Reader.GpioPin[][] gpio4 = gpioStates(4);
+
+  static
+  {
+    for (int code : SerialReader.codeToProtocolMap.keySet())
+    {
+      protocols[code & 0xff] = SerialReader.codeToProtocolMap.get(code);
+    }
+  }
+
+  final int bits;
+  final Set<TagMetadataFlag> flags;
+
+  // Offsets from the start of the record, or -1 if the field is absent
+  private final int readCount, rssi, antenna, frequency, timestamp,
+    phase, protocol, data, gpio;
+  // Record length before any DATA bytes
+  private final int length;
+
+  private MetadataDecoder(int bits)
+  {
+    EnumSet<TagMetadataFlag> set = EnumSet.noneOf(TagMetadataFlag.class);
+    int offset = 0;
+
+    this.bits = bits;
+    readCount = field(bits, TAG_METADATA_READCOUNT, offset);
+    offset += (readCount < 0) ? 0 : 1;
+    rssi = field(bits, TAG_METADATA_RSSI, offset);
+    offset += (rssi < 0) ? 0 : 1;
+    antenna = field(bits, TAG_METADATA_ANTENNAID, offset);
+    offset += (antenna < 0) ? 0 : 1;
+    frequency = field(bits, TAG_METADATA_FREQUENCY, offset);
+    offset += (frequency < 0) ? 0 : 3;
+    timestamp = field(bits, TAG_METADATA_TIMESTAMP, offset);
+    offset += (timestamp < 0) ? 0 : 4;
+    phase = field(bits, TAG_METADATA_PHASE, offset);
+    offset += (phase < 0) ? 0 : 2;
+    protocol = field(bits, TAG_METADATA_PROTOCOL, offset);
+    offset += (protocol < 0) ? 0 : 1;
+    data = field(bits, TAG_METADATA_DATA, offset);
+    offset += (data < 0) ? 0 : 2;
+    gpio = field(bits, TAG_METADATA_GPIO_STATUS, offset);
+    offset += (gpio < 0) ? 0 : 1;
+    length = offset;
+
+    for (TagMetadataFlag f : TagMetadataFlag.values())
+    {
+      if (f != TagMetadataFlag.ALL
+          && 0 != (SerialReader.tagMetadataFlagValues.get(f) & bits))
+      {
+        set.add(f);
+      }
+    }
+    flags = Collections.unmodifiableSet(set);
+  }
+
+  private static int field(int bits, int flag, int offset)
+  {
+    return ((bits & flag) != 0) ? offset : -1;
+  }
+
+  /**
+   * Every combination of levels of the given number of input pins,
+   * indexed by the GPIO status byte.
+   */
+  private static Reader.GpioPin[][] gpioStates(int pins)
+  {
+    Reader.GpioPin[][] states = new Reader.GpioPin[1 << pins][];
+    for (int s = 0; s < states.length; s++)
+    {
+      states[s] = new Reader.GpioPin[pins];
+      for (int i = 0; i < pins; i++)
+      {
+        states[s][i] = new Reader.GpioPin(i + 1, ((s >> i) & 1) == 1);
+      }
+    }
+    return states;
+  }
+
+  /**
+   * @param bits the metadata flag word from the module response
+   * @return the decoder for the known flags in that word
+   */
+  static MetadataDecoder forBits(int bits)
+  {
+    bits &= KNOWN_BITS;
+    MetadataDecoder d = decoders[bits];
+    if (d == null)
+    {
+      // A racing thread may build a duplicate; either one is correct.
+      d = new MetadataDecoder(bits);
+      decoders[bits] = d;
+    }
+    return d;
+  }
+
+  /**
+   * @return whether records carry no metadata at all
+   */
+  boolean isEmpty()
+  {
+    return bits == 0;
+  }
+
+  /**
+   * Fill in the metadata of a read from the record at m.readIndex and
+   * advance m.readIndex past it.
+   *
+   * @param t the read to fill in
+   * @param m the response holding the record
+   * @param gpioPins number of GPIO inputs reported by the module
+   */
+  void decode(TagReadData t, SerialReader.Message m, int gpioPins)
+  {
+    byte[] b = m.data;
+    int i = m.readIndex;
+    int end = i + length;
+
+    t.metadataFlags = flags;
+    if (readCount >= 0)
+    {
+      t.readCount = b[i + readCount] & 0xff;
+    }
+    if (rssi >= 0)
+    {
+      t.rssi = b[i + rssi];  // keep the sign here
+    }
+    if (antenna >= 0)
+    {
+      t.antenna = b[i + antenna] & 0xff;
+    }
+    if (frequency >= 0)
+    {
+      int o = i + frequency;
+      t.frequency = ((b[o] & 0xff) << 16) | ((b[o + 1] & 0xff) << 8)
+        | (b[o + 2] & 0xff);
+    }
+    if (timestamp >= 0)
+    {
+      int o = i + timestamp;
+      t.readOffset = ((b[o] & 0xff) << 24) | ((b[o + 1] & 0xff) << 16)
+        | ((b[o + 2] & 0xff) << 8) | (b[o + 3] & 0xff);
+    }
+    if (phase >= 0)
+    {
+      t.phase = ((b[i + phase] & 0xff) << 8) | (b[i + phase + 1] & 0xff);
+    }
+    if (protocol >= 0)
+    {
+      t.readProtocol = protocols[b[i + protocol] & 0xff];
+    }
+    if (data >= 0)
+    {
+      int o = i + data;
+      int dataBits = ((b[o] & 0xff) << 8) | (b[o + 1] & 0xff);
+      int dataLength = (dataBits + 7) / 8;
+      t.setData(b, o + 2, dataLength);
+      end += dataLength;
+    }
+    if (gpio >= 0)
+    {
+      // GPIO follows DATA, so it is found from the end of the record
+      int state = b[end - 1];
+      t.gpio = (gpioPins == 2) ? gpio2[state & 0x03] : gpio4[state & 0x0f];
+    }
+    m.readIndex = end;
+  }
+}
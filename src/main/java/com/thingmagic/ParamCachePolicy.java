@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.lang.reflect.Array;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * How long Reader.paramGet may answer from the last value it fetched
+ * for a parameter, rather than asking the device again.
+ * <p>
+ *
+ * IMMUTABLE values are fixed for as long as the device runs its
+ * firmware, and are only fetched again after a reconnect, firmware
+ * load or reboot. WRITE_THROUGH values only change when the
+ * application sets them; the value set is kept, and they are fetched
+ * again after their TTL in case the device was changed some other way.
+ * VOLATILE values change by themselves and are kept for a short TTL, to
+ * spare the device the polling of status displays. Parameters that are
+ * not listed are fetched on every call, as before.
+ * <p>
+ *
+ * Setting a parameter drops its own kept value, which a WRITE_THROUGH
+ * setting then replaces with the value set. The few settings that
+ * change what other parameters report, such as the region, drop every
+ * kept WRITE_THROUGH and VOLATILE value (Scope).
+ */
+enum ParamCachePolicy
+{
+  NONE,
+  IMMUTABLE,
+  WRITE_THROUGH,
+  VOLATILE;
+
+  /**
+   * Which kept values setting a parameter makes doubtful.
+   */
+  enum Scope
+  {
+    /** Its own only */
+    OWN,
+    /** Every WRITE_THROUGH and VOLATILE value */
+    OTHERS,
+    /** Every value, IMMUTABLE ones too */
+    ALL
+  }
+
+  static final int DEFAULT_WRITE_THROUGH_TTL_MS = 10000;
+  static final int DEFAULT_VOLATILE_TTL_MS = 1000;
+
+  private static final Map<String,ParamCachePolicy> policies
+    = new HashMap<String,ParamCachePolicy>();
+
+  private static final Map<String,Scope> scopes = new HashMap<String,Scope>();
+
+  private static void classify(ParamCachePolicy policy, String... names)
+  {
+    for (String name : names)
+    {
+      policies.put(name.toLowerCase(), policy);
+    }
+  }
+
+  private static void scope(Scope scope, String... names)
+  {
+    for (String name : names)
+    {
+      scopes.put(name.toLowerCase(), scope);
+    }
+  }
+
+  static
+  {
+    classify(IMMUTABLE,
+      TMConstants.TMR_PARAM_VERSION_HARDWARE,
+      TMConstants.TMR_PARAM_VERSION_MODEL,
+      TMConstants.TMR_PARAM_VERSION_SERIAL,
+      TMConstants.TMR_PARAM_VERSION_SOFTWARE,
+      TMConstants.TMR_PARAM_VERSION_SUPPORTEDPROTOCOLS,
+      TMConstants.TMR_PARAM_READER_PRODUCTGROUP,
+      TMConstants.TMR_PARAM_READER_PRODUCTGROUPID,
+      TMConstants.TMR_PARAM_REGION_SUPPORTEDREGIONS,
+      TMConstants.TMR_PARAM_ANTENNA_PORTLIST,
+      TMConstants.TMR_PARAM_GPIO_INPUTLIST,
+      TMConstants.TMR_PARAM_GPIO_OUTPUTLIST);
+    classify(WRITE_THROUGH,
+      TMConstants.TMR_PARAM_RADIO_READPOWER,
+      TMConstants.TMR_PARAM_RADIO_WRITEPOWER,
+      TMConstants.TMR_PARAM_RADIO_PORTREADPOWERLIST,
+      TMConstants.TMR_PARAM_RADIO_PORTWRITEPOWERLIST,
+      TMConstants.TMR_PARAM_RADIO_POWERMAX,
+      TMConstants.TMR_PARAM_RADIO_POWERMIN,
+      TMConstants.TMR_PARAM_REGION_ID,
+      TMConstants.TMR_PARAM_REGION_HOPTABLE,
+      TMConstants.TMR_PARAM_REGION_HOPTIME,
+      TMConstants.TMR_PARAM_REGION_LBT_ENABLE,
+      TMConstants.TMR_PARAM_GEN2_SESSION,
+      TMConstants.TMR_PARAM_GEN2_Q,
+      TMConstants.TMR_PARAM_GEN2_TARGET,
+      TMConstants.TMR_PARAM_GEN2_TAGENCODING,
+      TMConstants.TMR_PARAM_GEN2_BLF,
+      TMConstants.TMR_PARAM_GEN2_TARI,
+      TMConstants.TMR_PARAM_ANTENNA_SETTLINGTIMELIST,
+      TMConstants.TMR_PARAM_TAGREADDATA_UNIQUEBYANTENNA,
+      TMConstants.TMR_PARAM_TAGREADDATA_UNIQUEBYDATA,
+      TMConstants.TMR_PARAM_TAGREADDATA_RECORDHIGHESTRSSI,
+      TMConstants.TMR_PARAM_READER_DESCRIPTION,
+      TMConstants.TMR_PARAM_HOSTNAME);
+    classify(VOLATILE,
+      TMConstants.TMR_PARAM_RADIO_TEMPERATURE,
+      TMConstants.TMR_PARAM_ANTENNA_CONNECTEDPORTLIST,
+      TMConstants.TMR_PARAM_READER_STATISTICS);
+
+    // Region limits power and the hop table, the link settings
+    // constrain one another, and the powers share their limits
+    scope(Scope.OTHERS,
+      TMConstants.TMR_PARAM_REGION_ID,
+      TMConstants.TMR_PARAM_POWERMODE,
+      TMConstants.TMR_PARAM_USER_CONFIG,
+      TMConstants.TMR_PARAM_RADIO_READPOWER,
+      TMConstants.TMR_PARAM_RADIO_WRITEPOWER,
+      TMConstants.TMR_PARAM_RADIO_PORTREADPOWERLIST,
+      TMConstants.TMR_PARAM_RADIO_PORTWRITEPOWERLIST,
+      TMConstants.TMR_PARAM_GEN2_BLF,
+      TMConstants.TMR_PARAM_GEN2_TARI,
+      TMConstants.TMR_PARAM_GEN2_TAGENCODING,
+      TMConstants.TMR_PARAM_ANTENNA_CHECKPORT,
+      TMConstants.TMR_PARAM_ANTENNA_TXRXMAP);
+    // These change the ports, protocols and regions the device offers
+    scope(Scope.ALL,
+      TMConstants.TMR_PARAM_ANTENNA_PORTSWITCHGPOS,
+      TMConstants.TMR_PARAM_LICENSE_KEY);
+  }
+
+  /**
+   * @return the policy of a parameter, by name in any case
+   */
+  static ParamCachePolicy of(String name)
+  {
+    ParamCachePolicy p = policies.get(name.toLowerCase());
+    return (p == null) ? NONE : p;
+  }
+
+  /**
+   * @return which kept values setting a parameter makes doubtful, by
+   * name in any case
+   */
+  static Scope scopeOf(String name)
+  {
+    Scope s = scopes.get(name.toLowerCase());
+    return (s == null) ? Scope.OWN : s;
+  }
+
+  /**
+   * @return a copy of a kept value that the caller may modify without
+   * changing what later calls see; values that are not arrays are
+   * immutable or shared as before
+   */
+  static Object copy(Object value)
+  {
+    if (value == null || !value.getClass().isArray())
+    {
+      return value;
+    }
+    int length = Array.getLength(value);
+    Object copy = Array.newInstance(value.getClass().getComponentType(), length);
+    if (value.getClass().getComponentType().isArray())
+    {
+      for (int i = 0; i < length; i++)
+      {
+        Array.set(copy, i, copy(Array.get(value, i)));
+      }
+    }
+    else
+    {
+      System.arraycopy(value, 0, copy, 0, length);
+    }
+    return copy;
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.Map;
+
+/**
+ * A typed handle on one parameter of one Reader, obtained with
+ * Reader.paramKey(). It finds the parameter once and then reads and
+ * writes it directly, without the name lookup of Reader.paramGet()
+ * and Reader.paramSet() and without casts, which is worth having for
+ * parameters used on every read cycle or tag operation. Get and set
+ * otherwise behave as paramGet and paramSet do.
+ * <p>
+ *
+ * A handle stays valid across reconnects: when the reader rebuilds its
+ * parameter table, the handle finds its parameter again on next use.
+ */
+public final class ParamKey<T>
+{
+  private final Reader reader;
+  private final String name;
+  private final Class<T> type;
+  private volatile Binding binding;
+
+  // The setting found in one parameter table of the reader
+  private static final class Binding
+  {
+    final Map<String,Reader.Setting> params;
+    final Reader.Setting setting;
+
+    Binding(Map<String,Reader.Setting> params, Reader.Setting setting)
+    {
+      this.params = params;
+      this.setting = setting;
+    }
+  }
+
+  ParamKey(Reader reader, String name, Class<T> type)
+  {
+    this.reader = reader;
+    this.name = name;
+    this.type = type;
+  }
+
+  /**
+   * @return the name of the parameter
+   */
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * @return the type of the parameter's values
+   */
+  public Class<T> getType()
+  {
+    return type;
+  }
+
+  /**
+   * Get the value of the parameter.
+   *
+   * @return the value of the parameter
+   * @throws IllegalArgumentException if the reader does not have the
+   * parameter
+   */
+  public T get()
+    throws ReaderException
+  {
+    return type.cast(reader.getSetting(setting(), name));
+  }
+
+  /**
+   * Set the value of the parameter.
+   *
+   * @param value the value of the parameter
+   * @throws IllegalArgumentException if the reader does not have the
+   * parameter, or it is read-only
+   */
+  public void set(T value)
+    throws ReaderException
+  {
+    reader.setSetting(setting(), name, value);
+  }
+
+  Reader.Setting setting()
+  {
+    Binding b = binding;
+    Map<String,Reader.Setting> params = reader.params;
+    if (b == null || b.params != params)
+    {
+      b = new Binding(params, reader.findSetting(params, name, type));
+      binding = b;
+    }
+    return b.setting;
+  }
+
+  @Override
+  public String toString()
+  {
+    return name;
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+/**
+ * The outcome for one parameter of Reader.paramGetAll() or
+ * Reader.paramSetAll(): the value got or set, or the exception that
+ * paramGet() or paramSet() would have thrown for it.
+ */
+public final class ParamResult
+{
+  private final String key;
+  private final Object value;
+  private final Exception error;
+
+  ParamResult(String key, Object value, Exception error)
+  {
+    this.key = key;
+    this.value = value;
+    this.error = error;
+  }
+
+  /**
+   * @return the name of the parameter
+   */
+  public String getKey()
+  {
+    return key;
+  }
+
+  /**
+   * @return the value got or set, or null if the operation failed
+   */
+  public Object getValue()
+  {
+    return value;
+  }
+
+  /**
+   * @return the ReaderException or RuntimeException (typically an
+   * IllegalArgumentException) raised for this parameter, or null if
+   * the operation succeeded
+   */
+  public Exception getError()
+  {
+    return error;
+  }
+
+  /**
+   * @return whether the operation succeeded for this parameter
+   */
+  public boolean succeeded()
+  {
+    return error == null;
+  }
+
+  @Override
+  public String toString()
+  {
+    return key + "=" + (error == null ? value : error);
+  }
+}
@@ -21,6 +21,7 @@
  */
 package com.thingmagic;
 
+import java.util.Set;
 
 /**
  * An instance of class ReadPlan represents an ordering of search
@@ -33,6 +34,19 @@ public abstract class ReadPlan
 {
   public int weight;
 
+  /**
+   * The read metadata the application uses from reads made with this
+   * plan, or null (the default) to fetch all of it. Serial readers
+   * fetch only these values, together with those wanted by the read
+   * listeners (see MetadataConsumer) and those the reader needs
+   * itself, and so spend fewer bytes per tag on the serial link.
+   * LLRP readers likewise leave the unused fields out of their tag
+   * reports. Values not fetched read as zero. Serial readers always
+   * fetch the timestamp; on LLRP a read without one is given the time
+   * its report was decoded.
+   */
+  public Set<TagReadData.TagMetadataFlag> metadata;
+
   protected ReadPlan()
   {
     weight = 1000;
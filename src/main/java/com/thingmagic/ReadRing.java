@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring of read batches between the thread that reads tags and
+ * the thread that notifies the read listeners.
+ * <p>
+ *
+ * There is one producer and one consumer at a time. A producer may
+ * hand over to another (the continuous reader thread, then the thread
+ * that stops the stream) as long as the handover is ordered by a lock
+ * or a thread start/join, as it is in Reader. Neither side takes a
+ * lock: the producer publishes by advancing tail and the consumer
+ * claims by advancing head. head is advanced by CAS because the
+ * DROP_OLDEST and SAMPLE policies let the producer claim the oldest
+ * batch too. A side that has to wait parks, and the other side unparks
+ * it once it has made progress.
+ * <p>
+ *
+ * Depth and dropped counts are in batches and reads respectively; a
+ * batch is one search cycle or one chunk of a stream.
+ */
+final class ReadRing
+{
+  static final int DEFAULT_CAPACITY = 1024;
+  static final int SAMPLE_INTERVAL = 8;
+  private static final long PARK_NANOS = 1000000L;
+
+  private final AtomicReferenceArray<TagReadData[]> slots;
+  private final int mask;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+  private volatile Reader.ReadQueuePolicy policy;
+
+  private volatile Thread waitingConsumer;
+  private volatile Thread waitingProducer;
+
+  // Counters, written by the producer only
+  private volatile int highWater;
+  private volatile long droppedReads;
+  private volatile long droppedBatches; // published, then dropped by the producer
+  private long sampleCount;             // producer
+
+  /**
+   * @param capacity the number of batches the ring holds, rounded up to
+   * a power of two
+   */
+  ReadRing(int capacity, Reader.ReadQueuePolicy policy)
+  {
+    if (capacity < 1)
+    {
+      throw new IllegalArgumentException("Queue capacity must be positive");
+    }
+    int n = 1;
+    while (n < capacity)
+    {
+      n <<= 1;
+    }
+    slots = new AtomicReferenceArray<TagReadData[]>(n);
+    mask = n - 1;
+    this.policy = policy;
+  }
+
+  int capacity()
+  {
+    return mask + 1;
+  }
+
+  void setPolicy(Reader.ReadQueuePolicy policy)
+  {
+    this.policy = policy;
+  }
+
+  Reader.ReadQueuePolicy policy()
+  {
+    return policy;
+  }
+
+  /**
+   * Publish a batch, applying the policy if the ring is full.
+   *
+   * @throws InterruptedException if interrupted while waiting for room
+   * under the BLOCK policy; the batch is then not published
+   */
+  void put(TagReadData[] reads)
+    throws InterruptedException
+  {
+    long t = tail.get();
+    if (t - head.get() > mask)
+    {
+      switch (policy)
+      {
+      case DROP_NEWEST:
+        droppedReads += reads.length;
+        return;
+      case SAMPLE:
+        // Let one batch in SAMPLE_INTERVAL displace the oldest, so the
+        // listeners see a thinned view of the whole overload
+        if (++sampleCount % SAMPLE_INTERVAL != 0)
+        {
+          droppedReads += reads.length;
+          return;
+        }
+        dropOldest(t);
+        break;
+      case DROP_OLDEST:
+        dropOldest(t);
+        break;
+      default:
+        awaitRoom(t);
+        break;
+      }
+    }
+
+    slots.set((int)t & mask, reads);
+    tail.set(t + 1);
+    int depth = (int)(t + 1 - head.get());
+    if (depth > highWater)
+    {
+      highWater = depth;
+    }
+    Thread c = waitingConsumer;
+    if (c != null)
+    {
+      LockSupport.unpark(c);
+    }
+  }
+
+  private void dropOldest(long t)
+  {
+    while (true)
+    {
+      long h = head.get();
+      if (t - h <= mask)
+      {
+        return;  // the consumer made room meanwhile
+      }
+      TagReadData[] oldest = slots.get((int)h & mask);
+      if (head.compareAndSet(h, h + 1))
+      {
+        slots.compareAndSet((int)h & mask, oldest, null);
+        if (oldest != null)
+        {
+          droppedReads += oldest.length;
+        }
+        droppedBatches++;
+        return;
+      }
+    }
+  }
+
+  private void awaitRoom(long t)
+    throws InterruptedException
+  {
+    waitingProducer = Thread.currentThread();
+    try
+    {
+      while (t - head.get() > mask)
+      {
+        LockSupport.parkNanos(this, PARK_NANOS);
+        if (Thread.interrupted())
+        {
+          throw new InterruptedException();
+        }
+      }
+    }
+    finally
+    {
+      waitingProducer = null;
+    }
+  }
+
+  /**
+   * Take the oldest batch, waiting for one if the ring is empty.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  TagReadData[] take()
+    throws InterruptedException
+  {
+    while (true)
+    {
+      long h = head.get();
+      if (h == tail.get())
+      {
+        awaitBatch(h);
+        continue;
+      }
+      int i = (int)h & mask;
+      TagReadData[] reads = slots.get(i);
+      if (reads != null && head.compareAndSet(h, h + 1))
+      {
+        slots.compareAndSet(i, reads, null);
+        Thread p = waitingProducer;
+        if (p != null)
+        {
+          LockSupport.unpark(p);
+        }
+        return reads;
+      }
+      // The producer dropped this batch, or has claimed the slot for a
+      // newer one; look again
+    }
+  }
+
+  private void awaitBatch(long h)
+    throws InterruptedException
+  {
+    waitingConsumer = Thread.currentThread();
+    try
+    {
+      // Checked again after registering, so a put in between is not missed
+      while (h == tail.get() && h == head.get())
+      {
+        LockSupport.parkNanos(this, PARK_NANOS);
+        if (Thread.interrupted())
+        {
+          throw new InterruptedException();
+        }
+      }
+    }
+    finally
+    {
+      waitingConsumer = null;
+    }
+  }
+
+  boolean isEmpty()
+  {
+    return head.get() == tail.get();
+  }
+
+  /**
+   * @param delivered the number of batches the consumer has finished with
+   * @return whether every published batch has been delivered or
+   * dropped. Taking a batch empties the ring before the consumer has
+   * delivered it, so isEmpty() alone does not say that.
+   */
+  boolean settled(long delivered)
+  {
+    return delivered + droppedBatches >= tail.get();
+  }
+
+  Reader.ReadQueueStats stats()
+  {
+    long t = tail.get();
+    int depth = (int)Math.max(0, t - head.get());
+    return new Reader.ReadQueueStats(depth, highWater, droppedReads);
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+/**
+ * A receiver of tag reads with demand-driven flow control, registered
+ * with Reader.subscribe(). It has the shape of a reactive-streams
+ * (java.util.concurrent.Flow) Subscriber: onSubscribe is called first,
+ * then onNext once per read, never more often than the reads asked for
+ * with ReadSubscription.request(), and finally at most one of onError
+ * or onComplete. The methods of one subscriber are never called
+ * concurrently.
+ */
+public interface ReadSubscriber
+{
+  /**
+   * Invoked before any other method, with the subscription to request
+   * reads from or cancel
+   *
+   * @param s the subscription
+   */
+  void onSubscribe(ReadSubscription s);
+
+  /**
+   * Invoked for each requested tag read
+   *
+   * @param t the tag data and metadata
+   */
+  void onNext(TagReadData t);
+
+  /**
+   * Invoked when reading fails or the subscription is misused; no
+   * further methods are called
+   *
+   * @param t the ReaderException from the reader, or an
+   * IllegalArgumentException for a non-positive request
+   */
+  void onError(Throwable t);
+
+  /**
+   * Invoked after the last read of a stopReading(); no further methods
+   * are called
+   */
+  void onComplete();
+}
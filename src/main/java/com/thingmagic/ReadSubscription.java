@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+/**
+ * The link between a Reader and a ReadSubscriber, with the shape of a
+ * java.util.concurrent.Flow.Subscription. Demand is fed back into
+ * reading: while any subscriber has no outstanding demand, a reader
+ * doing timed background reads pauses between search cycles, an LLRP
+ * reader asks for a tag report only when every subscriber wants more,
+ * and other read paths block their delivering thread once the
+ * subscription's buffer is full, rather than dropping or queueing
+ * reads without bound.
+ */
+public interface ReadSubscription
+{
+  /**
+   * Ask for up to n more reads. Demand adds up, and saturates at
+   * Long.MAX_VALUE, which means "unbounded".
+   *
+   * @param n the number of reads, which must be positive
+   */
+  void request(long n);
+
+  /**
+   * Stop delivering reads to the subscriber and release the reader.
+   */
+  void cancel();
+}
@@ -22,14 +22,24 @@
 package com.thingmagic;
 
 import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Set;
 import com.thingmagic.SerialReader.StatusReport;
 import java.util.Vector;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.IdentityHashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.io.InputStream;
@@ -59,6 +69,7 @@ abstract public class Reader
 {
 
   final protected List<ReadListener> readListeners;
+  final protected List<BatchReadListener> batchReadListeners;
   final protected List<ReadExceptionListener> readExceptionListeners;
   protected List<StatusListener> statusListeners;
   boolean connected;
@@ -69,9 +80,41 @@ abstract public class Reader
   ContinuousReader continuousReader;
   BackgroundNotifier backgroundNotifier;
   ExceptionNotifier exceptionNotifier;
-  final BlockingQueue<TagReadData> tagReadQueue;
+  volatile ReadRing tagReadQueue;
+  int readQueueCapacity = ReadRing.DEFAULT_CAPACITY;
+  volatile ThreadFactory threadFactory = DAEMON_THREADS;
+  volatile boolean isolatedDispatch;
+  final List<TagReadSubscription> subscriptions
+    = new CopyOnWriteArrayList<TagReadSubscription>();
+  volatile boolean stopping;
+  private volatile Thread demandWaiter;
+  int listenerQueueCapacity = ListenerDispatcher.DEFAULT_CAPACITY;
+  final Map<ReadListener,ListenerDispatcher<TagReadData[]>> readDispatchers
+    = new IdentityHashMap<ReadListener,ListenerDispatcher<TagReadData[]>>();
+  final Map<BatchReadListener,ListenerDispatcher<TagReadData[]>> batchDispatchers
+    = new IdentityHashMap<BatchReadListener,ListenerDispatcher<TagReadData[]>>();
+  final Map<ReadExceptionListener,ListenerDispatcher<ReaderException>> exceptionDispatchers
+    = new IdentityHashMap<ReadExceptionListener,ListenerDispatcher<ReaderException>>();
+  final Map<StatusListener,ListenerDispatcher<StatusReport[]>> statusDispatchers
+    = new IdentityHashMap<StatusListener,ListenerDispatcher<StatusReport[]>>();
   final BlockingQueue<ReaderException> exceptionQueue;
   Map<String,Setting> params;
+  volatile int writeThroughTtlMs = ParamCachePolicy.DEFAULT_WRITE_THROUGH_TTL_MS;
+  volatile int volatileTtlMs = ParamCachePolicy.DEFAULT_VOLATILE_TTL_MS;
+  // paramGetAll and paramSetAll run one at a time, on paramBatchThread
+  private final Object paramBatchLock = new Object();
+  private volatile Thread paramBatchThread;
+  // The parameter paramSetAll is setting, for readers that defer writes
+  String paramBatchKey;
+  // Handles on the parameters used on every read cycle or tag operation
+  final ParamKey<ReadPlan> readPlanParam
+    = new ParamKey<ReadPlan>(this, TMR_PARAM_READ_PLAN, ReadPlan.class);
+  final ParamKey<Integer> asyncOnTimeParam
+    = new ParamKey<Integer>(this, TMR_PARAM_READ_ASYNCONTIME, Integer.class);
+  final ParamKey<Integer> asyncOffTimeParam
+    = new ParamKey<Integer>(this, TMR_PARAM_READ_ASYNCOFFTIME, Integer.class);
+  final ParamKey<TagProtocol> tagOpProtocolParam
+    = new ParamKey<TagProtocol>(this, TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.class);
   Map<StatusListener,StatusReport> statusMap;
   URI uri;
   boolean isTrueAsyncStopped=false;
@@ -102,6 +145,85 @@ abstract public class Reader
       /** Unrestricted access to full hardware range */ MANUFACTURING;
   }
 
+  /**
+   * What happens to the reads of a background or streaming read when
+   * the read listeners fall behind and the read queue
+   * (/reader/read/queue/capacity batches) is full.
+   */
+  public enum ReadQueuePolicy
+  {
+      /** The reading thread waits for room */ BLOCK,
+      /** The oldest queued batch is dropped */ DROP_OLDEST,
+      /** The new batch is dropped */ DROP_NEWEST,
+      /** One new batch in eight replaces the oldest; the rest are dropped */ SAMPLE;
+  }
+
+  /**
+   * A snapshot of the read queue counters, from /reader/read/queue/stats.
+   * They cover the current or most recent startReading().
+   */
+  public static class ReadQueueStats
+  {
+    /** Batches of reads waiting for the read listeners */
+    final public int depth;
+    /** The largest depth reached */
+    final public int highWaterMark;
+    /** Reads dropped under the DROP_OLDEST, DROP_NEWEST or SAMPLE policy */
+    final public long droppedReads;
+
+    public ReadQueueStats(int depth, int highWaterMark, long droppedReads)
+    {
+      this.depth = depth;
+      this.highWaterMark = highWaterMark;
+      this.droppedReads = droppedReads;
+    }
+
+    @Override
+    public String toString()
+    {
+      return String.format("depth:%d highWater:%d dropped:%d",
+                           depth, highWaterMark, droppedReads);
+    }
+  }
+
+  /**
+   * Per-listener counters under isolated dispatch, from
+   * /reader/listener/stats.
+   */
+  public static class ListenerStats
+  {
+    /** The ReadListener, BatchReadListener, ReadExceptionListener or StatusListener */
+    final public Object listener;
+    /** Events waiting for the listener */
+    final public int depth;
+    /** Events the listener has been given */
+    final public long delivered;
+    /** Events dropped because the listener's queue was full */
+    final public long dropped;
+    /** How long the most recently delivered event waited, in milliseconds */
+    final public long lagMs;
+    /** The longest any event has waited, in milliseconds */
+    final public long maxLagMs;
+
+    public ListenerStats(Object listener, int depth, long delivered,
+                         long dropped, long lagMs, long maxLagMs)
+    {
+      this.listener = listener;
+      this.depth = depth;
+      this.delivered = delivered;
+      this.dropped = dropped;
+      this.lagMs = lagMs;
+      this.maxLagMs = maxLagMs;
+    }
+
+    @Override
+    public String toString()
+    {
+      return String.format("%s depth:%d delivered:%d dropped:%d lag:%dms maxLag:%dms",
+                           listener, depth, delivered, dropped, lagMs, maxLagMs);
+    }
+  }
+
   static final Map<Reader.Region, Integer> regionToCodeMap;
   static
   {
@@ -156,13 +278,14 @@ abstract public class Reader
   Reader()
   {
     readListeners = new Vector<ReadListener>();
+    batchReadListeners = new Vector<BatchReadListener>();
     readExceptionListeners = new Vector<ReadExceptionListener>();
     statusListeners = new ArrayList<StatusListener>();
     statusListeners = Collections.synchronizedList(statusListeners);
     statusMap = new HashMap<StatusListener,StatusReport>();
     connected = false;
     
-    tagReadQueue = new LinkedBlockingQueue<TagReadData>();
+    tagReadQueue = new ReadRing(readQueueCapacity, ReadQueuePolicy.BLOCK);
     exceptionQueue = new LinkedBlockingQueue<ReaderException>();
 
     initparams();
@@ -427,6 +550,228 @@ abstract public class Reader
    */
   public abstract void killTag(TagFilter target, TagAuthentication auth)
     throws ReaderException;
+  /**
+   * The default ThreadFactory: platform daemon threads.
+   */
+  static final ThreadFactory DAEMON_THREADS = new ThreadFactory()
+  {
+    public Thread newThread(Runnable r)
+    {
+      Thread t = new Thread(r);
+      t.setDaemon(true);
+      return t;
+    }
+  };
+
+  /**
+   * Set the factory for the threads this reader starts: the background
+   * or continuous reader, the notifiers, listener dispatchers, the RQL
+   * receiver and the LLRP report parser and report timer. The default
+   * makes platform daemon threads, apart from the RQL receiver, which
+   * stays a non-daemon thread as it always was. A factory that makes virtual threads
+   * (on a JVM that has them) keeps the thread count and memory of a
+   * process driving many readers flat. Threads already running are not
+   * replaced.
+   *
+   * @param factory the ThreadFactory to use
+   */
+  public void setThreadFactory(ThreadFactory factory)
+  {
+    if (factory == null)
+    {
+      throw new IllegalArgumentException("ThreadFactory must not be null");
+    }
+    threadFactory = factory;
+  }
+
+  /**
+   * @return the factory for the threads this reader starts
+   */
+  public ThreadFactory getThreadFactory()
+  {
+    return threadFactory;
+  }
+
+  /**
+   * Make a thread with the given factory, named after its role.
+   */
+  static Thread newThread(ThreadFactory factory, Runnable r, String name)
+  {
+    Thread t = factory.newThread(r);
+    t.setName(name);
+    return t;
+  }
+
+  /**
+   * Read RFID tags for a fixed duration, handing out the reads while
+   * the read is in progress instead of all at the end. See
+   * TagReadStream.
+   *
+   * @param duration the read duration, in milliseconds
+   * @return the reads, as they arrive
+   */
+  public TagReadStream stream(long duration)
+  {
+    return new TagReadStream(this, duration);
+  }
+
+  /**
+   * Read for the given duration, adding the reads to sink. Readers that
+   * can add them a chunk at a time as they are fetched override this;
+   * repeated reads of a tag are then left in place for the caller.
+   */
+  void readInto(long duration, ReadSink sink)
+    throws ReaderException
+  {
+    sink.addReads(Arrays.asList(read(duration)));
+  }
+
+  /**
+   * Work out which read metadata the application uses, from the read
+   * plan's metadata and the read listeners that are MetadataConsumers.
+   *
+   * @return the metadata used, or null for all of it: when nothing
+   * declares, or when a read listener or subscriber does not
+   */
+  Set<TagReadData.TagMetadataFlag> metadataUsed(ReadPlan rp)
+  {
+    Set<TagReadData.TagMetadataFlag> used
+      = EnumSet.noneOf(TagReadData.TagMetadataFlag.class);
+    boolean declared = (rp.metadata != null);
+    if (declared)
+    {
+      used.addAll(rp.metadata);
+    }
+    if (!subscriptions.isEmpty())
+    {
+      return null;
+    }
+    List<Object> listeners = new ArrayList<Object>(readListeners);
+    listeners.addAll(batchReadListeners);
+    for (Object l : listeners)
+    {
+      if (!(l instanceof MetadataConsumer))
+      {
+        return null;
+      }
+      used.addAll(((MetadataConsumer) l).metadataUsed());
+      declared = true;
+    }
+    if (!declared || used.contains(TagReadData.TagMetadataFlag.ALL))
+    {
+      return null;
+    }
+    return used;
+  }
+
+  /**
+   * Set up the filter that drops repeated reads from a stream(), by
+   * the same uniqueBy* settings read() merges them by. Only the first
+   * read of each tag is passed on; its count and RSSI are not merged
+   * with those of the repeats, as it has been handed out already.
+   *
+   * @return whether the filter is to be used; by default it is not,
+   * as readInto() has already merged the reads
+   */
+  boolean startStreamFilter(StreamingReadFilter filter)
+    throws ReaderException
+  {
+    return false;
+  }
+
+  /**
+   * Subscribe to the reads of the next startReading(), with flow
+   * control: the subscriber is given only as many reads as it has
+   * requested, and reading is held back while it has requested none
+   * (see ReadSubscription). The subscription completes after the last
+   * read of stopReading(), and fails on the first read exception.
+   * Subscribers take the place of the default read and exception
+   * listeners.
+   *
+   * @param subscriber the ReadSubscriber to add
+   */
+  public void subscribe(ReadSubscriber subscriber)
+  {
+    if (subscriber == null)
+    {
+      throw new IllegalArgumentException("Subscriber must not be null");
+    }
+    TagReadSubscription s = new TagReadSubscription(this, subscriber);
+    customAdded[0] = true;
+    customAdded[1] = true;
+    subscriber.onSubscribe(s);
+    subscriptions.add(s);
+  }
+
+  void unsubscribe(TagReadSubscription s)
+  {
+    subscriptions.remove(s);
+  }
+
+  /**
+   * Wake a background reader held back for want of demand.
+   */
+  void demandChanged()
+  {
+    Thread t = demandWaiter;
+    if (t != null)
+    {
+      LockSupport.unpark(t);
+    }
+  }
+
+  /**
+   * Hold off the next search cycle while any subscriber has no
+   * outstanding demand, or until reading is stopped.
+   */
+  void awaitReadDemand()
+    throws InterruptedException
+  {
+    demandWaiter = Thread.currentThread();
+    try
+    {
+      while (!stopping && demandSaturated())
+      {
+        LockSupport.parkNanos(this, 10000000L);
+        if (Thread.interrupted())
+        {
+          throw new InterruptedException();
+        }
+      }
+    }
+    finally
+    {
+      demandWaiter = null;
+    }
+  }
+
+  /**
+   * @return whether any subscriber has no outstanding demand
+   */
+  boolean demandSaturated()
+  {
+    for (TagReadSubscription s : subscriptions)
+    {
+      if (s.saturated())
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Called by stopReading() implementations once the last read has
+   * been delivered: completes every subscription.
+   */
+  void readingStopped()
+  {
+    for (TagReadSubscription s : subscriptions)
+    {
+      s.complete();
+    }
+  }
+
   /** 
    * Register a listener to be notified of asynchronous RFID read events.
    *
@@ -462,6 +807,31 @@ abstract public class Reader
           customAdded[0] = false;
       }
       readListeners.remove(listener);
+      retireDispatcher(readDispatchers, listener);
+  }
+
+  /** 
+   * Register a listener to be notified of asynchronous RFID read
+   * events a batch at a time.
+   *
+   * @param listener the BatchReadListener to add
+   */
+  public void addBatchReadListener(BatchReadListener listener)
+  {
+      customAdded[0] = true;
+      batchReadListeners.add(listener);
+  }
+
+  /** 
+   * Remove a listener from the list of listeners notified of batches
+   * of asynchronous RFID read events.
+   *
+   * @param listener the BatchReadListener to remove
+   */
+  public void removeBatchReadListener(BatchReadListener listener)
+  {
+      batchReadListeners.remove(listener);
+      retireDispatcher(batchDispatchers, listener);
   }
 
 
@@ -492,6 +862,7 @@ abstract public class Reader
             customAdded[1] = false;
         }
         readExceptionListeners.remove(listener);
+        retireDispatcher(exceptionDispatchers, listener);
     }
 
     /**
@@ -522,13 +893,13 @@ abstract public class Reader
    */
   protected synchronized void startReadingGivenRead(boolean isContinuous)
   {
+    stopping = false;
     if(isContinuous)
     {        
         if (continuousReader == null)
         {     
             continuousReader = new ContinuousReader();
-            readerThread = new Thread(continuousReader, "continuous reader");
-            readerThread.setDaemon(true);
+            readerThread = newThread(threadFactory, continuousReader, "continuous reader");
             readerThread.start();
         }
     }
@@ -537,23 +908,22 @@ abstract public class Reader
         if (backgroundReader == null)
         {
             backgroundReader = new BackgroundReader();
-            readerThread = new Thread(backgroundReader, "background reader");
-            readerThread.setDaemon(true);
+            readerThread = newThread(threadFactory, backgroundReader, "background reader");
             readerThread.start();
         }
     }
     if (backgroundNotifier == null)
     {
+      // Start each session with an empty queue and fresh counters
+      tagReadQueue = new ReadRing(readQueueCapacity, tagReadQueue.policy());
       backgroundNotifier = new BackgroundNotifier();
-      notifierThread = new Thread(backgroundNotifier, "background notifier");
-      notifierThread.setDaemon(true);
+      notifierThread = newThread(threadFactory, backgroundNotifier, "background notifier");
       notifierThread.start();
     }
     if (exceptionNotifier == null)
     {
       exceptionNotifier = new ExceptionNotifier();
-      exceptionNotifierThread = new Thread(exceptionNotifier, "exception notifier");
-      exceptionNotifierThread.setDaemon(true);
+      exceptionNotifierThread = newThread(threadFactory, exceptionNotifier, "exception notifier");
       exceptionNotifierThread.start();
     }
     if(isContinuous)
@@ -572,6 +942,8 @@ abstract public class Reader
   protected void stopReadingGivenRead()
     throws InterruptedException
   {
+      stopping = true;
+      demandChanged();
 
       if (continuousReader != null) {
           continuousReader.readOff();
@@ -594,34 +966,213 @@ abstract public class Reader
           exceptionNotifier = null;
           exceptionNotifierThread.interrupt();
       }
+      for (ListenerDispatcher<?> d : dispatchers()) {
+          d.drain();
+      }
   }
 
+    /**
+     * Hand a batch of reads to the notifier thread through the read
+     * queue, or deliver it on this thread if no notifier is running.
+     */
+    void publishReads(TagReadData[] reads)
+      throws InterruptedException
+    {
+        if (backgroundNotifier != null) {
+            tagReadQueue.put(reads);
+        } else {
+            notifyReadListeners(reads);
+        }
+    }
+
     void notifyReadListeners(TagReadData t) {
+        notifyReadListeners(new TagReadData[] {t});
+    }
 
+    /**
+     * Deliver a batch of reads: each one to every ReadListener, then the
+     * whole batch to every BatchReadListener. Each listener list is
+     * locked once per batch.
+     */
+    void notifyReadListeners(TagReadData[] reads) {
+        if (reads.length == 0) {
+            return;
+        }
         synchronized (readListeners) {
             for (ReadListener rl : readListeners) {
-                rl.tagRead(this, t);
+                if (isolatedDispatch) {
+                    readDispatcher(rl).dispatch(reads);
+                    continue;
+                }
+                for (TagReadData t : reads) {
+                    rl.tagRead(this, t);
+                }
+            }
+        }
+        synchronized (batchReadListeners) {
+            for (BatchReadListener bl : batchReadListeners) {
+                if (isolatedDispatch) {
+                    batchDispatcher(bl).dispatch(reads);
+                    continue;
+                }
+                bl.tagsRead(this, reads);
             }
         }
+        for (TagReadSubscription s : subscriptions) {
+            s.offer(reads);
+        }
     }
 
     void notifyExceptionListeners(ReaderException re) {
         synchronized (readExceptionListeners) {
             for (ReadExceptionListener rel : readExceptionListeners) {
+                if (isolatedDispatch) {
+                    exceptionDispatcher(rel).dispatch(re);
+                    continue;
+                }
                 rel.tagReadException(this, re);
             }
         }
+        for (TagReadSubscription s : subscriptions) {
+            s.fail(re);
+        }
     }
 
     void notifyStatusListeners(StatusReport[] t) {
         synchronized (statusListeners) {
             for (StatusListener rl : statusListeners) {
-
+                if (isolatedDispatch) {
+                    statusDispatcher(rl).dispatch(t);
+                    continue;
+                }
                 rl.statusMessage(this, t);
             }
         }
     }
 
+    /*
+     * Isolated dispatch: each listener gets a ListenerDispatcher of its
+     * own the first time it is notified, and keeps it until it is
+     * removed or isolated dispatch is turned off.
+     */
+
+    private ListenerDispatcher<TagReadData[]> readDispatcher(final ReadListener rl) {
+        synchronized (readDispatchers) {
+            ListenerDispatcher<TagReadData[]> d = readDispatchers.get(rl);
+            if (d == null) {
+                d = new ListenerDispatcher<TagReadData[]>(rl, listenerQueueCapacity, threadFactory) {
+                    void deliver(TagReadData[] reads) {
+                        for (TagReadData t : reads) {
+                            rl.tagRead(Reader.this, t);
+                        }
+                    }
+                };
+                readDispatchers.put(rl, d);
+            }
+            return d;
+        }
+    }
+
+    private ListenerDispatcher<TagReadData[]> batchDispatcher(final BatchReadListener bl) {
+        synchronized (batchDispatchers) {
+            ListenerDispatcher<TagReadData[]> d = batchDispatchers.get(bl);
+            if (d == null) {
+                d = new ListenerDispatcher<TagReadData[]>(bl, listenerQueueCapacity, threadFactory) {
+                    void deliver(TagReadData[] reads) {
+                        bl.tagsRead(Reader.this, reads);
+                    }
+                };
+                batchDispatchers.put(bl, d);
+            }
+            return d;
+        }
+    }
+
+    private ListenerDispatcher<ReaderException> exceptionDispatcher(final ReadExceptionListener rel) {
+        synchronized (exceptionDispatchers) {
+            ListenerDispatcher<ReaderException> d = exceptionDispatchers.get(rel);
+            if (d == null) {
+                d = new ListenerDispatcher<ReaderException>(rel, listenerQueueCapacity, threadFactory) {
+                    void deliver(ReaderException re) {
+                        rel.tagReadException(Reader.this, re);
+                    }
+                };
+                exceptionDispatchers.put(rel, d);
+            }
+            return d;
+        }
+    }
+
+    private ListenerDispatcher<StatusReport[]> statusDispatcher(final StatusListener sl) {
+        synchronized (statusDispatchers) {
+            ListenerDispatcher<StatusReport[]> d = statusDispatchers.get(sl);
+            if (d == null) {
+                d = new ListenerDispatcher<StatusReport[]>(sl, listenerQueueCapacity, threadFactory) {
+                    void deliver(StatusReport[] reports) {
+                        sl.statusMessage(Reader.this, reports);
+                    }
+                };
+                statusDispatchers.put(sl, d);
+            }
+            return d;
+        }
+    }
+
+    static <L, E> void retireDispatcher(Map<L,ListenerDispatcher<E>> map, L listener) {
+        ListenerDispatcher<E> d;
+        synchronized (map) {
+            d = map.remove(listener);
+        }
+        if (d != null) {
+            d.shutdown();
+        }
+    }
+
+    private List<ListenerDispatcher<?>> dispatchers() {
+        List<ListenerDispatcher<?>> all = new ArrayList<ListenerDispatcher<?>>();
+        synchronized (readDispatchers) {
+            all.addAll(readDispatchers.values());
+        }
+        synchronized (batchDispatchers) {
+            all.addAll(batchDispatchers.values());
+        }
+        synchronized (exceptionDispatchers) {
+            all.addAll(exceptionDispatchers.values());
+        }
+        synchronized (statusDispatchers) {
+            all.addAll(statusDispatchers.values());
+        }
+        return all;
+    }
+
+    /**
+     * Deliver whatever the dispatchers still hold, then stop them.
+     */
+    private void shutdownDispatchers() {
+        for (ListenerDispatcher<?> d : dispatchers()) {
+            try {
+                d.drain();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (ListenerDispatcher<?> d : dispatchers()) {
+            d.shutdown();
+        }
+        synchronized (readDispatchers) {
+            readDispatchers.clear();
+        }
+        synchronized (batchDispatchers) {
+            batchDispatchers.clear();
+        }
+        synchronized (exceptionDispatchers) {
+            exceptionDispatchers.clear();
+        }
+        synchronized (statusDispatchers) {
+            statusDispatchers.clear();
+        }
+    }
+
   
   public static class GpioPin
   {
@@ -729,10 +1280,18 @@ abstract public class Reader
     SettingAction action;
     boolean writable;
     boolean confirmed;
+    // Whether value may answer paramGet, as of cachedAt (System.nanoTime)
+    final ParamCachePolicy cachePolicy;
+    // Which kept values setting it makes doubtful
+    final ParamCachePolicy.Scope setScope;
+    boolean cached;
+    long cachedAt;
 
     Setting(String name, Class t, Object def, boolean w, SettingAction act, boolean confirmed)
     {
       originalName = name;
+      cachePolicy = ParamCachePolicy.of(name);
+      setScope = ParamCachePolicy.scopeOf(name);
       type = t;
       value = def;
       writable = w;
@@ -782,6 +1341,131 @@ abstract public class Reader
                 return value;
             }
         });
+    addParam(TMR_PARAM_READ_QUEUE_CAPACITY,
+             Integer.class, readQueueCapacity, true,
+             new SettingAction()
+             {
+               public Object set(Object value)
+               {
+                 if ((Integer)value < 1)
+                 {
+                   throw new IllegalArgumentException("Read queue capacity must be positive");
+                 }
+                 // Takes effect at the next startReading()
+                 readQueueCapacity = (Integer)value;
+                 return value;
+               }
+               public Object get(Object value)
+               {
+                 return readQueueCapacity;
+               }
+             });
+    addParam(TMR_PARAM_READ_QUEUE_POLICY,
+             ReadQueuePolicy.class, ReadQueuePolicy.BLOCK, true,
+             new SettingAction()
+             {
+               public Object set(Object value)
+               {
+                 if (value == null)
+                 {
+                   throw new IllegalArgumentException("Read queue policy must not be null");
+                 }
+                 tagReadQueue.setPolicy((ReadQueuePolicy)value);
+                 return value;
+               }
+               public Object get(Object value)
+               {
+                 return tagReadQueue.policy();
+               }
+             });
+    addParam(TMR_PARAM_READ_QUEUE_STATS,
+             ReadQueueStats.class, null, false,
+             new ReadOnlyAction()
+             {
+               public Object get(Object value)
+               {
+                 return tagReadQueue.stats();
+               }
+             });
+    addParam(TMR_PARAM_LISTENER_ISOLATED_DISPATCH,
+             Boolean.class, false, true,
+             new SettingAction()
+             {
+               public Object set(Object value)
+               {
+                 isolatedDispatch = (Boolean)value;
+                 if (!isolatedDispatch)
+                 {
+                   shutdownDispatchers();
+                 }
+                 return value;
+               }
+               public Object get(Object value)
+               {
+                 return isolatedDispatch;
+               }
+             });
+    addParam(TMR_PARAM_LISTENER_QUEUE_CAPACITY,
+             Integer.class, listenerQueueCapacity, true,
+             new SettingAction()
+             {
+               public Object set(Object value)
+               {
+                 if ((Integer)value < 1)
+                 {
+                   throw new IllegalArgumentException("Listener queue capacity must be positive");
+                 }
+                 // Applies to dispatchers created from now on
+                 listenerQueueCapacity = (Integer)value;
+                 return value;
+               }
+               public Object get(Object value)
+               {
+                 return listenerQueueCapacity;
+               }
+             });
+    addParam(TMR_PARAM_PARAMCACHE_WRITETHROUGH_TTL,
+             Integer.class, ParamCachePolicy.DEFAULT_WRITE_THROUGH_TTL_MS, true,
+             new SettingAction()
+             {
+               public Object set(Object value)
+               {
+                 writeThroughTtlMs = nonNegative((Integer) value);
+                 return value;
+               }
+               public Object get(Object value)
+               {
+                 return writeThroughTtlMs;
+               }
+             });
+    addParam(TMR_PARAM_PARAMCACHE_VOLATILE_TTL,
+             Integer.class, ParamCachePolicy.DEFAULT_VOLATILE_TTL_MS, true,
+             new SettingAction()
+             {
+               public Object set(Object value)
+               {
+                 volatileTtlMs = nonNegative((Integer) value);
+                 return value;
+               }
+               public Object get(Object value)
+               {
+                 return volatileTtlMs;
+               }
+             });
+    addParam(TMR_PARAM_LISTENER_STATS,
+             ListenerStats[].class, null, false,
+             new ReadOnlyAction()
+             {
+               public Object get(Object value)
+               {
+                 List<ListenerStats> stats = new ArrayList<ListenerStats>();
+                 for (ListenerDispatcher<?> d : dispatchers())
+                 {
+                   stats.add(d.stats());
+                 }
+                 return stats.toArray(new ListenerStats[stats.size()]);
+               }
+             });
         addParam(TMR_PARAM_GEN2_ACCESSPASSWORD,
              Gen2.Password.class, new Gen2.Password(0), true,
              new SettingAction()
@@ -907,7 +1591,22 @@ abstract public class Reader
    * <li> /reader/radio/writePower
    * <li> /reader/read/asyncOffTime
    * <li> /reader/read/asyncOnTime
+   * <li> /reader/read/clockDrift
+   * <li> /reader/read/cycle/adaptive
+   * <li> /reader/read/cycle/maxTime
+   * <li> /reader/read/cycle/stats
    * <li> /reader/read/plan
+   * <li> /reader/read/queue/capacity
+   * <li> /reader/read/queue/policy
+   * <li> /reader/read/queue/stats
+   * <li> /reader/read/report/adaptive
+   * <li> /reader/read/report/tagCount
+   * <li> /reader/read/report/timeout
+   * <li> /reader/listener/isolatedDispatch
+   * <li> /reader/listener/queueCapacity
+   * <li> /reader/listener/stats
+   * <li> /reader/paramCache/volatileTtl
+   * <li> /reader/paramCache/writeThroughTtl
    * <li> /reader/region/hopTable
    * <li> /reader/region/hopTime
    * <li> /reader/region/id
@@ -996,13 +1695,62 @@ abstract public class Reader
   public Object paramGet(String key)
     throws ReaderException
   {
-    Setting s;
+    return getSetting(params.get(key.toLowerCase()), key);
+  }
 
-    s = params.get(key.toLowerCase());
+  /**
+   * Get a typed handle on a Reader parameter, for reading and writing
+   * it repeatedly without looking it up by name each time.
+   *
+   * @param key the parameter name
+   * @param type the type of the parameter's values, or a supertype
+   * @return the handle
+   * @throws IllegalArgumentException if the parameter does not exist
+   * or its values are not of the given type
+   */
+  public <T> ParamKey<T> paramKey(String key, Class<T> type)
+  {
+    ParamKey<T> handle = new ParamKey<T>(this, key, type);
+    handle.setting();
+    return handle;
+  }
+
+  /**
+   * Look up a parameter for a ParamKey.
+   */
+  Setting findSetting(Map<String,Setting> table, String key, Class<?> type)
+  {
+    Setting s = table.get(key.toLowerCase());
     if (s == null)
     {
       throw new IllegalArgumentException("No parameter named '" + key + "'.");
     }
+    if (!type.isAssignableFrom(s.type))
+    {
+      throw new IllegalArgumentException("Parameter '" + key + "' is a " +
+                                         s.type.getName() + ", not a " + type.getName() + ".");
+    }
+    return s;
+  }
+
+  Object getSetting(Setting s, String key)
+    throws ReaderException
+  {
+    if (s == null)
+    {
+      throw new IllegalArgumentException("No parameter named '" + key + "'.");
+    }
+
+    if (recordingParamFetches())
+    {
+      // The getter runs only for what it asks the device for; its
+      // value, made from placeholders, is neither kept nor a probe
+      if (s.action == null || (s.confirmed && paramCacheHit(s)))
+      {
+        return s.value;
+      }
+      return s.action.get(s.value);
+    }
 
     // Maybe mention here that the parameter doesn't work here rather than
     // that it doesn't exist?
@@ -1011,11 +1759,225 @@ abstract public class Reader
       throw new IllegalArgumentException("No parameter named '" + key + "'.");
     }
 
-    if (s.action != null)
+    if (s.action == null)
+    {
+      return s.value;
+    }
+    if (!paramCacheHit(s))
     {
       s.value = s.action.get(s.value);
+      s.cachedAt = System.nanoTime();
+      s.cached = true;
+    }
+    return (s.cachePolicy == ParamCachePolicy.NONE) ? s.value
+      : ParamCachePolicy.copy(s.value);
+  }
+
+  private boolean paramCacheHit(Setting s)
+  {
+    if (!s.cached)
+    {
+      return false;
+    }
+    long ttlMs;
+    switch (s.cachePolicy)
+    {
+    case IMMUTABLE:
+      return true;
+    case WRITE_THROUGH:
+      ttlMs = writeThroughTtlMs;
+      break;
+    case VOLATILE:
+      ttlMs = volatileTtlMs;
+      break;
+    default:
+      return false;
+    }
+    return System.nanoTime() - s.cachedAt < ttlMs * 1000000L;
+  }
+
+  /**
+   * Make paramGet fetch kept parameter values from the device again
+   * (see ParamCachePolicy).
+   *
+   * @param all whether IMMUTABLE values go as well, as they must when
+   * the device was reconnected, rebooted or given new firmware
+   */
+  void invalidateParamCache(boolean all)
+  {
+    Map<String,Setting> table = params;
+    if (table == null)
+    {
+      return;
+    }
+    for (Setting s : table.values())
+    {
+      if (all || s.cachePolicy != ParamCachePolicy.IMMUTABLE)
+      {
+        s.cached = false;
+      }
     }
-    return s.value;
+  }
+
+  /**
+   * Get the values of several Reader parameters. Where the reader can
+   * fetch several parameters in one exchange with the device it does
+   * so, which makes this quicker than a paramGet() for each.
+   *
+   * @param keys the parameter names
+   * @return the result for each parameter, in the order given: its
+   * value, or the exception paramGet() would have thrown for it. A
+   * failure, even a RuntimeException, is recorded for its parameter
+   * and does not stop the others being got.
+   */
+  public Map<String,ParamResult> paramGetAll(String... keys)
+  {
+    Map<String,ParamResult> results = new LinkedHashMap<String,ParamResult>();
+    synchronized (paramBatchLock)
+    {
+      paramBatchThread = Thread.currentThread();
+      try
+      {
+        beginParamBatch();
+        prefetchParams(keys);
+        for (String key : keys)
+        {
+          try
+          {
+            results.put(key, new ParamResult(key, paramGet(key), null));
+          }
+          catch (ReaderException e)
+          {
+            results.put(key, new ParamResult(key, null, e));
+          }
+          catch (RuntimeException e)
+          {
+            // One bad key or getter must not lose the other results
+            results.put(key, new ParamResult(key, null, e));
+          }
+        }
+      }
+      finally
+      {
+        endParamBatch(results);
+        paramBatchThread = null;
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Set the values of several Reader parameters, in the order given.
+   * Where the reader can send several settings to the device in one
+   * exchange it does so, which makes this quicker than a paramSet()
+   * for each. A failure to set one parameter does not stop the others
+   * being set.
+   *
+   * @param values the parameter names and the values to set them to
+   * @return the result for each parameter, in the order given: the
+   * value set, or the exception paramSet() would have thrown for it,
+   * RuntimeExceptions included
+   */
+  public Map<String,ParamResult> paramSetAll(Map<String,?> values)
+  {
+    Map<String,ParamResult> results = new LinkedHashMap<String,ParamResult>();
+    synchronized (paramBatchLock)
+    {
+      paramBatchThread = Thread.currentThread();
+      try
+      {
+        beginParamBatch();
+        for (Map.Entry<String,?> entry : values.entrySet())
+        {
+          String key = entry.getKey();
+          paramBatchKey = key;
+          try
+          {
+            paramSet(key, entry.getValue());
+            results.put(key, new ParamResult(key, entry.getValue(), null));
+          }
+          catch (ReaderException e)
+          {
+            results.put(key, new ParamResult(key, null, e));
+          }
+          catch (RuntimeException e)
+          {
+            results.put(key, new ParamResult(key, null, e));
+          }
+        }
+      }
+      finally
+      {
+        paramBatchKey = null;
+        endParamBatch(results);
+        paramBatchThread = null;
+        // Deferred writes may have failed after paramSet() kept them
+        for (ParamResult result : results.values())
+        {
+          String key = result.getKey();
+          Setting s = (result.succeeded() || key == null) ? null : params.get(key.toLowerCase());
+          if (s != null)
+          {
+            s.cached = false;
+          }
+        }
+      }
+    }
+    return results;
+  }
+
+  /**
+   * @return whether the calling thread is in paramGetAll() or
+   * paramSetAll()
+   */
+  boolean inParamBatch()
+  {
+    return paramBatchThread == Thread.currentThread();
+  }
+
+  /**
+   * Start a paramGetAll() or paramSetAll(). Readers that can keep
+   * device responses or defer device writes for the batch start doing
+   * so here.
+   */
+  void beginParamBatch()
+  {
+  }
+
+  /**
+   * Fetch from the device, in as few exchanges as it can, what getting
+   * the given parameters needs, before paramGetAll() gets them one by
+   * one.
+   */
+  void prefetchParams(String[] keys)
+  {
+  }
+
+  /**
+   * @return whether prefetchParams() is running getters only to learn
+   * what they would fetch
+   */
+  boolean recordingParamFetches()
+  {
+    return false;
+  }
+
+  /**
+   * Finish a paramGetAll() or paramSetAll(): send the device writes
+   * deferred for the batch, replacing the results of the parameters
+   * whose writes failed, and drop whatever was kept for it.
+   */
+  void endParamBatch(Map<String,ParamResult> results)
+  {
+  }
+
+  private static int nonNegative(int value)
+  {
+    if (value < 0)
+    {
+      throw new IllegalArgumentException("negative value not permitted");
+    }
+    return value;
   }
 
   /**
@@ -1030,9 +1992,12 @@ abstract public class Reader
   public void paramSet(String key, Object value)
     throws ReaderException
   {
-    Setting s;
+    setSetting(params.get(key.toLowerCase()), key, value);
+  }
 
-    s = params.get(key.toLowerCase());
+  void setSetting(Setting s, String key, Object value)
+    throws ReaderException
+  {
     if (s == null)
     {
       throw new IllegalArgumentException("No parameter named '" + key + "'.");
@@ -1052,11 +2017,27 @@ abstract public class Reader
       throw new IllegalArgumentException("Wrong type " + value.getClass().getName() + 
                                          " for parameter '" + key + "'.");
     }
+    // A failed setting leaves the device in doubt, and a few change
+    // what others report
+    if (s.setScope == ParamCachePolicy.Scope.OWN)
+    {
+      s.cached = false;
+    }
+    else
+    {
+      invalidateParamCache(s.setScope == ParamCachePolicy.Scope.ALL);
+    }
     if (s.action != null)
     {
       value = s.action.set(value);
     }
     s.value = value;
+    if (s.cachePolicy == ParamCachePolicy.WRITE_THROUGH && s.type.isInstance(value))
+    {
+      s.value = ParamCachePolicy.copy(value);
+      s.cachedAt = System.nanoTime();
+      s.cached = true;
+    }
   }
 
   /**
@@ -1165,21 +2146,23 @@ abstract public class Reader
     
     class BackgroundNotifier implements Runnable {
 
+    private volatile long delivered;
+    private volatile Thread drainer;
+
     public void run()
     {
-      TagReadData t;
+      ReadRing queue = tagReadQueue;
       try
       {
         while (true) {
-          synchronized (tagReadQueue)
+          TagReadData[] reads = queue.take();
+          notifyReadListeners(reads);
+          delivered++;
+          Thread d = drainer;
+          if (d != null && queue.isEmpty())
           {
-            if (tagReadQueue.isEmpty())
-            {
-              tagReadQueue.notifyAll();
-            }
+            LockSupport.unpark(d);
           }
-          t = tagReadQueue.take();
-          notifyReadListeners(t);
         }
       }
       catch(InterruptedException ex)
@@ -1189,16 +2172,29 @@ abstract public class Reader
       }
     }
 
+    /**
+     * Wait until every queued batch has been delivered to the listeners.
+     */
     void drainQueue()
       throws InterruptedException
     {
-      synchronized (tagReadQueue)
+      ReadRing queue = tagReadQueue;
+      drainer = Thread.currentThread();
+      try
       {
-        while (tagReadQueue.isEmpty() == false)
+        while (!queue.settled(delivered))
         {
-          tagReadQueue.wait();
+          LockSupport.parkNanos(this, 1000000L);
+          if (Thread.interrupted())
+          {
+            throw new InterruptedException();
+          }
         }
       }
+      finally
+      {
+        drainer = null;
+      }
     }
   }
 
@@ -1243,6 +2239,10 @@ abstract public class Reader
   class BackgroundReader implements Runnable
   {
     boolean enabled, running;
+    // A lock rather than the monitor, so an idle reader does not pin a
+    // carrier thread when the ThreadFactory makes virtual threads
+    final ReentrantLock state = new ReentrantLock();
+    final Condition changed = state.newCondition();
     
     public void run()
     {
@@ -1263,25 +2263,33 @@ abstract public class Reader
       {
         while (true)
         {
-          synchronized (this)
+          state.lock();
+          try
           {
             running = false;
-            this.notifyAll();  // Notify change in running
+            changed.signalAll();  // Notify change in running
             while (enabled == false)
             {
-              this.wait();  // Wait for enabled to change
+              changed.await();  // Wait for enabled to change
             }
             running = true;
-            this.notifyAll();  // Notify change in running
+            changed.signalAll();  // Notify change in running
+          }
+          finally
+          {
+            state.unlock();
           }
           try
           {
-            readTime = (Integer)paramGet(TMR_PARAM_READ_ASYNCONTIME);
-            sleepTime = (Integer)paramGet(TMR_PARAM_READ_ASYNCOFFTIME);
+            readTime = asyncOnTimeParam.get();
+            sleepTime = asyncOffTimeParam.get();
+            // Without demand from subscribers, stay in the off time
+            awaitReadDemand();
             tags = read(readTime);
-            for (TagReadData t : tags)
+            if (tags.length > 0)
             {
-              tagReadQueue.put(t);
+              // One batch per search cycle
+              publishReads(tags);
             }
             if (sleepTime > 0)
             {
@@ -1304,26 +2312,39 @@ abstract public class Reader
       }
     }
 
-    synchronized void readOn()
+    void readOn()
     {
-      enabled = true;
-      this.notifyAll();  // Notify change in enabled
+      state.lock();
+      try
+      {
+        enabled = true;
+        changed.signalAll();  // Notify change in enabled
+      }
+      finally
+      {
+        state.unlock();
+      }
     }
 
-    synchronized void readOff()
+    void readOff()
     {
-      enabled = false;
+      state.lock();
       try
       {
+        enabled = false;
         while (running == true)
         {
-          this.wait();  // Wait for running to change
+          changed.await();  // Wait for running to change
         }
       }
       catch (InterruptedException ie)
       {
         Thread.currentThread().interrupt();
       }
+      finally
+      {
+        state.unlock();
+      }
     }
 
   }
@@ -1334,6 +2355,8 @@ abstract public class Reader
     public boolean enabled;
     boolean running, trueReading = true;
     boolean _continuousReading = false;
+    final ReentrantLock state = new ReentrantLock();
+    final Condition changed = state.newCondition();
 
     ContinuousReader()
     {
@@ -1359,21 +2382,26 @@ abstract public class Reader
       {
           while (!isTrueAsyncStopped) // true async is not stopped
           {
-              synchronized (this)
+              state.lock();
+              try
               {
                   running = false;
-                  this.notifyAll();  // Notify change in running
+                  changed.signalAll();  // Notify change in running
                   while (enabled == false)
                   {
-                      this.wait();  // Wait for enabled to change
+                      changed.await();  // Wait for enabled to change
                   }
                   running = true;
-                  this.notifyAll();  // Notify change in running
+                  changed.signalAll();  // Notify change in running
+              }
+              finally
+              {
+                  state.unlock();
               }
               try
               {
-                  readTime = (Integer) paramGet(TMR_PARAM_READ_ASYNCONTIME);
-                  sleepTime = (Integer) paramGet(TMR_PARAM_READ_ASYNCOFFTIME);
+                  readTime = asyncOnTimeParam.get();
+                  sleepTime = asyncOffTimeParam.get();
 
                   if (trueReading)
                   {
@@ -1421,31 +2449,44 @@ abstract public class Reader
       }
     }
 
-    synchronized void readOn()
+    void readOn()
     {
-      enabled = true;
-      this.notifyAll();  // Notify change in enabled
+      state.lock();
+      try
+      {
+        enabled = true;
+        changed.signalAll();  // Notify change in enabled
+      }
+      finally
+      {
+        state.unlock();
+      }
     }
 
-    synchronized void readOff()
+    void readOff()
     {     
+      state.lock();
       try
       {
         if(!running && _continuousReading)
         {
-            this.wait();
+            changed.await();
         }
         enabled = false;
       
         while (running == true)
         {
-          this.wait();  // Wait for running to change
+          changed.await();  // Wait for running to change
         }
       }
       catch (InterruptedException ie)
       {
         Thread.currentThread().interrupt();
       }
+      finally
+      {
+        state.unlock();
+      }
     }
 
   }
@@ -10,7 +10,6 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.HashMap;
 import java.util.List;
 
 /**
@@ -26,50 +25,9 @@ public class ReaderUtil
      * @throws ReaderException
      */
     public static void removeDuplicates(List<TagReadData> tagvec, Object uniqueByAntenna, Object uniqueByData, Object highestRSSI) throws ReaderException {
-        HashMap<String, TagReadData> map = new HashMap<String, TagReadData>();
-        //     List<TagReadData> tagReads = new Vector();
-        String key;
-        byte i = (byte) (((Boolean) uniqueByAntenna ? 0x10 : 0x00) + ((Boolean) uniqueByData ? 0x01 : 0x00));
-
-        for (TagReadData tag : tagvec)
-        {
-            switch (i)
-            {
-                case 0x00:
-                    key = tag.epcString();
-                    break;
-                case 0x01:
-                    key = tag.epcString() + ";" + byteArrayToHexString(tag.data);
-                    break;
-                case 0x10:
-                    key = tag.epcString() + ";" + tag.getAntenna();
-                    break;
-                default:
-                    key = tag.epcString() + ";" + tag.getAntenna() + ";" + byteArrayToHexString(tag.data);
-                    break;
-            }
-
-            if (!map.containsKey(key))
-            {
-                map.put(key, tag);
-
-            }
-            else //see the tag again
-            {
-                map.get(key).readCount = map.get(key).getReadCount() + tag.getReadCount();
-                if ((Boolean) highestRSSI)
-                {
-                    if (tag.getRssi() > map.get(key).getRssi())
-                    {
-                        int tmp = map.get(key).getReadCount();
-                        map.put(key, tag);
-                        map.get(key).readCount = tmp;
-                    }
-                }
-            }
-        }
-        tagvec.clear();
-        tagvec.addAll(map.values());
+        new TagReadDeduplicator().removeDuplicates(tagvec,
+          (Boolean) uniqueByAntenna, (Boolean) uniqueByData, false,
+          (Boolean) highestRSSI);
     }
 
     /**
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+/**
+ * Decides how many tags an LLRP reader collects into each
+ * RO_ACCESS_REPORT while reading continuously, and when the host should
+ * ask for a report that is taking too long.
+ * <p>
+ *
+ * The ROReportSpec of a continuous read sends a report every N tags.
+ * A small N floods the host with small reports when many tags are in
+ * view, while a large one holds a few tags back for a long time when
+ * there are not. With a timeout set, the reader is sent a GET_REPORT
+ * whenever no report has come for that long, which bounds the wait
+ * whatever N is. In adaptive mode N is chosen, each time the ROSpecs
+ * are built, from the tag arrival rate seen so far, so that a report
+ * fills up about once per target period and the timeout rarely has to
+ * step in.
+ * <p>
+ *
+ * When reads go to subscribers, reports are pulled instead: N is 0, so
+ * the reader holds its tags until the end of the ROSpec, and the host
+ * sends a GET_REPORT only while the subscribers want more reads and no
+ * earlier request is still unanswered.
+ * <p>
+ *
+ * Reports are counted from the connection thread and flushDue() is
+ * called from a timer, so all methods are synchronized.
+ */
+final class ReportBatchController
+{
+  static final int DEFAULT_TAG_COUNT = 10;
+  static final int MAX_TAG_COUNT = 65535;
+  static final int DEFAULT_TARGET_MS = 100;
+  // Rate samples are taken over windows at least this long
+  private static final int RATE_WINDOW_MS = 500;
+  private static final double SMOOTHING = 0.25;
+  // A GET_REPORT that no report has answered in this long is given up on
+  static final int PULL_WAIT_MS = 1000;
+
+  private int tagCount = DEFAULT_TAG_COUNT;
+  private int timeoutMs;
+  private boolean adaptive;
+  private double tagsPerMs = -1;   // -1 until measured
+  private long windowStart;
+  private int windowTags;
+  private long lastDelivery;
+  private boolean pulling;
+  private long requested = -1;   // -1 when no GET_REPORT is unanswered
+
+  synchronized void setTagCount(int tagCount)
+  {
+    if (tagCount < 0 || tagCount > MAX_TAG_COUNT)
+    {
+      throw new IllegalArgumentException(
+        "Report tag count must be between 0 and " + MAX_TAG_COUNT + ", not " + tagCount);
+    }
+    this.tagCount = tagCount;
+  }
+
+  synchronized int tagCount()
+  {
+    return tagCount;
+  }
+
+  synchronized void setTimeout(int timeoutMs)
+  {
+    if (timeoutMs < 0)
+    {
+      throw new IllegalArgumentException("Negative report timeout " + timeoutMs);
+    }
+    this.timeoutMs = timeoutMs;
+  }
+
+  synchronized int timeout()
+  {
+    return timeoutMs;
+  }
+
+  synchronized void setAdaptive(boolean adaptive)
+  {
+    this.adaptive = adaptive;
+  }
+
+  synchronized boolean adaptive()
+  {
+    return adaptive;
+  }
+
+  /**
+   * Have reports pulled, or pushed every N tags, from now on.
+   */
+  synchronized void setPulling(boolean pulling)
+  {
+    this.pulling = pulling;
+    requested = -1;
+  }
+
+  synchronized boolean pulling()
+  {
+    return pulling;
+  }
+
+  /**
+   * @return the N of the ROSpecs about to be built: 0 when pulling,
+   * else the configured one, or in adaptive mode the number of tags
+   * expected within the target period, once a rate has been measured
+   */
+  synchronized int reportTagCount()
+  {
+    if (pulling)
+    {
+      return 0;
+    }
+    if (!adaptive || tagsPerMs < 0)
+    {
+      return tagCount;
+    }
+    int target = (timeoutMs > 0) ? timeoutMs : DEFAULT_TARGET_MS;
+    long n = Math.round(tagsPerMs * target);
+    return (int) Math.max(1, Math.min(MAX_TAG_COUNT, n));
+  }
+
+  /**
+   * Start timing for a continuous read. The time since the last read
+   * is not counted in the arrival rate.
+   */
+  synchronized void started(long nowMs)
+  {
+    windowStart = nowMs;
+    windowTags = 0;
+    lastDelivery = nowMs;
+  }
+
+  /**
+   * Account for a report of tags.
+   */
+  synchronized void reportReceived(int tags, long nowMs)
+  {
+    lastDelivery = nowMs;
+    requested = -1;
+    windowTags += tags;
+    long elapsed = nowMs - windowStart;
+    if (elapsed >= RATE_WINDOW_MS)
+    {
+      double sample = (double) windowTags / elapsed;
+      tagsPerMs = (tagsPerMs < 0) ? sample
+        : tagsPerMs + SMOOTHING * (sample - tagsPerMs);
+      windowStart = nowMs;
+      windowTags = 0;
+    }
+  }
+
+  /**
+   * @return whether no report has come for the timeout, in which case
+   * the caller is to ask for one; the timeout then starts over
+   */
+  synchronized boolean flushDue(long nowMs)
+  {
+    if (pulling || timeoutMs <= 0 || nowMs - lastDelivery < timeoutMs)
+    {
+      return false;
+    }
+    lastDelivery = nowMs;
+    return true;
+  }
+
+  /**
+   * @return whether, when pulling, the caller may send a GET_REPORT
+   * now: none is unanswered, or the last has been waited on for too
+   * long. The request is then taken as sent.
+   */
+  synchronized boolean pullDue(long nowMs)
+  {
+    if (!pulling || (requested >= 0 && nowMs - requested < PULL_WAIT_MS))
+    {
+      return false;
+    }
+    requested = nowMs;
+    return true;
+  }
+
+  /**
+   * @return how often, in milliseconds, to check whether a report is
+   * to be pulled or flushed
+   */
+  synchronized int checkPeriod()
+  {
+    if (pulling)
+    {
+      return (timeoutMs > 0) ? timeoutMs : DEFAULT_TARGET_MS;
+    }
+    return Math.max(1, timeoutMs / 4);
+  }
+}
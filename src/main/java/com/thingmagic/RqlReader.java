@@ -37,10 +37,16 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import static com.thingmagic.TMConstants.*;
@@ -60,10 +66,10 @@ import static com.thingmagic.TMConstants.*;
 public class RqlReader extends com.thingmagic.Reader
 {
     private final static int[] _gpioBits = {0x04, 0x08, 0x10, 0x02, 0x20, 0x40, 0x80, 0x100};
-    private static String[] _readFieldNames = null;    
-    private final static String[] _astraReadFieldNames = "antenna_id read_count id frequency dspmicros protocol_id lqi".split(" ");
+    static String[] _readFieldNames = null;    
+    final static String[] _astraReadFieldNames = "antenna_id read_count id frequency dspmicros protocol_id lqi".split(" ");
     private final static String[] _m5ReadFieldNames = "antenna_id read_count id frequency dspmicros protocol_id".split(" ");
-    private final static String[] _readMetaData = "antenna_id read_count id metadata data protocol_id phase ".split(" ");
+    final static String[] _readMetaData = "antenna_id read_count id metadata data protocol_id phase ".split(" ");
 
     private final int ANTENNA_ID = 0;
     private final int READ_COUNT = 1;
@@ -91,6 +97,19 @@ public class RqlReader extends com.thingmagic.Reader
   Socket rqlSock;
   BufferedReader rqlIn;
   BufferedWriter rqlOut;
+  // Pairs each query with its response. A lock rather than the monitor,
+  // so a virtual thread blocked reading the socket does not pin its carrier.
+  private final ReentrantLock queryLock = new ReentrantLock();
+  // For a paramGetAll, the fields fetched by its multi-field SELECTs
+  // by "table.field" (null for one that could not be), and while it
+  // looks for the fields it needs, those found missing, by table, and
+  // whether the parameter being got has asked for any
+  private Map<String,String> batchFields;
+  private Map<String,Set<String>> batchMisses;
+  private boolean fieldMissed;
+  // For a paramSetAll, the UPDATEs not yet sent and those that failed
+  private List<DeferredUpdate> deferredUpdates;
+  private Map<String,ReaderException> batchFailures;
   boolean isAstra; // for workarounds
   int[] gpiList, gpoList;
   static boolean _stopRequested;
@@ -98,6 +117,7 @@ public class RqlReader extends com.thingmagic.Reader
   private int _maxCursorTimeout;
   PowerMode powerMode = PowerMode.INVALID;
   String model;  
+  private final TagReadDeduplicator deduplicator = new TagReadDeduplicator();
 
   final static Logger rqlLogger = Logger.getLogger(RqlReader.class.getName());
   // Values affected by parameter operations
@@ -148,6 +168,7 @@ public class RqlReader extends com.thingmagic.Reader
     SettingAction saCopy;
     int session;
     model=null;
+    invalidateParamCache(true);
 
     try
     {
@@ -1073,12 +1094,13 @@ public class RqlReader extends com.thingmagic.Reader
 
     @Override
     public void startReading() {
+        stopping = false;
         try
         {
             setTxPower((Integer) paramGet(TMR_PARAM_RADIO_READPOWER));
-            ReadPlan rp = (ReadPlan) paramGet(TMR_PARAM_READ_PLAN);
-            int ontime = (Integer) paramGet(TMR_PARAM_READ_ASYNCONTIME);
-            int offtime = (Integer) paramGet(TMR_PARAM_READ_ASYNCOFFTIME);
+            ReadPlan rp = readPlanParam.get();
+            int ontime = asyncOnTimeParam.get();
+            int offtime = asyncOffTimeParam.get();
 
             resetRql();
             ArrayList<Integer> ctimes = new ArrayList<Integer>();
@@ -1095,6 +1117,7 @@ public class RqlReader extends com.thingmagic.Reader
 
     @Override
     public void stopReading() {
+         stopping = true;
          _stopRequested = true;
            if (null != _stopCompleted)
            {
@@ -1108,6 +1131,7 @@ public class RqlReader extends com.thingmagic.Reader
                 Logger.getLogger(RqlReader.class.getName()).log(Level.SEVERE, null, ex);
             }
         }
+        readingStopped();
     }
 
 
@@ -1480,9 +1504,8 @@ public class RqlReader extends com.thingmagic.Reader
         {
             _maxCursorTimeout = Math.max(_maxCursorTimeout, ctime);
         }
-        Thread recvThread = new Thread() {
+        Runnable receiver = new Runnable() {
 
-            @Override
             public void run() 
             {
                 try
@@ -1558,47 +1581,73 @@ public class RqlReader extends com.thingmagic.Reader
                 }
             } //end thread run method
         };
+        Thread recvThread = newThread(threadFactory, receiver, "rql receiver");
+        if (threadFactory == DAEMON_THREADS)
+        {
+            // The receiver has always kept the JVM alive while a read runs
+            recvThread.setDaemon(false);
+        }
         recvThread.start();
     }
 
     /**
-     * notify listeners
+     * notify listeners of one batch of rows
      * @param rows
      * @param baseTime
      * @throws ReaderException
      */
     private void notifyBatchListeners(String[] rows, Date baseTime) throws ReaderException
     {
+        List<TagReadData> reads = new ArrayList<TagReadData>(rows.length);
+        ReaderException parseError = null;
+
         for (String row : rows)
         {
             if (0 < row.length())
             {
                 try
                 {
-                    TagReadData trd = parseRqlResponse(row, baseTime);
-                    //ReaderUtil.removeDuplicates(trd,paramGet(TMR_PARAM_TAGREADDATA_UNIQUEBYANTENNA),paramGet(TMR_PARAM_TAGREADDATA_UNIQUEBYDATA),paramGet(TMR_PARAM_TAGREADDATA_RECORDHIGHESTRSSI));
-                    if (readListeners.isEmpty())
-                    {
-                        addReadListener(Reader.getDefaultReadListener());
-                    }
-                    if (readExceptionListeners.isEmpty() && defaultAdded[1])
-                    {
-                        addReadExceptionListener(Reader.getDefaultReadExceptionListener());
-                    }
-                    notifyReadListeners(trd);
+                    reads.add(parseRqlResponse(row, baseTime));
                 }
                 catch (Exception ex)
                 {
                     rqlLogger.severe("Tag Read parse failed on row \""+row+"\"");
-                    throw new ReaderCommException("Error \""+ex.getMessage()+"\" parsing tag read row \""+row+"\"");
+                    parseError = new ReaderCommException("Error \""+ex.getMessage()+"\" parsing tag read row \""+row+"\"");
+                    break;
                 }
             }
         }
+        if (!reads.isEmpty())
+        {
+            if (readListeners.isEmpty() && batchReadListeners.isEmpty()
+                && subscriptions.isEmpty())
+            {
+                addReadListener(Reader.getDefaultReadListener());
+            }
+            if (readExceptionListeners.isEmpty() && defaultAdded[1]
+                && subscriptions.isEmpty())
+            {
+                addReadExceptionListener(Reader.getDefaultReadExceptionListener());
+            }
+            try
+            {
+                // The rows of one cursor batch are delivered together
+                notifyReadListeners(reads.toArray(new TagReadData[reads.size()]));
+            }
+            catch (RuntimeException ex)
+            {
+                throw new ReaderCommException("Error \""+ex.getMessage()+"\" delivering tag reads");
+            }
+        }
+        if (parseError != null)
+        {
+            throw parseError;
+        }
     }
 
 
 
-    private TagReadData parseRqlResponse(String row, Date baseTime) throws ReaderException
+    TagReadData parseRqlResponse(String row, Date baseTime) throws ReaderException
     {
         StringTokenizer sr = new StringTokenizer(row, "|");
         String[] fields = new String[sr.countTokens()];
@@ -1872,47 +1921,75 @@ public class RqlReader extends com.thingmagic.Reader
     return runQuery(q, false);
   }
 
-  synchronized String[] runQuery(String query, boolean permitEmptyResponse)
+  String[] runQuery(String query, boolean permitEmptyResponse)
     throws ReaderException
   {
-    sendQuery(query);
-    return receiveBatch(commandTimeout, permitEmptyResponse);
-  }
-
-  synchronized void sendQuery(String query)
-    throws ReaderException
-  {
-    setSoTimeout((Integer)paramGet(TMR_PARAM_TRANSPORTTIMEOUT));
-    if (!query.endsWith(";"))
+    if (inParamBatch())
+    {
+      if (batchMisses != null)
+      {
+        // Not a field lookup; this parameter is got on its own
+        throw new ReaderException("Not prefetched: " + query);
+      }
+      if (deferredUpdates != null && !deferredUpdates.isEmpty())
+      {
+        flushUpdates();
+      }
+    }
+    queryLock.lock();
+    try
     {
-      query += ";\n";
+      sendQuery(query);
+      return receiveBatch(commandTimeout, permitEmptyResponse);
     }
-    if (hasListeners)
+    finally
     {
-      notifyListeners(query, true, 0);
+      queryLock.unlock();
     }
+  }
+
+  void sendQuery(String query)
+    throws ReaderException
+  {
+    queryLock.lock();
     try
     {
-      if(rqlOut!=null)
+      setSoTimeout((Integer)paramGet(TMR_PARAM_TRANSPORTTIMEOUT));
+      if (!query.endsWith(";"))
       {
-        rqlOut.write(query);
-        rqlOut.write('\n');
-        rqlOut.flush();
-        rqlLogger.fine("rqlOut wrote \""+query+"\"");
+        query += ";\n";
       }
-      else
+      if (hasListeners)
       {
-        throw new ReaderCommException("rqlOut is null");
+        notifyListeners(query, true, 0);
+      }
+      try
+      {
+        if(rqlOut!=null)
+        {
+          rqlOut.write(query);
+          rqlOut.write('\n');
+          rqlOut.flush();
+          rqlLogger.fine("rqlOut wrote \""+query+"\"");
+        }
+        else
+        {
+          throw new ReaderCommException("rqlOut is null");
+        }
+      }
+      catch (SocketException se)
+      {
+          //Socket Communication Error
+          throw new ReaderCommException(se.getMessage());
+      }
+      catch (IOException e)
+      {
+        throw new ReaderCommException(e.getMessage());
       }
     }
-    catch (SocketException se)
-    {
-        //Socket Communication Error
-        throw new ReaderCommException(se.getMessage());
-    }
-    catch (IOException e)
+    finally
     {
-      throw new ReaderCommException(e.getMessage());
+      queryLock.unlock();
     }
   }
 
@@ -2061,6 +2138,34 @@ public class RqlReader extends com.thingmagic.Reader
   {
     String[] ret;
 
+    if (batchFields != null && inParamBatch())
+    {
+      String name = table + "." + field;
+      String value = batchFields.get(name);
+      if (value != null)
+      {
+        return value;
+      }
+      if (batchMisses != null)
+      {
+        if (batchFields.containsKey(name))
+        {
+          // The SELECT could not fetch it; got on its own later
+          throw new ReaderException("Not prefetched: " + name);
+        }
+        Set<String> fields = batchMisses.get(table);
+        if (fields == null)
+        {
+          fields = new LinkedHashSet<String>();
+          batchMisses.put(table, fields);
+        }
+        fields.add(field);
+        fieldMissed = true;
+        // A placeholder; what the getter makes of it is thrown away
+        return "";
+      }
+    }
+
     ret = runQuery("SELECT " + field + " from " + table + ";", true);
 
     return ret[0];
@@ -2068,21 +2173,21 @@ public class RqlReader extends com.thingmagic.Reader
   public  Object executeTagOp(TagOp tagOP, TagFilter target) throws ReaderException
   {
 
-       TagProtocol protocolID = (TagProtocol)paramGet(TMR_PARAM_TAGOP_PROTOCOL);
+       TagProtocol protocolID = tagOpProtocolParam.get();
       try{
       if (tagOP instanceof Gen2.ReadData) {
-          paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+          tagOpProtocolParam.set(TagProtocol.GEN2);
           return readTagMemWords(target, ((Gen2.ReadData) tagOP).Bank.rep, ((Gen2.ReadData) tagOP).WordAddress, ((Gen2.ReadData) tagOP).Len);
       } else if (tagOP instanceof Gen2.WriteData) {
-          paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+          tagOpProtocolParam.set(TagProtocol.GEN2);
           writeTagMemWords(target, ((Gen2.WriteData) tagOP).Bank.rep, ((Gen2.WriteData) tagOP).WordAddress, ((Gen2.WriteData) tagOP).Data);
           return null;
       } else if(tagOP instanceof Gen2.WriteTag){
-          paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+          tagOpProtocolParam.set(TagProtocol.GEN2);
           writeTag(target, ((Gen2.WriteTag)tagOP).Epc);
           return null;
       }else if (tagOP instanceof Gen2.Lock) {
-          paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+          tagOpProtocolParam.set(TagProtocol.GEN2);
           Gen2.Password oldPassword = (Gen2.Password)(paramGet(TMR_PARAM_GEN2_ACCESSPASSWORD));
           boolean needRestorePassword = false;
           try
@@ -2104,20 +2209,20 @@ public class RqlReader extends com.thingmagic.Reader
           }                  
           return null;
       } else if (tagOP instanceof Gen2.Kill) {
-          paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+          tagOpProtocolParam.set(TagProtocol.GEN2);
           killTag(target, new Gen2.Password(((Gen2.Kill) tagOP).KillPassword));
           return null;
       } else if (tagOP instanceof Iso180006b.ReadData) {
-          paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.ISO180006B);
+          tagOpProtocolParam.set(TagProtocol.ISO180006B);
           //System.out.println(cmdGetParam(TMR_RQL_PROTOCOL_ID));
           return readTagMemBytes(target, 0, ((Iso180006b.ReadData) tagOP).ByteAddress, ((Iso180006b.ReadData) tagOP).Len);
       } else if (tagOP instanceof Iso180006b.WriteData) {
-          paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.ISO180006B);
+          tagOpProtocolParam.set(TagProtocol.ISO180006B);
           //System.out.println(cmdGetParam(TMR_RQL_PROTOCOL_ID));
           writeTagMemBytes(target, 0, ((Iso180006b.WriteData) tagOP).ByteAddress, ((Iso180006b.WriteData) tagOP).Data);
           return null;
       }else if (tagOP instanceof Iso180006b.Lock) {
-          paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.ISO180006B);
+          tagOpProtocolParam.set(TagProtocol.ISO180006B);
           //System.out.println(cmdGetParam(TMR_RQL_PROTOCOL_ID));
           lockTag(target, new Iso180006b.LockAction(((Iso180006b.Lock) tagOP).ByteAddress));
           return null;
@@ -2130,7 +2235,7 @@ public class RqlReader extends com.thingmagic.Reader
       }
       }finally{
           // restoring the old protocol.
-        paramSet(TMR_PARAM_TAGOP_PROTOCOL, protocolID);
+        tagOpProtocolParam.set(protocolID);
       }
       
   }
@@ -2152,10 +2257,217 @@ public class RqlReader extends com.thingmagic.Reader
   void setField(String field, String value, String table)
     throws ReaderException
   {
+    if (deferredUpdates != null && inParamBatch())
+    {
+      for (DeferredUpdate update : deferredUpdates)
+      {
+        if (update.table.equals(table) && update.field.equals(field))
+        {
+          flushUpdates();
+          break;
+        }
+      }
+      deferredUpdates.add(new DeferredUpdate(paramBatchKey, table, field, value));
+      return;
+    }
     runQuery(String.format("UPDATE %s SET %s='%s';",
                            table, field, value));
   }
 
+  // An UPDATE of one field, deferred by paramSetAll
+  private static class DeferredUpdate
+  {
+    final String key;
+    final String table;
+    final String field;
+    final String value;
+
+    DeferredUpdate(String key, String table, String field, String value)
+    {
+      this.key = key;
+      this.table = table;
+      this.field = field;
+      this.value = value;
+    }
+  }
+
+  @Override
+  boolean recordingParamFetches()
+  {
+    return batchMisses != null && inParamBatch();
+  }
+
+  @Override
+  void beginParamBatch()
+  {
+    batchFields = new HashMap<String,String>();
+    deferredUpdates = new ArrayList<DeferredUpdate>();
+    batchFailures = new LinkedHashMap<String,ReaderException>();
+  }
+
+  /**
+   * Runs the getters of the parameters with the fields fetched so far,
+   * recording the fields each asks for that are not and handing it an
+   * empty placeholder for them, then fetches the missing fields with
+   * one SELECT per table, until no parameter is missing one. A
+   * parameter whose fields depend on each other so takes a few SELECTs
+   * shared with the others, not one per field. Getters are run only
+   * for the fields they ask for: whatever they return or throw on the
+   * placeholders is ignored, and the parameters are got for real by
+   * paramGetAll afterwards.
+   */
+  @Override
+  void prefetchParams(String[] keys)
+  {
+    List<String> pending = new ArrayList<String>();
+    for (String key : keys)
+    {
+      pending.add(key);
+    }
+    while (!pending.isEmpty())
+    {
+      List<String> missing = new ArrayList<String>();
+      Map<String,Set<String>> misses = new LinkedHashMap<String,Set<String>>();
+      batchMisses = misses;
+      try
+      {
+        for (String key : pending)
+        {
+          fieldMissed = false;
+          try
+          {
+            paramGet(key);
+          }
+          catch (ReaderException e)
+          {
+          }
+          catch (RuntimeException e)
+          {
+            // Placeholders need not parse
+          }
+          if (fieldMissed)
+          {
+            missing.add(key);
+          }
+        }
+      }
+      finally
+      {
+        batchMisses = null;
+      }
+      for (Map.Entry<String,Set<String>> table : misses.entrySet())
+      {
+        selectFields(table.getKey(), table.getValue());
+      }
+      pending = missing;
+    }
+  }
+
+  // Fetch fields of one table for paramGetAll with a single SELECT
+  private void selectFields(String table, Set<String> fields)
+  {
+    String[] names = fields.toArray(new String[fields.size()]);
+    String[] values = null;
+    try
+    {
+      String[] rows = runQuery(makeSelect(names, table, null, -1), true);
+      values = rows[0].split("\\|", -1);
+    }
+    catch (ReaderException e)
+    {
+    }
+    for (int i = 0; i < names.length; i++)
+    {
+      // Fields left null are got one at a time, as paramGet gets them
+      String value = (values != null && values.length == names.length) ? values[i] : null;
+      batchFields.put(table + "." + names[i], value);
+    }
+  }
+
+  // Send the UPDATEs deferred by paramSetAll, one per table
+  private void flushUpdates()
+  {
+    Map<String,List<DeferredUpdate>> tables = new LinkedHashMap<String,List<DeferredUpdate>>();
+    for (DeferredUpdate update : deferredUpdates)
+    {
+      List<DeferredUpdate> updates = tables.get(update.table);
+      if (updates == null)
+      {
+        updates = new ArrayList<DeferredUpdate>();
+        tables.put(update.table, updates);
+      }
+      updates.add(update);
+    }
+    deferredUpdates.clear();
+    for (Map.Entry<String,List<DeferredUpdate>> table : tables.entrySet())
+    {
+      List<DeferredUpdate> updates = table.getValue();
+      StringBuilder query = new StringBuilder("UPDATE " + table.getKey() + " SET ");
+      for (int i = 0; i < updates.size(); i++)
+      {
+        DeferredUpdate update = updates.get(i);
+        query.append(i == 0 ? "" : ", ").append(update.field)
+          .append("='").append(update.value).append("'");
+      }
+      query.append(";");
+      try
+      {
+        runQuery(query.toString());
+      }
+      catch (ReaderCommException e)
+      {
+        for (DeferredUpdate update : updates)
+        {
+          updateFailed(update, e);
+        }
+      }
+      catch (ReaderException e)
+      {
+        // Find out which of them the reader refused
+        for (DeferredUpdate update : updates)
+        {
+          try
+          {
+            runQuery(String.format("UPDATE %s SET %s='%s';",
+                                   update.table, update.field, update.value));
+          }
+          catch (ReaderException e2)
+          {
+            updateFailed(update, e2);
+          }
+        }
+      }
+    }
+  }
+
+  private void updateFailed(DeferredUpdate update, ReaderException e)
+  {
+    if (update.key != null && !batchFailures.containsKey(update.key))
+    {
+      batchFailures.put(update.key, e);
+    }
+  }
+
+  @Override
+  void endParamBatch(Map<String,ParamResult> results)
+  {
+    try
+    {
+      flushUpdates();
+      for (Map.Entry<String,ReaderException> failure : batchFailures.entrySet())
+      {
+        String key = failure.getKey();
+        results.put(key, new ParamResult(key, null, failure.getValue()));
+      }
+    }
+    finally
+    {
+      batchFields = null;
+      deferredUpdates = null;
+      batchFailures = null;
+    }
+  }
+
   /**
    * Retrieve port power for each antenna
    * @param val
@@ -2351,25 +2663,47 @@ public class RqlReader extends com.thingmagic.Reader
   {
     List<TagReadData> tagvec;
 
-    setTxPower((Integer)paramGet(TMR_PARAM_RADIO_READPOWER));
     tagvec = new ArrayList<TagReadData>();
+    readInto(duration, new ReadSink.ListSink(tagvec));
+    // DeDuplication Logic        
+    deduplicator.removeDuplicates(tagvec,
+      (Boolean) paramGet(TMR_PARAM_TAGREADDATA_UNIQUEBYANTENNA),
+      (Boolean) paramGet(TMR_PARAM_TAGREADDATA_UNIQUEBYDATA), false,
+      (Boolean) paramGet(TMR_PARAM_TAGREADDATA_RECORDHIGHESTRSSI));
+    return tagvec.toArray(new TagReadData[tagvec.size()]);
+  }
 
+  @Override
+  void readInto(long duration, ReadSink sink)
+    throws ReaderException
+  {
+    setTxPower((Integer)paramGet(TMR_PARAM_RADIO_READPOWER));
     try
     {
       setSoTimeout((int)duration + transportTimeout);
-      readInternal((int)duration, (ReadPlan)paramGet(TMR_PARAM_READ_PLAN), tagvec);
+      readInternal((int)duration, readPlanParam.get(), sink);
     }
     finally
     {
       setSoTimeout(transportTimeout);
     }
-    return tagvec.toArray(new TagReadData[tagvec.size()]);
+  }
+
+  @Override
+  boolean startStreamFilter(StreamingReadFilter filter)
+    throws ReaderException
+  {
+    // Repeats are dropped for the whole read, by what read() merges
+    filter.start((Boolean) paramGet(TMR_PARAM_TAGREADDATA_UNIQUEBYANTENNA),
+                 (Boolean) paramGet(TMR_PARAM_TAGREADDATA_UNIQUEBYDATA), false,
+                 0, System.nanoTime() / 1000000);
+    return true;
   }
 
 
 
 
-  private void readInternal(int millis, ReadPlan rp, List<TagReadData> reads) throws ReaderException
+  private void readInternal(int millis, ReadPlan rp, ReadSink reads) throws ReaderException
     {
         resetRql();        
         List<Integer> timeouts = new ArrayList<Integer>();
@@ -2382,16 +2716,17 @@ public class RqlReader extends com.thingmagic.Reader
         {
             Date baseTime = new Date();            
             String[] rows = receiveBatch(timeouts.get(i));
+            List<TagReadData> batch = new ArrayList<TagReadData>(rows.length);
             for (String row : rows)
             {
                 if (0 < row.length())
                 {
-                    reads.add(parseRqlResponse(row, baseTime));
+                    batch.add(parseRqlResponse(row, baseTime));
                 }
             }            
+            // One cursor batch at a time, so a stream() sees it at once
+            reads.addReads(batch);
         }
-        // DeDuplication Logic        
-        ReaderUtil.removeDuplicates(reads,paramGet(TMR_PARAM_TAGREADDATA_UNIQUEBYANTENNA),paramGet(TMR_PARAM_TAGREADDATA_UNIQUEBYDATA),paramGet(TMR_PARAM_TAGREADDATA_RECORDHIGHESTRSSI));
         resetRql();
     }
 
@@ -2403,7 +2738,7 @@ public class RqlReader extends com.thingmagic.Reader
         try
         {
             antenna = (Integer) paramGet(TMR_PARAM_TAGOP_ANTENNA);
-            protocol = (TagProtocol) paramGet(TMR_PARAM_TAGOP_PROTOCOL);
+            protocol = tagOpProtocolParam.get();
         } 
         catch (ReaderException re)
         {
@@ -2439,7 +2774,7 @@ public class RqlReader extends com.thingmagic.Reader
                 toHexString = "0" + toHexString;
             }
         }
-        TagProtocol protocol = (TagProtocol) paramGet(TMR_PARAM_TAGOP_PROTOCOL);
+        TagProtocol protocol = tagOpProtocolParam.get();
         if (protocol.equals(TagProtocol.GEN2) && password != null && password.value != 0) {
             return String.format(" password=0x%s", toHexString);
         } else {
@@ -2453,7 +2788,7 @@ public class RqlReader extends com.thingmagic.Reader
     {
         Gen2.Password password;
         password = (Gen2.Password) paramGet(TMR_PARAM_GEN2_ACCESSPASSWORD);
-        TagProtocol protocol = (TagProtocol)paramGet(TMR_PARAM_TAGOP_PROTOCOL);
+        TagProtocol protocol = tagOpProtocolParam.get();
         if(protocol.equals(TagProtocol.GEN2) && password!=null && password.value!=0)
         {
             return String.format(",password=0x%x", password.value);
@@ -2468,7 +2803,7 @@ public class RqlReader extends com.thingmagic.Reader
     throws ReaderException
   {      
       // Validate parameters
-      TagProtocol protocol = (TagProtocol) paramGet(TMR_PARAM_TAGOP_PROTOCOL);
+      TagProtocol protocol = tagOpProtocolParam.get();
       if ((TagProtocol.ISO180006B == protocol) ||
               (TagProtocol.ISO180006B_UCODE == protocol))
       {
@@ -2558,7 +2893,7 @@ public class RqlReader extends com.thingmagic.Reader
     int wordAddress = 0, wordCount = 0;
     int start;
 
-    TagProtocol protocol =  (TagProtocol)paramGet(TMR_PARAM_TAGOP_PROTOCOL);
+    TagProtocol protocol =  tagOpProtocolParam.get();
 
     if(protocol.equals(TagProtocol.GEN2))
     {
@@ -2626,7 +2961,7 @@ public class RqlReader extends com.thingmagic.Reader
       checkMemParams(bank, address, count);
 
       setTxPower((Integer) paramGet(TMR_PARAM_RADIO_READPOWER));
-      protocol = (TagProtocol)paramGet(TMR_PARAM_TAGOP_PROTOCOL);
+      protocol = tagOpProtocolParam.get();
 
       wheres.add(String.format("block_number=%d", address));
       wheres.add(String.format("block_count=%d", count));
@@ -2669,7 +3004,7 @@ public class RqlReader extends com.thingmagic.Reader
           throw new IllegalArgumentException("Byte write length must be even");
       }
 
-      TagProtocol protocol =  (TagProtocol)paramGet(TMR_PARAM_TAGOP_PROTOCOL);
+      TagProtocol protocol =  tagOpProtocolParam.get();
 
       if (protocol.equals(TagProtocol.GEN2))
       {
@@ -2726,7 +3061,7 @@ public class RqlReader extends com.thingmagic.Reader
 
       checkMemParams(bank, address, data.length);
       setTxPower((Integer) paramGet(TMR_PARAM_RADIO_WRITEPOWER));
-      protocol = (TagProtocol) paramGet(TMR_PARAM_TAGOP_PROTOCOL);
+      protocol = tagOpProtocolParam.get();
 
 
       wheres.add(String.format("block_number=%d", address));
@@ -2840,15 +3175,24 @@ public class RqlReader extends com.thingmagic.Reader
     }
 
     @Override
-    public synchronized void firmwareLoad(InputStream firmware)
+    public void firmwareLoad(InputStream firmware)
             throws IOException, ReaderException
     {
-        webRequest(firmware, null);
+        queryLock.lock();
+        try
+        {
+            webRequest(firmware, null);
+        }
+        finally
+        {
+            queryLock.unlock();
+        }
     }
 
     public void webRequest(InputStream fwStr,FirmwareLoadOptions loadOptions)
             throws ReaderException, IOException
     {
+        invalidateParamCache(true);
         // These are about to stop working
         rqlSock.close();
         rqlSock = null;
@@ -2926,28 +3270,43 @@ public class RqlReader extends com.thingmagic.Reader
 class ManualResetEvent
 {    
     private volatile boolean open = false;
+    // Not the monitor, so a virtual thread waiting here does not pin its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition opened = lock.newCondition();
 
     public ManualResetEvent(boolean open)
     {
         this.open = open;
     }
 
-    public synchronized void waitOne() throws InterruptedException
+    public void waitOne() throws InterruptedException
     {
-        //System.out.println("Waiting .....");
+        lock.lock();
+        try
+        {
             while (open == false)
             {
-                
-                this.wait();
-            }        
+                opened.await();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
-    public synchronized void set()
+    public void set()
     {
-        //System.out.println("################ ENTERED TO BREAK THE LOCK");
-        open = true;
-        //RqlReader._stopRequested = true;
-        this.notifyAll();
+        lock.lock();
+        try
+        {
+            open = true;
+            opened.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     public void reset()
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+/**
+ * Sizes the sub-searches of a SerialReader read so that each one fills
+ * the module's tag buffer most of the way, but not past it.
+ * <p>
+ *
+ * Every read-tag-multiple ends with the tag buffer being drained and
+ * then cleared, and the clear round trip is paid once per cycle, so
+ * longer cycles read more tags per second until the buffer overflows
+ * and the cycle's reads are lost. The controller keeps running
+ * estimates of how fast the buffer fills, how long it takes to drain
+ * per entry and to clear, and of the buffer's capacity, which it
+ * learns from the fill level whenever an overflow does happen.
+ * <p>
+ *
+ * A cycle is sized by its whole time cost: the search, plus the drain
+ * of the entries it is expected to produce, plus the clear. The next
+ * cycle is the one expected to reach TARGET_FILL of the capacity,
+ * grown at most GROWTH times from the last one so a sudden crowd of
+ * tags is not met with a very long cycle, no shorter than MIN_CYCLE_MS
+ * and short enough that its whole cost stays within the configured
+ * maximum, so that sparse populations are still reported promptly.
+ * The last cycle of a read is shortened so that its drain and clear
+ * too fit in the read's timeout.
+ * <p>
+ *
+ * Used from the reading thread; stats() may be called from any.
+ */
+final class SearchCycleController
+{
+  static final int MIN_CYCLE_MS = 20;
+  static final int DEFAULT_MAX_CYCLE_MS = 1000;
+  static final int DEFAULT_CAPACITY = 256;
+  static final double TARGET_FILL = 0.75;
+  static final int GROWTH = 2;
+  private static final double SMOOTHING = 0.25;
+
+  private int maxCycleMs = DEFAULT_MAX_CYCLE_MS;
+  private int cycleMs = MIN_CYCLE_MS;
+  private int capacity = DEFAULT_CAPACITY;
+  private boolean capacityLearned;
+  // Smoothed measurements, each -1 until its first sample
+  private double fillPerMs = -1;      // buffer entries per ms of search
+  private double drainMsPerTag = -1;
+  private double clearMs = -1;
+  private int lastTags;
+  private long cycles;
+  private long overflows;
+
+  /**
+   * @return the duration of the next search, in milliseconds, at most
+   * remaining; a remainder too short for a cycle of its own is folded
+   * into this one
+   */
+  synchronized int nextCycle(int remaining)
+  {
+    if (remaining - costMs(cycleMs) < MIN_CYCLE_MS)
+    {
+      return (int)Math.min(remaining, Math.max(MIN_CYCLE_MS, searchWithin(remaining)));
+    }
+    return cycleMs;
+  }
+
+  /**
+   * Account for a search that completed.
+   *
+   * @param searchMs how long the search ran
+   * @param tags the number of tag buffer entries it produced
+   * @param drainMs how long fetching those entries took
+   * @param clearMs how long clearing the tag buffer then took
+   */
+  synchronized void completed(long searchMs, int tags, long drainMs, long clearMs)
+  {
+    cycles++;
+    lastTags = tags;
+    if (tags > capacity)
+    {
+      // The buffer held them all, so it is at least this large
+      capacity = tags;
+    }
+    if (searchMs > 0)
+    {
+      fillPerMs = smooth(fillPerMs, (double)tags / searchMs);
+    }
+    if (tags > 0)
+    {
+      // The buffer is only drained and cleared when it holds entries
+      drainMsPerTag = smooth(drainMsPerTag, (double)drainMs / tags);
+      this.clearMs = smooth(this.clearMs, clearMs);
+    }
+    resize();
+  }
+
+  /**
+   * Account for a search that overflowed the tag buffer.
+   *
+   * @param searchMs how long the search ran before it failed
+   * @param tags the number of entries in the full buffer
+   */
+  synchronized void overflowed(long searchMs, int tags)
+  {
+    cycles++;
+    overflows++;
+    lastTags = tags;
+    if (tags > 0 && (!capacityLearned || tags < capacity))
+    {
+      capacity = tags;
+      capacityLearned = true;
+    }
+    // The buffer filled before the search ended; its true rate is higher
+    if (searchMs > 0)
+    {
+      fillPerMs = Math.max(fillPerMs, (double)tags / searchMs);
+    }
+    cycleMs = Math.max(MIN_CYCLE_MS, Math.min(cycleMs / 2, target()));
+  }
+
+  private void resize()
+  {
+    cycleMs = Math.max(MIN_CYCLE_MS, Math.min(cycleMs * GROWTH, target()));
+  }
+
+  /**
+   * @return the cycle expected to reach TARGET_FILL of the buffer, at
+   * most the one whose whole cost is maxCycleMs
+   */
+  private int target()
+  {
+    double ms = searchWithin(maxCycleMs);
+    if (fillPerMs > 0)
+    {
+      ms = Math.min(ms, TARGET_FILL * capacity / fillPerMs);
+    }
+    return (int)Math.max(MIN_CYCLE_MS, ms);
+  }
+
+  /**
+   * @return the expected time cost of a cycle searching for searchMs:
+   * the search, draining what it finds and clearing the buffer
+   */
+  private double costMs(double searchMs)
+  {
+    return searchMs * (1 + Math.max(0, fillPerMs) * Math.max(0, drainMsPerTag))
+      + Math.max(0, clearMs);
+  }
+
+  /**
+   * @return the longest search whose cycle is expected to cost no
+   * more than ms
+   */
+  private double searchWithin(double ms)
+  {
+    return Math.max(0, (ms - Math.max(0, clearMs))
+                    / (1 + Math.max(0, fillPerMs) * Math.max(0, drainMsPerTag)));
+  }
+
+  private static double smooth(double average, double sample)
+  {
+    return (average < 0) ? sample : average + SMOOTHING * (sample - average);
+  }
+
+  synchronized void setMaxCycle(int ms)
+  {
+    if (ms < MIN_CYCLE_MS || ms > 65535)
+    {
+      throw new IllegalArgumentException("Maximum search cycle must be from "
+                                         + MIN_CYCLE_MS + " to 65535 ms");
+    }
+    maxCycleMs = ms;
+    cycleMs = Math.min(cycleMs, ms);
+  }
+
+  synchronized int maxCycle()
+  {
+    return maxCycleMs;
+  }
+
+  /**
+   * Forget what was learned, as when the reader is reconfigured.
+   */
+  synchronized void reset()
+  {
+    cycleMs = MIN_CYCLE_MS;
+    capacity = DEFAULT_CAPACITY;
+    capacityLearned = false;
+    fillPerMs = -1;
+    drainMsPerTag = -1;
+    clearMs = -1;
+    lastTags = 0;
+    cycles = 0;
+    overflows = 0;
+  }
+
+  synchronized SerialReader.SearchCycleStats stats()
+  {
+    double tagsPerSecond = 0;
+    if (fillPerMs > 0)
+    {
+      // Search, drain and clear of one full-size cycle
+      tagsPerSecond = 1000 * fillPerMs * cycleMs / costMs(cycleMs);
+    }
+    return new SerialReader.SearchCycleStats(cycleMs, capacity, capacityLearned,
+                                             lastTags, Math.max(0, fillPerMs * 1000),
+                                             Math.max(0, drainMsPerTag),
+                                             Math.max(0, clearMs), tagsPerSecond,
+                                             cycles, overflows);
+  }
+}
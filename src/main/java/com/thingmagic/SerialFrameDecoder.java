@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+/**
+ * Incremental framer for the embedded module serial protocol.
+ * <p>
+ *
+ * Bytes pulled from the SerialTransport are kept in a ring buffer and
+ * frames are cut out of it in place. A frame is
+ * <tt>SOH(0xFF) len opcode status(2) data(len) crc(2)</tt>, so the
+ * decoder never asks the transport for more than the current frame
+ * still needs. Bytes ahead of the SOH are skipped without shifting
+ * anything, and when a candidate frame fails its CRC only the SOH is
+ * dropped: the rest of the frame stays buffered and is rescanned for
+ * the real start of frame on the next call instead of being read again.
+ * A frame that fails its CRC but is followed by another SOH or by
+ * silence is taken to be a real frame damaged on the line, and is
+ * dropped whole.
+ * <p>
+ *
+ * The CRC is accumulated while the frame is copied out of the ring, so
+ * validating it costs no extra pass over the data. Not thread-safe; it
+ * is owned by the SerialReader receive path, which is synchronized.
+ */
+class SerialFrameDecoder
+{
+  static final byte SOH = (byte)0xFF;
+  static final int MIN_FRAME_LENGTH = 7;  // SOH, len, opcode, status(2), crc(2)
+  static final int RING_SIZE = 1024;      // power of two, holds several frames
+  static final int RING_MASK = RING_SIZE - 1;
+  static final int PEEK_TIMEOUT_MS = 5;   // wait for the byte after a bad frame
+
+  private final byte[] ring = new byte[RING_SIZE];
+  private int head;  // next byte to decode
+  private int tail;  // next free slot
+  private boolean crcValid = true;
+  private int lastCrc;
+
+  /**
+   * Discard all buffered bytes. Used whenever the line is flushed or
+   * its speed changes, since anything buffered is then meaningless.
+   */
+  void reset()
+  {
+    head = tail = 0;
+    crcValid = true;
+  }
+
+  /**
+   * @return the number of bytes buffered but not yet decoded
+   */
+  int buffered()
+  {
+    return tail - head;
+  }
+
+  /**
+   * @return whether the last frame returned by nextFrame passed its CRC check
+   */
+  boolean crcValid()
+  {
+    return crcValid;
+  }
+
+  /**
+   * @return the CRC computed over the last frame returned by nextFrame
+   */
+  int lastCrc()
+  {
+    return lastCrc;
+  }
+
+  /**
+   * Decode the next frame into frame[0..len+7), pulling bytes from the
+   * transport as needed. The CRC result is available from crcValid()
+   * afterwards; a frame whose CRC failed is still returned so it can be
+   * shown to transport listeners.
+   *
+   * @param st the transport to read from
+   * @param frame destination; at least 262 bytes
+   * @param timeoutMs how long to keep looking for a start of frame
+   * @param transportTimeoutMs timeout passed to each transport read
+   * @return the total frame length, or -1 if no start of frame was seen
+   * within timeoutMs, in which case the last (up to) seven discarded
+   * bytes are left in frame[0..7)
+   */
+  int nextFrame(SerialTransport st, byte[] frame, int timeoutMs,
+                int transportTimeoutMs)
+    throws ReaderException
+  {
+    long enterTime = System.currentTimeMillis();
+    boolean triedRead = false;
+
+    while (true)
+    {
+      // Skip anything in front of the start of frame
+      while (head != tail && ring[head & RING_MASK] != SOH)
+      {
+        head++;
+      }
+
+      int need = MIN_FRAME_LENGTH;
+      if (tail - head >= 2)
+      {
+        need += ring[(head + 1) & RING_MASK] & 0xff;
+        if (need > frame.length)
+        {
+          // No response is that long; this SOH is a data byte
+          head++;
+          continue;
+        }
+      }
+      if (head != tail && tail - head >= need)
+      {
+        return extract(st, frame, need);
+      }
+
+      if (head == tail && triedRead
+          && (System.currentTimeMillis() - enterTime) >= timeoutMs)
+      {
+        for (int i = 0; i < MIN_FRAME_LENGTH; i++)
+        {
+          frame[i] = ring[(head - MIN_FRAME_LENGTH + i) & RING_MASK];
+        }
+        return -1;
+      }
+
+      // Read no further than the end of the current frame, so a
+      // transport that reads exactly never blocks on bytes that
+      // have not been sent.
+      int want = (head == tail) ? MIN_FRAME_LENGTH : need - (tail - head);
+      receive(st, want, transportTimeoutMs);
+      triedRead = true;
+    }
+  }
+
+  private void receive(SerialTransport st, int length, int timeoutMs)
+    throws ReaderException
+  {
+    int start = tail & RING_MASK;
+    int contiguous = RING_SIZE - start;
+    if (length <= contiguous)
+    {
+      st.receiveBytes(length, ring, start, timeoutMs);
+    }
+    else
+    {
+      st.receiveBytes(contiguous, ring, start, timeoutMs);
+      st.receiveBytes(length - contiguous, ring, 0, timeoutMs);
+    }
+    tail += length;
+  }
+
+  private int extract(SerialTransport st, byte[] frame, int length)
+  {
+    int crc = 0xffff;
+    int crcEnd = length - 2;
+
+    frame[0] = SOH;
+    for (int i = 1; i < length; i++)
+    {
+      byte b = ring[(head + i) & RING_MASK];
+      frame[i] = b;
+      if (i < crcEnd)
+      {
+        crc = SerialReader.crcUpdate(crc, b);
+      }
+    }
+
+    lastCrc = crc;
+    crcValid = (frame[crcEnd] == (byte)((crc >> 8) & 0xff))
+      && (frame[crcEnd + 1] == (byte)(crc & 0xff));
+    if (crcValid || damagedFrame(st, length))
+    {
+      head += length;
+    }
+    else
+    {
+      // Probably a false SOH: keep everything after it and resync there.
+      head += 1;
+    }
+    return length;
+  }
+
+  /**
+   * Tell a real frame damaged on the line from a false SOH. A damaged
+   * frame is followed by the next SOH or by silence, and must be
+   * dropped whole: rescanning inside it would only find SOH-valued data
+   * bytes and misalign every response after it. When the byte after
+   * the frame has not been read yet, wait briefly for it.
+   */
+  private boolean damagedFrame(SerialTransport st, int length)
+  {
+    if (tail - head == length)
+    {
+      try
+      {
+        receive(st, 1, PEEK_TIMEOUT_MS);
+      }
+      catch (ReaderException re)
+      {
+        return true;
+      }
+    }
+    return ring[(head + length) & RING_MASK] == SOH;
+  }
+}
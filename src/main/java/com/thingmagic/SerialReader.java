@@ -23,7 +23,6 @@ package com.thingmagic;
 
 import java.util.Calendar;
 import java.util.Iterator;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumMap;
@@ -43,6 +42,7 @@ import static com.thingmagic.EmbeddedReaderMessage.*;
 import com.thingmagic.TagReadData.TagMetadataFlag;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.concurrent.locks.ReentrantLock;
 import static com.thingmagic.TMConstants.*;
 
 /**
@@ -62,6 +62,11 @@ public class SerialReader extends Reader
   int txrxPorts[][];
   String serialDevice;
   SerialTransport st;
+  final SerialFrameDecoder decoder = new SerialFrameDecoder();
+  // Serializes commands and responses on the transport. A lock rather
+  // than the monitor, so a virtual thread blocked in a serial receive
+  // does not pin its carrier.
+  private final ReentrantLock ioLock = new ReentrantLock();
   VersionInfo versionInfo = null;
   Set<TagProtocol> protocolSet;
   int[] powerLimits;
@@ -97,6 +102,9 @@ public class SerialReader extends Reader
   private final int DEFAULT_READ_FILTER_TIMEOUT = -1;
   boolean _enableFiltering = true;
   int _readFilterTimeout = DEFAULT_READ_FILTER_TIMEOUT;
+  boolean adaptiveCycles = false;
+  final SearchCycleController searchCycles = new SearchCycleController();
+  final ClockCorrelator moduleClock = new ClockCorrelator();
   boolean isSecurePasswordLookup = false;
   private final static String STR_FLUSH_READS = "Flush Reads";
   private final static String STR_STOP_READING = "Stop Reading";
@@ -182,17 +190,24 @@ public class SerialReader extends Reader
             tagOpFailuresCount = 0;
             continuousReading = true;
             int tWeight = 0;
-            ReadPlan rPlan = (ReadPlan) paramGet(TMR_PARAM_READ_PLAN);
+            ReadPlan rPlan = readPlanParam.get();
             if(rPlan instanceof MultiReadPlan){
             MultiReadPlan plan = (MultiReadPlan)rPlan;
               tWeight =  plan.totalWeight;
             }
             if (model.equalsIgnoreCase(TMR_READER_M6E) && 
-                ((Integer) paramGet(TMR_PARAM_READ_ASYNCOFFTIME) == 0) &&
+                (asyncOffTimeParam.get() == 0) &&
                 (tWeight == 0))
             {
 
+                // The module cannot filter a stream; do it on the host
                 cmdSetReaderConfiguration(Configuration.ENABLE_FILTERING, false);
+                if (_enableFiltering)
+                {
+                    streamFilter.start(uniqueByAntenna, uniqueByData,
+                      uniqueByProtocol, _readFilterTimeout,
+                      System.nanoTime() / 1000000);
+                }
                 useStreaming = true;
                 isTrueAsyncStopped = false;
                 startReadingGivenRead(true);
@@ -232,7 +247,7 @@ public class SerialReader extends Reader
         {
             try
             {
-                if (model.equalsIgnoreCase(TMR_READER_M6E) && ((Integer) paramGet(TMR_PARAM_READ_ASYNCOFFTIME) == 0))
+                if (model.equalsIgnoreCase(TMR_READER_M6E) && (asyncOffTimeParam.get() == 0))
                 {
                     useStreaming = false;
                 }
@@ -241,6 +256,7 @@ public class SerialReader extends Reader
             {
                 notifyExceptionListeners(re);
             }
+            readingStopped();
         }
     }
 
@@ -266,18 +282,25 @@ public class SerialReader extends Reader
         {
             notifyExceptionListeners(re);
         }
-        do
+        try
         {
-            opCode = MSG_OPCODE_READ_TAG_ID_MULTIPLE;
-            if(value.equals(STR_STOP_READING))
-            {
-                receiveResponseStream(commandTimeout, m);
-            }
-            else
+            do
             {
-                receiveBufferedReads(commandTimeout, m);
-            }
-        }while(m.data[2]!=0x2F);        
+                opCode = MSG_OPCODE_READ_TAG_ID_MULTIPLE;
+                if(value.equals(STR_STOP_READING))
+                {
+                    receiveResponseStream(commandTimeout, m);
+                }
+                else
+                {
+                    receiveBufferedReads(commandTimeout, m);
+                }
+            }while(m.data[2]!=0x2F);
+        }
+        finally
+        {
+            flushStreamBatch();
+        }
     }
 
     @Override
@@ -293,33 +316,34 @@ public class SerialReader extends Reader
     }
 
     /**
-     * retrieve all tag reads
+     * retrieve all tag reads, adding each tag buffer fetch to tagReads
+     * as it arrives
      * @param baseTime
      * @param tagCount
      * @param tagProtocol
-     * @return
+     * @param metaBits the metadata to fetch with each read
+     * @param tagReads
      */
-    private List<TagReadData> getAllTagReads(long baseTime, int tagCount, TagProtocol tagProtocol) throws ReaderException
+    private void getAllTagReads(long baseTime, int tagCount, TagProtocol tagProtocol,
+                                int metaBits, ReadSink tagReads) throws ReaderException
     {
         int count = 0;
-        List<TagReadData> tagReads = new ArrayList<TagReadData>();
 
         while (count < tagCount)
         {
             TagReadData tr[];
-            tr = cmdGetTagBuffer(allMeta, false, tagProtocol);
+            tr = cmdGetTagBufferInternal(metaBits, false, tagProtocol);
+            long arrival = System.nanoTime();
             for (TagReadData t : tr)
             {
                 t.readBase = baseTime;
+                t.timeNanos = moduleClock.toHost(t.readOffset, arrival);
                 t.antenna = antennaPortReverseMap.get(t.antenna);
                 t.reader = this;
-                tagReads.add(t);
                 count++;
             }//end of for
+            tagReads.addReads(Arrays.asList(tr));
         }//end of while
-
-        return tagReads;
-
     }
 
     private void receiveBufferedReads(int readTimeout, Message m) throws ReaderException
@@ -375,13 +399,89 @@ public class SerialReader extends Reader
      * @param readTimeout
      * @param m     
      */
+    /**
+     * Add a streamed read to the batch for the read listeners. The
+     * batch is delivered as soon as no more of the stream has been
+     * received, so batching never delays a read; it only grows when
+     * responses arrive faster than they are parsed.
+     */
+    private void batchStreamRead(TagReadData t)
+    {
+        TagReadData[] reads = null;
+        synchronized (streamBatch)
+        {
+            streamBatch.add(t);
+            if (streamBatch.size() >= STREAM_BATCH_MAX || !moreReceived())
+            {
+                reads = streamBatch.toArray(new TagReadData[streamBatch.size()]);
+                streamBatch.clear();
+            }
+        }
+        if (reads != null)
+        {
+            deliverStreamBatch(reads);
+        }
+    }
+
+    /**
+     * Deliver any streamed reads still waiting in the batch.
+     */
+    private void flushStreamBatch()
+    {
+        TagReadData[] reads;
+        synchronized (streamBatch)
+        {
+            reads = streamBatch.toArray(new TagReadData[streamBatch.size()]);
+            streamBatch.clear();
+        }
+        if (reads.length > 0)
+        {
+            deliverStreamBatch(reads);
+        }
+    }
+
+    /**
+     * Queue a batch for the notifier thread, so the stream keeps being
+     * drained while the listeners run. If this thread is interrupted
+     * while the queue is full, the batch is delivered here instead of
+     * being lost.
+     */
+    private void deliverStreamBatch(TagReadData[] reads)
+    {
+        try
+        {
+            publishReads(reads);
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            notifyReadListeners(reads);
+        }
+    }
+
+    /**
+     * @return whether bytes of the next response have already been
+     * received, by the frame decoder or by a buffering transport. The
+     * decoder never reads past the current frame, so on a transport
+     * that is not a BufferedSerialTransport this is almost always false
+     * and streamed reads go out one per batch.
+     */
+    private boolean moreReceived()
+    {
+        return decoder.buffered() > 0
+          || (st instanceof BufferedSerialTransport
+              && ((BufferedSerialTransport)st).bytesAvailable() > 0);
+    }
+
     private void receiveResponseStream(int readTimeout, Message m) throws ReaderException
     {
         long baseTime = System.currentTimeMillis();
         receiveBufferedReads(readTimeout, m);
+        long arrival = System.nanoTime();
         // this 2f response says true continuous reading is stopped, so return from the response streaming
         if(m.data[2] == 0x2F && isTrueAsyncStopped)
         {
+            flushStreamBatch();
             return;
         }
         byte flags = (byte) m.getu8();
@@ -438,18 +538,24 @@ public class SerialReader extends Reader
             }
             else  // no status response in the message
             {
-                TagReadData t = new TagReadData();
-                Set<TagMetadataFlag> metadataFlags = tagMetadataSet(m.getu16());
+                FrameTagReadData t = new FrameTagReadData();
+                MetadataDecoder decoder = MetadataDecoder.forBits(m.getu16());
                 m.readIndex += 1; // skip response type
-                if(!metadataFlags.isEmpty())
+                if(!decoder.isEmpty())
                 {
-                    metadataFromMessage(t, m, metadataFlags);
+                    decoder.decode(t, m, gpioPinCount());
                     t.antenna = antennaPortReverseMap.get(t.antenna);
                     int epcLen = m.getu16() / 8;
-                    t.tag = parseTag(m, epcLen, t.readProtocol);
+                    t.setTag(m.data, m.readIndex, epcLen, t.readProtocol);
+                    m.readIndex += epcLen;
                     t.readBase = baseTime;
+                    t.timeNanos = moduleClock.toHost(t.readOffset, arrival);
                     t.reader = this;
-                    notifyReadListeners(t);
+                    if (!_enableFiltering
+                        || streamFilter.accept(t, System.nanoTime() / 1000000))
+                    {
+                        batchStreamRead(t);
+                    }
                 }
             }
         }
@@ -460,7 +566,7 @@ public class SerialReader extends Reader
             TagOp tagop = null;
             try
             {
-                ReadPlan rp = (ReadPlan)paramGet(TMR_PARAM_READ_PLAN);
+                ReadPlan rp = readPlanParam.get();
                 if(rp instanceof SimpleReadPlan)
                 {
                     srp = (SimpleReadPlan) rp;
@@ -1121,6 +1227,57 @@ public class SerialReader extends Reader
 
   }
 
+  /*
+   * A small free list of Messages for the command/response path, so
+   * that the commands issued for every search cycle (read multiple,
+   * get tag buffer, clear buffer, ...) reuse their 256-byte buffers
+   * instead of allocating new ones. A Message taken with acquire() is
+   * handed back with release() once its response has been parsed and
+   * must not be touched afterwards. Messages built with new Message()
+   * are never pooled and are simply left to the garbage collector.
+   */
+  static class MessagePool
+  {
+    private final Message[] free;
+    private int count;
+
+    MessagePool(int capacity)
+    {
+      free = new Message[capacity];
+    }
+
+    synchronized Message acquire()
+    {
+      if (count == 0)
+      {
+        return new Message();
+      }
+      Message m = free[--count];
+      free[count] = null;
+      // Message builders rely on a zeroed buffer (see the option bytes
+      // they OR flags into), so clear out the previous exchange.
+      Arrays.fill(m.data, (byte)0);
+      m.writeIndex = 2;
+      m.readIndex = 0;
+      return m;
+    }
+
+    synchronized void release(Message m)
+    {
+      if (count < free.length)
+      {
+        free[count++] = m;
+      }
+    }
+  }
+
+  final MessagePool messagePool = new MessagePool(4);
+  private final TagReadDeduplicator deduplicator = new TagReadDeduplicator();
+  private final StreamingReadFilter streamFilter = new StreamingReadFilter();
+  // Streamed reads not yet delivered to the read listeners
+  private final List<TagReadData> streamBatch = new ArrayList<TagReadData>();
+  static final int STREAM_BATCH_MAX = 256;
+
 
      class BackgroundParser implements Runnable
     {
@@ -1151,9 +1308,9 @@ public class SerialReader extends Reader
         public void run()
         {
             TagReadData t = new TagReadData();
-            Set<TagMetadataFlag> metadataFlags = tagMetadataSet(msg.getu16());
+            MetadataDecoder decoder = MetadataDecoder.forBits(msg.getu16());
             msg.readIndex += 1; // skip response type
-            metadataFromMessage(t, msg, metadataFlags);
+            decoder.decode(t, msg, gpioPinCount());
             t.antenna = antennaPortReverseMap.get(t.antenna);
             int epcLen = msg.getu16() / 8;
             t.tag = parseTag(msg, epcLen, tagProtocol);
@@ -1178,7 +1335,7 @@ public class SerialReader extends Reader
    * error. Does not generate exceptions for non-zero status
    * responses.
    */
-  public synchronized byte[] cmdRaw(int timeout, byte... message)
+  public byte[] cmdRaw(int timeout, byte... message)
     throws ReaderException
   {
     Message m = new Message();
@@ -1198,7 +1355,21 @@ public class SerialReader extends Reader
     return response;
   }
 
-  private synchronized void sendMessage(int timeout, Message m)
+  private void sendMessage(int timeout, Message m)
+    throws ReaderException
+  {
+    ioLock.lock();
+    try
+    {
+      sendMessageLocked(timeout, m);
+    }
+    finally
+    {
+      ioLock.unlock();
+    }
+  }
+
+  private void sendMessageLocked(int timeout, Message m)
     throws ReaderException
   {
       /* Wake up processor from deep sleep.  Tickle the RS-232 line, then
@@ -1262,86 +1433,57 @@ public class SerialReader extends Reader
     st.sendBytes(len, m.data, 0, timeout + transportTimeout);
   }
 
-  private synchronized void receiveMessage(int timeout, Message m)
+  private void receiveMessage(int timeout, Message m)
     throws ReaderException
   {
-    int sofPosition;
-    boolean sofFound=false;
-    long enterTime=System.currentTimeMillis();
-    while((System.currentTimeMillis()-enterTime)<timeout)
+    ioLock.lock();
+    try
     {
-      byte[] receiveBytes = st.receiveBytes(7, m.data, 0, timeout + transportTimeout);
-      if(m.data[0]!=(byte)0xff)
-      {
-        int i=0;
-        for(i=1;i<6;i++)
-        {
-          if(m.data[i]==(byte)0xff)
-          {
-            sofPosition=i;
-            sofFound=true;
-            System.arraycopy(m.data,sofPosition,m.data,0,7-sofPosition);
-            st.receiveBytes(7-sofPosition, m.data,sofPosition, timeout + transportTimeout);
-            break;
-          }
-        }
-        if(sofFound)
-          break;
-
-      }
-      else
-      {
-        sofFound=true;
-        break;
-      }
+      receiveMessageLocked(timeout, m);
+    }
+    finally
+    {
+      ioLock.unlock();
     }
-    if(sofFound==false)
+  }
+
+  private void receiveMessageLocked(int timeout, Message m)
+    throws ReaderException
+  {
+    int frameLen = decoder.nextFrame(st, m.data, timeout,
+                                     timeout + transportTimeout);
+    if (frameLen < 0)
+    {
+      if (hasSerialListeners)
       {
-        if (hasSerialListeners)
+        byte[] message = new byte[7];
+        System.arraycopy(m.data, 0, message, 0, 7);
+        for (TransportListener l : serialListeners)
         {
-          // Keep value of len set to length of data
-          byte[] message = new byte[7];
-          System.arraycopy(m.data, 0, message, 0, 7);
-          for (TransportListener l : serialListeners)
-          {
-            l.message(false, message, timeout + transportTimeout);
-          }
+          l.message(false, message, timeout + transportTimeout);
         }
-        throw new ReaderCommException(
-        String.format("No soh FOund"));
       }
+      throw new ReaderCommException(
+        String.format("No soh FOund"));
+    }
 
     int len = m.data[1] & 0xff;
-    //Now pull in the rest of the data, if exists, + the CRC
-
-    if (len != 0) st.receiveBytes(len, m.data, 7, timeout + transportTimeout);
 
     if (hasSerialListeners)
     {
       // Keep value of len set to length of data
-      byte[] message = new byte[len+7];
-      try
-      {
-          System.arraycopy(m.data, 0, message, 0, len+7);
-      }
-      catch(ArrayIndexOutOfBoundsException ex)
-      {
-          throw new ReaderCommException("Invalid M6e response header, SOH not found in response");
-      }
+      byte[] message = new byte[frameLen];
+      System.arraycopy(m.data, 0, message, 0, frameLen);
       for (TransportListener l : serialListeners)
       {
         l.message(false, message, timeout + transportTimeout);
       }
     }
 
-    
-    
-    //Calculate the crc for the data
-    int crc = calcCrc(m.data, 1, len+4);
-    //Compare with message's crc
-    if ((m.data[len+5] != (byte)((crc >> 8) & 0xff)) ||
-        (m.data[len+6] != (byte)(crc & 0xff)))
-    {    
+    //Compare the crc computed while framing with message's crc
+    if (!decoder.crcValid())
+    {
+      int crc = decoder.lastCrc();
       throw new ReaderCommException(
         String.format("Reader failed crc check.  Message crc %x %x data crc %x %x",  m.data[len+5],m.data[len+6],(crc >> 8 & 0xff), (crc&0xff)));
 
@@ -1385,14 +1527,21 @@ public class SerialReader extends Reader
 
   }
 
-  private synchronized Message sendTimeout(int timeout, Message m)
+  private Message sendTimeout(int timeout, Message m)
     throws ReaderException
   {
-    
-    sendMessage(timeout, m);
-    receiveMessage(timeout, m);
+    ioLock.lock();
+    try
+    {
+      sendMessage(timeout, m);
+      receiveMessage(timeout, m);
 
-    return m;
+      return m;
+    }
+    finally
+    {
+      ioLock.unlock();
+    }
   }
 
   private Message send(Message m)
@@ -1402,13 +1551,26 @@ public class SerialReader extends Reader
     return sendTimeout(commandTimeout, m);
   }
 
+  /*
+   * Send a command consisting of a bare opcode. The returned Message
+   * comes from messagePool; callers release it when they are done
+   * with the response.
+   */
   private Message sendOpcode(int opcode)
     throws ReaderException
   {
-    Message m = new Message();
+    Message m = messagePool.acquire();
 
     m.setu8(opcode);
-    return sendTimeout(commandTimeout, m);
+    try
+    {
+      return sendTimeout(commandTimeout, m);
+    }
+    catch (ReaderException re)
+    {
+      messagePool.release(m);
+      throw re;
+    }
   }
 
   // ThingMagic-mutated CRC used for messages.
@@ -1421,21 +1583,41 @@ public class SerialReader extends Reader
     0xc18c, 0xd1ad, 0xe1ce, 0xf1ef,
   };
 
+  // The same CRC advanced a whole byte per lookup. Two nibble steps
+  // shift the data byte into the low end of the register and fold in a
+  // value that depends only on the register's old high byte, so
+  // crcByteTable[h] is simply two nibble steps applied to h << 8.
+  private static final int crcByteTable[] = new int[256];
+  static
+  {
+    for (int h = 0; h < 256; h++)
+    {
+      int crc = h << 8;
+      crc = ((crc << 4) ^ crcTable[crc >> 12]) & 0xffff;
+      crc = ((crc << 4) ^ crcTable[crc >> 12]) & 0xffff;
+      crcByteTable[h] = crc;
+    }
+  }
+
   // calculates ThingMagic's CRC-16
-  private static short calcCrc(byte[] message, int offset, int length)
+  static short calcCrc(byte[] message, int offset, int length)
   {
     int crc = 0xffff;
 
     for (int i = offset; i < offset + length; i++)
     {
-      crc = ((crc << 4) | ((message[i] >> 4) & 0xf)) ^ crcTable[crc >> 12];
-      crc &= 0xffff;
-      crc = ((crc << 4) | ((message[i] >> 0) & 0xf)) ^ crcTable[crc >> 12];
-      crc &= 0xffff;
+      crc = (((crc << 8) | (message[i] & 0xff)) & 0xffff) ^ crcByteTable[crc >> 8];
     }
     return (short)crc;
   }
 
+  // advances a running CRC-16 by one byte, for callers that see the
+  // message a byte at a time (see SerialFrameDecoder)
+  static int crcUpdate(int crc, byte b)
+  {
+    return (((crc << 8) | (b & 0xff)) & 0xffff) ^ crcByteTable[crc >> 8];
+  }
+
   protected List<TransportListener> serialListeners;
   protected boolean hasSerialListeners;
 
@@ -1486,6 +1668,7 @@ public class SerialReader extends Reader
     public void removeStatusListener(StatusListener listener)
     {
         statusListeners.remove(listener);
+        retireDispatcher(statusDispatchers, listener);
         // resetting statusflags
         resetStatusFlags();
         // assingStatusFlags() to update the flags with latest settings
@@ -1504,7 +1687,8 @@ public class SerialReader extends Reader
   public void setSerialBaudRate(int rate)
     throws ReaderException
   {
-    st.setBaudRate(rate);    
+    st.setBaudRate(rate);
+    decoder.reset();
   }
 
   // "Level 3" interface - direct wrappers around specific serial
@@ -1709,7 +1893,14 @@ public class SerialReader extends Reader
     throws ReaderException
   {
     Message m = sendOpcode(MSG_OPCODE_BOOT_FIRMWARE);
-    return parseVersion(m);
+    try
+    {
+      return parseVersion(m);
+    }
+    finally
+    {
+      messagePool.release(m);
+    }
   }
 
   /**
@@ -1766,7 +1957,7 @@ public class SerialReader extends Reader
   {
     try 
     {
-      sendOpcode(MSG_OPCODE_VERIFY_IMAGE_CRC);
+      messagePool.release(sendOpcode(MSG_OPCODE_VERIFY_IMAGE_CRC));
     }
     catch (ReaderCodeException re)
     {
@@ -1906,7 +2097,8 @@ public class SerialReader extends Reader
   public void cmdBootBootloader()
     throws ReaderException
   {
-    sendOpcode(MSG_OPCODE_BOOT_BOOTLOADER);
+    invalidateParamCache(true);
+    messagePool.release(sendOpcode(MSG_OPCODE_BOOT_BOOTLOADER));
   }
 
   /** 
@@ -1919,7 +2111,14 @@ public class SerialReader extends Reader
     Message m;
 
     m = sendOpcode(MSG_OPCODE_GET_CURRENT_PROGRAM);
-    return m.getu8();
+    try
+    {
+      return m.getu8();
+    }
+    finally
+    {
+      messagePool.release(m);
+    }
   }
 
 
@@ -2023,6 +2222,19 @@ public class SerialReader extends Reader
                                        TagFilter filter, TagProtocol protocol,
                                        TagMetadataFlag metadataFlags,
                                        int accessPassword)
+  {
+    msgSetupReadTagMultiple(m, timeout, searchFlags, filter, protocol,
+                            metadataFlags, accessPassword, allMetaBits);
+  }
+
+  /**
+   * @param metaBits the metadata streamed with each read
+   */
+  private void msgSetupReadTagMultiple(Message m, int timeout,
+                                       int searchFlags,
+                                       TagFilter filter, TagProtocol protocol,
+                                       TagMetadataFlag metadataFlags,
+                                       int accessPassword, int metaBits)
   {
     int optByte;
 
@@ -2045,7 +2257,7 @@ public class SerialReader extends Reader
 
     if (useStreaming)
     {
-        m.setu16(allMetaBits);
+        m.setu16(metaBits);
         // adding streaming option
         if(0 != statusFlags)
         {
@@ -2252,29 +2464,43 @@ public class SerialReader extends Reader
       throw new IllegalArgumentException("illegal timeout " + timeout);
     }
 
-    Message m = new Message();
+    Message m = messagePool.acquire();
     msgSetupReadTagMultiple(m, timeout, selection.value, filter,
                             protocol, TagMetadataFlag.ALL, 0);
 
-    Message msg = sendTimeout(timeout, m);
-    int dat = msg.data[1];
-    switch(dat)
-    {
-        case 8:
-                // Later 4-byte count: Large-tag-population support and ISO18k select option included in reply.
-                return m.getu32at(9);
-        case 7:
-                // Plain 4-byte count: Reader with large-tag-population support
-                return m.getu32at(8);
-        case 5:
-                // Later 1-byte count: ISO18k select option included in reply
-                return m.getu8at(9);
-        case 4:
-                // Plain 1-byte count: Reader without large-tag-population support
-                return m.getu8at(8);
-        default:
-            throw new ReaderParseException("Unrecognized Read Tag Multiple response length: " + m.data.length);
+    try
+    {
+      sendTimeout(timeout, m);
+
+      int tagCount;
+      int dat = m.data[1];
+      switch(dat)
+      {
+          case 8:
+                  // Later 4-byte count: Large-tag-population support and ISO18k select option included in reply.
+                  tagCount = m.getu32at(9);
+                  break;
+          case 7:
+                  // Plain 4-byte count: Reader with large-tag-population support
+                  tagCount = m.getu32at(8);
+                  break;
+          case 5:
+                  // Later 1-byte count: ISO18k select option included in reply
+                  tagCount = m.getu8at(9);
+                  break;
+          case 4:
+                  // Plain 1-byte count: Reader without large-tag-population support
+                  tagCount = m.getu8at(8);
+                  break;
+          default:
+              throw new ReaderParseException("Unrecognized Read Tag Multiple response length: " + m.data.length);
 
+      }
+      return tagCount;
+    }
+    finally
+    {
+      messagePool.release(m);
     }
   }
 
@@ -2819,9 +3045,15 @@ public class SerialReader extends Reader
     int writeIndex, readIndex;
 
     Message m = sendOpcode(MSG_OPCODE_GET_TAG_BUFFER);
-
-    readIndex = m.getu16();
-    writeIndex = m.getu16();
+    try
+    {
+      readIndex = m.getu16();
+      writeIndex = m.getu16();
+    }
+    finally
+    {
+      messagePool.release(m);
+    }
     return new int[] {writeIndex - readIndex, readIndex, writeIndex};
   }
 
@@ -2913,46 +3145,16 @@ public class SerialReader extends Reader
   TagData parseTag(Message m, int epcLen, TagProtocol protocol)
   {
     TagData tag;
-    byte[] pcbits, epcbits, crcbits;
+    byte[] epcbits, crcbits;
 
     switch (protocol)
     {
-    case GEN2:        
-        final int BUFFER_SIZE = 6;        
-        ByteBuffer pcBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-
-        epcLen -=2; // removed 2 bytes of CRC
-
-        pcBuffer.put((byte) m.getu8()); // PC Byte 1
-        pcBuffer.put((byte) m.getu8()); // PC Byte 2
-
-        epcLen -=2; // Only PC Bits
-               
-        if ((pcBuffer.get(0) & 0x02) == 0x02) // Bitwise AND operation on 4 bytes integer msb
-        {
-            pcBuffer.put((byte) m.getu8()); // PC Byte 3
-            pcBuffer.put((byte) m.getu8()); // PC Byte 4
-
-            epcLen -= 2; // XPC_W1 exists, so epcLen is decremented            
-
-            if ((pcBuffer.get(2) & 0x80) == 0x80)
-            {
-                /* When MSB bit is set, the XPC_W2 word will follow the XPC_W1 word */
-                pcBuffer.put((byte) m.getu8()); // PC Byte 5
-                pcBuffer.put((byte) m.getu8()); // PC Byte 6
-
-                epcLen -= 2;  // PC + XPC_W1 + XPC_W2 = 6 bytes                
-            }             
-        } 
-        int pos = pcBuffer.position();
-        pcBuffer.clear();
-        pcbits = new byte[pos];
-        pcBuffer.get(pcbits,0, pos);// copy contents in buffer to pcbits array.
-        epcbits = new byte[epcLen];
-        m.getbytes(epcbits, epcLen);
-        crcbits = new byte[2];
-        m.getbytes(crcbits, 2);                
-        tag = new Gen2.TagData(epcbits, crcbits, pcbits);
+    case GEN2:
+        // PC, EPC and CRC are copied straight out of the response
+        int pcLength = Gen2.TagData.pcLength(m.data, m.readIndex);
+        tag = new Gen2.TagData(m.data, m.readIndex, pcLength,
+                               epcLen - pcLength - 2);
+        m.readIndex += epcLen;
         break;
     case IPX256:
       epcbits = new byte[epcLen - 2];
@@ -3011,25 +3213,39 @@ public class SerialReader extends Reader
     byte[] response;
     int offset, numTagsInMessage;
 
-    Message m = new Message();
+    Message m = messagePool.acquire();
     m.setu8(MSG_OPCODE_GET_TAG_BUFFER);
     m.setu16(metadataBits);
     m.setu8(resend ? 1 : 0);
 
-    send(m);
-
-    // the module might not support all the bits we asked for
-    Set<TagMetadataFlag> metadataFlags = tagMetadataSet(m.getu16());
-    m.readIndex++; // we don't need the read options
-    numTagsInMessage = m.getu8();
-    trs = new TagReadData[numTagsInMessage];
-    for (int i = 0 ; i < numTagsInMessage; i++)
+    try
     {
-      trs[i] = new TagReadData();
+      send(m);
 
-      metadataFromMessage(trs[i], m, metadataFlags);
-      trs[i].tag = parseTag(m, m.getu16() / 8,
-              protocol==TagProtocol.NONE?trs[i].readProtocol:protocol);
+      // the module might not support all the bits we asked for
+      MetadataDecoder decoder = MetadataDecoder.forBits(m.getu16());
+      int gpioPins = gpioPinCount();
+      m.readIndex++; // we don't need the read options
+      numTagsInMessage = m.getu8();
+      trs = new TagReadData[numTagsInMessage];
+      // The reads share one copy of the response and parse their tags
+      // out of it only when asked to
+      byte[] frame = Arrays.copyOf(m.data, m.writeIndex);
+      for (int i = 0 ; i < numTagsInMessage; i++)
+      {
+        FrameTagReadData t = new FrameTagReadData(frame);
+
+        decoder.decode(t, m, gpioPins);
+        int epcLen = m.getu16() / 8;
+        t.setTag(m.readIndex, epcLen,
+                protocol==TagProtocol.NONE?t.readProtocol:protocol);
+        m.readIndex += epcLen;
+        trs[i] = t;
+      }
+    }
+    finally
+    {
+      messagePool.release(m);
     }
 
     return trs;
@@ -3043,7 +3259,7 @@ public class SerialReader extends Reader
   private void cmdClearTagBuffer()
     throws ReaderException
   {
-    sendOpcode(MSG_OPCODE_CLEAR_TAG_ID_BUFFER);
+    messagePool.release(sendOpcode(MSG_OPCODE_CLEAR_TAG_ID_BUFFER));
   }
 
   /**
@@ -3625,8 +3841,15 @@ public class SerialReader extends Reader
     int tx, rx;
 
     m = sendOpcode(MSG_OPCODE_GET_ANTENNA_PORT);
-    tx = m.getu8();
-    rx = m.getu8();
+    try
+    {
+      tx = m.getu8();
+      rx = m.getu8();
+    }
+    finally
+    {
+      messagePool.release(m);
+    }
     
     return new int[] {tx, rx};
   }
@@ -4002,7 +4225,14 @@ public class SerialReader extends Reader
     Message m;
 
     m = sendOpcode(MSG_OPCODE_GET_TAG_PROTOCOL);
-    return codeToProtocolMap.get(m.getu16());
+    try
+    {
+      return codeToProtocolMap.get(m.getu16());
+    }
+    finally
+    {
+      messagePool.release(m);
+    }
   }
 
   /**
@@ -4044,12 +4274,18 @@ public class SerialReader extends Reader
     int i, off, tableLen;
 
     m = sendOpcode(MSG_OPCODE_GET_FREQ_HOP_TABLE);
-
-    tableLen = (m.writeIndex - m.readIndex) / 4;
-    table = new int[tableLen];
-    for (i = 0, off = 0; i < tableLen; i++, off += 4)
+    try
+    {
+      tableLen = (m.writeIndex - m.readIndex) / 4;
+      table = new int[tableLen];
+      for (i = 0, off = 0; i < tableLen; i++, off += 4)
+      {
+        table[i] = m.getu32();
+      }
+    }
+    finally
     {
-      table[i] = m.getu32();
+      messagePool.release(m);
     }
     return table;
   }
@@ -4116,7 +4352,14 @@ public class SerialReader extends Reader
     Message m;
 
     m = sendOpcode(MSG_OPCODE_GET_REGION);
-    return codeToRegionMap.get(m.getu8());
+    try
+    {
+      return codeToRegionMap.get(m.getu8());
+    }
+    finally
+    {
+      messagePool.release(m);
+    }
   }
 
   /**
@@ -4221,7 +4464,15 @@ public class SerialReader extends Reader
   {
 
     Message m = sendOpcode(MSG_OPCODE_GET_POWER_MODE);
-    int mode = m.getu8();
+    int mode;
+    try
+    {
+      mode = m.getu8();
+    }
+    finally
+    {
+      messagePool.release(m);
+    }
     PowerMode p = PowerMode.getPowerMode(mode);
     if (p == null)
     {
@@ -4269,7 +4520,15 @@ public class SerialReader extends Reader
   {
 
     Message m = sendOpcode(MSG_OPCODE_GET_USER_MODE);
-    int mode = m.getu8();
+    int mode;
+    try
+    {
+      mode = m.getu8();
+    }
+    finally
+    {
+      messagePool.release(m);
+    }
     UserMode u = UserMode.getUserMode(mode);
     if (u == null)
     {
@@ -4838,6 +5097,59 @@ public class SerialReader extends Reader
         }
     }
 
+  /**
+   * What the adaptive search cycle controller has learned and decided,
+   * from /reader/read/cycle/stats.
+   */
+  public static class SearchCycleStats
+  {
+    /** The duration of the next search cycle, in milliseconds */
+    final public int cycleMs;
+    /** The tag buffer capacity the cycles are sized for, in entries */
+    final public int bufferCapacity;
+    /** Whether bufferCapacity was measured by an overflow rather than assumed */
+    final public boolean capacityMeasured;
+    /** Tag buffer entries produced by the last cycle */
+    final public int lastCycleTags;
+    /** How fast searching fills the tag buffer, in entries per second */
+    final public double fillRate;
+    /** How long draining the tag buffer takes, in milliseconds per entry */
+    final public double drainMsPerTag;
+    /** How long clearing the tag buffer after each cycle takes, in milliseconds */
+    final public double clearMs;
+    /** Expected throughput at the current cycle, searching, draining and clearing */
+    final public double tagsPerSecond;
+    /** Search cycles run */
+    final public long cycles;
+    /** Search cycles that overflowed the tag buffer */
+    final public long overflows;
+
+    public SearchCycleStats(int cycleMs, int bufferCapacity, boolean capacityMeasured,
+                            int lastCycleTags, double fillRate, double drainMsPerTag,
+                            double clearMs, double tagsPerSecond, long cycles, long overflows)
+    {
+      this.cycleMs = cycleMs;
+      this.bufferCapacity = bufferCapacity;
+      this.capacityMeasured = capacityMeasured;
+      this.lastCycleTags = lastCycleTags;
+      this.fillRate = fillRate;
+      this.drainMsPerTag = drainMsPerTag;
+      this.clearMs = clearMs;
+      this.tagsPerSecond = tagsPerSecond;
+      this.cycles = cycles;
+      this.overflows = overflows;
+    }
+
+    @Override
+    public String toString()
+    {
+      return String.format("cycle:%dms capacity:%d%s lastTags:%d fill:%.0f/s drain:%.3fms/tag clear:%.1fms expected:%.0f/s cycles:%d overflows:%d",
+                           cycleMs, bufferCapacity, capacityMeasured ? "" : "?",
+                           lastCycleTags, fillRate, drainMsPerTag, clearMs, tagsPerSecond,
+                           cycles, overflows);
+    }
+  }
+
   /**
    * Reader Statistics
    */
@@ -5041,28 +5353,35 @@ public class SerialReader extends Reader
     int i, j, index;
 
     m = sendOpcode(MSG_OPCODE_GET_AVAILABLE_PROTOCOLS);
-    numProtocols = (m.writeIndex - m.readIndex) / 2;
-    numKnownProtocols = 0;
-    index = m.readIndex;
-    for (i = 0; i < numProtocols; i++)
+    try
     {
-      p = codeToProtocolMap.get(m.getu16());
-      if (p != TagProtocol.NONE)
+      numProtocols = (m.writeIndex - m.readIndex) / 2;
+      numKnownProtocols = 0;
+      index = m.readIndex;
+      for (i = 0; i < numProtocols; i++)
       {
-        numKnownProtocols++;
+        p = codeToProtocolMap.get(m.getu16());
+        if (p != TagProtocol.NONE)
+        {
+          numKnownProtocols++;
+        }
       }
-    }
-    protocols = new TagProtocol[numKnownProtocols];
-    j = 0;
-    m.readIndex = index;
-    for (i = 0; i < numProtocols; i++)
-    {
-      p = codeToProtocolMap.get(m.getu16());
-      if (p != TagProtocol.NONE)
+      protocols = new TagProtocol[numKnownProtocols];
+      j = 0;
+      m.readIndex = index;
+      for (i = 0; i < numProtocols; i++)
       {
-        protocols[j++] = p;
+        p = codeToProtocolMap.get(m.getu16());
+        if (p != TagProtocol.NONE)
+        {
+          protocols[j++] = p;
+        }
       }
     }
+    finally
+    {
+      messagePool.release(m);
+    }
 
     return protocols;
   }
@@ -5084,28 +5403,35 @@ public class SerialReader extends Reader
     int i, j;
 
     m = sendOpcode(MSG_OPCODE_GET_AVAILABLE_REGIONS);
-    numRegions = (m.writeIndex - m.readIndex);
-    numKnownRegions = 0;
-    int index = m.readIndex;
-    for (i = 0; i < numRegions; i++)
+    try
     {
-      r = codeToRegionMap.get(m.getu8());
-      if (r != Reader.Region.UNSPEC)
+      numRegions = (m.writeIndex - m.readIndex);
+      numKnownRegions = 0;
+      int index = m.readIndex;
+      for (i = 0; i < numRegions; i++)
       {
-        numKnownRegions++;
+        r = codeToRegionMap.get(m.getu8());
+        if (r != Reader.Region.UNSPEC)
+        {
+          numKnownRegions++;
+        }
       }
-    }
-    regions = new Reader.Region[numKnownRegions];
-    j = 0;
-    m.readIndex = index;
-    for (i = 0; i < numRegions; i++)
-    {
-      r = codeToRegionMap.get(m.getu8());
-      if (r != Reader.Region.UNSPEC)
+      regions = new Reader.Region[numKnownRegions];
+      j = 0;
+      m.readIndex = index;
+      for (i = 0; i < numRegions; i++)
       {
-        regions[j++] = r;
+        r = codeToRegionMap.get(m.getu8());
+        if (r != Reader.Region.UNSPEC)
+        {
+          regions[j++] = r;
+        }
       }
     }
+    finally
+    {
+      messagePool.release(m);
+    }
 
     return regions;
   }
@@ -5122,7 +5448,14 @@ public class SerialReader extends Reader
     Message m;
 
     m = sendOpcode(MSG_OPCODE_GET_TEMPERATURE);
-    return (byte)m.getu8(); // returned value is signed
+    try
+    {
+      return (byte)m.getu8(); // returned value is signed
+    }
+    finally
+    {
+      messagePool.release(m);
+    }
   }
 
   /**
@@ -5322,7 +5655,7 @@ public class SerialReader extends Reader
   Set<TagMetadataFlag> tagMetadataSet(int bits)
   {
 
-    if (bits == lastMetadataBits)
+    if (bits == lastMetadataBits && lastMetadataFlags != null)
     {
       return lastMetadataFlags.clone();
     }
@@ -6105,6 +6438,7 @@ public class SerialReader extends Reader
                  {
                    cmdSetBaudRate(baudRate);
                    st.setBaudRate(baudRate);
+                   decoder.reset();
                  }
                  return value;
                 }
@@ -6829,6 +7163,55 @@ public class SerialReader extends Reader
                       return response.get(1);
                     }
                  });
+
+        addParam(TMR_PARAM_READ_CYCLE_ADAPTIVE, Boolean.class, false, true,
+                new SettingAction()
+                {
+                    public Object set(Object value)
+                    {
+                        adaptiveCycles = (Boolean) value;
+                        return value;
+                    }
+
+                    public Object get(Object value)
+                    {
+                        return adaptiveCycles;
+                    }
+                });
+
+        addParam(TMR_PARAM_READ_CYCLE_MAXTIME, Integer.class,
+                SearchCycleController.DEFAULT_MAX_CYCLE_MS, true,
+                new SettingAction()
+                {
+                    public Object set(Object value)
+                    {
+                        searchCycles.setMaxCycle((Integer) value);
+                        return value;
+                    }
+
+                    public Object get(Object value)
+                    {
+                        return searchCycles.maxCycle();
+                    }
+                });
+
+        addParam(TMR_PARAM_READ_CLOCK_DRIFT, Double.class, null, false,
+                new ReadOnlyAction()
+                {
+                    public Object get(Object value)
+                    {
+                        return moduleClock.driftPpm();
+                    }
+                });
+
+        addParam(TMR_PARAM_READ_CYCLE_STATS, SearchCycleStats.class, null, false,
+                new ReadOnlyAction()
+                {
+                    public Object get(Object value)
+                    {
+                        return searchCycles.stats();
+                    }
+                });
             
         // M6e module specific params
         if (model.equalsIgnoreCase(TMR_READER_M6E))
@@ -7231,6 +7614,7 @@ public class SerialReader extends Reader
         int program;
         Setting s;
         powerMode = PowerMode.INVALID;
+        invalidateParamCache(true);
 
         try
         {
@@ -7563,66 +7947,30 @@ public class SerialReader extends Reader
     void metadataFromMessage(TagReadData t, Message m,
             Set<TagMetadataFlag> meta)
     {
-        t.metadataFlags = meta;
+        MetadataDecoder.forBits(tagMetadataSetValue(meta))
+            .decode(t, m, gpioPinCount());
+    }
 
-        if (meta.contains(TagMetadataFlag.READCOUNT))
-        {
-            t.readCount = m.getu8();
-        }
-        if (meta.contains(TagMetadataFlag.RSSI))
-        {
-            t.rssi = (byte) m.getu8(); // keep the sign here
-        }
-        if (meta.contains(TagMetadataFlag.ANTENNAID))
-        {
-            t.antenna = m.getu8();
-        }
-        if (meta.contains(TagMetadataFlag.FREQUENCY))
-        {
-            t.frequency = m.getu24();
-        }
-        if (meta.contains(TagMetadataFlag.TIMESTAMP))
-        {
-            t.readOffset = m.getu32();
-        }
-        if (meta.contains(TagMetadataFlag.PHASE))
-        {
-            t.phase = m.getu16();
-        }
-        if (meta.contains(TagMetadataFlag.PROTOCOL))
-        {
-            t.readProtocol = codeToProtocolMap.get(m.getu8());
-        }
-        if (meta.contains(TagMetadataFlag.DATA))
+    /**
+     * @return the number of GPIO inputs whose state the module reports
+     * in read metadata
+     */
+    int gpioPinCount()
+    {
+        if (versionInfo == null)
         {
-            int dataBits = m.getu16();
-            t.data = new byte[(dataBits + 7) / 8];
-            m.getbytes(t.data, t.data.length);
+            return 4;
         }
-        if (meta.contains(TagMetadataFlag.GPIO_STATUS))
+        switch (versionInfo.hardware.part1)
         {
-            byte gpioByte = (byte) m.getu8();
-            int gpioNumber;
-            switch (versionInfo.hardware.part1)
-            {
-                case TMR_SR_MODEL_M6E:
-                    gpioNumber = 4;
-                    break;
-                case TMR_SR_MODEL_M5E:
-                    gpioNumber = 2;
-                    break;
-                default:
-                    gpioNumber = 4;
-                    break;
-            }
-
-            t.gpio = new GpioPin[gpioNumber];
-            for (int i = 0; i < gpioNumber; i++)
-            {
-                (t.gpio)[i] = new GpioPin((i + 1), (((gpioByte >> i) & 1) == 1));
-            }
+            case TMR_SR_MODEL_M5E:
+                return 2;
+            case TMR_SR_MODEL_M6E:
+            default:
+                return 4;
         }
     }
+
     static Set<TagMetadataFlag> allMeta = EnumSet.of(
             TagMetadataFlag.READCOUNT,
             TagMetadataFlag.RSSI,
@@ -7635,6 +7983,50 @@ public class SerialReader extends Reader
             TagMetadataFlag.GPIO_STATUS);
     static int allMetaBits = tagMetadataSetValue(allMeta);
 
+    /**
+     * Work out the smallest metadata word that serves the read plan
+     * and the read listeners.
+     *
+     * @return the metadata bits, allMetaBits unless the plan or every
+     * read listener declares what it uses
+     */
+    int readMetadataBits(ReadPlan rp)
+    {
+        Set<TagMetadataFlag> used = metadataUsed(rp);
+        if (used == null)
+        {
+            return allMetaBits;
+        }
+        // Antennas are mapped back to ports and duplicates merged by
+        // count, and getTime/getTimeNanos come from the module timestamp
+        used.add(TagMetadataFlag.ANTENNAID);
+        used.add(TagMetadataFlag.READCOUNT);
+        used.add(TagMetadataFlag.TIMESTAMP);
+        addPlanMetadata(rp, used);
+        return tagMetadataSetValue(used);
+    }
+
+    /**
+     * Add the metadata the reader itself needs to parse the reads of a
+     * plan: the protocol of multi-protocol searches and the data of
+     * embedded tag operations.
+     */
+    private static void addPlanMetadata(ReadPlan rp, Set<TagMetadataFlag> used)
+    {
+        if (rp instanceof MultiReadPlan)
+        {
+            used.add(TagMetadataFlag.PROTOCOL);
+            for (ReadPlan r : ((MultiReadPlan) rp).plans)
+            {
+                addPlanMetadata(r, used);
+            }
+        }
+        else if (rp instanceof SimpleReadPlan && ((SimpleReadPlan) rp).Op != null)
+        {
+            used.add(TagMetadataFlag.DATA);
+        }
+    }
+
     /**
      * reading tags for specified amount of time
      * @param timeout
@@ -7645,6 +8037,20 @@ public class SerialReader extends Reader
             throws ReaderException
     {
         List<TagReadData> tagvec;
+        tagvec = new Vector<TagReadData>();
+        readInto(timeout, new ReadSink.ListSink(tagvec));
+        /*deduplication*/
+        if(_enableFiltering)
+        {
+            removeDuplicateReads(tagvec);
+        }//end of de-duplication        
+        return tagvec.toArray(new TagReadData[tagvec.size()]);
+    }
+
+    @Override
+    void readInto(long timeout, ReadSink sink)
+            throws ReaderException
+    {
         checkConnection();
         //checkRegion();
 
@@ -7653,19 +8059,31 @@ public class SerialReader extends Reader
             tagOpSuccessCount = 0;
             tagOpFailuresCount = 0;
         }
-        tagvec = new Vector<TagReadData>();
-        readInternal(timeout, (ReadPlan) paramGet(TMR_PARAM_READ_PLAN), tagvec);
-        return tagvec.toArray(new TagReadData[tagvec.size()]);
+        ReadPlan rp = readPlanParam.get();
+        readInternal(timeout, rp, sink, readMetadataBits(rp));
+    }
+
+    @Override
+    boolean startStreamFilter(StreamingReadFilter filter)
+    {
+        if (_enableFiltering)
+        {
+            // Repeats are dropped for the whole read, by what read() merges
+            filter.start(uniqueByAntenna, uniqueByData, uniqueByProtocol,
+                         0, System.nanoTime() / 1000000);
+        }
+        return _enableFiltering;
     }
 
     /**
      * read tags based on read plan and update tag data list
      * @param timeout
      * @param rp
-     * @param tagvec
+     * @param sink
+     * @param metaBits the metadata to fetch with each read
      * @throws ReaderException
      */
-    void readInternal(long timeout, ReadPlan rp, List<TagReadData> tagvec)
+    void readInternal(long timeout, ReadPlan rp, ReadSink sink, int metaBits)
             throws ReaderException
     {        
         int readTimeout;
@@ -7696,8 +8114,10 @@ public class SerialReader extends Reader
                 }
                 setSearchAntennaList(prepForSearch((SimpleReadPlan) mrp.plans[0]));
                 cmdClearTagBuffer();
+                List<TagReadData> tagvec = new ArrayList<TagReadData>();
                 cmdMultiProtocolSearch((int) MSG_OPCODE_READ_TAG_ID_MULTIPLE, planList, TagMetadataFlag.ALL,
-                        ((useStreaming ? READ_MULTIPLE_SEARCH_FLAGS_TAG_STREAMING : 0) | READ_MULTIPLE_SEARCH_FLAGS_SEARCH_LIST), (short) timeout, tagvec);
+                        ((useStreaming ? READ_MULTIPLE_SEARCH_FLAGS_TAG_STREAMING : 0) | READ_MULTIPLE_SEARCH_FLAGS_SEARCH_LIST), (short) timeout, tagvec, metaBits);
+                sink.addReads(tagvec);
             } 
             else
             {
@@ -7705,11 +8125,11 @@ public class SerialReader extends Reader
                 {
                     if(mrp.totalWeight!=0)
                     {
-                        readInternal(timeout * r.weight / mrp.totalWeight, r, tagvec);
+                        readInternal(timeout * r.weight / mrp.totalWeight, r, sink, metaBits);
                     }
                     else
                     {
-                        readInternal(timeout/mrp.plans.length, r, tagvec);
+                        readInternal(timeout/mrp.plans.length, r, sink, metaBits);
                     }                    
                 }
             }
@@ -7735,7 +8155,13 @@ public class SerialReader extends Reader
         while (now < endTime)
         {
             readTimeout = ((endTime - now) < 65535) ? (int) (endTime - now) : 65535;            
+            boolean adaptive = adaptiveCycles && sp.Op == null && !useStreaming;
+            if (adaptive)
+            {
+                readTimeout = searchCycles.nextCycle(readTimeout);
+            }
             baseTime = System.currentTimeMillis();
+            moduleClock.startEpoch(System.nanoTime());
             Message m = new Message();
             int searchflag = AntennaSelection.CONFIGURED_LIST.value;
 
@@ -7745,10 +8171,12 @@ public class SerialReader extends Reader
                 {
                     if(planList.isEmpty())
                     {
-                        planList.add((SimpleReadPlan)paramGet(TMR_PARAM_READ_PLAN));
+                        planList.add((SimpleReadPlan)readPlanParam.get());
                     }                    
+                    List<TagReadData> tagvec = new ArrayList<TagReadData>();
                     cmdMultiProtocolSearch((int) MSG_OPCODE_READ_TAG_ID_MULTIPLE, planList, null,
-                        ((useStreaming ? READ_MULTIPLE_SEARCH_FLAGS_TAG_STREAMING : 0) | READ_MULTIPLE_SEARCH_FLAGS_SEARCH_LIST), (short) timeout, tagvec);
+                        ((useStreaming ? READ_MULTIPLE_SEARCH_FLAGS_TAG_STREAMING : 0) | READ_MULTIPLE_SEARCH_FLAGS_SEARCH_LIST), (short) timeout, tagvec, metaBits);
+                    sink.addReads(tagvec);
                     return;
                 }
                 else // no streaming option
@@ -7756,15 +8184,38 @@ public class SerialReader extends Reader
                     try
                     {
                         int tagCount = cmdReadTagMultiple(readTimeout, AntennaSelection.CONFIGURED_LIST, sp.protocol, readFilter);
-                        List<TagReadData> tagData = getAllTagReads(baseTime, tagCount, sp.protocol);
-                        tagvec.addAll(tagData);
+                        moduleClock.searchEnded(readTimeout, System.nanoTime());
+                        long searched = System.currentTimeMillis();
+                        getAllTagReads(baseTime, tagCount, sp.protocol, metaBits, sink);
+                        if (adaptive)
+                        {
+                            // Each cycle gets the whole buffer to itself
+                            long drained = System.currentTimeMillis();
+                            cmdClearTagBuffer();
+                            searchCycles.completed(searched - baseTime, tagCount, drained - searched,
+                                                   System.currentTimeMillis() - drained);
+                        }
                     } 
                     catch (ReaderException re)
                     {
                         if (re instanceof ReaderCodeException && ((ReaderCodeException)re).getCode() == FAULT_NO_TAGS_FOUND)
                         {
                             // just ignore no tags found response                            
+                            if (adaptive)
+                            {
+                                searchCycles.completed(System.currentTimeMillis() - baseTime, 0, 0, 0);
+                            }
                         }          
+                        else if (adaptive && re instanceof ReaderCodeException
+                                 && ((ReaderCodeException) re).getCode() == FAULT_TAG_ID_BUFFER_FULL)
+                        {
+                            // Keep what the full buffer holds and shorten the next cycles
+                            long searched = System.currentTimeMillis();
+                            int tagCount = cmdGetTagsRemaining()[0];
+                            searchCycles.overflowed(searched - baseTime, tagCount);
+                            getAllTagReads(baseTime, tagCount, sp.protocol, metaBits, sink);
+                            cmdClearTagBuffer();
+                        }
                         else if(re instanceof ReaderCommException || (re instanceof ReaderCodeException &&
                                 (((ReaderCodeException) re).getCode() == FAULT_SYSTEM_UNKNOWN_ERROR) ||
                                 ((ReaderCodeException) re).getCode() == FAULT_TM_ASSERT_FAILED))
@@ -7777,7 +8228,8 @@ public class SerialReader extends Reader
                             //any other reader code exception like 0x504, 0x505                            
                             notifyExceptionListeners(re);
                             int tagCount = cmdGetTagsRemaining()[0];
-                            List<TagReadData> tagData = getAllTagReads(baseTime, tagCount, sp.protocol);
+                            List<TagReadData> tagData = new ArrayList<TagReadData>();
+                            getAllTagReads(baseTime, tagCount, sp.protocol, metaBits, new ReadSink.ListSink(tagData));
                             re.setTagReads(tagData);
                         }
                         else
@@ -7797,10 +8249,12 @@ public class SerialReader extends Reader
                 {
                     if(planList.isEmpty())
                     {
-                        planList.add((SimpleReadPlan)paramGet(TMR_PARAM_READ_PLAN));
+                        planList.add((SimpleReadPlan)readPlanParam.get());
                     }
+                    List<TagReadData> tagvec = new ArrayList<TagReadData>();
                     cmdMultiProtocolSearch((int) MSG_OPCODE_READ_TAG_ID_MULTIPLE, planList, null,
-                        ((useStreaming ? READ_MULTIPLE_SEARCH_FLAGS_TAG_STREAMING : 0) | READ_MULTIPLE_SEARCH_FLAGS_SEARCH_LIST | READ_MULTIPLE_SEARCH_FLAGS_EMBEDDED_OP), (short) timeout, tagvec);
+                        ((useStreaming ? READ_MULTIPLE_SEARCH_FLAGS_TAG_STREAMING : 0) | READ_MULTIPLE_SEARCH_FLAGS_SEARCH_LIST | READ_MULTIPLE_SEARCH_FLAGS_EMBEDDED_OP), (short) timeout, tagvec, metaBits);
+                    sink.addReads(tagvec);
                 
                     searchflag |= READ_MULTIPLE_SEARCH_FLAGS_EMBEDDED_OP;
                     //tm = msgEmbedded(m, sp, readTimeout, searchflag, null);
@@ -7820,6 +8274,7 @@ public class SerialReader extends Reader
                     try
                     {
                         sendTimeout(readTimeout, m);
+                        moduleClock.searchEnded(readTimeout, System.nanoTime());
                     }
                     catch (ReaderCodeException re)
                     {
@@ -7841,55 +8296,28 @@ public class SerialReader extends Reader
                         tagOpSuccessCount += m.getu16at(11);
                         tagOpFailuresCount += m.getu16at(13);
                     }
-                    List<TagReadData> tagData = getAllTagReads(baseTime, numTags, sp.protocol);
-                    tagvec.addAll(tagData);
+                    getAllTagReads(baseTime, numTags, sp.protocol, metaBits, sink);
                 }//end of else (without streaming)
             }
             now = System.currentTimeMillis();
         }
-        /*deduplication*/
-        if(_enableFiltering)
-        {
-            HashMap<String, TagReadData> map = new HashMap<String, TagReadData>();
-            List<TagReadData> tagReads = new Vector();
-            String key = null;
-
-            for (TagReadData tag : tagvec)
-            {
-                key = tag.epcString();
-                if (uniqueByAntenna)
-                {
-                    key += tag.epcString() + ";" + tag.getAntenna();
-                }
-                if (uniqueByData)
-                {
-                    key += tag.epcString() + ";" + ReaderUtil.byteArrayToHexString(tag.data);
-                }
-                if (uniqueByProtocol)
-                {
-                    key += tag.epcString() + ";" + tag.getTag().getProtocol();
-                }                    
-
-                if (!map.containsKey(key))
-                {
-                    map.put(key, tag);
+    }
 
-                }
-                else //see the tag again
-                {
-                    map.get(key).readCount = map.get(key).getReadCount() + tag.getReadCount();
-                    if ((Boolean) paramGet(TMR_PARAM_TAGREADDATA_RECORDHIGHESTRSSI)) {
-                        if (tag.getRssi() > map.get(key).getRssi()) {
-                            int tmp = map.get(key).getReadCount();
-                            map.put(key, tag);
-                            map.get(key).readCount = tmp;
-                        }
-                    }
-                }//end of else
-            }//end of for
-            tagvec.clear();
-            tagvec.addAll(map.values());
-        }//end of de-duplication        
+    /**
+     * Merge repeated reads of the same tag, as selected by the
+     * uniqueBy* settings, summing their read counts.
+     *
+     * @param tagvec the reads to de-duplicate, replaced in place
+     */
+    void removeDuplicateReads(List<TagReadData> tagvec) throws ReaderException
+    {
+        if (tagvec.size() < 2)
+        {
+            return;
+        }
+        deduplicator.removeDuplicates(tagvec, uniqueByAntenna, uniqueByData,
+          uniqueByProtocol,
+          (Boolean) paramGet(TMR_PARAM_TAGREADDATA_RECORDHIGHESTRSSI));
     }
 
     private int msgEmbedded(Message m, SimpleReadPlan sp, int readTimeout, int searchflag, TagFilter readFilter) throws ReaderException
@@ -8142,7 +8570,7 @@ public class SerialReader extends Reader
             throws ReaderException
     {
         TagProtocol protocol;
-        protocol = (TagProtocol) paramGet(TMR_PARAM_TAGOP_PROTOCOL);
+        protocol = tagOpProtocolParam.get();
 
         if (TagProtocol.GEN2 != protocol)
         {
@@ -8189,7 +8617,7 @@ public class SerialReader extends Reader
         checkConnection();
         //checkRegion();
         checkOpAntenna();
-        protocol = (TagProtocol) paramGet(TMR_PARAM_TAGOP_PROTOCOL);
+        protocol = tagOpProtocolParam.get();
         int accessPassword = ((Gen2.Password)paramGet(TMR_PARAM_GEN2_ACCESSPASSWORD)).value;
         setProtocol(protocol);
 
@@ -8287,7 +8715,7 @@ public class SerialReader extends Reader
         checkConnection();
         //checkRegion();
         checkOpAntenna();
-        protocol = (TagProtocol) paramGet(TMR_PARAM_TAGOP_PROTOCOL);
+        protocol = tagOpProtocolParam.get();
         int accessPassword = ((Gen2.Password)paramGet(TMR_PARAM_GEN2_ACCESSPASSWORD)).value;
         setProtocol(protocol);
         if (TagProtocol.GEN2 == protocol)
@@ -8389,7 +8817,7 @@ public class SerialReader extends Reader
         checkConnection();
         //checkRegion();
         checkOpAntenna();
-        protocol = (TagProtocol) paramGet(TMR_PARAM_TAGOP_PROTOCOL);
+        protocol = tagOpProtocolParam.get();
         setProtocol(protocol);
 
         if (TagProtocol.GEN2 == protocol)
@@ -8568,7 +8996,22 @@ public class SerialReader extends Reader
                 | (intbuf[3] & 0xff);
     }
 
-    public synchronized void firmwareLoad(InputStream fwStr)
+    public void firmwareLoad(InputStream fwStr)
+            throws ReaderException, IOException
+    {
+        // Hold the transport for the whole load
+        ioLock.lock();
+        try
+        {
+            firmwareLoadLocked(fwStr);
+        }
+        finally
+        {
+            ioLock.unlock();
+        }
+    }
+
+    private void firmwareLoadLocked(InputStream fwStr)
             throws ReaderException, IOException
     {
         int header1, header2;
@@ -8609,6 +9052,7 @@ public class SerialReader extends Reader
         // XXX this way we know what the speed is either way.
         cmdSetBaudRate(9600);
         st.setBaudRate(9600);
+        decoder.reset();
         try
         {
             cmdBootBootloader();
@@ -8636,6 +9080,7 @@ public class SerialReader extends Reader
 
         cmdSetBaudRate(115200);
         st.setBaudRate(115200);
+        decoder.reset();
 
         cmdEraseFlash(2, 0x08959121);
 
@@ -8826,24 +9271,24 @@ public class SerialReader extends Reader
     */
    public Object executeTagOp(TagOp tagOP,TagFilter target) throws ReaderException
    {
-        TagProtocol protocolID = (TagProtocol)paramGet(TMR_PARAM_TAGOP_PROTOCOL);
+        TagProtocol protocolID = tagOpProtocolParam.get();
         try
         {
             if (tagOP instanceof Gen2.Kill)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 killTag(target, new Gen2.Password(((Gen2.Kill)tagOP).KillPassword));
                 return null;
             }
             else if ( tagOP instanceof Gen2.Lock)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 lockTag(target, new Gen2.LockAction(((Gen2.Lock)tagOP).Action), ((Gen2.Lock)tagOP).AccessPassword);
                 return null;
             }
             else if (tagOP instanceof Gen2.WriteTag)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 writeTag(target, ((Gen2.WriteTag)tagOP).Epc);
                 return null;
             }
@@ -8853,30 +9298,30 @@ public class SerialReader extends Reader
             }
             else if (tagOP instanceof Gen2.ReadData)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 return readTagMemWords(target, ((Gen2.ReadData)tagOP).Bank.rep, ((Gen2.ReadData)tagOP).WordAddress, ((Gen2.ReadData)tagOP).Len);
             }
            
             else if (tagOP instanceof Gen2.WriteData)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 writeTagMemWords(target, ((Gen2.WriteData)tagOP).Bank.rep, ((Gen2.WriteData)tagOP).WordAddress,((Gen2.WriteData)tagOP).Data) ;
                 return null;
             }
             else if (tagOP instanceof Gen2.BlockWrite)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 blockWrite(target, ((Gen2.BlockWrite)tagOP).Bank, ((Gen2.BlockWrite)tagOP).WordPtr, ((Gen2.BlockWrite)tagOP).WordCount, ((Gen2.BlockWrite)tagOP).Data);
                 return null;
             }
             else if (tagOP instanceof Gen2.BlockPermaLock)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 return blockPermaLock(target, ((Gen2.BlockPermaLock)tagOP).ReadLock, ((Gen2.BlockPermaLock)tagOP).Bank, ((Gen2.BlockPermaLock)tagOP).BlockPtr, ((Gen2.BlockPermaLock)tagOP).BlockRange, ((Gen2.BlockPermaLock)tagOP).Mask);
             }
             else if (tagOP instanceof Gen2.BlockErase)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 blockErase(target, ((Gen2.BlockErase)tagOP).Bank, ((Gen2.BlockErase)tagOP).WordPtr, ((Gen2.BlockErase)tagOP).WordCount);
                 return null;
             }
@@ -8886,7 +9331,7 @@ public class SerialReader extends Reader
                 {
                     throw new FeatureNotSupportedException("Method or Operation not suppported");
                 }
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 Gen2.Alien.Higgs2.PartialLoadImage higgsTagop = (Gen2.Alien.Higgs2.PartialLoadImage)tagOP;
                 cmdHiggs2PartialLoadImage(commandTimeout, higgsTagop.accessPassword, higgsTagop.killPassword, higgsTagop.epc);
                 return null;
@@ -8897,86 +9342,86 @@ public class SerialReader extends Reader
                 {
                     throw new FeatureNotSupportedException("Method or Operation not suppported");
                 }
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 Gen2.Alien.Higgs2.FullLoadImage higgs2Tagop = (Gen2.Alien.Higgs2.FullLoadImage)tagOP;
                 cmdHiggs2FullLoadImage(commandTimeout, higgs2Tagop.accessPassword, higgs2Tagop.killPassword, higgs2Tagop.lockBits, higgs2Tagop.pcWord, higgs2Tagop.epc);
                 return null;
             }
             else if(tagOP instanceof Gen2.Alien.Higgs3.BlockReadLock)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 Gen2.Alien.Higgs3.BlockReadLock higgs3Tagop = (Gen2.Alien.Higgs3.BlockReadLock)tagOP;
                 cmdHiggs3BlockReadLock(commandTimeout, higgs3Tagop.accessPassword, higgs3Tagop.lockBits, target);
                 return null;
             }
             else if(tagOP instanceof Gen2.Alien.Higgs3.FastLoadImage)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 Gen2.Alien.Higgs3.FastLoadImage higgs3Tagop = (Gen2.Alien.Higgs3.FastLoadImage)tagOP;
                 cmdHiggs3FastLoadImage(commandTimeout, higgs3Tagop.currentAccessPassword, higgs3Tagop.accessPassword, higgs3Tagop.killPassword, higgs3Tagop.pcWord, higgs3Tagop.epc, target);
                 return null;
             }
             else if(tagOP instanceof Gen2.Alien.Higgs3.LoadImage)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 Gen2.Alien.Higgs3.LoadImage higgs3Tagop = (Gen2.Alien.Higgs3.LoadImage)tagOP;
                 cmdHiggs3LoadImage(commandTimeout, higgs3Tagop.currentAccessPassword, higgs3Tagop.accessPassword, higgs3Tagop.killPassword, higgs3Tagop.pcWord, higgs3Tagop.EPCAndUserData, target);
                 return null;
             }
             else if(tagOP instanceof Gen2.IDS.SL900A.StartLog)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 cmdIdsSL900aStartLog(commandTimeout, (Gen2.IDS.SL900A.StartLog)tagOP, target);
                 return null;
             }
             else if(tagOP instanceof Gen2.IDS.SL900A.EndLog)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 cmdIdsSL900aEndLog(commandTimeout, (Gen2.IDS.SL900A.EndLog)tagOP, target);
                return null;
             }
             else if(tagOP instanceof Gen2.NxpGen2TagOp.Calibrate)
             {                
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 Gen2.NxpGen2TagOp.Calibrate calibrate = (Gen2.NxpGen2TagOp.Calibrate)tagOP;
                 return cmdNxpCalibrate(commandTimeout, calibrate.accessPassword,calibrate.chipType , target);
             }
             else if(tagOP instanceof Gen2.NxpGen2TagOp.ResetReadProtect)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 Gen2.NxpGen2TagOp.ResetReadProtect resetProtect = (Gen2.NxpGen2TagOp.ResetReadProtect)tagOP;
                 cmdNxpResetReadProtect(commandTimeout, resetProtect.accessPassword, resetProtect.chipType, target);
                 return null;
             }
             else if(tagOP instanceof Gen2.NxpGen2TagOp.SetReadProtect)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 Gen2.NxpGen2TagOp.SetReadProtect setProtect = (Gen2.NxpGen2TagOp.SetReadProtect)tagOP;
                 cmdNxpSetReadProtect(commandTimeout, setProtect.accessPassword, setProtect.chipType, target);
                 return null;
             }
             else if(tagOP instanceof Gen2.NxpGen2TagOp.ChangeEas)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 Gen2.NxpGen2TagOp.ChangeEas changeEas = (Gen2.NxpGen2TagOp.ChangeEas)tagOP;
                 cmdNxpChangeEas(commandTimeout, changeEas.accessPassword, changeEas.reset, changeEas.chipType, target);
                 return null;
             }
             else if(tagOP instanceof Gen2.NxpGen2TagOp.EasAlarm)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 Gen2.NxpGen2TagOp.EasAlarm nxpTagOp = (Gen2.NxpGen2TagOp.EasAlarm)tagOP;
                 return cmdNxpEasAlarm(commandTimeout, nxpTagOp.divideRatio, nxpTagOp.tagEncoding, nxpTagOp.trExt, nxpTagOp.chipType, target);
             }
             else if (tagOP instanceof Gen2.Impinj.Monza4.QTReadWrite)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 Gen2.Impinj.Monza4.QTReadWrite qtReadWriteOp = (Gen2.Impinj.Monza4.QTReadWrite)tagOP;
                 return cmdMonza4QTReadWrite(commandTimeout, qtReadWriteOp.accessPassword, qtReadWriteOp.controlByte, qtReadWriteOp.payloadWord, target);
             }
             else if(tagOP instanceof Gen2.NXP.G2I.ChangeConfig)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 Gen2.NXP.G2I.ChangeConfig nxpConfig = (Gen2.NXP.G2I.ChangeConfig)tagOP;
                 if(nxpConfig.chipType != TAG_CHIP_TYPE_NXP_G2IL)
                 {
@@ -8986,45 +9431,45 @@ public class SerialReader extends Reader
             }           
             else if(tagOP instanceof Gen2.IDS.SL900A.Initialize)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 cmdIdsSL900aInitialize(commandTimeout, (Gen2.IDS.SL900A.Initialize)tagOP, target);
                 return null;
             }
             else if(tagOP instanceof Gen2.IDS.SL900A.GetLogState)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 return cmdIdsSL900aGetLogState(commandTimeout, (Gen2.IDS.SL900A.GetLogState)tagOP, target);
             }
             else if (tagOP instanceof Gen2.IDS.SL900A.GetSensorValue)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 return cmdIdsSL900aGetSensorValue(commandTimeout, (Gen2.IDS.SL900A.GetSensorValue)tagOP, target);
             }            
             else if(tagOP instanceof Gen2.IDS.SL900A.SetLogMode)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 cmdIdsSL900aSetLogMode(commandTimeout, (Gen2.IDS.SL900A.SetLogMode)tagOP, target);
                 return null;
             }
             else if (tagOP instanceof Gen2.IDS.SL900A.AccessFifo)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.GEN2);
+                tagOpProtocolParam.set(TagProtocol.GEN2);
                 return cmdIdsSL900aAccessFifo(commandTimeout, (Gen2.IDS.SL900A.AccessFifo)tagOP, target);
             }            
             else if (tagOP instanceof Iso180006b.ReadData)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.ISO180006B);
+                tagOpProtocolParam.set(TagProtocol.ISO180006B);
                 return cmdIso180006bReadTagData(commandTimeout, ((Iso180006b.ReadData)tagOP).ByteAddress, ((Iso180006b.ReadData)tagOP).Len, target);
             }
             else if (tagOP instanceof Iso180006b.WriteData)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.ISO180006B);
+                tagOpProtocolParam.set(TagProtocol.ISO180006B);
                 cmdIso180006bWriteTagData(commandTimeout, ((Iso180006b.WriteData)tagOP).ByteAddress, (byte[])((Iso180006b.WriteData)tagOP).Data, target);
                 return null;
             }
             else if (tagOP instanceof Iso180006b.Lock)
             {
-                paramSet(TMR_PARAM_TAGOP_PROTOCOL, TagProtocol.ISO180006B);
+                tagOpProtocolParam.set(TagProtocol.ISO180006B);
                 cmdIso180006bLockTag(commandTimeout, ((Iso180006b.Lock)tagOP).ByteAddress, target);
                 return null;
             }
@@ -9036,7 +9481,7 @@ public class SerialReader extends Reader
        finally
        {
             // restoring the old protocol
-           paramSet(TMR_PARAM_TAGOP_PROTOCOL, protocolID);
+           tagOpProtocolParam.set(protocolID);
        }
    }
 
@@ -9052,6 +9497,15 @@ public class SerialReader extends Reader
     */
     public void cmdMultiProtocolSearch(int opcode, List<SimpleReadPlan> plans, TagMetadataFlag metadataFlags, int antennas, int timeout, List<TagReadData> collectedTags)
             throws ReaderException
+    {
+        cmdMultiProtocolSearch(opcode, plans, metadataFlags, antennas, timeout, collectedTags, allMetaBits);
+    }
+
+    /**
+     * multi protocol search, fetching only the metadata in metaBits
+     */
+    void cmdMultiProtocolSearch(int opcode, List<SimpleReadPlan> plans, TagMetadataFlag metadataFlags, int antennas, int timeout, List<TagReadData> collectedTags, int metaBits)
+            throws ReaderException
     {
         Message m = new Message();
         m.setu8(MSG_OPCODE_MULTI_PROTOCOL_TAG_OP);
@@ -9065,8 +9519,7 @@ public class SerialReader extends Reader
         {
             m.setu16(timeout);
             m.setu8(0x11); // TM option for metadata
-            int metadataBits = allMetaBits;
-            m.setu16(metadataBits);
+            m.setu16(metaBits);
         }
         m.setu8(opcode); // sub-command opcode
         m.setu16(0x0000); // search flags
@@ -9107,7 +9560,7 @@ public class SerialReader extends Reader
                 case MSG_OPCODE_READ_TAG_ID_MULTIPLE:
                     if(null == plan.Op)
                     {
-                        msgSetupReadTagMultiple(m, subTimeout, antennas, plan.filter, plan.protocol, metadataFlags, 0);
+                        msgSetupReadTagMultiple(m, subTimeout, antennas, plan.filter, plan.protocol, metadataFlags, 0, metaBits);
                     }
                     else
                     {
@@ -9171,19 +9624,29 @@ public class SerialReader extends Reader
         {
             if (useStreaming)
             {
+                moduleClock.startEpoch(System.nanoTime());
                 sendTimeout(timeout, m);
                 opCode = opcode;  // Change what receiveMessage expects to see
-                while(continuousReader.enabled)
+                try
+                {
+                    while(continuousReader.enabled)
+                    {
+                        receiveResponseStream(timeout, m);
+                    }
+                }
+                finally
                 {
-                    receiveResponseStream(timeout, m);
-                }                                
+                    flushStreamBatch();
+                }
             } 
             else
             {
                 int count = 0;
                 try
                 {
+                    moduleClock.startEpoch(System.nanoTime());
                     response = sendTimeout(timeout + transportTimeout, m);
+                    moduleClock.searchEnded(timeout, System.nanoTime());
                 }
                 catch (ReaderCodeException re)
                 {
@@ -9196,9 +9659,11 @@ public class SerialReader extends Reader
                 while (count < numTags)
                 {
                     TagReadData tr[];
-                    tr = cmdGetTagBuffer(tagMetadataFlagValues.keySet(), false, tagProtocol);
+                    tr = cmdGetTagBufferInternal(metaBits, false, tagProtocol);
+                    long arrival = System.nanoTime();
                     for (TagReadData t : tr)
                     {
+                        t.timeNanos = moduleClock.toHost(t.readOffset, arrival);
                         t.readBase = System.currentTimeMillis();
                         t.antenna = antennaPortReverseMap.get(t.antenna);
                         collectedTags.add(t);
@@ -9227,7 +9692,14 @@ public class SerialReader extends Reader
     {
       if (st == null && serialDevice != null)
       {
-          st = new SerialTransportNative(serialDevice);
+          if ("linux".equalsIgnoreCase(System.getProperty("com.thingmagic.serialtransport")))
+          {
+              st = new SerialTransportLinux(serialDevice);
+          }
+          else
+          {
+              st = new SerialTransportNative(serialDevice);
+          }
           st.open();
       }
     }
@@ -9270,6 +9742,7 @@ public class SerialReader extends Reader
               }
           }              
           st.setBaudRate(bitRate);
+          decoder.reset();
           index++;
           while(true)
           {
@@ -9277,6 +9750,7 @@ public class SerialReader extends Reader
               {
                   // Reader, are you there?
                   st.flush();
+                  decoder.reset();
                   versionInfo = cmdVersion();
                   protocolSet = EnumSet.noneOf(TagProtocol.class);
                   protocolSet.addAll(Arrays.asList(versionInfo.protocols));
@@ -0,0 +1,1661 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.thingmagic.EmbeddedReaderMessage.*;
+
+/**
+ * An in-process emulation of an M6e module, for exercising SerialReader
+ * without hardware. It implements SerialTransport, so it is used by
+ * passing it to {@link SerialReader#SerialReader(SerialTransport)}:
+ * <pre>
+ *   SerialTransportEmulator emu = new SerialTransportEmulator();
+ *   emu.addTags(200);
+ *   emu.setReadRate(1500);
+ *   Reader r = new SerialReader(emu);
+ *   r.connect();
+ * </pre>
+ *
+ * Host frames written with sendBytes() are parsed and answered as the
+ * module firmware would, and the responses are handed back through
+ * receiveBytes(). The emulation covers the version and boot handshake,
+ * baud rate changes, antenna detection and search lists, protocol,
+ * region, power and configuration settings, read tag multiple with the
+ * tag buffer and its metadata flags, the multi-protocol (0x2F) search
+ * including continuous streaming and its stop command, and the Gen2 tag
+ * operations, both standalone and embedded in a search.
+ * <p>
+ *
+ * The tag population is synthetic: tags are added with {@link #addTag}
+ * or {@link #addTags} and are seen by the antenna they are placed on.
+ * A search of T milliseconds produces readRate*T/1000 reads spread over
+ * the visible tags, and a continuous read streams one read every
+ * 1/readRate seconds.
+ * <p>
+ *
+ * In real-time mode (the default) searches take as long as the timeout
+ * the host asked for, and every response is delayed by the time it
+ * would take to send it over a serial line at the current baud rate, so
+ * the host sees module-like throughput and latency. With real time off
+ * responses are available immediately, which measures the host stack
+ * alone.
+ * <p>
+ *
+ * Faults can be injected: corrupted CRCs at a given rate, tag buffer
+ * overflow, and module resets. Commands sent while the host and module
+ * baud rates differ are ignored, as a module would see only noise.
+ * Singulation filters are accepted but not evaluated; standalone tag
+ * operations act on the first live tag on the selected antenna.
+ */
+public class SerialTransportEmulator implements SerialTransport,
+  BufferedSerialTransport
+{
+  static final int PROGRAM_BOOTLOADER = 0x11;
+  static final int PROGRAM_APPLICATION = 0x12;
+
+  static final int VERSION_BOOTLOADER = 0x12010200;
+  static final int VERSION_HARDWARE = (SerialReader.TMR_SR_MODEL_M6E << 24) | 0x000001;
+  static final int VERSION_FIRMWARE_DATE = 0x20121017;
+  static final int VERSION_FIRMWARE = 0x01190200;
+
+  static final int SUPPORTED_METADATA = TAG_METADATA_ALL | TAG_METADATA_DATA;
+  static final int STATUS_INTERVAL_MS = 250;
+  static final int MAX_RESPONSE_DATA = 250;
+  static final int GPIO_PINS = 4;
+
+  /**
+   * A synthetic Gen2 tag. Bank contents follow the Gen2 memory map;
+   * the EPC bank holds CRC, PC and EPC.
+   */
+  static class EmulatedTag
+  {
+    final byte[][] banks = new byte[4][];
+    int antenna;
+    boolean killed;
+    int rssi;
+
+    EmulatedTag(byte[] epc, int antenna, byte[] tid)
+    {
+      this.antenna = antenna;
+      banks[0] = new byte[8];
+      banks[2] = tid;
+      banks[3] = new byte[64];
+      setEpc(epc);
+    }
+
+    void setEpc(byte[] epc)
+    {
+      int pc = ((epc.length + 1) / 2) << 11;
+      byte[] bank = new byte[4 + ((epc.length + 1) & ~1)];
+      bank[2] = (byte)(pc >> 8);
+      bank[3] = (byte)pc;
+      System.arraycopy(epc, 0, bank, 4, epc.length);
+      banks[1] = bank;
+      updateCrc();
+    }
+
+    void updateCrc()
+    {
+      byte[] bank = banks[1];
+      int crc = gen2Crc(bank, 2, bank.length - 2);
+      bank[0] = (byte)(crc >> 8);
+      bank[1] = (byte)crc;
+    }
+
+    /**
+     * @return the number of bytes of PC, EPC and CRC as the module
+     * reports them for a read
+     */
+    int tagLength()
+    {
+      return banks[1].length;
+    }
+
+    void putTag(SerialReader.Message m)
+    {
+      byte[] bank = banks[1];
+      m.setbytes(bank, 2, bank.length - 2);
+      m.setbytes(bank, 0, 2);
+    }
+  }
+
+  /**
+   * One entry in the module's tag buffer.
+   */
+  static class BufferedRead
+  {
+    EmulatedTag tag;
+    int readCount;
+    int rssi;
+    int antenna;
+    int frequency;
+    int timestamp;
+    int phase;
+    byte[] data;
+  }
+
+  /**
+   * A response frame on its way to the host.
+   */
+  static class Frame
+  {
+    byte[] data;
+    int length;
+    int position;
+    long readyAt;
+  }
+
+  private final Random random;
+  private final List<EmulatedTag> tags = new ArrayList<EmulatedTag>();
+  private int readRate = 1000;
+  private boolean realTime = true;
+  private double clockRate = 1.0;
+  private double crcErrorRate;
+  private int tagBufferSize = 1024;
+  private boolean bufferFullPending;
+  private int[] ports = {1, 2, 3, 4};
+  private boolean[] connected = {true, true, true, true};
+
+  // Host side of the line
+  private int hostRate;
+  private final byte[] input = new byte[1024];
+  private int inputLength;
+  private final LinkedList<Frame> output = new LinkedList<Frame>();
+  private long lineFreeAt;
+
+  // Module state
+  private final int defaultRate;
+  private int moduleRate;
+  private int program;
+  private int protocol;
+  private int region;
+  private int powerMode;
+  private int userMode;
+  private int readPower;
+  private int writePower;
+  private int txPort, rxPort;
+  private int[][] searchList;
+  private int gpoState;
+  private int temperature = 32;
+  private final Map<Integer,byte[]> readerConfig = new HashMap<Integer,byte[]>();
+  private final Map<Integer,byte[]> protocolConfig = new HashMap<Integer,byte[]>();
+  private final List<BufferedRead> tagBuffer = new ArrayList<BufferedRead>();
+  // With filtering on, the entry for each tag already in the buffer
+  private final Map<EmulatedTag,BufferedRead> bufferedTags
+    = new HashMap<EmulatedTag,BufferedRead>();
+  private int tagBufferRead, tagBufferLastRead;
+  private int nextTag;
+
+  // Continuous (streaming) search state
+  private boolean streaming;
+  private int streamSearchFlags;
+  private int streamStatusFlags;
+  private int streamEmbeddedOp;
+  private byte[] streamEmbedded;
+  private int streamOpSuccess;
+  private long nextReadAt;
+  private long nextStatusAt;
+  private long streamStartedAt;
+
+  // Counters
+  private long readsGenerated;
+  private long framesSent;
+  private long framesReceived;
+
+  /**
+   * Creates an emulated M6e with an empty field, answering at 115200 bps.
+   */
+  public SerialTransportEmulator()
+  {
+    this(115200, 0x5EEDL);
+  }
+
+  /**
+   * Creates an emulated M6e with an empty field.
+   *
+   * @param moduleBaudRate the rate the module answers at after power-up
+   * @param seed the seed for the random signal strengths, frequencies
+   * and injected faults, so runs can be repeated
+   */
+  public SerialTransportEmulator(int moduleBaudRate, long seed)
+  {
+    defaultRate = moduleBaudRate;
+    hostRate = moduleBaudRate;
+    random = new Random(seed);
+    powerUp(PROGRAM_APPLICATION);
+  }
+
+  /**
+   * Add a tag to the field.
+   *
+   * @param epc the EPC
+   * @param antenna the antenna port that sees the tag
+   */
+  public synchronized void addTag(byte[] epc, int antenna)
+  {
+    byte[] tid = new byte[12];
+    random.nextBytes(tid);
+    tid[0] = (byte)0xE2;  // Gen2 class identifier, then an arbitrary model
+    tid[1] = (byte)0x00;
+    tid[2] = (byte)0x34;
+    tid[3] = (byte)0x12;
+    EmulatedTag t = new EmulatedTag(epc.clone(), antenna, tid);
+    t.rssi = -45 - random.nextInt(30);
+    tags.add(t);
+  }
+
+  /**
+   * Add a number of tags with sequential 96-bit EPCs, spread over the
+   * connected antennas.
+   *
+   * @param count the number of tags to add
+   */
+  public synchronized void addTags(int count)
+  {
+    List<Integer> antennas = new ArrayList<Integer>();
+    for (int i = 0; i < ports.length; i++)
+    {
+      if (connected[i])
+      {
+        antennas.add(ports[i]);
+      }
+    }
+    if (antennas.isEmpty())
+    {
+      antennas.add(ports[0]);
+    }
+    for (int i = 0; i < count; i++)
+    {
+      byte[] epc = new byte[12];
+      int serial = tags.size() + 1;
+      epc[0] = (byte)0x30;
+      epc[1] = (byte)0x08;
+      epc[8] = (byte)(serial >> 24);
+      epc[9] = (byte)(serial >> 16);
+      epc[10] = (byte)(serial >> 8);
+      epc[11] = (byte)serial;
+      addTag(epc, antennas.get(i % antennas.size()));
+    }
+  }
+
+  /**
+   * Remove every tag from the field.
+   */
+  public synchronized void clearTags()
+  {
+    tags.clear();
+  }
+
+  /**
+   * @param readsPerSecond the total number of reads per second the
+   * module makes across all visible tags
+   */
+  public synchronized void setReadRate(int readsPerSecond)
+  {
+    if (readsPerSecond <= 0)
+    {
+      throw new IllegalArgumentException("Read rate must be positive");
+    }
+    readRate = readsPerSecond;
+  }
+
+  /**
+   * @param ppm how much faster the module's clock runs than the host's,
+   * in parts per million; it skews the timestamps reads are reported
+   * with
+   */
+  public synchronized void setClockDrift(double ppm)
+  {
+    clockRate = 1.0 + ppm / 1e6;
+  }
+
+  /**
+   * @param realTime whether searches take their full timeout and
+   * responses are paced at the serial line rate
+   */
+  public synchronized void setRealTime(boolean realTime)
+  {
+    this.realTime = realTime;
+  }
+
+  /**
+   * @param rate the fraction (0.0 to 1.0) of response frames sent with
+   * a corrupted CRC
+   */
+  public synchronized void setCrcErrorRate(double rate)
+  {
+    crcErrorRate = rate;
+  }
+
+  /**
+   * @param entries the number of entries the tag buffer holds before a
+   * search fails with FAULT_TAG_ID_BUFFER_FULL
+   */
+  public synchronized void setTagBufferSize(int entries)
+  {
+    tagBufferSize = entries;
+  }
+
+  /**
+   * Set which antenna ports report a connected antenna.
+   *
+   * @param antennas the connected ports, from 1 to 4
+   */
+  public synchronized void setConnectedAntennas(int... antennas)
+  {
+    Arrays.fill(connected, false);
+    for (int a : antennas)
+    {
+      if (a < 1 || a > ports.length)
+      {
+        throw new IllegalArgumentException("Invalid antenna port " + a);
+      }
+      connected[a - 1] = true;
+    }
+  }
+
+  /**
+   * Make the next search fail with FAULT_TAG_ID_BUFFER_FULL. A
+   * continuous read is ended the way the module ends it when its
+   * buffer overflows.
+   */
+  public synchronized void injectBufferFull()
+  {
+    bufferFullPending = true;
+  }
+
+  /**
+   * Reset the module. Pending output is lost, the settings go back to
+   * their power-up values, the module restarts in the bootloader at its
+   * power-up baud rate and announces itself with an unsolicited boot
+   * response.
+   */
+  public synchronized void injectReset()
+  {
+    output.clear();
+    inputLength = 0;
+    powerUp(PROGRAM_BOOTLOADER);
+    SerialReader.Message m = response(MSG_OPCODE_BOOT_FIRMWARE, 0);
+    putVersion(m);
+    send(m, 0);
+    notifyAll();
+  }
+
+  /**
+   * @return the number of tag reads the module has produced
+   */
+  public synchronized long getReadsGenerated()
+  {
+    return readsGenerated;
+  }
+
+  /**
+   * @return the number of response frames sent to the host
+   */
+  public synchronized long getFramesSent()
+  {
+    return framesSent;
+  }
+
+  /**
+   * @return the number of command frames received from the host
+   */
+  public synchronized long getFramesReceived()
+  {
+    return framesReceived;
+  }
+
+  // SerialTransport
+
+  public void open()
+  {
+  }
+
+  public synchronized void shutdown()
+  {
+    streaming = false;
+    output.clear();
+    inputLength = 0;
+    notifyAll();
+  }
+
+  public synchronized void flush()
+  {
+    output.clear();
+    inputLength = 0;
+  }
+
+  public synchronized int getBaudRate()
+  {
+    return hostRate;
+  }
+
+  public synchronized void setBaudRate(int rate)
+  {
+    if (rate <= 0)
+    {
+      throw new IllegalArgumentException("Unsupported baud rate " + rate);
+    }
+    hostRate = rate;
+    inputLength = 0;
+  }
+
+  public synchronized void sendBytes(int length, byte[] message, int offset, int timeoutMs)
+  {
+    if (hostRate != moduleRate)
+    {
+      // The module can't make sense of bytes at the wrong speed
+      return;
+    }
+    while (length > 0)
+    {
+      int n = Math.min(length, input.length - inputLength);
+      System.arraycopy(message, offset, input, inputLength, n);
+      inputLength += n;
+      offset += n;
+      length -= n;
+      parseInput();
+    }
+    notifyAll();
+  }
+
+  public synchronized byte[] receiveBytes(int length, byte[] messageSpace, int offset, int timeoutMs)
+    throws ReaderException
+  {
+    if (messageSpace == null)
+    {
+      messageSpace = new byte[length + offset];
+    }
+
+    long deadline = System.nanoTime() + timeoutMs * 1000000L;
+    int copied = 0;
+    while (copied < length)
+    {
+      if (output.isEmpty() && streaming)
+      {
+        streamNext();
+      }
+
+      long now = System.nanoTime();
+      Frame f = output.peek();
+      if (f != null && f.readyAt <= now)
+      {
+        int n = Math.min(length - copied, f.length - f.position);
+        System.arraycopy(f.data, f.position, messageSpace, offset + copied, n);
+        f.position += n;
+        copied += n;
+        if (f.position == f.length)
+        {
+          output.removeFirst();
+        }
+        continue;
+      }
+
+      if (now >= deadline)
+      {
+        throw new ReaderCommException("Timeout");
+      }
+      long until = (f == null) ? deadline : Math.min(deadline, f.readyAt);
+      try
+      {
+        wait(Math.max(1, (until - now) / 1000000L));
+      }
+      catch (InterruptedException ie)
+      {
+        Thread.currentThread().interrupt();
+        throw new ReaderCommException("Interrupted");
+      }
+    }
+    return messageSpace;
+  }
+
+  public synchronized int bytesAvailable()
+  {
+    if (output.isEmpty() && streaming)
+    {
+      streamNext();
+    }
+    long now = System.nanoTime();
+    int n = 0;
+    for (Frame f : output)
+    {
+      if (f.readyAt > now)
+      {
+        break;
+      }
+      n += f.length - f.position;
+    }
+    return n;
+  }
+
+  // Module
+
+  private void powerUp(int program)
+  {
+    this.program = program;
+    moduleRate = defaultRate;
+    protocol = PROT_GEN2;
+    region = 1;
+    powerMode = 0;
+    userMode = 0;
+    readPower = 3000;
+    writePower = 3000;
+    txPort = rxPort = 1;
+    searchList = new int[][] {{1, 1}};
+    gpoState = 0;
+    readerConfig.clear();
+    readerConfig.put(0x0c, new byte[] {1});  // ENABLE_FILTERING
+    protocolConfig.clear();
+    tagBuffer.clear();
+    bufferedTags.clear();
+    tagBufferRead = tagBufferLastRead = 0;
+    streaming = false;
+    bufferFullPending = false;
+  }
+
+  /**
+   * Cut complete command frames out of the input buffer and answer
+   * them. A frame is SOH, length, opcode, data(length), crc(2). Runs
+   * of SOH, such as the wake-up preamble, are skipped.
+   */
+  private void parseInput()
+  {
+    int start = 0;
+    while (true)
+    {
+      while (start < inputLength && input[start] != (byte)0xFF)
+      {
+        start++;
+      }
+      if (inputLength - start < 2)
+      {
+        break;
+      }
+      if (input[start + 1] == (byte)0xFF)
+      {
+        start++;
+        continue;
+      }
+      int len = input[start + 1] & 0xff;
+      int total = len + 5;
+      if (inputLength - start < total)
+      {
+        break;
+      }
+      int crc = SerialReader.calcCrc(input, start + 1, len + 2) & 0xffff;
+      int sent = ((input[start + len + 3] & 0xff) << 8) | (input[start + len + 4] & 0xff);
+      if (crc == sent)
+      {
+        framesReceived++;
+        byte[] payload = new byte[len];
+        System.arraycopy(input, start + 3, payload, 0, len);
+        handle(input[start + 2] & 0xff, payload);
+        start += total;
+      }
+      else
+      {
+        start++;
+      }
+    }
+    System.arraycopy(input, start, input, 0, inputLength - start);
+    inputLength -= start;
+  }
+
+  private void handle(int opcode, byte[] p)
+  {
+    SerialReader.Message m = response(opcode, 0);
+
+    switch (opcode)
+    {
+    case MSG_OPCODE_VERSION:
+      putVersion(m);
+      break;
+
+    case MSG_OPCODE_BOOT_FIRMWARE:
+      if (program == PROGRAM_APPLICATION)
+      {
+        m = response(opcode, FAULT_INVALID_OPCODE);
+        break;
+      }
+      program = PROGRAM_APPLICATION;
+      putVersion(m);
+      break;
+
+    case MSG_OPCODE_BOOT_BOOTLOADER:
+      program = PROGRAM_BOOTLOADER;
+      break;
+
+    case MSG_OPCODE_GET_CURRENT_PROGRAM:
+      m.setu8(program);
+      break;
+
+    case MSG_OPCODE_SET_BAUD_RATE:
+      int rate = baudFromCommand(p);
+      if (rate <= 0)
+      {
+        m = response(opcode, FAULT_INVALID_BAUD_RATE);
+        break;
+      }
+      // The acknowledgement still goes out at the old rate
+      send(m, 0);
+      moduleRate = rate;
+      return;
+
+    case MSG_OPCODE_GET_HW_REVISION:
+      byte[] serial = "EMU0000001".getBytes();
+      m.setu8(0x00);
+      m.setu8(0x40);
+      m.setu8(0x01);
+      m.setu8(serial.length);
+      m.setbytes(serial);
+      break;
+
+    case MSG_OPCODE_GET_ANTENNA_PORT:
+      getAntennaPort(m, p);
+      break;
+
+    case MSG_OPCODE_SET_ANTENNA_PORT:
+      if (p.length == 2)
+      {
+        txPort = p[0] & 0xff;
+        rxPort = p[1] & 0xff;
+      }
+      else if (p.length > 0 && p[0] == 2)
+      {
+        int[][] list = new int[(p.length - 1) / 2][];
+        for (int i = 0; i < list.length; i++)
+        {
+          list[i] = new int[] {p[1 + 2 * i] & 0xff, p[2 + 2 * i] & 0xff};
+        }
+        searchList = list;
+      }
+      break;
+
+    case MSG_OPCODE_GET_TX_READ_POWER:
+    case MSG_OPCODE_GET_TX_WRITE_POWER:
+      int option = (p.length > 0) ? p[0] : 0;
+      m.setu8(option);
+      m.setu16(opcode == MSG_OPCODE_GET_TX_READ_POWER ? readPower : writePower);
+      if (option == 1)
+      {
+        m.setu16(3000);
+        m.setu16(500);
+      }
+      break;
+
+    case MSG_OPCODE_SET_TX_READ_POWER:
+      readPower = u16(p, 0);
+      break;
+
+    case MSG_OPCODE_SET_TX_WRITE_POWER:
+      writePower = u16(p, 0);
+      break;
+
+    case MSG_OPCODE_GET_TAG_PROTOCOL:
+      m.setu16(protocol);
+      break;
+
+    case MSG_OPCODE_SET_TAG_PROTOCOL:
+      protocol = u16(p, 0);
+      break;
+
+    case MSG_OPCODE_GET_REGION:
+      m.setu8(region);
+      break;
+
+    case MSG_OPCODE_SET_REGION:
+      region = p[0] & 0xff;
+      break;
+
+    case MSG_OPCODE_GET_AVAILABLE_PROTOCOLS:
+      m.setu16(PROT_GEN2);
+      break;
+
+    case MSG_OPCODE_GET_AVAILABLE_REGIONS:
+      m.setu8(1);
+      break;
+
+    case MSG_OPCODE_GET_POWER_MODE:
+      m.setu8(powerMode);
+      break;
+
+    case MSG_OPCODE_SET_POWER_MODE:
+      powerMode = p[0] & 0xff;
+      break;
+
+    case MSG_OPCODE_GET_USER_MODE:
+      m.setu8(userMode);
+      break;
+
+    case MSG_OPCODE_SET_USER_MODE:
+      userMode = p[0] & 0xff;
+      break;
+
+    case MSG_OPCODE_GET_TEMPERATURE:
+      m.setu8(temperature);
+      break;
+
+    case MSG_OPCODE_GET_USER_GPIO_INPUTS:
+      m.setu8(1);
+      for (int pin = 1; pin <= GPIO_PINS; pin++)
+      {
+        m.setu8(pin);
+        m.setu8(0);
+        m.setu8(0);
+      }
+      break;
+
+    case MSG_OPCODE_SET_USER_GPIO_OUTPUTS:
+      if (p.length == 1)
+      {
+        // Direction query
+        m.setu8(1);
+        m.setu8(p[0]);
+        m.setu8(0);
+      }
+      else if (p.length >= 2)
+      {
+        int bit = 1 << ((p[0] & 0xff) - 1);
+        gpoState = (p[1] != 0) ? (gpoState | bit) : (gpoState & ~bit);
+      }
+      break;
+
+    case MSG_OPCODE_GET_READER_OPTIONAL_PARAMS:
+      m.setu8(p[0]);
+      m.setu8(p[1]);
+      m.setbytes(configValue(readerConfig, p[1] & 0xff));
+      break;
+
+    case MSG_OPCODE_SET_READER_OPTIONAL_PARAMS:
+      readerConfig.put(p[1] & 0xff, Arrays.copyOfRange(p, 2, p.length));
+      break;
+
+    case MSG_OPCODE_GET_PROTOCOL_PARAM:
+      m.setu8(p[0]);
+      m.setu8(p[1]);
+      m.setbytes(configValue(protocolConfig, u16(p, 0)));
+      break;
+
+    case MSG_OPCODE_SET_PROTOCOL_PARAM:
+      protocolConfig.put(u16(p, 0), Arrays.copyOfRange(p, 2, p.length));
+      break;
+
+    case MSG_OPCODE_CLEAR_TAG_ID_BUFFER:
+      tagBuffer.clear();
+      bufferedTags.clear();
+      tagBufferRead = tagBufferLastRead = 0;
+      break;
+
+    case MSG_OPCODE_GET_TAG_BUFFER:
+      m = getTagBuffer(p);
+      break;
+
+    case MSG_OPCODE_READ_TAG_ID_MULTIPLE:
+      readTagMultiple(p);
+      return;
+
+    case MSG_OPCODE_MULTI_PROTOCOL_TAG_OP:
+      multiProtocolTagOp(p);
+      return;
+
+    case MSG_OPCODE_READ_TAG_DATA:
+    case MSG_OPCODE_WRITE_TAG_DATA:
+    case MSG_OPCODE_WRITE_TAG_ID:
+    case MSG_OPCODE_LOCK_TAG:
+    case MSG_OPCODE_KILL_TAG:
+    case MSG_OPCODE_WRITE_TAG_SPECIFIC:
+    case MSG_OPCODE_ERASE_BLOCK_TAG_SPECIFIC:
+      m = tagOperation(opcode, p);
+      break;
+
+    default:
+      m = response(opcode, FAULT_INVALID_OPCODE);
+      break;
+    }
+    send(m, 0);
+  }
+
+  private void getAntennaPort(SerialReader.Message m, byte[] p)
+  {
+    int option = (p.length > 0) ? p[0] : -1;
+    switch (option)
+    {
+    case -1:
+      m.setu8(txPort);
+      m.setu8(rxPort);
+      break;
+    case 1:
+      m.setu8(txPort);
+      m.setu8(rxPort);
+      for (int i = 0; i < ports.length; i++)
+      {
+        m.setu8(connected[i] ? 1 : 0);
+      }
+      break;
+    case 2:
+      m.setu8(option);
+      for (int[] pair : searchList)
+      {
+        m.setu8(pair[0]);
+        m.setu8(pair[1]);
+      }
+      break;
+    case 5:
+      m.setu8(option);
+      for (int i = 0; i < ports.length; i++)
+      {
+        m.setu8(ports[i]);
+        m.setu8(connected[i] ? 1 : 0);
+      }
+      break;
+    default:
+      m.setu8(option);
+      for (int i = 0; i < ports.length; i++)
+      {
+        m.setu8(ports[i]);
+        m.setu16(readPower);
+        m.setu16(writePower);
+      }
+      break;
+    }
+  }
+
+  private static int baudFromCommand(byte[] p)
+  {
+    if (p.length == 4)
+    {
+      return u32(p, 0);
+    }
+    switch (u16(p, 0))
+    {
+    case 488: return 9600;
+    case 244: return 19200;
+    case 122: return 38400;
+    case 84:  return 57600;
+    case 41:  return 115200;
+    case 20:  return 230400;
+    case 10:  return 460800;
+    case 5:   return 921600;
+    default:  return -1;
+    }
+  }
+
+  private static byte[] configValue(Map<Integer,byte[]> config, int key)
+  {
+    byte[] stored = config.get(key);
+    // Unset values read back as zero, which every key decodes
+    return (stored != null) ? stored : new byte[4];
+  }
+
+  private void putVersion(SerialReader.Message m)
+  {
+    m.setu32(VERSION_BOOTLOADER);
+    m.setu32(VERSION_HARDWARE);
+    m.setu32(VERSION_FIRMWARE_DATE);
+    m.setu32(VERSION_FIRMWARE);
+    m.setu32(1 << (PROT_GEN2 - 1));
+  }
+
+  // Searching
+
+  /**
+   * Parsed form of a read tag multiple (0x22) command.
+   */
+  static class SearchCommand
+  {
+    int option;
+    int searchFlags;
+    int timeout;
+    int metadata;
+    int statusFlags;
+    int embeddedOp;
+    byte[] embedded;
+  }
+
+  private static SearchCommand parseSearch(byte[] p, int off, int end)
+  {
+    SearchCommand sc = new SearchCommand();
+    sc.option = p[off] & 0xff;
+    sc.searchFlags = u16(p, off + 1);
+    sc.timeout = u16(p, off + 3);
+    int i = off + 5;
+    if ((sc.searchFlags & READ_MULTIPLE_SEARCH_FLAGS_TAG_STREAMING) != 0
+        && (sc.option & SINGULATION_FLAG_METADATA_ENABLED) != 0)
+    {
+      sc.metadata = u16(p, i);
+      i += 2;
+      if ((sc.searchFlags & READ_MULTIPLE_SEARCH_FLAGS_STATUS_REPORT_STREAMING) != 0)
+      {
+        sc.statusFlags = u16(p, i);
+        i += 2;
+      }
+    }
+    if ((sc.searchFlags & READ_MULTIPLE_SEARCH_FLAGS_EMBEDDED_OP) != 0)
+    {
+      // The embedded command follows the filter: a count of one, its
+      // length, then the command itself running to the end.
+      for (int j = i + 1; j + 1 < end; j++)
+      {
+        if (p[j - 1] == 1 && (p[j] & 0xff) == end - j - 2)
+        {
+          sc.embeddedOp = p[j + 1] & 0xff;
+          sc.embedded = Arrays.copyOfRange(p, j + 2, end);
+          break;
+        }
+      }
+    }
+    return sc;
+  }
+
+  private void readTagMultiple(byte[] p)
+  {
+    SearchCommand sc = parseSearch(p, 0, p.length);
+    SerialReader.Message m;
+    int[] result = search(sc, protocol, sc.timeout);
+
+    if (result[0] < 0)
+    {
+      m = response(MSG_OPCODE_READ_TAG_ID_MULTIPLE, FAULT_TAG_ID_BUFFER_FULL);
+    }
+    else if (result[0] == 0)
+    {
+      m = response(MSG_OPCODE_READ_TAG_ID_MULTIPLE, FAULT_NO_TAGS_FOUND);
+    }
+    else
+    {
+      m = response(MSG_OPCODE_READ_TAG_ID_MULTIPLE, 0);
+      m.setu8(sc.option);
+      m.setu16(sc.searchFlags);
+      m.setu32(result[0]);
+      if (sc.embedded != null)
+      {
+        m.setu8(1);
+        m.setu8(sc.embeddedOp);
+        m.setu16(result[1]);
+        m.setu16(result[2]);
+      }
+    }
+    send(m, realTime ? sc.timeout : 0);
+  }
+
+  private void multiProtocolTagOp(byte[] p)
+  {
+    int timeout = u16(p, 0);
+    int option = p[2] & 0xff;
+    SerialReader.Message m;
+
+    if (option == 0x02)
+    {
+      stopStreaming();
+      return;
+    }
+
+    int i = (option == 0x11) ? 5 : 3;
+    int subOpcode = p[i] & 0xff;
+    i += 3;  // sub-command opcode and search flags
+
+    if (subOpcode != MSG_OPCODE_READ_TAG_ID_MULTIPLE)
+    {
+      send(response(MSG_OPCODE_MULTI_PROTOCOL_TAG_OP, FAULT_UNIMPLEMENTED_OPCODE), 0);
+      return;
+    }
+
+    List<int[]> plans = new ArrayList<int[]>();
+    while (i + 2 < p.length)
+    {
+      int subLength = (p[i + 1] & 0xff) + 1;
+      plans.add(new int[] {p[i] & 0xff, i + 3, i + 2 + subLength});
+      i += 2 + subLength;
+    }
+
+    if (option == 0x01)
+    {
+      int[] plan = plans.get(0);
+      SearchCommand sc = parseSearch(p, plan[1], plan[2]);
+      m = response(MSG_OPCODE_MULTI_PROTOCOL_TAG_OP, 0);
+      m.setu16(0);
+      m.setu8(option);
+      send(m, 0);
+      startStreaming(sc);
+      return;
+    }
+
+    int found = 0;
+    boolean full = false;
+    for (int[] plan : plans)
+    {
+      SearchCommand sc = parseSearch(p, plan[1], plan[2]);
+      int[] result = search(sc, plan[0], sc.timeout);
+      if (result[0] < 0)
+      {
+        full = true;
+        break;
+      }
+      found += result[0];
+    }
+
+    if (full)
+    {
+      m = response(MSG_OPCODE_MULTI_PROTOCOL_TAG_OP, FAULT_TAG_ID_BUFFER_FULL);
+    }
+    else if (found == 0)
+    {
+      m = response(MSG_OPCODE_MULTI_PROTOCOL_TAG_OP, FAULT_NO_TAGS_FOUND);
+    }
+    else
+    {
+      m = response(MSG_OPCODE_MULTI_PROTOCOL_TAG_OP, 0);
+      m.setu16(timeout);
+      m.setu8(option);
+      m.setu8(MSG_OPCODE_READ_TAG_ID_MULTIPLE);
+      m.setu32(found);
+    }
+    send(m, realTime ? timeout : 0);
+  }
+
+  /**
+   * Run a search into the tag buffer.
+   *
+   * @return {entries added, or -1 if the buffer overflowed;
+   * embedded operations succeeded; embedded operations failed}
+   */
+  private int[] search(SearchCommand sc, int protocolCode, int timeout)
+  {
+    List<EmulatedTag> visible = visibleTags(protocolCode);
+    int[] result = new int[3];
+
+    if (bufferFullPending)
+    {
+      bufferFullPending = false;
+      result[0] = -1;
+      return result;
+    }
+    if (visible.isEmpty())
+    {
+      return result;
+    }
+
+    long reads = Math.max(1, (long)readRate * timeout / 1000);
+    boolean filtering = configValue(readerConfig, 0x0c)[0] != 0;
+    int before = tagBuffer.size();
+
+    for (long r = 0; r < reads; r++)
+    {
+      EmulatedTag t = visible.get((int)((nextTag + r) % visible.size()));
+      BufferedRead br = filtering ? bufferedTags.get(t) : null;
+      if (br != null)
+      {
+        br.readCount++;
+        continue;
+      }
+      if (tagBuffer.size() >= tagBufferSize)
+      {
+        result[0] = -1;
+        return result;
+      }
+      br = newRead(t, (int)(r * timeout * clockRate / reads), sc.embeddedOp, sc.embedded);
+      if (sc.embedded != null)
+      {
+        if (embeddedOperation(t, sc.embeddedOp, sc.embedded))
+        {
+          result[1]++;
+        }
+        else
+        {
+          result[2]++;
+        }
+      }
+      tagBuffer.add(br);
+      if (filtering)
+      {
+        bufferedTags.put(t, br);
+      }
+    }
+    nextTag = (int)((nextTag + reads) % visible.size());
+    readsGenerated += reads;
+    result[0] = tagBuffer.size() - before;
+    return result;
+  }
+
+  private List<EmulatedTag> visibleTags(int protocolCode)
+  {
+    List<EmulatedTag> visible = new ArrayList<EmulatedTag>();
+    if (protocolCode != PROT_GEN2)
+    {
+      return visible;
+    }
+    for (EmulatedTag t : tags)
+    {
+      if (t.killed || t.antenna < 1 || t.antenna > ports.length
+          || !connected[t.antenna - 1])
+      {
+        continue;
+      }
+      for (int[] pair : searchList)
+      {
+        if (pair[0] == t.antenna)
+        {
+          visible.add(t);
+          break;
+        }
+      }
+    }
+    return visible;
+  }
+
+  private static int antennaByte(EmulatedTag t)
+  {
+    return ((t.antenna & 0xf) << 4) | (t.antenna & 0xf);
+  }
+
+  private BufferedRead newRead(EmulatedTag t, int timestamp, int embeddedOp, byte[] embedded)
+  {
+    BufferedRead br = new BufferedRead();
+    br.tag = t;
+    br.readCount = 1;
+    br.rssi = t.rssi + random.nextInt(5) - 2;
+    br.antenna = antennaByte(t);
+    br.frequency = 902750 + 500 * random.nextInt(50);
+    br.timestamp = timestamp;
+    br.phase = random.nextInt(180);
+    if (embeddedOp == MSG_OPCODE_READ_TAG_DATA && embedded != null)
+    {
+      br.data = readMemory(t, embedded, 0);
+    }
+    return br;
+  }
+
+  private void putRead(SerialReader.Message m, BufferedRead br, int metadata)
+  {
+    putMetadata(m, br, metadata);
+    m.setu16(br.tag.tagLength() * 8);
+    br.tag.putTag(m);
+  }
+
+  private void putMetadata(SerialReader.Message m, BufferedRead br, int metadata)
+  {
+    if ((metadata & TAG_METADATA_READCOUNT) != 0)
+    {
+      m.setu8(br.readCount);
+    }
+    if ((metadata & TAG_METADATA_RSSI) != 0)
+    {
+      m.setu8(br.rssi);
+    }
+    if ((metadata & TAG_METADATA_ANTENNAID) != 0)
+    {
+      m.setu8(br.antenna);
+    }
+    if ((metadata & TAG_METADATA_FREQUENCY) != 0)
+    {
+      m.setu8(br.frequency >> 16);
+      m.setu16(br.frequency);
+    }
+    if ((metadata & TAG_METADATA_TIMESTAMP) != 0)
+    {
+      m.setu32(br.timestamp);
+    }
+    if ((metadata & TAG_METADATA_PHASE) != 0)
+    {
+      m.setu16(br.phase);
+    }
+    if ((metadata & TAG_METADATA_PROTOCOL) != 0)
+    {
+      m.setu8(PROT_GEN2);
+    }
+    if ((metadata & TAG_METADATA_DATA) != 0)
+    {
+      if (br.data == null)
+      {
+        m.setu16(0);
+      }
+      else
+      {
+        m.setu16(br.data.length * 8);
+        m.setbytes(br.data);
+      }
+    }
+    if ((metadata & TAG_METADATA_GPIO_STATUS) != 0)
+    {
+      m.setu8(gpoState);
+    }
+  }
+
+  private static int readLength(BufferedRead br, int metadata)
+  {
+    int length = 2 + br.tag.tagLength();
+    if ((metadata & TAG_METADATA_READCOUNT) != 0) length += 1;
+    if ((metadata & TAG_METADATA_RSSI) != 0) length += 1;
+    if ((metadata & TAG_METADATA_ANTENNAID) != 0) length += 1;
+    if ((metadata & TAG_METADATA_FREQUENCY) != 0) length += 3;
+    if ((metadata & TAG_METADATA_TIMESTAMP) != 0) length += 4;
+    if ((metadata & TAG_METADATA_PHASE) != 0) length += 2;
+    if ((metadata & TAG_METADATA_PROTOCOL) != 0) length += 1;
+    if ((metadata & TAG_METADATA_DATA) != 0)
+    {
+      length += 2 + ((br.data == null) ? 0 : br.data.length);
+    }
+    if ((metadata & TAG_METADATA_GPIO_STATUS) != 0) length += 1;
+    return length;
+  }
+
+  private SerialReader.Message getTagBuffer(byte[] p)
+  {
+    SerialReader.Message m;
+
+    if (p.length == 0)
+    {
+      m = response(MSG_OPCODE_GET_TAG_BUFFER, 0);
+      m.setu16(tagBufferRead);
+      m.setu16(tagBuffer.size());
+      return m;
+    }
+    if (p.length != 3)
+    {
+      return response(MSG_OPCODE_GET_TAG_BUFFER, FAULT_UNIMPLEMENTED_FEATURE);
+    }
+
+    int metadata = u16(p, 0) & SUPPORTED_METADATA;
+    if (p[2] != 0)
+    {
+      tagBufferRead = tagBufferLastRead;
+    }
+    if (tagBufferRead >= tagBuffer.size())
+    {
+      return response(MSG_OPCODE_GET_TAG_BUFFER,
+                      FAULT_TAG_ID_BUFFER_NOT_ENOUGH_TAGS_AVAILABLE);
+    }
+
+    m = response(MSG_OPCODE_GET_TAG_BUFFER, 0);
+    m.setu16(metadata);
+    m.setu8(p[2]);
+    int countIndex = m.writeIndex++;
+    int used = 4;
+    int count = 0;
+    tagBufferLastRead = tagBufferRead;
+    while (tagBufferRead < tagBuffer.size() && count < 255)
+    {
+      BufferedRead br = tagBuffer.get(tagBufferRead);
+      int length = readLength(br, metadata);
+      if (used + length > MAX_RESPONSE_DATA)
+      {
+        break;
+      }
+      putRead(m, br, metadata);
+      used += length;
+      count++;
+      tagBufferRead++;
+    }
+    m.data[countIndex] = (byte)count;
+    return m;
+  }
+
+  // Continuous reading
+
+  private void startStreaming(SearchCommand sc)
+  {
+    long now = System.nanoTime();
+    streaming = true;
+    streamSearchFlags = sc.searchFlags;
+    streamStatusFlags = sc.statusFlags & ~0x0001;  // no noise floor
+    streamEmbeddedOp = sc.embeddedOp;
+    streamEmbedded = sc.embedded;
+    streamOpSuccess = 0;
+    nextReadAt = now;
+    streamStartedAt = now;
+    nextStatusAt = now + STATUS_INTERVAL_MS * 1000000L;
+  }
+
+  private void stopStreaming()
+  {
+    SerialReader.Message m;
+
+    streaming = false;
+    m = response(MSG_OPCODE_READ_TAG_ID_MULTIPLE, 0);
+    m.setu8(0);
+    m.setu16(streamSearchFlags);
+    m.setu8(0x00);  // end of stream
+    m.setu32(0);
+    m.setu8((streamEmbedded != null) ? 1 : 0);
+    m.setu8(streamEmbeddedOp);
+    m.setu16(streamOpSuccess);
+    m.setu16(0);
+    send(m, 0);
+
+    m = response(MSG_OPCODE_MULTI_PROTOCOL_TAG_OP, 0);
+    m.setu16(0);
+    m.setu8(0x02);
+    send(m, 0);
+  }
+
+  /**
+   * Queue the next frame of a continuous read: a status report when
+   * one is due, otherwise the next tag read.
+   */
+  private void streamNext()
+  {
+    SerialReader.Message m;
+    long now = System.nanoTime();
+
+    if (bufferFullPending)
+    {
+      bufferFullPending = false;
+      streaming = false;
+      send(response(MSG_OPCODE_READ_TAG_ID_MULTIPLE, FAULT_TAG_ID_BUFFER_FULL), 0);
+      m = response(MSG_OPCODE_MULTI_PROTOCOL_TAG_OP, 0);
+      m.setu16(0);
+      m.setu8(0x01);
+      send(m, 0);
+      return;
+    }
+
+    long due = realTime ? nextReadAt : now;
+    // When the line is the bottleneck reads fall behind the clock, but
+    // status reports still go out on time.
+    long clock = realTime ? Math.max(now, nextReadAt) : nextReadAt;
+    if (streamStatusFlags != 0 && nextStatusAt <= clock)
+    {
+      m = response(MSG_OPCODE_READ_TAG_ID_MULTIPLE, 0);
+      m.setu8(0);
+      m.setu16(streamSearchFlags);
+      m.setu8(0x02);  // status report
+      m.setu16(streamStatusFlags);
+      if ((streamStatusFlags & 0x0002) != 0)
+      {
+        m.setu8(902750 >> 16);
+        m.setu16(902750 & 0xffff);
+      }
+      if ((streamStatusFlags & 0x0004) != 0)
+      {
+        m.setu8(temperature);
+      }
+      if ((streamStatusFlags & 0x0008) != 0)
+      {
+        m.setu8(searchList[0][0]);
+        m.setu8(searchList[0][1]);
+      }
+      sendAt(m, realTime ? nextStatusAt : now);
+      nextStatusAt += STATUS_INTERVAL_MS * 1000000L;
+      return;
+    }
+
+    List<EmulatedTag> visible = visibleTags(protocol);
+    if (visible.isEmpty())
+    {
+      return;
+    }
+    EmulatedTag t = visible.get(nextTag++ % visible.size());
+    // Module time since the search started
+    int timestamp = (int)((due - streamStartedAt) * clockRate / 1000000L);
+    BufferedRead br = newRead(t, timestamp, streamEmbeddedOp, streamEmbedded);
+    if (streamEmbedded != null && embeddedOperation(t, streamEmbeddedOp, streamEmbedded))
+    {
+      streamOpSuccess++;
+    }
+
+    int metadata = SUPPORTED_METADATA;
+    m = response(MSG_OPCODE_READ_TAG_ID_MULTIPLE, 0);
+    m.setu8(SINGULATION_FLAG_METADATA_ENABLED);
+    m.setu16(streamSearchFlags);
+    m.setu16(metadata);
+    m.setu8(0x01);  // tag read
+    putRead(m, br, metadata);
+    readsGenerated++;
+    nextReadAt += 1000000000L / readRate;
+    sendAt(m, due);
+  }
+
+  // Tag operations
+
+  private SerialReader.Message tagOperation(int opcode, byte[] p)
+  {
+    if (protocol != PROT_GEN2)
+    {
+      return response(opcode, FAULT_NOT_IMPLEMENTED_FOR_THIS_PROTOCOL);
+    }
+
+    EmulatedTag t = null;
+    for (EmulatedTag candidate : tags)
+    {
+      if (!candidate.killed && candidate.antenna == txPort
+          && connected[candidate.antenna - 1])
+      {
+        t = candidate;
+        break;
+      }
+    }
+    if (t == null)
+    {
+      return response(opcode, FAULT_NO_TAGS_FOUND);
+    }
+
+    SerialReader.Message m = response(opcode, 0);
+    if (opcode == MSG_OPCODE_READ_TAG_DATA)
+    {
+      int option = p[2] & 0xff;
+      int i = 3;
+      int metadata = 0;
+      if ((option & SINGULATION_FLAG_METADATA_ENABLED) != 0)
+      {
+        metadata = u16(p, i) & SUPPORTED_METADATA & ~TAG_METADATA_DATA;
+        i += 2;
+      }
+      byte[] data = readMemory(t, p, i - 3);
+      if (data == null)
+      {
+        return response(opcode, FAULT_GEN2_PROTOCOL_MEMORY_OVERRUN_BAD_PC);
+      }
+      m.setu8(option);
+      if (metadata != 0)
+      {
+        m.setu16(metadata);
+        putMetadata(m, newRead(t, 0, 0, null), metadata);
+      }
+      m.setbytes(data);
+    }
+    else if (!embeddedOperation(t, opcode, p))
+    {
+      return response(opcode, FAULT_GEN2_PROTOCOL_MEMORY_OVERRUN_BAD_PC);
+    }
+    return m;
+  }
+
+  /**
+   * Apply a Gen2 tag operation to a tag.
+   *
+   * @param p the operation's parameters, starting with its timeout
+   * @return whether the operation succeeded
+   */
+  private boolean embeddedOperation(EmulatedTag t, int opcode, byte[] p)
+  {
+    switch (opcode)
+    {
+    case MSG_OPCODE_READ_TAG_DATA:
+      return readMemory(t, p, 0) != null;
+
+    case MSG_OPCODE_WRITE_TAG_DATA:
+    {
+      int address = u32(p, 3);
+      int bank = p[7] & 0x03;
+      int i = skipFilter(p, 2, 8);
+      return writeMemory(t, bank, address, Arrays.copyOfRange(p, i, p.length));
+    }
+
+    case MSG_OPCODE_WRITE_TAG_ID:
+    {
+      int i = (p[2] == 0 && p[3] == 0) ? 4 : skipFilter(p, 2, 3);
+      t.setEpc(Arrays.copyOfRange(p, i, p.length));
+      return true;
+    }
+
+    case MSG_OPCODE_KILL_TAG:
+      t.killed = true;
+      return true;
+
+    default:
+      // Lock and the chip-specific commands only need acknowledging
+      return true;
+    }
+  }
+
+  /**
+   * @param p read data parameters: timeout(2), option, bank, address(4), words
+   * @param skip extra bytes between the option and the bank
+   * @return the memory read, or null if it is out of range
+   */
+  private static byte[] readMemory(EmulatedTag t, byte[] p, int skip)
+  {
+    int bank = p[3 + skip] & 0x03;
+    int address = u32(p, 4 + skip) * 2;
+    int length = (p[8 + skip] & 0xff) * 2;
+    byte[] memory = t.banks[bank];
+    if (length == 0)
+    {
+      length = memory.length - address;
+    }
+    if (address < 0 || address + length > memory.length)
+    {
+      return null;
+    }
+    return Arrays.copyOfRange(memory, address, address + length);
+  }
+
+  private static boolean writeMemory(EmulatedTag t, int bank, int address, byte[] data)
+  {
+    byte[] memory = t.banks[bank];
+    address *= 2;
+    if (address < 0 || address + data.length > memory.length)
+    {
+      return false;
+    }
+    System.arraycopy(data, 0, memory, address, data.length);
+    if (bank == 1)
+    {
+      t.updateCrc();
+    }
+    return true;
+  }
+
+  /**
+   * Skip the Gen2 singulation fields selected by the option byte at
+   * optIndex, starting at index i.
+   */
+  private static int skipFilter(byte[] p, int optIndex, int i)
+  {
+    switch (p[optIndex] & 0x07)
+    {
+    case 0x05:
+      return i + 4;
+    case 0x01:
+      return i + 1 + ((p[i] & 0xff) + 7) / 8;
+    default:
+      return i;
+    }
+  }
+
+  // Framing
+
+  private static SerialReader.Message response(int opcode, int status)
+  {
+    SerialReader.Message m = new SerialReader.Message();
+    m.setu8(opcode);
+    m.setu16(status);
+    return m;
+  }
+
+  private void send(SerialReader.Message m, int delayMs)
+  {
+    sendAt(m, System.nanoTime() + delayMs * 1000000L);
+  }
+
+  /**
+   * Frame a response and queue it for the host, no earlier than
+   * readyAt and no earlier than the line allows at the current rate.
+   */
+  private void sendAt(SerialReader.Message m, long readyAt)
+  {
+    if (hostRate != moduleRate)
+    {
+      // The host would only see noise
+      return;
+    }
+
+    m.data[0] = (byte)0xFF;
+    m.data[1] = (byte)(m.writeIndex - 5);
+    m.setu16(SerialReader.calcCrc(m.data, 1, m.writeIndex - 1));
+    if (crcErrorRate > 0 && random.nextDouble() < crcErrorRate)
+    {
+      m.data[m.writeIndex - 1] ^= 0x5A;
+    }
+
+    Frame f = new Frame();
+    f.data = m.data;
+    f.length = m.writeIndex;
+    if (realTime)
+    {
+      long wire = f.length * 10L * 1000000000L / moduleRate;
+      f.readyAt = Math.max(readyAt, lineFreeAt) + wire;
+      lineFreeAt = f.readyAt;
+    }
+    else
+    {
+      f.readyAt = readyAt;
+    }
+    output.add(f);
+    framesSent++;
+  }
+
+  private static int u16(byte[] p, int i)
+  {
+    return ((p[i] & 0xff) << 8) | (p[i + 1] & 0xff);
+  }
+
+  private static int u32(byte[] p, int i)
+  {
+    return (u16(p, i) << 16) | u16(p, i + 2);
+  }
+
+  /**
+   * The Gen2 CRC-16 (ISO/IEC 13239) a tag backscatters after its EPC.
+   */
+  static int gen2Crc(byte[] data, int offset, int length)
+  {
+    int crc = 0xffff;
+    for (int i = offset; i < offset + length; i++)
+    {
+      crc ^= (data[i] & 0xff) << 8;
+      for (int b = 0; b < 8; b++)
+      {
+        crc = ((crc & 0x8000) != 0) ? (crc << 1) ^ 0x1021 : crc << 1;
+      }
+    }
+    return ~crc & 0xffff;
+  }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A pure-Java SerialTransport for Linux tty devices. No native library
+ * is extracted or loaded; the line discipline is configured once with
+ * stty(1) and the device is then read and written as an ordinary file.
+ * <p>
+ *
+ * The tty is put in non-canonical mode with VMIN=0 and VTIME=1, so each
+ * read() returns whatever the driver has buffered (or nothing, after at
+ * most 100ms). Every read drains as much as is available into an
+ * internal receive buffer, and receiveBytes() is served from that
+ * buffer, so a whole response frame normally costs a single read
+ * system call instead of one per header and payload.
+ * <p>
+ *
+ * SerialReader uses this transport in place of SerialTransportNative
+ * when the system property <tt>com.thingmagic.serialtransport</tt> is
+ * set to <tt>linux</tt>; it can also be passed directly to
+ * {@link SerialReader#SerialReader(SerialTransport)}.
+ */
+public class SerialTransportLinux implements SerialTransport,
+  BufferedSerialTransport
+{
+  // Large enough to hold several maximum-length (262 byte) frames
+  static final int RECEIVE_BUFFER_SIZE = 4096;
+
+  private final String deviceName;
+  private InputStream in;
+  private FileOutputStream out;
+  private int rate = 9600;
+
+  private final byte[] rxBuf = new byte[RECEIVE_BUFFER_SIZE];
+  private int rxHead, rxTail;
+
+  /**
+   * Creates a transport for the given tty device.
+   *
+   * @param deviceName the device path, such as /dev/ttyUSB0
+   */
+  public SerialTransportLinux(String deviceName)
+  {
+    this.deviceName = deviceName;
+  }
+
+  public void open()
+    throws ReaderException
+  {
+    if (!new File(deviceName).exists())
+    {
+      throw new ReaderCommException("Couldn't open device");
+    }
+    configure(rate);
+    try
+    {
+      in = new FileInputStream(deviceName);
+      out = new FileOutputStream(deviceName);
+    }
+    catch (IOException e)
+    {
+      shutdown();
+      throw new ReaderCommException("Couldn't open device");
+    }
+    rxHead = rxTail = 0;
+  }
+
+  public void shutdown()
+  {
+    try
+    {
+      if (in != null)
+      {
+        in.close();
+      }
+      if (out != null)
+      {
+        out.close();
+      }
+    }
+    catch (IOException e)
+    {
+      // Nothing to do here; we're trying to shut down.
+    }
+    in = null;
+    out = null;
+  }
+
+  public void flush()
+    throws ReaderException
+  {
+    if (in == null)
+    {
+      return;
+    }
+    try
+    {
+      // A tty cannot seek, so skip() fails; read the stale bytes into
+      // the receive buffer and forget them
+      while (in.available() > 0 && in.read(rxBuf, 0, rxBuf.length) > 0)
+      {
+      }
+    }
+    catch (IOException e)
+    {
+      throw new ReaderCommException(e.getMessage());
+    }
+    finally
+    {
+      rxHead = rxTail = 0;
+    }
+  }
+
+  public void setBaudRate(int rate)
+    throws ReaderException
+  {
+    if (in != null)
+    {
+      configure(rate);
+    }
+    this.rate = rate;
+  }
+
+  public int getBaudRate()
+  {
+    return rate;
+  }
+
+  public void sendBytes(int length, byte[] message, int offset, int timeoutMs)
+    throws ReaderException
+  {
+    if (out == null)
+    {
+      throw new ReaderCommException("Serial error");
+    }
+    try
+    {
+      out.write(message, offset, length);
+    }
+    catch (IOException e)
+    {
+      throw new ReaderCommException("Serial error");
+    }
+  }
+
+  public byte[] receiveBytes(int length, byte[] messageSpace, int offset, int timeoutMs)
+    throws ReaderException
+  {
+    long deadline;
+    int copied;
+
+    if (messageSpace == null)
+    {
+      messageSpace = new byte[length + offset];
+    }
+
+    deadline = System.currentTimeMillis() + timeoutMs;
+    copied = 0;
+    while (copied < length)
+    {
+      if (rxHead == rxTail)
+      {
+        if (fill() == 0 && System.currentTimeMillis() >= deadline)
+        {
+          throw new ReaderCommException("Timeout");
+        }
+        continue;
+      }
+      int n = Math.min(length - copied, rxTail - rxHead);
+      System.arraycopy(rxBuf, rxHead, messageSpace, offset + copied, n);
+      rxHead += n;
+      copied += n;
+    }
+    return messageSpace;
+  }
+
+  public int bytesAvailable()
+  {
+    int n = rxTail - rxHead;
+    try
+    {
+      if (in != null)
+      {
+        n += in.available();
+      }
+    }
+    catch (IOException e)
+    {
+      // Nothing is known to be waiting then
+    }
+    return n;
+  }
+
+  /**
+   * Drain everything the driver has buffered (up to the free space in
+   * the receive buffer) with one read. Only called when the receive
+   * buffer is empty, so the buffer is simply rewound first.
+   *
+   * @return the number of bytes read, zero if VTIME expired first
+   */
+  private int fill()
+    throws ReaderException
+  {
+    int n;
+
+    if (in == null)
+    {
+      throw new ReaderCommException("Serial error");
+    }
+    rxHead = rxTail = 0;
+    try
+    {
+      n = in.read(rxBuf, 0, rxBuf.length);
+    }
+    catch (IOException e)
+    {
+      throw new ReaderCommException("Serial error");
+    }
+    if (n < 0)
+    {
+      // read(2) returned 0: VTIME elapsed with nothing to report
+      return 0;
+    }
+    rxTail = n;
+    return n;
+  }
+
+  /**
+   * Set up the termios state of the device: raw 8N1, no flow control,
+   * VMIN=0/VTIME=1 so reads never block for more than 100ms.
+   *
+   * @throws ReaderCommException with stty's output if it could not be
+   * run or did not accept the settings
+   */
+  private void configure(int baud)
+    throws ReaderException
+  {
+    ProcessBuilder pb = new ProcessBuilder("stty", "-F", deviceName,
+      Integer.toString(baud), "raw", "-echo", "-echoe", "-echok",
+      "cs8", "-cstopb", "-parenb", "-crtscts", "-ixon", "-ixoff",
+      "clocal", "cread", "min", "0", "time", "1");
+    pb.redirectErrorStream(true);
+    try
+    {
+      Process p = pb.start();
+      InputStream pin = p.getInputStream();
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      byte[] buf = new byte[256];
+      int n;
+      while ((n = pin.read(buf)) != -1)
+      {
+        output.write(buf, 0, n);
+      }
+      if (p.waitFor() != 0)
+      {
+        throw new ReaderCommException("Couldn't configure device at " + baud
+                                      + " baud: " + output.toString().trim());
+      }
+    }
+    catch (IOException e)
+    {
+      throw new ReaderCommException("Couldn't configure device: " + e.getMessage());
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new ReaderCommException("Couldn't configure device");
+    }
+  }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.Arrays;
+
+/**
+ * Host-side unique-read filter for continuous streaming reads.
+ * <p>
+ *
+ * The module's own read filter is turned off while it streams, so
+ * every repeat read of a tag would otherwise reach the read listeners.
+ * This filter passes the first read of each tag, as selected by the
+ * uniqueBy* settings, and drops repeats until readFilterTimeout has
+ * passed since that first read; the next read after that is passed
+ * again. With no timeout a tag is passed once for the whole stream,
+ * as the module does.
+ * <p>
+ *
+ * Tags are kept in an open-addressing table over parallel entry
+ * arrays, and expire from a hashed timing wheel. All entries share one
+ * timeout, which spans less than one turn of the wheel, so each bucket
+ * only ever holds entries due on the same tick and expiring them costs
+ * O(1) per read however many tags are being tracked. Not thread-safe;
+ * it is only used by the thread that parses the stream.
+ */
+final class StreamingReadFilter
+{
+  static final int WHEEL_SIZE = 256;  // power of two
+  private static final int MIN_ENTRIES = 64;
+
+  private boolean uniqueByAntenna;
+  private boolean uniqueByData;
+  private boolean uniqueByProtocol;
+  private int timeout;
+  private long tickMs;
+  private int timeoutTicks;
+  private long lastTick;
+
+  // Entries; free ones are chained through entryNext from freeEntry
+  private TagReadData[] entryRead = new TagReadData[MIN_ENTRIES];
+  private int[] entryHash = new int[MIN_ENTRIES];
+  private int[] entryNext = new int[MIN_ENTRIES];  // next in bucket, or free list
+  private int freeEntry = -1;
+  private int usedEntries;
+  private int size;
+
+  private int[] table = new int[2 * MIN_ENTRIES];  // entry + 1, 0 = free
+  private final int[] wheel = new int[WHEEL_SIZE];  // first entry + 1, 0 = empty
+
+  /**
+   * Forget every tag and start filtering with the given settings.
+   *
+   * @param timeout how long, in milliseconds, repeats of a tag are
+   * dropped after it is passed; zero or less to drop them for good
+   * @param now the current time, in milliseconds
+   */
+  void start(boolean uniqueByAntenna, boolean uniqueByData,
+             boolean uniqueByProtocol, int timeout, long now)
+  {
+    this.uniqueByAntenna = uniqueByAntenna;
+    this.uniqueByData = uniqueByData;
+    this.uniqueByProtocol = uniqueByProtocol;
+    this.timeout = timeout;
+    if (timeout > 0)
+    {
+      tickMs = (timeout + WHEEL_SIZE - 2) / (WHEEL_SIZE - 1);
+      timeoutTicks = (int)((timeout + tickMs - 1) / tickMs);
+    }
+    lastTick = now / Math.max(tickMs, 1);
+    clear();
+  }
+
+  /**
+   * @return the number of tags currently being filtered
+   */
+  int size()
+  {
+    return size;
+  }
+
+  /**
+   * Decide whether a streamed read is reported.
+   *
+   * @param read the read
+   * @param now the current time, in milliseconds, never less than on
+   * the previous call
+   * @return true if the read is the first of its tag, or the first
+   * since the tag's timeout expired
+   */
+  boolean accept(TagReadData read, long now)
+  {
+    if (timeout > 0)
+    {
+      expire(now / tickMs);
+    }
+
+    int h = TagReadDeduplicator.keyHash(read, uniqueByAntenna,
+                                        uniqueByData, uniqueByProtocol);
+    int mask = table.length - 1;
+    int i = h & mask;
+    int slot;
+    while ((slot = table[i]) != 0)
+    {
+      int e = slot - 1;
+      if (entryHash[e] == h
+          && TagReadDeduplicator.sameKey(entryRead[e], read, uniqueByAntenna,
+                                         uniqueByData, uniqueByProtocol))
+      {
+        return false;
+      }
+      i = (i + 1) & mask;
+    }
+
+    int e = newEntry();
+    entryRead[e] = read;
+    entryHash[e] = h;
+    table[i] = e + 1;
+    size++;
+    if (timeout > 0)
+    {
+      int bucket = (int)((lastTick + timeoutTicks) & (WHEEL_SIZE - 1));
+      entryNext[e] = wheel[bucket] - 1;
+      wheel[bucket] = e + 1;
+    }
+    if (2 * size > table.length)
+    {
+      rehash(2 * table.length);
+    }
+    return true;
+  }
+
+  /**
+   * Expire the entries of every tick up to and including tick.
+   */
+  private void expire(long tick)
+  {
+    if (tick - lastTick >= WHEEL_SIZE)
+    {
+      // The whole wheel has turned: everything has expired
+      clear();
+      lastTick = tick;
+      return;
+    }
+    while (lastTick < tick)
+    {
+      lastTick++;
+      int bucket = (int)(lastTick & (WHEEL_SIZE - 1));
+      int e = wheel[bucket] - 1;
+      wheel[bucket] = 0;
+      while (e >= 0)
+      {
+        int next = entryNext[e];
+        remove(e);
+        e = next;
+      }
+    }
+  }
+
+  private int newEntry()
+  {
+    if (freeEntry >= 0)
+    {
+      int e = freeEntry;
+      freeEntry = entryNext[e];
+      return e;
+    }
+    if (usedEntries == entryRead.length)
+    {
+      int n = 2 * usedEntries;
+      entryRead = Arrays.copyOf(entryRead, n);
+      entryHash = Arrays.copyOf(entryHash, n);
+      entryNext = Arrays.copyOf(entryNext, n);
+    }
+    return usedEntries++;
+  }
+
+  /**
+   * Take entry e out of the table, closing the gap by moving back any
+   * entry further along its probe sequence, and free it.
+   */
+  private void remove(int e)
+  {
+    int mask = table.length - 1;
+    int i = entryHash[e] & mask;
+    while (table[i] != e + 1)
+    {
+      i = (i + 1) & mask;
+    }
+
+    int j = i;
+    while (true)
+    {
+      j = (j + 1) & mask;
+      if (table[j] == 0)
+      {
+        break;
+      }
+      int home = entryHash[table[j] - 1] & mask;
+      // Move table[j] into the gap at i unless its home lies in (i, j]
+      if (((j - home) & mask) >= ((j - i) & mask))
+      {
+        table[i] = table[j];
+        i = j;
+      }
+    }
+    table[i] = 0;
+
+    entryRead[e] = null;
+    entryNext[e] = freeEntry;
+    freeEntry = e;
+    size--;
+  }
+
+  private void rehash(int capacity)
+  {
+    int[] t = new int[capacity];
+    int mask = capacity - 1;
+    for (int slot : table)
+    {
+      if (slot != 0)
+      {
+        int i = entryHash[slot - 1] & mask;
+        while (t[i] != 0)
+        {
+          i = (i + 1) & mask;
+        }
+        t[i] = slot;
+      }
+    }
+    table = t;
+  }
+
+  private void clear()
+  {
+    // Drop the storage of a large stream rather than keeping it
+    if (entryRead.length > MIN_ENTRIES)
+    {
+      entryRead = new TagReadData[MIN_ENTRIES];
+      entryHash = new int[MIN_ENTRIES];
+      entryNext = new int[MIN_ENTRIES];
+      table = new int[2 * MIN_ENTRIES];
+    }
+    else
+    {
+      Arrays.fill(entryRead, null);
+      Arrays.fill(table, 0);
+    }
+    Arrays.fill(wheel, 0);
+    freeEntry = -1;
+    usedEntries = 0;
+    size = 0;
+  }
+}
@@ -38,6 +38,21 @@ public final class TMConstants {
     public final static String TMR_PARAM_READ_ASYNCOFFTIME = "/reader/read/asyncOffTime";
     public final static String TMR_PARAM_READ_ASYNCONTIME = "/reader/read/asyncOnTime";
     public final static String TMR_PARAM_READ_PLAN = "/reader/read/plan";
+    public final static String TMR_PARAM_READ_QUEUE_CAPACITY = "/reader/read/queue/capacity";
+    public final static String TMR_PARAM_READ_QUEUE_POLICY = "/reader/read/queue/policy";
+    public final static String TMR_PARAM_READ_QUEUE_STATS = "/reader/read/queue/stats";
+    public final static String TMR_PARAM_READ_CYCLE_ADAPTIVE = "/reader/read/cycle/adaptive";
+    public final static String TMR_PARAM_READ_CYCLE_MAXTIME = "/reader/read/cycle/maxTime";
+    public final static String TMR_PARAM_READ_CYCLE_STATS = "/reader/read/cycle/stats";
+    public final static String TMR_PARAM_READ_CLOCK_DRIFT = "/reader/read/clockDrift";
+    public final static String TMR_PARAM_READ_REPORT_ADAPTIVE = "/reader/read/report/adaptive";
+    public final static String TMR_PARAM_READ_REPORT_TAGCOUNT = "/reader/read/report/tagCount";
+    public final static String TMR_PARAM_READ_REPORT_TIMEOUT = "/reader/read/report/timeout";
+    public final static String TMR_PARAM_LISTENER_ISOLATED_DISPATCH = "/reader/listener/isolatedDispatch";
+    public final static String TMR_PARAM_LISTENER_QUEUE_CAPACITY = "/reader/listener/queueCapacity";
+    public final static String TMR_PARAM_LISTENER_STATS = "/reader/listener/stats";
+    public final static String TMR_PARAM_PARAMCACHE_VOLATILE_TTL = "/reader/paramCache/volatileTtl";
+    public final static String TMR_PARAM_PARAMCACHE_WRITETHROUGH_TTL = "/reader/paramCache/writeThroughTtl";
     public final static String TMR_PARAM_RADIO_ENABLEPOWERSAVE = "/reader/radio/enablePowerSave";
     public final static String TMR_PARAM_RADIO_POWERMAX = "/reader/radio/powerMax";
     public final static String TMR_PARAM_RADIO_POWERMIN = "/reader/radio/powerMin";
@@ -83,6 +83,19 @@ public class TagData implements TagFilter
     hash = Arrays.hashCode(epc); // + protocol?
   }
 
+  /**
+   * Construct a tag object from an EPC and the two-byte CRC that
+   * follows it in b, copying each of them once.
+   */
+  TagData(byte[] b, int epcOffset, int epcLength)
+  {
+    int crcOffset = epcOffset + epcLength;
+
+    epc = Arrays.copyOfRange(b, epcOffset, crcOffset);
+    crc = Arrays.copyOfRange(b, crcOffset, crcOffset + 2);
+    hash = Arrays.hashCode(epc);
+  }
+
   /**
    * Construct a tag object representing the specified EPC and CRC
    *
@@ -21,6 +21,7 @@
  */
 package com.thingmagic;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.Set;
@@ -72,6 +73,7 @@ public class TagReadData
 
   long readBase = 0;
   int readOffset = 0;
+  long timeNanos = 0;
 
   TagProtocol readProtocol = TagProtocol.NONE;
 
@@ -102,7 +104,50 @@ public class TagReadData
    */
   public String epcString()
   {
-    return tag.epcString();
+    return getTag().epcString();
+  }
+
+  /**
+   * Returns the hash code of the read tag, the same value as
+   * getTag().hashCode(). Reads parsed from a serial reader response
+   * compute it without building the tag.
+   *
+   * @return the hash code of the tag's EPC
+   */
+  public int epcHashCode()
+  {
+    return getTag().hashCode();
+  }
+
+  /**
+   * Returns whether this read and another are of the same tag, with the
+   * same result as getTag().equals(other.getTag()). Reads parsed from a
+   * serial reader response are compared without building the tags.
+   *
+   * @param other the read to compare with
+   * @return whether both reads have the same protocol and EPC
+   */
+  public boolean sameTag(TagReadData other)
+  {
+    return tagProtocol() == other.tagProtocol() && sameEpc(other);
+  }
+
+  /**
+   * @return whether this read and another have the same EPC, whatever
+   * their protocols
+   */
+  boolean sameEpc(TagReadData other)
+  {
+    TagData t = getTag(), o = other.getTag();
+    return t.hash == o.hash && Arrays.equals(t.epc, o.epc);
+  }
+
+  /**
+   * @return the protocol of the read tag, as getTag().getProtocol()
+   */
+  TagProtocol tagProtocol()
+  {
+    return getTag().getProtocol();
   }
 
   /**
@@ -156,17 +201,59 @@ public class TagReadData
     return readBase + readOffset;
   }
 
+  /**
+   * Return the time at which the tag was read on the host's monotonic
+   * clock, estimated from the module's own timestamp. Unlike getTime()
+   * it does not depend on when the host got round to handling the
+   * read, and the module clock's drift is corrected for, so reads of
+   * one search can be compared to sub-millisecond precision. A
+   * SerialReader always fetches the timestamp for this, even when the
+   * metadata consumers do not ask for it.
+   *
+   * @return the time, comparable with System.nanoTime(), or 0 if the
+   * reader does not provide it
+   */
+  public long getTimeNanos()
+  {
+    return timeNanos;
+  }
+
   /**
    * Return the data read from the tag.
    */
   public byte[] getData()
   {
-    return data.clone();
+    return dataBytes().clone();
+  }
+
+  /**
+   * @return the data read from the tag, not copied; callers must not
+   * modify it
+   */
+  byte[] dataBytes()
+  {
+    return data;
+  }
+
+  /**
+   * Set the data read from the tag to a copy of b[offset..offset+length).
+   */
+  void setData(byte[] b, int offset, int length)
+  {
+    data = new byte[length];
+    System.arraycopy(b, offset, data, 0, length);
   }
 
+  /**
+   * Return the state of the GPIO inputs when the tag was read, if
+   * GPIO_STATUS metadata was requested.
+   *
+   * @return the input pins, or null if GPIO status was not reported
+   */
   public Reader.GpioPin[] getGpio()
   {
-    return gpio;
+    // The pin arrays are shared between reads with the same state
+    return (gpio == null) ? null : gpio.clone();
   }
   /**
    * Return the phase the tag is in 
@@ -196,7 +283,7 @@ public class TagReadData
   public String toString() 
   {
     return String.format("EPC:%s ant:%d count:%d time:%s",
-                         (tag == null) ? "none" : tag.epcString(),
+                         (getTag() == null) ? "none" : epcString(),
                          antenna,
                          readCount,
                          df.format(new Date(getTime())));
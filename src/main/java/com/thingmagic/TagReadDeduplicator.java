@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Merges repeated reads of the same tag, as selected by the
+ * uniqueByAntenna, uniqueByData and uniqueByProtocol settings, summing
+ * their read counts. Used by every reader type at the end of a read.
+ * <p>
+ *
+ * Reads are hashed on their EPC bytes (see
+ * {@link TagReadData#epcHashCode}) combined with whichever of antenna,
+ * data and protocol the settings select, and kept in an open-addressing
+ * table of indices into the list of distinct reads. No key objects or
+ * strings are built per read. The table is sized from the number of
+ * reads before the first one is added, so it is never rehashed, and it
+ * is kept between calls so a reader that dedups every read reuses it.
+ * Distinct reads are returned in the order they were first seen.
+ */
+final class TagReadDeduplicator
+{
+  private static final int MIN_CAPACITY = 64;
+
+  private int[] slots = new int[MIN_CAPACITY];   // index + 1 into kept, 0 = free
+  private int[] hashes = new int[MIN_CAPACITY];
+  private final List<TagReadData> kept = new ArrayList<TagReadData>();
+
+  private boolean uniqueByAntenna;
+  private boolean uniqueByData;
+  private boolean uniqueByProtocol;
+
+  /**
+   * De-duplicate a list of reads in place.
+   *
+   * @param reads the reads, replaced by the distinct ones
+   * @param uniqueByAntenna whether reads on different antennas are distinct
+   * @param uniqueByData whether reads with different data are distinct
+   * @param uniqueByProtocol whether reads of different protocols are distinct
+   * @param recordHighestRssi whether a merged read keeps the metadata of
+   * the read with the highest RSSI, rather than of the first read
+   */
+  synchronized void removeDuplicates(List<TagReadData> reads,
+                                     boolean uniqueByAntenna,
+                                     boolean uniqueByData,
+                                     boolean uniqueByProtocol,
+                                     boolean recordHighestRssi)
+  {
+    if (reads.size() < 2)
+    {
+      return;
+    }
+    this.uniqueByAntenna = uniqueByAntenna;
+    this.uniqueByData = uniqueByData;
+    this.uniqueByProtocol = uniqueByProtocol;
+    prepare(reads.size());
+
+    int mask = slots.length - 1;
+    for (TagReadData read : reads)
+    {
+      int h = hash(read);
+      int i = h & mask;
+      int slot;
+      while ((slot = slots[i]) != 0)
+      {
+        TagReadData first = kept.get(slot - 1);
+        if (hashes[i] == h && same(first, read))
+        {
+          break;
+        }
+        i = (i + 1) & mask;
+      }
+
+      if (slot == 0)
+      {
+        kept.add(read);
+        slots[i] = kept.size();
+        hashes[i] = h;
+      }
+      else  // see the tag again
+      {
+        TagReadData first = kept.get(slot - 1);
+        int count = first.readCount + read.readCount;
+        if (recordHighestRssi && read.rssi > first.rssi)
+        {
+          kept.set(slot - 1, read);
+          first = read;
+        }
+        first.readCount = count;
+      }
+    }
+
+    if (kept.size() < reads.size())
+    {
+      reads.clear();
+      reads.addAll(kept);
+    }
+    kept.clear();
+  }
+
+  /**
+   * @return whether any two of the reads have the same EPC, that is,
+   * whether removeDuplicates could merge any of them under any settings
+   */
+  synchronized boolean hasRepeatedEpc(List<TagReadData> reads)
+  {
+    if (reads.size() < 2)
+    {
+      return false;
+    }
+    uniqueByAntenna = uniqueByData = uniqueByProtocol = false;
+    prepare(reads.size());
+
+    boolean repeated = false;
+    int mask = slots.length - 1;
+    for (TagReadData read : reads)
+    {
+      int h = hash(read);
+      int i = h & mask;
+      int slot;
+      while ((slot = slots[i]) != 0)
+      {
+        if (hashes[i] == h && kept.get(slot - 1).sameEpc(read))
+        {
+          repeated = true;
+          break;
+        }
+        i = (i + 1) & mask;
+      }
+      if (repeated)
+      {
+        break;
+      }
+      kept.add(read);
+      slots[i] = kept.size();
+      hashes[i] = h;
+    }
+    kept.clear();
+    return repeated;
+  }
+
+  /**
+   * Make the table at least twice as large as the number of reads,
+   * and empty.
+   */
+  private void prepare(int count)
+  {
+    int capacity = MIN_CAPACITY;
+    while (capacity < 2 * count)
+    {
+      capacity <<= 1;
+    }
+    // Shrink again after an unusually large read
+    if (capacity > slots.length || 4 * capacity <= slots.length)
+    {
+      slots = new int[capacity];
+      hashes = new int[capacity];
+    }
+    else
+    {
+      Arrays.fill(slots, 0);
+    }
+  }
+
+  private int hash(TagReadData read)
+  {
+    return keyHash(read, uniqueByAntenna, uniqueByData, uniqueByProtocol);
+  }
+
+  private boolean same(TagReadData a, TagReadData b)
+  {
+    return sameKey(a, b, uniqueByAntenna, uniqueByData, uniqueByProtocol);
+  }
+
+  /**
+   * Hash a read on its EPC and whichever of antenna, data and protocol
+   * make reads distinct, spread so the low bits can pick a slot.
+   */
+  static int keyHash(TagReadData read, boolean uniqueByAntenna,
+                     boolean uniqueByData, boolean uniqueByProtocol)
+  {
+    int h = read.epcHashCode();
+    if (uniqueByAntenna)
+    {
+      h = 31 * h + read.antenna;
+    }
+    if (uniqueByData)
+    {
+      h = 31 * h + Arrays.hashCode(read.dataBytes());
+    }
+    if (uniqueByProtocol)
+    {
+      h = 31 * h + read.tagProtocol().ordinal();
+    }
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * @return whether two reads are of the same tag, as far as the given
+   * settings are concerned
+   */
+  static boolean sameKey(TagReadData a, TagReadData b,
+                         boolean uniqueByAntenna, boolean uniqueByData,
+                         boolean uniqueByProtocol)
+  {
+    return (!uniqueByAntenna || a.antenna == b.antenna)
+      && (!uniqueByProtocol || a.tagProtocol() == b.tagProtocol())
+      && a.sameEpc(b)
+      && (!uniqueByData || Arrays.equals(a.dataBytes(), b.dataBytes()));
+  }
+}
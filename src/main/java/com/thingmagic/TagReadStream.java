@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The reads of one timed read, handed out while the read is still in
+ * progress. Returned by Reader.stream().
+ * <p>
+ *
+ * The read runs on a thread of its own and each chunk of reads (one
+ * tag buffer fetch, one RQL cursor batch) is passed on as soon as it
+ * is parsed. Only a few chunks are held at a time: when the consumer
+ * falls behind, the read waits for it between fetches. Repeated reads
+ * of a tag are dropped as they arrive rather than merged at the end,
+ * so a read's count covers only its own chunk.
+ * <p>
+ *
+ * Reads can be taken a chunk at a time with nextChunk(), or one at a
+ * time through the Iterator view, which reports a failed read as an
+ * IllegalStateException caused by the ReaderException. Call close()
+ * to abandon the read early.
+ */
+public final class TagReadStream implements Iterator<TagReadData>, Iterable<TagReadData>
+{
+  static final int QUEUED_CHUNKS = 4;
+  private static final Object END = new Object();
+
+  private final BlockingQueue<Object> chunks = new ArrayBlockingQueue<Object>(QUEUED_CHUNKS);
+  private volatile boolean closed;
+  private TagReadData[] current;
+  private int index;
+  private boolean ended;
+  private ReaderException failure;
+
+  TagReadStream(final Reader reader, final long duration)
+  {
+    final Sink sink = new Sink(reader);
+    Thread thread = Reader.newThread(reader.threadFactory, new Runnable()
+    {
+      public void run()
+      {
+        Object last = END;
+        try
+        {
+          reader.readInto(duration, sink);
+        }
+        catch (ReaderException re)
+        {
+          last = re;
+        }
+        catch (ClosedException ce)
+        {
+          return;  // nobody is listening
+        }
+        catch (RuntimeException re)
+        {
+          ReaderException e = new ReaderException(re.toString());
+          e.initCause(re);
+          last = e;
+        }
+        try
+        {
+          pass(last);
+        }
+        catch (ClosedException ce)
+        {
+          // closed while waiting for room
+        }
+      }
+    }, "read stream");
+    thread.start();
+  }
+
+  /**
+   * Wait for the next chunk of reads.
+   *
+   * @return the reads of the next chunk, never empty, or null once the
+   * read is over
+   * @throws ReaderException if the read failed
+   */
+  public TagReadData[] nextChunk()
+    throws ReaderException
+  {
+    if (current != null && index < current.length)
+    {
+      // Hand over what the iterator has not consumed yet
+      TagReadData[] rest = new TagReadData[current.length - index];
+      System.arraycopy(current, index, rest, 0, rest.length);
+      current = null;
+      return rest;
+    }
+    current = null;
+    if (failure != null)
+    {
+      throw failure;
+    }
+    if (ended)
+    {
+      return null;
+    }
+    Object o;
+    try
+    {
+      o = chunks.take();
+    }
+    catch (InterruptedException ie)
+    {
+      Thread.currentThread().interrupt();
+      throw new ReaderException("Interrupted while waiting for reads");
+    }
+    if (o == END)
+    {
+      ended = true;
+      return null;
+    }
+    if (o instanceof ReaderException)
+    {
+      ended = true;
+      failure = (ReaderException)o;
+      throw failure;
+    }
+    return (TagReadData[])o;
+  }
+
+  public boolean hasNext()
+  {
+    if (current != null && index < current.length)
+    {
+      return true;
+    }
+    try
+    {
+      current = nextChunk();
+    }
+    catch (ReaderException re)
+    {
+      throw new IllegalStateException(re.getMessage(), re);
+    }
+    index = 0;
+    return current != null;
+  }
+
+  public TagReadData next()
+  {
+    if (!hasNext())
+    {
+      throw new NoSuchElementException();
+    }
+    return current[index++];
+  }
+
+  public void remove()
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  public Iterator<TagReadData> iterator()
+  {
+    return this;
+  }
+
+  /**
+   * Abandon the read. It stops at its next chunk, between commands so
+   * that the reader is left ready for the next one; reads not yet
+   * taken are discarded.
+   */
+  public void close()
+  {
+    closed = true;
+    ended = true;
+    current = null;
+    chunks.clear();
+  }
+
+  /**
+   * Queue a chunk or the outcome for the consumer, waiting for room.
+   *
+   * @throws ClosedException if the stream is closed meanwhile
+   */
+  private void pass(Object o)
+  {
+    try
+    {
+      while (!closed)
+      {
+        if (chunks.offer(o, 100, TimeUnit.MILLISECONDS))
+        {
+          return;
+        }
+      }
+    }
+    catch (InterruptedException ie)
+    {
+      Thread.currentThread().interrupt();
+    }
+    throw new ClosedException();
+  }
+
+  /**
+   * Thrown on the read thread to unwind a read that was closed.
+   */
+  private static class ClosedException extends RuntimeException
+  {
+    private static final long serialVersionUID = 1L;
+  }
+
+  /**
+   * Where the reader puts each chunk of reads. Every chunk is passed on
+   * to the consumer; nothing is kept.
+   */
+  private class Sink implements ReadSink
+  {
+    private final StreamingReadFilter filter = new StreamingReadFilter();
+    private final boolean filtering;
+
+    Sink(Reader reader)
+    {
+      boolean f;
+      try
+      {
+        f = reader.startStreamFilter(filter);
+      }
+      catch (ReaderException re)
+      {
+        f = false;
+      }
+      filtering = f;
+    }
+
+    public void addReads(List<TagReadData> reads)
+    {
+      TagReadData[] chunk = reads.toArray(new TagReadData[reads.size()]);
+      if (filtering)
+      {
+        long now = System.nanoTime() / 1000000;
+        int n = 0;
+        for (TagReadData t : chunk)
+        {
+          if (filter.accept(t, now))
+          {
+            chunk[n++] = t;
+          }
+        }
+        if (n < chunk.length)
+        {
+          TagReadData[] kept = new TagReadData[n];
+          System.arraycopy(chunk, 0, kept, 0, n);
+          chunk = kept;
+        }
+      }
+      if (closed)
+      {
+        throw new ClosedException();
+      }
+      if (chunk.length > 0)
+      {
+        pass(chunk);
+      }
+    }
+  }
+}
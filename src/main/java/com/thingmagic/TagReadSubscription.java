@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One ReadSubscriber's subscription to a Reader.
+ * <p>
+ *
+ * Reads arrive on the reader's delivering thread (the notifier, or a
+ * receive thread) and are buffered until the subscriber has asked for
+ * them. The subscriber is called from drain(), which whichever thread
+ * finds work to do runs, one thread at a time: the delivering thread
+ * when there is demand, or the subscriber's own thread inside
+ * request(). When the buffer is full the delivering thread waits for
+ * the subscriber, unless the reader is stopping.
+ */
+final class TagReadSubscription implements ReadSubscription
+{
+  static final int BUFFER_CAPACITY = 4096;
+  private static final long PARK_NANOS = 10000000L;
+
+  private final Reader reader;
+  private final ReadSubscriber subscriber;
+  private final Queue<TagReadData> buffer = new ConcurrentLinkedQueue<TagReadData>();
+  private final AtomicInteger buffered = new AtomicInteger();
+  private final AtomicLong demand = new AtomicLong();
+  private final AtomicInteger wip = new AtomicInteger();
+  private volatile Thread waitingProducer;
+  private volatile boolean cancelled;
+  private volatile boolean done;
+  private volatile Throwable error;
+
+  TagReadSubscription(Reader reader, ReadSubscriber subscriber)
+  {
+    this.reader = reader;
+    this.subscriber = subscriber;
+  }
+
+  /**
+   * @return whether reading should wait for this subscriber: it is
+   * still live and has asked for no more reads
+   */
+  boolean saturated()
+  {
+    return !cancelled && !done && demand.get() == 0;
+  }
+
+  /**
+   * Buffer a batch of reads and deliver what has been asked for.
+   */
+  void offer(TagReadData[] reads)
+  {
+    for (TagReadData t : reads)
+    {
+      if (buffered.get() >= BUFFER_CAPACITY)
+      {
+        awaitRoom();
+      }
+      if (cancelled)
+      {
+        return;
+      }
+      buffer.offer(t);
+      buffered.incrementAndGet();
+    }
+    drain();
+  }
+
+  private void awaitRoom()
+  {
+    waitingProducer = Thread.currentThread();
+    try
+    {
+      while (buffered.get() >= BUFFER_CAPACITY && !cancelled && !reader.stopping)
+      {
+        LockSupport.parkNanos(this, PARK_NANOS);
+        if (Thread.currentThread().isInterrupted())
+        {
+          return;  // keep the interrupt for the caller
+        }
+      }
+    }
+    finally
+    {
+      waitingProducer = null;
+    }
+  }
+
+  void fail(Throwable t)
+  {
+    if (error == null)
+    {
+      error = t;
+    }
+    drain();
+  }
+
+  /**
+   * Reading has stopped; complete once the buffered reads are delivered.
+   */
+  void complete()
+  {
+    done = true;
+    unparkProducer();
+    drain();
+  }
+
+  public void request(long n)
+  {
+    if (n <= 0)
+    {
+      fail(new IllegalArgumentException("Requested " + n + " reads; must be positive"));
+      return;
+    }
+    while (true)
+    {
+      long d = demand.get();
+      long sum = d + n;
+      if (sum < 0)
+      {
+        sum = Long.MAX_VALUE;
+      }
+      if (demand.compareAndSet(d, sum))
+      {
+        break;
+      }
+    }
+    drain();
+    reader.demandChanged();
+  }
+
+  public void cancel()
+  {
+    if (!cancelled)
+    {
+      terminate();
+    }
+  }
+
+  private void terminate()
+  {
+    cancelled = true;
+    reader.unsubscribe(this);
+    unparkProducer();
+    reader.demandChanged();
+  }
+
+  private void unparkProducer()
+  {
+    Thread p = waitingProducer;
+    if (p != null)
+    {
+      LockSupport.unpark(p);
+    }
+  }
+
+  private void drain()
+  {
+    if (wip.getAndIncrement() != 0)
+    {
+      return;  // the thread draining now will see the new work
+    }
+    int missed = 1;
+    do
+    {
+      while (!cancelled)
+      {
+        Throwable e = error;
+        if (e != null)
+        {
+          terminate();
+          subscriber.onError(e);
+          break;
+        }
+        boolean finished = done;
+        if (buffer.isEmpty())
+        {
+          if (finished)
+          {
+            terminate();
+            subscriber.onComplete();
+          }
+          break;
+        }
+        long d = demand.get();
+        if (d == 0)
+        {
+          break;
+        }
+        TagReadData t = buffer.poll();
+        buffered.decrementAndGet();
+        unparkProducer();
+        if (d != Long.MAX_VALUE)
+        {
+          demand.decrementAndGet();
+        }
+        try
+        {
+          subscriber.onNext(t);
+        }
+        catch (RuntimeException re)
+        {
+          // A subscriber must not throw; treat it as a cancel
+          Logger.getLogger(TagReadSubscription.class.getName())
+            .log(Level.WARNING, "Subscriber " + subscriber + " threw", re);
+          terminate();
+        }
+      }
+      if (cancelled)
+      {
+        buffer.clear();
+        buffered.set(0);
+      }
+      missed = wip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+}
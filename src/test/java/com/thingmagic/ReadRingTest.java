@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReadRingTest
+{
+  private static TagReadData[] batch(int reads)
+  {
+    TagReadData[] b = new TagReadData[reads];
+    for (int i = 0; i < reads; i++)
+    {
+      b[i] = new TagReadData();
+    }
+    return b;
+  }
+
+  private static TagReadData[][] fill(ReadRing ring)
+    throws InterruptedException
+  {
+    TagReadData[][] batches = new TagReadData[ring.capacity()][];
+    for (int i = 0; i < batches.length; i++)
+    {
+      batches[i] = batch(1);
+      ring.put(batches[i]);
+    }
+    return batches;
+  }
+
+  private static void awaitParked(Thread t)
+    throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (t.getState() != Thread.State.TIMED_WAITING
+           && t.getState() != Thread.State.WAITING)
+    {
+      assertTrue("thread never waited", System.currentTimeMillis() < deadline);
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void roundsCapacityUpToAPowerOfTwo()
+  {
+    assertEquals(1, new ReadRing(1, Reader.ReadQueuePolicy.BLOCK).capacity());
+    assertEquals(4, new ReadRing(3, Reader.ReadQueuePolicy.BLOCK).capacity());
+    assertEquals(8, new ReadRing(8, Reader.ReadQueuePolicy.BLOCK).capacity());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsAnEmptyRing()
+  {
+    new ReadRing(0, Reader.ReadQueuePolicy.BLOCK);
+  }
+
+  @Test
+  public void keepsOrderAcrossManyTurnsOfTheRing()
+    throws InterruptedException
+  {
+    ReadRing ring = new ReadRing(4, Reader.ReadQueuePolicy.BLOCK);
+    TagReadData[][] sent = new TagReadData[4][];
+    for (int turn = 0; turn < 25; turn++)
+    {
+      // Start each turn at a different slot, so every slot sees both
+      // full and partly full rings
+      int n = 1 + turn % 4;
+      for (int i = 0; i < n; i++)
+      {
+        sent[i] = batch(1);
+        ring.put(sent[i]);
+      }
+      assertEquals(n, ring.stats().depth);
+      for (int i = 0; i < n; i++)
+      {
+        assertSame(sent[i], ring.take());
+      }
+      assertTrue(ring.isEmpty());
+    }
+    Reader.ReadQueueStats stats = ring.stats();
+    assertEquals(0, stats.depth);
+    assertEquals(4, stats.highWaterMark);
+    assertEquals(0, stats.droppedReads);
+  }
+
+  @Test
+  public void blockWaitsForTheConsumer()
+    throws InterruptedException
+  {
+    final ReadRing ring = new ReadRing(2, Reader.ReadQueuePolicy.BLOCK);
+    TagReadData[][] first = fill(ring);
+    final TagReadData[] last = batch(1);
+    Thread producer = new Thread()
+    {
+      public void run()
+      {
+        try
+        {
+          ring.put(last);
+        }
+        catch (InterruptedException ex)
+        {
+        }
+      }
+    };
+    producer.start();
+    awaitParked(producer);
+    assertEquals(2, ring.stats().depth);
+
+    assertSame(first[0], ring.take());
+    producer.join(5000);
+    assertFalse(producer.isAlive());
+    assertSame(first[1], ring.take());
+    assertSame(last, ring.take());
+    assertEquals(0, ring.stats().droppedReads);
+  }
+
+  @Test
+  public void blockedProducerCanBeInterrupted()
+    throws InterruptedException
+  {
+    final ReadRing ring = new ReadRing(1, Reader.ReadQueuePolicy.BLOCK);
+    TagReadData[][] first = fill(ring);
+    final boolean[] interrupted = new boolean[1];
+    Thread producer = new Thread()
+    {
+      public void run()
+      {
+        try
+        {
+          ring.put(batch(1));
+        }
+        catch (InterruptedException ex)
+        {
+          interrupted[0] = true;
+        }
+      }
+    };
+    producer.start();
+    awaitParked(producer);
+    producer.interrupt();
+    producer.join(5000);
+    assertTrue(interrupted[0]);
+
+    assertSame(first[0], ring.take());
+    assertTrue(ring.isEmpty());
+  }
+
+  @Test
+  public void dropNewestKeepsTheQueuedBatches()
+    throws InterruptedException
+  {
+    ReadRing ring = new ReadRing(2, Reader.ReadQueuePolicy.DROP_NEWEST);
+    TagReadData[][] first = fill(ring);
+    ring.put(batch(3));
+    ring.put(batch(2));
+
+    assertEquals(5, ring.stats().droppedReads);
+    assertSame(first[0], ring.take());
+    assertSame(first[1], ring.take());
+    assertTrue(ring.isEmpty());
+    assertTrue(ring.settled(2));
+  }
+
+  @Test
+  public void dropOldestMakesRoomForEachNewBatch()
+    throws InterruptedException
+  {
+    ReadRing ring = new ReadRing(2, Reader.ReadQueuePolicy.DROP_OLDEST);
+    fill(ring);
+    TagReadData[] a = batch(3);
+    TagReadData[] b = batch(2);
+    ring.put(a);
+    ring.put(b);
+
+    Reader.ReadQueueStats stats = ring.stats();
+    assertEquals(2, stats.depth);
+    assertEquals(2, stats.droppedReads);
+    assertSame(a, ring.take());
+    assertSame(b, ring.take());
+    assertTrue(ring.isEmpty());
+    // Two delivered and two dropped cover all four published batches
+    assertTrue(ring.settled(2));
+  }
+
+  @Test
+  public void sampleLetsOneBatchInEightThrough()
+    throws InterruptedException
+  {
+    ReadRing ring = new ReadRing(2, Reader.ReadQueuePolicy.SAMPLE);
+    TagReadData[][] first = fill(ring);
+    TagReadData[][] over = new TagReadData[ReadRing.SAMPLE_INTERVAL][];
+    for (int i = 0; i < over.length; i++)
+    {
+      over[i] = batch(1);
+      ring.put(over[i]);
+    }
+
+    // The last of the eight displaced the oldest queued batch
+    assertEquals(ReadRing.SAMPLE_INTERVAL, ring.stats().droppedReads);
+    assertSame(first[1], ring.take());
+    assertSame(over[over.length - 1], ring.take());
+    assertTrue(ring.isEmpty());
+    assertTrue(ring.settled(2));
+  }
+
+  @Test
+  public void policyCanChangeWhileFull()
+    throws InterruptedException
+  {
+    ReadRing ring = new ReadRing(1, Reader.ReadQueuePolicy.DROP_NEWEST);
+    fill(ring);
+    ring.setPolicy(Reader.ReadQueuePolicy.DROP_OLDEST);
+    TagReadData[] b = batch(1);
+    ring.put(b);
+    assertSame(Reader.ReadQueuePolicy.DROP_OLDEST, ring.policy());
+    assertSame(b, ring.take());
+  }
+
+  @Test
+  public void notSettledUntilTheTakenBatchIsDelivered()
+    throws InterruptedException
+  {
+    ReadRing ring = new ReadRing(4, Reader.ReadQueuePolicy.BLOCK);
+    assertTrue(ring.settled(0));
+    ring.put(batch(1));
+    ring.take();
+    assertTrue(ring.isEmpty());
+    assertFalse(ring.settled(0));
+    assertTrue(ring.settled(1));
+  }
+
+  @Test(timeout = 10000)
+  public void drainQueueWaitsForEveryBatch()
+    throws Exception
+  {
+    drain(Reader.ReadQueuePolicy.BLOCK, 200, 200);
+  }
+
+  @Test(timeout = 10000)
+  public void drainQueueCompletesWhenBatchesAreDropped()
+    throws Exception
+  {
+    // A slow listener and a small ring, so most batches are dropped
+    // after being published; drainQueue must count them as done
+    drain(Reader.ReadQueuePolicy.DROP_OLDEST, 4, 200);
+  }
+
+  private static void drain(Reader.ReadQueuePolicy policy, int capacity,
+                            int batches)
+    throws Exception
+  {
+    SerialReader r = new SerialReader(new SerialTransportEmulator());
+    r.tagReadQueue = new ReadRing(capacity, policy);
+    final AtomicInteger heard = new AtomicInteger();
+    r.addReadListener(new ReadListener()
+    {
+      public void tagRead(Reader reader, TagReadData t)
+      {
+        try
+        {
+          Thread.sleep(0, 200000);
+        }
+        catch (InterruptedException ex)
+        {
+          Thread.currentThread().interrupt();
+        }
+        heard.incrementAndGet();
+      }
+    });
+    Reader.BackgroundNotifier notifier = r.new BackgroundNotifier();
+    Thread t = new Thread(notifier);
+    t.start();
+    try
+    {
+      for (int i = 0; i < batches; i++)
+      {
+        r.tagReadQueue.put(batch(2));
+      }
+      notifier.drainQueue();
+      long dropped = r.tagReadQueue.stats().droppedReads;
+      // Nothing is left in flight once drainQueue returns
+      assertEquals(2 * batches, heard.get() + dropped);
+      if (policy == Reader.ReadQueuePolicy.BLOCK)
+      {
+        assertEquals(0, dropped);
+      }
+      else if (dropped == 0)
+      {
+        fail("expected the slow listener to cause drops");
+      }
+    }
+    finally
+    {
+      t.interrupt();
+      t.join();
+    }
+  }
+}
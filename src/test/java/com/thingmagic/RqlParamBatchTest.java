@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * paramGetAll and paramSetAll against a fake RQL server that keeps
+ * its fields in a map and counts the statements it is sent.
+ */
+public class RqlParamBatchTest
+{
+  /**
+   * Answers SELECTs from its fields (any unknown field reads as 1) and
+   * applies UPDATEs, refusing the values 999 and gen2Target 3.
+   */
+  static class FakeRqlServer extends Thread
+  {
+    final ServerSocket socket;
+    final Map<String,String> fields = new HashMap<String,String>();
+    final List<String> statements = new ArrayList<String>();
+
+    FakeRqlServer()
+      throws IOException
+    {
+      socket = new ServerSocket(0);
+      setDaemon(true);
+    }
+
+    int port()
+    {
+      return socket.getLocalPort();
+    }
+
+    synchronized int count(String verb)
+    {
+      int n = 0;
+      for (String s : statements)
+      {
+        if (s.toUpperCase().startsWith(verb))
+        {
+          n++;
+        }
+      }
+      return n;
+    }
+
+    synchronized List<String> since(int from)
+    {
+      return new ArrayList<String>(statements.subList(from, statements.size()));
+    }
+
+    synchronized int size()
+    {
+      return statements.size();
+    }
+
+    public void run()
+    {
+      try
+      {
+        Socket s = socket.accept();
+        BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+        Writer out = new OutputStreamWriter(s.getOutputStream());
+        String line;
+        while ((line = in.readLine()) != null)
+        {
+          for (String statement : line.split(";"))
+          {
+            statement = statement.trim();
+            if (statement.length() > 0)
+            {
+              out.write(answer(statement));
+              out.flush();
+            }
+          }
+        }
+      }
+      catch (IOException e)
+      {
+        // The reader went away
+      }
+    }
+
+    private synchronized String answer(String statement)
+    {
+      statements.add(statement);
+      String u = statement.toUpperCase();
+      if (u.startsWith("SELECT"))
+      {
+        StringBuilder row = new StringBuilder();
+        for (String f : statement.substring(6, u.indexOf(" FROM ")).split(","))
+        {
+          f = f.trim();
+          String v = fields.get(f);
+          if (v == null)
+          {
+            v = f.equals("rql_version") ? "rql Built 2011"
+              : f.contains("model") ? "Mercury6" : "1";
+          }
+          row.append(row.length() == 0 ? "" : "|").append(v);
+        }
+        return row + "\n\n";
+      }
+      if (u.startsWith("UPDATE"))
+      {
+        Map<String,String> set = new LinkedHashMap<String,String>();
+        for (String kv : statement.substring(u.indexOf(" SET ") + 5).split(","))
+        {
+          String[] p = kv.split("=", 2);
+          String f = p[0].trim();
+          String v = p[1].trim().replace("'", "");
+          if (v.equals("999") || (f.equals("gen2Target") && v.equals("3")))
+          {
+            return "Error: bad value\n\n";
+          }
+          set.put(f, v);
+        }
+        fields.putAll(set);
+      }
+      return "\n";
+    }
+  }
+
+  private FakeRqlServer server;
+  private RqlReader reader;
+
+  @Before
+  public void connect()
+    throws Exception
+  {
+    server = new FakeRqlServer();
+    server.start();
+    reader = new RqlReader("localhost", server.port());
+    reader.connect();
+  }
+
+  @After
+  public void close()
+    throws IOException
+  {
+    reader.destroy();
+    server.socket.close();
+  }
+
+  private static boolean same(Object a, Object b)
+  {
+    if (a == null || b == null)
+    {
+      return a == b;
+    }
+    if (a.getClass().isArray())
+    {
+      return Arrays.deepEquals(new Object[] {a}, new Object[] {b});
+    }
+    // Several parameter value classes have no equals()
+    return a.equals(b) || a.toString().equals(b.toString());
+  }
+
+  @Test
+  public void getAllMatchesParamGetInFewerSelects()
+    throws Exception
+  {
+    List<String> keys = new ArrayList<String>();
+    Map<String,Object> single = new HashMap<String,Object>();
+    for (String key : reader.paramList())
+    {
+      try
+      {
+        single.put(key, reader.paramGet(key));
+        keys.add(key);
+      }
+      catch (Exception e)
+      {
+        // Not supported against the fake server
+      }
+    }
+    assertTrue(keys.size() > 20);
+
+    reader.invalidateParamCache(true);
+    int before = server.count("SELECT");
+    for (String key : keys)
+    {
+      reader.paramGet(key);
+    }
+    int singleSelects = server.count("SELECT") - before;
+
+    reader.invalidateParamCache(true);
+    before = server.count("SELECT");
+    Map<String,ParamResult> results = reader.paramGetAll(keys.toArray(new String[keys.size()]));
+    int batchSelects = server.count("SELECT") - before;
+
+    assertEquals(keys, new ArrayList<String>(results.keySet()));
+    for (String key : keys)
+    {
+      ParamResult r = results.get(key);
+      assertTrue(key + ": " + r, r.succeeded());
+      assertTrue(key + ": " + single.get(key) + " vs " + r.getValue(),
+                 same(single.get(key), r.getValue()));
+    }
+    assertTrue(batchSelects + " batched vs " + singleSelects,
+               batchSelects * 2 < singleSelects);
+  }
+
+  @Test
+  public void getAllRecordsEachFailureAgainstItsKey()
+  {
+    Map<String,ParamResult> results = reader.paramGetAll(
+      TMConstants.TMR_PARAM_GEN2_SESSION, "/reader/nonexistent", null,
+      TMConstants.TMR_PARAM_GEN2_TARGET);
+
+    assertEquals(4, results.size());
+    assertTrue(results.get(TMConstants.TMR_PARAM_GEN2_SESSION).succeeded());
+    assertTrue(results.get("/reader/nonexistent").getError()
+               instanceof IllegalArgumentException);
+    assertTrue(results.get(null).getError() instanceof NullPointerException);
+    assertTrue(results.get(TMConstants.TMR_PARAM_GEN2_TARGET).succeeded());
+  }
+
+  @Test
+  public void setAllSetsEveryKeyItCan()
+    throws Exception
+  {
+    Map<String,Object> values = new LinkedHashMap<String,Object>();
+    values.put(TMConstants.TMR_PARAM_GEN2_SESSION, Gen2.Session.S2);
+    values.put(TMConstants.TMR_PARAM_GEN2_Q, new Gen2.StaticQ(4));
+    values.put(TMConstants.TMR_PARAM_RADIO_READPOWER, 2000);
+    values.put("/reader/nonexistent", 1);
+    values.put(null, 1);
+    values.put(TMConstants.TMR_PARAM_GEN2_TARGET, Gen2.Target.AB);
+    Map<String,ParamResult> results = reader.paramSetAll(values);
+
+    assertEquals(new ArrayList<String>(values.keySet()),
+                 new ArrayList<String>(results.keySet()));
+    assertFalse(results.get("/reader/nonexistent").succeeded());
+    assertFalse(results.get(null).succeeded());
+    assertEquals(Gen2.Session.S2, reader.paramGet(TMConstants.TMR_PARAM_GEN2_SESSION));
+    assertEquals("StaticQ(4)", reader.paramGet(TMConstants.TMR_PARAM_GEN2_Q).toString());
+    assertEquals(2000, reader.paramGet(TMConstants.TMR_PARAM_RADIO_READPOWER));
+    assertEquals(Gen2.Target.AB, reader.paramGet(TMConstants.TMR_PARAM_GEN2_TARGET));
+  }
+
+  @Test
+  public void refusedMergedUpdateIsBlamedOnTheRightKey()
+    throws Exception
+  {
+    Map<String,Object> values = new LinkedHashMap<String,Object>();
+    values.put(TMConstants.TMR_PARAM_GEN2_TARGET, Gen2.Target.B);
+    values.put(TMConstants.TMR_PARAM_GEN2_Q, new Gen2.StaticQ(5));
+    // With both kept, the setters send without reading first
+    reader.paramGetAll(TMConstants.TMR_PARAM_GEN2_TARGET, TMConstants.TMR_PARAM_GEN2_Q);
+    int from = server.size();
+    Map<String,ParamResult> results = reader.paramSetAll(values);
+
+    // One UPDATE for the table, then one per field once it is refused
+    List<String> sent = server.since(from);
+    assertTrue(sent.toString(), sent.get(0).contains("gen2Target")
+               && sent.get(0).contains("gen2InitQ"));
+    assertTrue(results.get(TMConstants.TMR_PARAM_GEN2_TARGET).getError()
+               instanceof ReaderException);
+    assertTrue(results.get(TMConstants.TMR_PARAM_GEN2_Q).succeeded());
+    assertEquals("StaticQ(5)", reader.paramGet(TMConstants.TMR_PARAM_GEN2_Q).toString());
+  }
+}
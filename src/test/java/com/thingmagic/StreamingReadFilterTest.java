@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StreamingReadFilterTest
+{
+  private final StreamingReadFilter filter = new StreamingReadFilter();
+
+  private static TagReadData read(int tag, int antenna)
+  {
+    TagReadData t = new TagReadData();
+    t.tag = new TagData(new byte[] {(byte)0xE2, 0x00, (byte)(tag >> 8), (byte)tag});
+    t.antenna = antenna;
+    return t;
+  }
+
+  @Test
+  public void dropsRepeatsForGoodWithoutTimeout()
+  {
+    filter.start(false, false, false, 0, 0);
+    assertTrue(filter.accept(read(1, 1), 0));
+    assertFalse(filter.accept(read(1, 2), 10));
+    assertTrue(filter.accept(read(2, 1), 10));
+    assertFalse(filter.accept(read(1, 1), 1000000));
+    assertEquals(2, filter.size());
+  }
+
+  @Test
+  public void passesAgainOnceTheTimeoutExpires()
+  {
+    filter.start(false, false, false, 1000, 0);
+    assertTrue(filter.accept(read(1, 1), 0));
+    assertFalse(filter.accept(read(1, 1), 999));
+    assertTrue(filter.accept(read(1, 1), 1000));
+    assertFalse(filter.accept(read(1, 1), 1999));
+  }
+
+  @Test
+  public void keepsUniqueByAntennaReadsApart()
+  {
+    filter.start(true, false, false, 0, 0);
+    assertTrue(filter.accept(read(1, 1), 0));
+    assertTrue(filter.accept(read(1, 2), 0));
+    assertFalse(filter.accept(read(1, 1), 0));
+  }
+
+  @Test
+  public void expiresAcrossTurnsOfTheWheel()
+  {
+    // A 255 ms timeout makes one tick per millisecond
+    filter.start(false, false, false, 255, 0);
+    long passed = 0;
+    assertTrue(filter.accept(read(1, 1), 0));
+    for (long now = 1; now < 10 * StreamingReadFilter.WHEEL_SIZE; now++)
+    {
+      boolean expected = now - passed >= 255;
+      assertEquals("at " + now, expected, filter.accept(read(1, 1), now));
+      if (expected)
+      {
+        passed = now;
+      }
+    }
+    // A jump of more than a whole turn expires everything at once
+    long now = 20 * StreamingReadFilter.WHEEL_SIZE;
+    assertTrue(filter.accept(read(2, 1), now));
+    assertTrue(filter.accept(read(1, 1), now + 3 * StreamingReadFilter.WHEEL_SIZE));
+    assertEquals(1, filter.size());
+  }
+
+  @Test
+  public void matchesAModelWithSparseTags()
+  {
+    // Few enough tags to stay in the smallest table, where removing an
+    // expired tag has to close gaps in the probe chains of the others
+    checkAgainstModel(60, 1);
+  }
+
+  @Test
+  public void matchesAModelWithManyTags()
+  {
+    checkAgainstModel(2000, 2);
+  }
+
+  private void checkAgainstModel(int tags, long seed)
+  {
+    final int timeout = 255;
+    Random random = new Random(seed);
+    long[] passed = new long[tags];
+    boolean[] live = new boolean[tags];
+    filter.start(false, false, false, timeout, 0);
+    long now = 0;
+    for (int n = 0; n < 200000; n++)
+    {
+      now += (random.nextInt(50) == 0) ? random.nextInt(40) : 0;
+      int tag = random.nextInt(tags);
+      boolean expected = !live[tag] || now - passed[tag] >= timeout;
+      assertEquals("tag " + tag + " at " + now, expected, filter.accept(read(tag, 1), now));
+      if (expected)
+      {
+        passed[tag] = now;
+        live[tag] = true;
+      }
+    }
+    int count = 0;
+    for (int tag = 0; tag < tags; tag++)
+    {
+      if (live[tag] && now - passed[tag] < timeout)
+      {
+        count++;
+      }
+    }
+    assertEquals(count, filter.size());
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2009 ThingMagic, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.thingmagic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TagReadDeduplicatorTest
+{
+  private final TagReadDeduplicator dedup = new TagReadDeduplicator();
+
+  private static TagReadData read(int tag, int antenna, int count, int rssi)
+  {
+    TagReadData t = new TagReadData();
+    t.tag = new TagData(new byte[] {0x30, 0x08, (byte)(tag >> 8), (byte)tag});
+    t.antenna = antenna;
+    t.readCount = count;
+    t.rssi = rssi;
+    return t;
+  }
+
+  @Test
+  public void sumsCountsInFirstSeenOrder()
+  {
+    List<TagReadData> reads = new ArrayList<TagReadData>();
+    TagReadData a = read(1, 1, 2, -60);
+    TagReadData b = read(2, 1, 1, -60);
+    reads.add(a);
+    reads.add(b);
+    reads.add(read(1, 2, 3, -50));
+    reads.add(read(2, 1, 4, -70));
+    reads.add(read(1, 1, 1, -40));
+
+    dedup.removeDuplicates(reads, false, false, false, false);
+
+    assertEquals(2, reads.size());
+    assertSame(a, reads.get(0));
+    assertSame(b, reads.get(1));
+    assertEquals(6, a.readCount);
+    assertEquals(5, b.readCount);
+  }
+
+  @Test
+  public void keepsReadsOnOtherAntennasApartWhenUniqueByAntenna()
+  {
+    List<TagReadData> reads = new ArrayList<TagReadData>();
+    reads.add(read(1, 1, 1, -60));
+    reads.add(read(1, 2, 1, -60));
+    reads.add(read(1, 1, 1, -60));
+
+    dedup.removeDuplicates(reads, true, false, false, false);
+
+    assertEquals(2, reads.size());
+    assertEquals(1, reads.get(0).antenna);
+    assertEquals(2, reads.get(0).readCount);
+    assertEquals(2, reads.get(1).antenna);
+    assertEquals(1, reads.get(1).readCount);
+  }
+
+  @Test
+  public void replacesWithHighestRssiRead()
+  {
+    List<TagReadData> reads = new ArrayList<TagReadData>();
+    reads.add(read(7, 1, 1, -70));
+    reads.add(read(8, 1, 1, -70));
+    TagReadData strongest = read(7, 3, 2, -40);
+    reads.add(strongest);
+    reads.add(read(7, 2, 4, -55));
+
+    dedup.removeDuplicates(reads, false, false, false, true);
+
+    assertEquals(2, reads.size());
+    // The strongest read takes the place of the first, with every count
+    assertSame(strongest, reads.get(0));
+    assertEquals(7, strongest.readCount);
+    assertEquals(3, strongest.antenna);
+  }
+
+  @Test
+  public void mergesEveryRepeatOfAManyTagRead()
+  {
+    // Enough tags for long probe chains in the table
+    List<TagReadData> reads = new ArrayList<TagReadData>();
+    for (int round = 0; round < 3; round++)
+    {
+      for (int tag = 0; tag < 1000; tag++)
+      {
+        reads.add(read(tag, 1, 1, -60));
+      }
+    }
+
+    dedup.removeDuplicates(reads, false, false, false, false);
+
+    assertEquals(1000, reads.size());
+    for (int tag = 0; tag < 1000; tag++)
+    {
+      assertEquals(read(tag, 1, 1, 0).epcString(), reads.get(tag).epcString());
+      assertEquals(3, reads.get(tag).readCount);
+    }
+
+    // The table is reused, smaller, for the next read
+    List<TagReadData> small = new ArrayList<TagReadData>();
+    small.add(read(1, 1, 1, -60));
+    small.add(read(1, 1, 1, -60));
+    dedup.removeDuplicates(small, false, false, false, false);
+    assertEquals(1, small.size());
+    assertEquals(2, small.get(0).readCount);
+  }
+
+  @Test
+  public void findsRepeatedEpcs()
+  {
+    List<TagReadData> reads = new ArrayList<TagReadData>();
+    for (int tag = 0; tag < 200; tag++)
+    {
+      reads.add(read(tag, tag % 4, 1, -60));
+    }
+    assertFalse(dedup.hasRepeatedEpc(reads));
+    reads.add(read(123, 3, 1, -60));
+    assertTrue(dedup.hasRepeatedEpc(reads));
+  }
+}